@@ -0,0 +1,117 @@
+package edu.colorado.thresher.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.SSACFG;
+import com.ibm.wala.ssa.SSAPhiInstruction;
+import com.ibm.wala.util.collections.HashMapFactory;
+
+/**
+ * inputs for the benchmarks, built from one of the test programs under
+ * apps/tests: its call graph, points-to analysis, and dependency rules, plus a
+ * sample of the paths Thresher explores when it tries to witness each rule.
+ * like the regression tests, this expects to be run from the root of a
+ * checkout named thresher, after make tests has built the test programs. each
+ * program is analyzed with the options its suite's regression runner uses
+ *
+ * building a fixture runs the whole analysis, so fixtures are cached per test
+ * program. the solvers of the sampled queries are never disposed, so their
+ * copies stay usable for the life of the fork
+ */
+final class BenchFixture {
+
+  // maximum number of paths sampled per fixture
+  private static final int MAX_PATHS = 2000;
+
+  private static final Map<String, BenchFixture> fixtures = HashMapFactory.make();
+
+  final AbstractDependencyRuleGenerator depRuleGenerator;
+  // non-library nodes of the call graph
+  final List<CGNode> appNodes = new ArrayList<CGNode>();
+  // rules generated for appNodes, except those for phi's
+  final List<DependencyRule> rules = new ArrayList<DependencyRule>();
+  // copies of the paths the executor added to its worklist while trying to witness rules
+  final List<IPathInfo> paths = new ArrayList<IPathInfo>();
+
+  static synchronized BenchFixture get(String test) throws Exception {
+    BenchFixture fixture = fixtures.get(test);
+    if (fixture == null) {
+      fixture = new BenchFixture(test);
+      fixtures.put(test, fixture);
+    }
+    return fixture;
+  }
+
+  private BenchFixture(String test) throws Exception {
+    Util.Print("building benchmark fixture for " + test);
+    // JMH runs each @Param value in its own fork, so fixtures from different suites don't share a JVM
+    Main.REGRESSIONS = true;
+    final String mainClass;
+    if (test.startsWith("regression/")) {
+      // Android leak tests; see Main.runAndroidLeakRegressionTests
+      Options.ANDROID_JAR = "android/android-2.3.jar";
+      Options.ANDROID_LEAK = true;
+      Options.CHECK_CASTS = false;
+      mainClass = "LAct";
+    } else {
+      Util.Assert(test.startsWith("casts/"), "don't know how to set up " + test);
+      // see Main.runCastCheckingRegressionTests
+      Options.ANDROID_LEAK = false;
+      Options.CHECK_CASTS = true;
+      mainClass = "Main";
+    }
+    this.depRuleGenerator = Main.buildCGAndPT("apps/tests/" + test, mainClass, "main");
+    CallGraph cg = depRuleGenerator.getCallGraph();
+    for (CGNode node : cg) {
+      if (WALACallGraphUtil.isLibraryMethod(node) || node.getIR() == null) continue;
+      appNodes.add(node);
+      for (DependencyRule rule : depRuleGenerator.getRulesForNode(node)) {
+        if (rule.getStmt() != null && !(rule.getStmt().getInstr() instanceof SSAPhiInstruction)) rules.add(rule);
+      }
+    }
+    Util.Assert(!rules.isEmpty(), "no rules for " + test);
+
+    // start from each rule the way Main.generateWitness does, sampling the paths we see
+    for (DependencyRule rule : rules) {
+      if (paths.size() >= MAX_PATHS) break;
+      PointerStatement stmt = rule.getStmt();
+      IR ir = rule.getNode().getIR();
+      SSACFG.BasicBlock startBlk = ir.getControlFlowGraph().getBlockForInstruction(stmt.getLineNum());
+      int startLineBlkIndex = WALACFGUtil.findInstrIndexInBlock(stmt.getInstr(), startBlk);
+      IQuery query = new CombinedPathAndPointsToQuery(rule, depRuleGenerator);
+      PathSampler exec = new PathSampler(cg);
+      exec.addPath(new IPathInfo(rule.getNode(), startBlk, startLineBlkIndex - 1, query));
+      // not executeBackward(IPathInfo), which disposes of the query's solver when it's done
+      exec.executeBackward();
+    }
+    Util.Print(appNodes.size() + " nodes, " + rules.size() + " rules, " + paths.size() + " paths in fixture for " + test);
+  }
+
+  /**
+   * @return the sampled paths whose queries are CombinedPathAndPointsToQuery's
+   */
+  List<IPathInfo> getCombinedQueryPaths() {
+    List<IPathInfo> combined = new ArrayList<IPathInfo>(paths.size());
+    for (IPathInfo path : paths) {
+      if (path.query instanceof CombinedPathAndPointsToQuery) combined.add(path);
+    }
+    return combined;
+  }
+
+  private final class PathSampler extends OptimizedPathSensitiveSymbolicExecutor {
+    PathSampler(CallGraph cg) {
+      super(cg, new Logger());
+    }
+
+    @Override
+    public void addPath(IPathInfo path) {
+      if (paths.size() < MAX_PATHS && !path.isDummy() && !path.isLoopMergeIndicator()) paths.add(path.deepCopy());
+      super.addPath(path);
+    }
+  }
+}
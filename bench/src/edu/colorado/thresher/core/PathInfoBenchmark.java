@@ -0,0 +1,85 @@
+package edu.colorado.thresher.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.wala.ssa.SSACFG;
+import com.ibm.wala.util.collections.HashMapFactory;
+import com.ibm.wala.util.collections.HashSetFactory;
+import com.ibm.wala.util.collections.Pair;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * IPathInfo.deepCopy and mergePathWithPathSet on the sampled paths of a
+ * fixture. merging inserts each path into a copy of the set of the other
+ * sampled paths at the same block, as happens at a loop head or join point;
+ * the time includes copying that set
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PathInfoBenchmark {
+
+  @Param({ "regression/BranchInLoopRefute", "casts/IteratorNoRefute" })
+  public String test;
+
+  private List<IPathInfo> paths;
+  private final List<IPathInfo> toMerge = new ArrayList<IPathInfo>();
+  private final List<Set<IPathInfo>> mergeInto = new ArrayList<Set<IPathInfo>>();
+  private int next = 0;
+
+  @Setup
+  public void setup() throws Exception {
+    paths = BenchFixture.get(test).paths;
+    Util.Assert(!paths.isEmpty(), "no paths in fixture for " + test);
+    Map<Pair<Integer, SSACFG.BasicBlock>, List<IPathInfo>> byBlock = HashMapFactory.make();
+    for (IPathInfo path : paths) {
+      if (path.getCurrentBlock() == null) continue;
+      Pair<Integer, SSACFG.BasicBlock> key = Pair.make(path.getCurrentNode().getGraphNodeId(), path.getCurrentBlock());
+      List<IPathInfo> atBlock = byBlock.get(key);
+      if (atBlock == null) {
+        atBlock = new ArrayList<IPathInfo>();
+        byBlock.put(key, atBlock);
+      }
+      atBlock.add(path);
+    }
+    for (List<IPathInfo> atBlock : byBlock.values()) {
+      if (atBlock.size() < 2) continue;
+      for (IPathInfo path : atBlock) {
+        Set<IPathInfo> others = HashSetFactory.make(atBlock);
+        others.remove(path);
+        toMerge.add(path);
+        mergeInto.add(others);
+      }
+    }
+  }
+
+  @Benchmark
+  public IPathInfo deepCopy() {
+    return paths.get(next++ % paths.size()).deepCopy();
+  }
+
+  @Benchmark
+  public boolean mergePathWithPathSet() {
+    if (toMerge.isEmpty()) return false;
+    int i = next++ % toMerge.size();
+    return IPathInfo.mergePathWithPathSet(toMerge.get(i), HashSetFactory.make(mergeInto.get(i)));
+  }
+}
@@ -0,0 +1,103 @@
+package edu.colorado.thresher.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.wala.types.FieldReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PathQuery substitution and feasibility checking on the sampled paths of a
+ * fixture. each operation works on a fresh copy of the query, so the time
+ * includes one CombinedPathAndPointsToQuery.deepCopy (see PathInfoBenchmark)
+ *
+ * isFeasible runs with the feasibility cache off so that it measures the
+ * presolver and Z3. queries are visited round-robin, so consecutive checks
+ * differ the way they do when the executor switches paths
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PathQueryBenchmark {
+
+  @Param({ "regression/BranchInLoopRefute", "casts/IteratorNoRefute" })
+  public String test;
+
+  // x := y: substitute another variable of the query for a variable in its constraints
+  private final List<PathQuery> varQueries = new ArrayList<PathQuery>();
+  private final List<PathTerm> varSubs = new ArrayList<PathTerm>();
+  private final List<PointerVariable> varSubFors = new ArrayList<PointerVariable>();
+  // x.f := non-null: substitute for a field read in the query's constraints
+  private final List<PathQuery> fieldQueries = new ArrayList<PathQuery>();
+  private final List<PointerVariable> fieldSubFors = new ArrayList<PointerVariable>();
+  private final List<FieldReference> fieldNames = new ArrayList<FieldReference>();
+  // queries with path constraints
+  private final List<PathQuery> constrained = new ArrayList<PathQuery>();
+  private int next = 0;
+
+  @Setup
+  public void setup() throws Exception {
+    BenchFixture fixture = BenchFixture.get(test);
+    Options.FEASIBILITY_CACHE_SIZE = 0;
+    for (IPathInfo path : fixture.getCombinedQueryPaths()) {
+      PathQuery query = (PathQuery) path.query;
+      if (query.constraints.isEmpty()) continue;
+      constrained.add(query);
+      List<PointerVariable> vars = new ArrayList<PointerVariable>();
+      for (AtomicPathConstraint constraint : query.constraints) {
+        for (PointerVariable var : constraint.getVars()) {
+          if (!vars.contains(var)) vars.add(var);
+        }
+        for (SimplePathTerm term : constraint.getTerms()) {
+          if (term.hasField() && term.getObject() != null) {
+            fieldQueries.add(query);
+            fieldSubFors.add(term.getObject());
+            fieldNames.add(term.getFirstField());
+          }
+        }
+      }
+      for (int i = 0; i < vars.size(); i++) {
+        varQueries.add(query);
+        // the next variable, or non-null if there's only one
+        varSubs.add(vars.size() > 1 ? new SimplePathTerm(vars.get((i + 1) % vars.size())) : SimplePathTerm.NON_NULL);
+        varSubFors.add(vars.get(i));
+      }
+    }
+    Util.Assert(!constrained.isEmpty(), "no path constraints in fixture for " + test);
+  }
+
+  @Benchmark
+  public boolean substituteExpForVar() {
+    int i = next++ % varQueries.size();
+    return varQueries.get(i).deepCopy().substituteExpForVar(varSubs.get(i), varSubFors.get(i));
+  }
+
+  @Benchmark
+  public PathQuery substituteExpForFieldRead() {
+    if (fieldQueries.isEmpty()) return null;
+    int i = next++ % fieldQueries.size();
+    PathQuery copy = fieldQueries.get(i).deepCopy();
+    copy.substituteExpForFieldRead(SimplePathTerm.NON_NULL, fieldSubFors.get(i), fieldNames.get(i));
+    return copy;
+  }
+
+  @Benchmark
+  public boolean isFeasible() {
+    return constrained.get(next++ % constrained.size()).deepCopy().isFeasible();
+  }
+}
@@ -0,0 +1,86 @@
+package edu.colorado.thresher.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.wala.analysis.pointers.HeapGraph;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PointsToQuery.applyRule and simplifyQuery on the sampled paths of a fixture.
+ * each operation works on a fresh copy of the query, so the time includes one
+ * CombinedPathAndPointsToQuery.deepCopy (see PathInfoBenchmark)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class PointsToQueryBenchmark {
+
+  // maximum number of (query, rule) pairs to apply
+  private static final int MAX_APPLICATIONS = 1000;
+
+  @Param({ "regression/BranchInLoopRefute", "casts/IteratorNoRefute" })
+  public String test;
+
+  private HeapGraph hg;
+  private List<CombinedPathAndPointsToQuery> queries;
+  private List<CombinedPathAndPointsToQuery> applyTo;
+  private List<DependencyRule> applyRules;
+  private int next = 0;
+
+  @Setup
+  public void setup() throws Exception {
+    BenchFixture fixture = BenchFixture.get(test);
+    hg = fixture.depRuleGenerator.getHeapGraph();
+    queries = new ArrayList<CombinedPathAndPointsToQuery>();
+    applyTo = new ArrayList<CombinedPathAndPointsToQuery>();
+    applyRules = new ArrayList<DependencyRule>();
+    for (IPathInfo path : fixture.getCombinedQueryPaths()) {
+      CombinedPathAndPointsToQuery query = (CombinedPathAndPointsToQuery) path.query;
+      queries.add(query);
+      if (applyTo.size() >= MAX_APPLICATIONS) continue;
+      // the rules the executor would apply to this query: relevant ones, bound the way PointsToQuery.visit binds them
+      for (DependencyRule rule : fixture.rules) {
+        if (applyTo.size() >= MAX_APPLICATIONS) break;
+        PointsToQuery copy = query.deepCopy().pointsToQuery;
+        if (!copy.isRuleRelevant(rule, path)) continue;
+        Set<DependencyRule> consistent = copy.isRuleConsistent(rule, new ArrayList<PointsToEdge>(), path.getCurrentNode());
+        if (consistent == null) continue;
+        for (DependencyRule bound : consistent) {
+          applyTo.add(query);
+          applyRules.add(bound);
+        }
+      }
+    }
+    Util.Assert(!queries.isEmpty(), "no queries in fixture for " + test);
+    Util.Assert(!applyTo.isEmpty(), "no applicable rules in fixture for " + test);
+  }
+
+  @Benchmark
+  public boolean applyRule() {
+    int i = next++ % applyTo.size();
+    return PointsToQuery.applyRule(applyRules.get(i), applyTo.get(i).deepCopy().pointsToQuery, hg);
+  }
+
+  @Benchmark
+  public boolean simplifyQuery() {
+    CombinedPathAndPointsToQuery query = queries.get(next++ % queries.size());
+    return PointsToQuery.simplifyQuery(query.deepCopy().pointsToQuery, hg);
+  }
+}
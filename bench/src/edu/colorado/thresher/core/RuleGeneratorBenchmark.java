@@ -0,0 +1,79 @@
+package edu.colorado.thresher.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.SSAInstruction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AbstractDependencyRuleGenerator.visit over the instructions of the
+ * application nodes of a fixture, one instruction per operation. the
+ * generator indexes the rules it generates; the index is emptied before each
+ * operation so it doesn't grow across iterations, and every operation indexes
+ * its rules from scratch. per-invocation setup adds some timing overhead to
+ * each operation, but it's the same for every run
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class RuleGeneratorBenchmark {
+
+  @Param({ "regression/BranchInLoopRefute", "casts/IteratorNoRefute" })
+  public String test;
+
+  private AbstractDependencyRuleGenerator depRuleGenerator;
+  private final List<CGNode> nodes = new ArrayList<CGNode>();
+  private final List<SSAInstruction> instrs = new ArrayList<SSAInstruction>();
+  private final List<Integer> lineNums = new ArrayList<Integer>();
+  private int next = 0;
+
+  @Setup
+  public void setup() throws Exception {
+    BenchFixture fixture = BenchFixture.get(test);
+    depRuleGenerator = fixture.depRuleGenerator;
+    for (CGNode node : fixture.appNodes) {
+      SSAInstruction[] nodeInstrs = node.getIR().getInstructions();
+      for (int i = 0; i < nodeInstrs.length; i++) {
+        if (nodeInstrs[i] == null) continue;
+        nodes.add(node);
+        instrs.add(nodeInstrs[i]);
+        lineNums.add(i);
+      }
+    }
+    Util.Assert(!instrs.isEmpty(), "no instructions in fixture for " + test);
+  }
+
+  @Setup(Level.Invocation)
+  public void clearRuleIndex() {
+    depRuleGenerator.clearRuleIndex();
+  }
+
+  @Benchmark
+  public Set<DependencyRule> visit() {
+    int i = next++ % instrs.size();
+    CGNode node = nodes.get(i);
+    IR ir = node.getIR();
+    // line id just needs to be the same for all instructions in a node
+    return depRuleGenerator.visit(instrs.get(i), node, node.getGraphNodeId(), lineNums.get(i), ir);
+  }
+}
@@ -0,0 +1,13 @@
+#!/bin/bash
+
+# should be run only from Makefile in Thresher root directory
+
+# get JMH and its dependencies for the benchmarks in bench/
+JMH_VERSION=1.37
+MAVEN=https://repo1.maven.org/maven2
+
+mkdir -p lib/jmh && cd lib/jmh
+wget -nc $MAVEN/org/openjdk/jmh/jmh-core/$JMH_VERSION/jmh-core-$JMH_VERSION.jar
+wget -nc $MAVEN/org/openjdk/jmh/jmh-generator-annprocess/$JMH_VERSION/jmh-generator-annprocess-$JMH_VERSION.jar
+wget -nc $MAVEN/net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar
+wget -nc $MAVEN/org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar
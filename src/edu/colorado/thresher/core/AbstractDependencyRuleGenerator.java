@@ -2,11 +2,12 @@ package edu.colorado.thresher.core;
 
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ibm.wala.analysis.pointers.HeapGraph;
 import com.ibm.wala.classLoader.CallSiteReference;
@@ -55,6 +56,8 @@ import com.ibm.wala.util.strings.Atom;
 
 public class AbstractDependencyRuleGenerator {
 
+  static final Metrics.Histogram RULE_GENERATION = Metrics.histogram("rule generation");
+
   private boolean DEBUG;
 
   // map from globally unique line id to call graph nodes containing that line
@@ -62,23 +65,36 @@ public class AbstractDependencyRuleGenerator {
 
   private final Map<IMethod, Integer> methodLineMap;
 
-  // node -> rules transitively generated by that node (i.e. ALL rules generated
-  // by node and callees)
-  private final Map<CGNode, TreeSet<DependencyRule>> nodeAndCalleesRuleMap;
+  // node -> rules generated locally by node, node -> rules transitively
+  // generated by that node (i.e. ALL rules generated by node and callees), and
+  // (node, instruction) -> rules generated by that instruction
+  private final RuleIndex ruleIndex;
+
+  // rules generated by generateAbstractRulesForInstr(), keyed by RuleIndex.makeKey().
+  // handed out with fresh symbolic variables; see freshenSymbolicVars()
+  private final Map<Long, InstrRules> instrRuleCache = new ConcurrentHashMap<Long, InstrRules>();
+
+  // rules for one instruction and the heap graph version they were generated against. refuting an edge
+  // removes it from the heap graph, so rules from an older version may mention refuted edges. reads are
+  // the heap graph nodes generating the rules looked at, or null if we don't know
+  private static final class InstrRules {
+    final int hgVersion;
+    final DependencyRule[] rules;
+    final HeapGraphWrapper.Reads reads;
+
+    InstrRules(int hgVersion, DependencyRule[] rules, HeapGraphWrapper.Reads reads) {
+      this.hgVersion = hgVersion;
+      this.rules = rules;
+      this.reads = reads;
+    }
+  }
 
-  // node -> rules generated locally by node mao
-  private final Map<CGNode, TreeSet<DependencyRule>> nodeRuleMap;
+  // rules stored by earlier runs on the same code; null if there's no cache directory
+  private RuleCache ruleCache = null;
 
   // map from instruction to globally unique line id for that instruction
   private final Map<SSAInstruction, Integer> instrLineMap;
 
-  // TODO: this is a dumb idea...makes us lose context sensitivity
-  // map from instruction to dependency rules associated with that instruction
-  // private Map<SSAInstruction,Set<DependencyRule>> instrModMap;
-
-  // map from (SSAInstruction * context) -> call graph
-  private final Map<String, TreeSet<DependencyRule>> instrModMap;
-
   // a list of nodes that we have already generated dependency rules for so we
   // don't do redundant work
   private final Set<CGNode> alreadyGenerated;
@@ -95,7 +111,7 @@ public class AbstractDependencyRuleGenerator {
   private int lineIdCounter;
 
   private final Map<CGNode, OrdinalSet<PointerKey>> modRef;
-  private Map<PointerKey, Set<CGNode>> reversedModRef;
+  private ReversedModRef reversedModRef;
 
   // generate dependency rules for entire program
   public AbstractDependencyRuleGenerator(CallGraph cg, HeapGraph hg, HeapModel heapModel, 
@@ -113,9 +129,7 @@ public class AbstractDependencyRuleGenerator {
     this.methodLineMap = HashMapFactory.make();
     this.instrLineMap = HashMapFactory.make();
     this.alreadyGenerated = HashSetFactory.make();
-    this.nodeRuleMap = HashMapFactory.make();
-    this.nodeAndCalleesRuleMap = HashMapFactory.make();
-    this.instrModMap = HashMapFactory.make();
+    this.ruleIndex = new RuleIndex();
     this.modRef = modRef;
     this.cache = cache;
   }
@@ -124,11 +138,18 @@ public class AbstractDependencyRuleGenerator {
     rules.clear();
   }
 
+  // forget the rules indexed so far. for benchmarks, which generate the same rules over and over
+  void clearRuleIndex() {
+    ruleIndex.clear();
+  }
+
   static Set<DependencyRule> EMPTY = HashSetFactory.make();//new HashSet<DependencyRule>();
 
-  public Set<DependencyRule> getRulesForNode(CGNode node) {
+  public synchronized Set<DependencyRule> getRulesForNode(CGNode node) {
     this.generateRulesForNode(node);
-    Set<DependencyRule> rules = nodeRuleMap.get(node);
+    // rules added while visiting single instructions since the last publish
+    ruleIndex.publish();
+    Set<DependencyRule> rules = ruleIndex.getRulesForNode(cg.getNumber(node));
     Set<DependencyRule> filtered = filterOutRefuted(rules);
     if (filtered != null)
       return filtered;
@@ -148,7 +169,7 @@ public class AbstractDependencyRuleGenerator {
 
   public Set<DependencyRule> getRulesForNodeAndCallees(CGNode node) {
     Util.Unimp("don't call this.");
-    Set<DependencyRule> rules = this.nodeAndCalleesRuleMap.get(node);
+    Set<DependencyRule> rules = ruleIndex.getRulesForNodeAndCallees(cg.getNumber(node));
     if (rules == null) {
       Set<CGNode> explored = HashSetFactory.make();//new HashSet<CGNode>();
       rules = getRulesForNodeAndCallees(node, explored);
@@ -184,7 +205,7 @@ public class AbstractDependencyRuleGenerator {
           if (rulesForCallee != null)
             rules.addAll(rulesForCallee);
         } else if (!target.equals(node)) { // if this is not a recursive call
-          TreeSet<DependencyRule> rulesForCallee = this.nodeAndCalleesRuleMap.get(target);
+          Set<DependencyRule> rulesForCallee = ruleIndex.getRulesForNodeAndCallees(cg.getNumber(target));
           if (rulesForCallee != null)
             rules.addAll(rulesForCallee);
           else
@@ -196,7 +217,7 @@ public class AbstractDependencyRuleGenerator {
       }
     }
     if (!possibleMutualRecursion)
-      this.nodeAndCalleesRuleMap.put(node, rules);
+      return ruleIndex.putRulesForNodeAndCallees(cg.getNumber(node), rules);
     return rules;
   }
 
@@ -311,7 +332,7 @@ public class AbstractDependencyRuleGenerator {
        * if (nodeRuleMap.get(node) != null) { for (DependencyRule rule :
        * nodeRuleMap.get(node)) { System.err.println(rule); } }
        */
-      return hasRelevantRule(initialCall, nodeRuleMap.get(node), interestingEdges, interestingPathVars);
+      return hasRelevantRule(initialCall, ruleIndex.getRulesForNode(cg.getNumber(node)), interestingEdges, interestingPathVars);
     } else
       alreadyGenerated.add(node);
     // not using built-in visitor because we need index of each SSAInstruction
@@ -354,16 +375,26 @@ public class AbstractDependencyRuleGenerator {
     // see if rule is relevant
     // Set<DependencyRule> rulesForNode = nodeRuleMap.get(node);
 
-    return hasRelevantRule(initialCall, nodeRuleMap.get(node), interestingEdges, interestingPathVars);
+    return hasRelevantRule(initialCall, ruleIndex.getRulesForNode(cg.getNumber(node)), interestingEdges, interestingPathVars);
   }
 
   // returns true if a rule with a produced edge in interestingEdges occurs in a
   // generated rule
   // public boolean generateRulesForNode(CGNode node, Set<PointsToEdge>
   // interestingEdges, Set<PointerVariable> interestingPathVars) {
-  public void generateRulesForNode(CGNode node) {
+  public synchronized void generateRulesForNode(CGNode node) {
     if (!alreadyGenerated.add(node))
       return;
+    PhaseTimer.Split split = PhaseTimer.start();
+    try {
+      generateRulesForNodeInternal(node);
+    } finally {
+      ruleIndex.publish();
+      RULE_GENERATION.record(PhaseTimer.stop(PhaseTimer.RULE_GENERATION, split));
+    }
+  }
+
+  private void generateRulesForNodeInternal(CGNode node) {
     // Util.Debug("generateing rules for " + node);
     int i;
     int lineId = lineIdCounter++;
@@ -434,7 +465,7 @@ public class AbstractDependencyRuleGenerator {
             PointerVariable rhsPointer = Util.makePointerVariable(use);
             PointerStatement stmt = new PointerStatement(instr, lhs, rhsPointer, PointerStatement.EdgeType.Assign, null, lineId,
                 lineNum);
-            Set<InstanceKey> possibleRHSs = HashSetFactory.make();//new HashSet<InstanceKey>();
+            Set<InstanceKey> possibleRHSs = new InstanceKeySet(pa);//new HashSet<InstanceKey>();
             Iterator<Object> iter = hg.getSuccNodes(use);
             while (iter.hasNext()) {
               Object next = iter.next();
@@ -445,8 +476,8 @@ public class AbstractDependencyRuleGenerator {
               continue;
             TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
             PointerVariable rhs = SymbolicPointerVariable.makeSymbolicVar(possibleRHSs);
-            PointsToEdge shown = new PointsToEdge(lhs, rhs);
-            PointsToEdge toShow = new PointsToEdge(rhsPointer, rhs);
+            PointsToEdge shown = PointsToEdge.make(lhs, rhs);
+            PointsToEdge toShow = PointsToEdge.make(rhsPointer, rhs);
             toShowSet.add(toShow);
             DependencyRule rule = new DependencyRule(shown, stmt, toShowSet, node, (SSACFG.BasicBlock) node.getIR()
                 .getBasicBlockForInstruction(instr));
@@ -470,7 +501,7 @@ public class AbstractDependencyRuleGenerator {
         PointerVariable rhsPointer = Util.makePointerVariable(returnValue);
         PointerStatement stmt = new PointerStatement(instr, lhs, rhsPointer, PointerStatement.EdgeType.Assign, null, lineId,
             lineNum);
-        Set<InstanceKey> possibleRHSs = HashSetFactory.make();
+        Set<InstanceKey> possibleRHSs = new InstanceKeySet(pa);
         Iterator<Object> iter = hg.getSuccNodes(returnValue);
         while (iter.hasNext()) {
           Object next = iter.next();
@@ -480,8 +511,8 @@ public class AbstractDependencyRuleGenerator {
         if (possibleRHSs.isEmpty()) return rules;
         TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
         PointerVariable rhs = SymbolicPointerVariable.makeSymbolicVar(possibleRHSs);
-        PointsToEdge shown = new PointsToEdge(rhsPointer, rhs);
-        PointsToEdge toShow = new PointsToEdge(lhs, rhs);
+        PointsToEdge shown = PointsToEdge.make(rhsPointer, rhs);
+        PointsToEdge toShow = PointsToEdge.make(lhs, rhs);
         toShowSet.add(toShow);
         DependencyRule rule = new DependencyRule(shown, stmt, toShowSet, node, (SSACFG.BasicBlock) node.getIR()
             .getBasicBlockForInstruction(instr));
@@ -518,8 +549,8 @@ public class AbstractDependencyRuleGenerator {
           PointerStatement stmt = Util.makePointerStatement(instr, lhs, rhsPointerName, PointerStatement.EdgeType.GetField,
               fieldName, lineId, lineNum);
 
-          Set<InstanceKey> possibleXObjs = HashSetFactory.make();// new HashSet<InstanceKey>();
-          Set<InstanceKey> possibleFVals = HashSetFactory.make();//new HashSet<InstanceKey>();
+          Set<InstanceKey> possibleXObjs = new InstanceKeySet(pa);// new HashSet<InstanceKey>();
+          Set<InstanceKey> possibleFVals = new InstanceKeySet(pa);//new HashSet<InstanceKey>();
           Iterator<Object> iter = hg.getSuccNodes(refKey);
           while (iter.hasNext()) { // see what abstract loc's x could possible
                                    // point to
@@ -544,8 +575,8 @@ public class AbstractDependencyRuleGenerator {
           PointerVariable xObj = SymbolicPointerVariable.makeSymbolicVar(possibleXObjs);
           PointerVariable yVal = SymbolicPointerVariable.makeSymbolicVar(possibleFVals);
           TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
-          PointsToEdge shown = new PointsToEdge(lhs, yVal);
-          PointsToEdge toShow0 = PointsToEdge.make(rhsPointerName, xObj, null), toShow1 = new PointsToEdge(xObj, yVal, field);
+          PointsToEdge shown = PointsToEdge.make(lhs, yVal);
+          PointsToEdge toShow0 = PointsToEdge.make(rhsPointerName, xObj), toShow1 = PointsToEdge.make(xObj, yVal, field);
           toShowSet.add(toShow0);
           toShowSet.add(toShow1);
           DependencyRule rule = new DependencyRule(shown, stmt, toShowSet, node,
@@ -626,7 +657,7 @@ public class AbstractDependencyRuleGenerator {
       // generate dependency rule for each possible value of rhs
       // Iterator<Object> ptValues = hg.getSuccNodes(lhsKey);
       Iterator<Object> ptValues = hg.getSuccNodes(rhsKey);
-      Set<InstanceKey> possibleKeys = HashSetFactory.make();// new HashSet<InstanceKey>();
+      Set<InstanceKey> possibleKeys = new InstanceKeySet(pa);// new HashSet<InstanceKey>();
       while (ptValues.hasNext()) {
         Object next = ptValues.next();
         Util.Assert(next instanceof InstanceKey, "found non-instance key " + next);
@@ -634,8 +665,8 @@ public class AbstractDependencyRuleGenerator {
       }
       if (possibleKeys.isEmpty()) return rules;
       PointerVariable rhs = SymbolicPointerVariable.makeSymbolicVar(possibleKeys);
-      PointsToEdge shown = new PointsToEdge(lhs, rhs, staticLhs);
-      PointsToEdge toShow = new PointsToEdge(rhsPointer, rhs, staticRhs);
+      PointsToEdge shown = PointsToEdge.make(lhs, rhs, staticLhs);
+      PointsToEdge toShow = PointsToEdge.make(rhsPointer, rhs, staticRhs);
       TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
       toShowSet.add(toShow);
       DependencyRule rule = new DependencyRule(shown, stmt, toShowSet, node, (SSACFG.BasicBlock) node.getIR()
@@ -668,8 +699,8 @@ public class AbstractDependencyRuleGenerator {
         }
 
         PointerVariable typeVar = Util.makePointerVariable(new ConcreteTypeKey(clazz));
-        PointerVariable lhs = new ConcretePointerVariable(node, instr.getDef(), this.hm);
-        PointsToEdge edge = new PointsToEdge(lhs, typeVar);
+        PointerVariable lhs = ConcretePointerVariable.make(node, instr.getDef(), this.hm);
+        PointsToEdge edge = PointsToEdge.make(lhs, typeVar);
         PointerStatement stmt = Util.makePointerStatement(instr, lhs, typeVar, PointerStatement.EdgeType.Assign,
             null, lineId, lineNum);
         rules.add(new DependencyRule(edge, stmt, new TreeSet<PointsToEdge>(), node, 
@@ -732,21 +763,21 @@ public class AbstractDependencyRuleGenerator {
     for (CGNode callee : callees) {
       if (instr.hasDef()) {
         // generate return value rule
-        PointerVariable lhs = new ConcretePointerVariable(node, instr.getDef(), hm);
+        PointerVariable lhs = ConcretePointerVariable.make(node, instr.getDef(), hm);
         PointerVariable retval = Util.makeReturnValuePointer(callee, hm);
         if (retval == null) continue;
         PointerStatement stmt = Util.makePointerStatement(instr, lhs, retval, PointerStatement.EdgeType.Assign, null, lineId,
             lineNum);
         Iterator<Object> retvalSuccs = hg.getSuccNodes(retval.getInstanceKey());
-        Set<InstanceKey> possibleRetvals = HashSetFactory.make();
+        Set<InstanceKey> possibleRetvals = new InstanceKeySet(pa);
         while (retvalSuccs.hasNext()) {
           possibleRetvals.add((InstanceKey) retvalSuccs.next());
         }
         if (!possibleRetvals.isEmpty()) {
           PointerVariable succ = SymbolicPointerVariable.makeSymbolicVar(possibleRetvals);
-          PointsToEdge shown = new PointsToEdge(lhs, succ);
+          PointsToEdge shown = PointsToEdge.make(lhs, succ);
           TreeSet<PointsToEdge> toShow = new TreeSet<PointsToEdge>();
-          PointsToEdge toShowEdge = new PointsToEdge(retval, succ);
+          PointsToEdge toShowEdge = PointsToEdge.make(retval, succ);
           if (!toShowEdge.containsStringConst()) toShow.add(toShowEdge);
           DependencyRule rule = new DependencyRule(shown, stmt, toShow, node,
               (SSACFG.BasicBlock) ir.getBasicBlockForInstruction(instr));
@@ -759,13 +790,13 @@ public class AbstractDependencyRuleGenerator {
       for (int j = 0; j < instr.getNumberOfUses(); j++) {
         int localValNum = instr.getUse(j);
         if (tbl.isNullConstant(localValNum)) continue; 
-        PointerVariable lhs = new ConcretePointerVariable(hm.getPointerKeyForLocal(callee, j + 1), callee, j + 1);
+        PointerVariable lhs = ConcretePointerVariable.make(hm.getPointerKeyForLocal(callee, j + 1), callee, j + 1);
         PointerKey rhsKey = hm.getPointerKeyForLocal(node, localValNum);
         PointerVariable rhsPointer = Util.makePointerVariable(rhsKey);
         PointerStatement stmt = Util.makePointerStatement(instr, lhs, rhsPointer, PointerStatement.EdgeType.Assign, null, lineId,
             lineNum);
         
-        Set<InstanceKey> possibleParamVals = HashSetFactory.make();
+        Set<InstanceKey> possibleParamVals = new InstanceKeySet(pa);
 
         // consider possible values for rhs
         Iterator<Object> ptValues = hg.getSuccNodes(rhsKey);
@@ -780,8 +811,8 @@ public class AbstractDependencyRuleGenerator {
         TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
         PointerVariable paramVal = SymbolicPointerVariable.makeSymbolicVar(possibleParamVals);
 
-        PointsToEdge shown = new PointsToEdge(lhs, paramVal);
-        PointsToEdge toShowEdge = new PointsToEdge(rhsPointer, paramVal);
+        PointsToEdge shown = PointsToEdge.make(lhs, paramVal);
+        PointsToEdge toShowEdge = PointsToEdge.make(rhsPointer, paramVal);
         if (!toShowEdge.containsStringConst()) toShowSet.add(toShowEdge);
         DependencyRule rule = new DependencyRule(shown, stmt, toShowSet, node,
             (SSACFG.BasicBlock) ir.getBasicBlockForInstruction(instr));
@@ -909,7 +940,7 @@ public class AbstractDependencyRuleGenerator {
         // Util.Debug("generating call rules for " + callee);
         if (instr.hasDef()) {
           // generate return value rule
-          PointerVariable lhs = new ConcretePointerVariable(node, instr.getDef(), hm);
+          PointerVariable lhs = ConcretePointerVariable.make(node, instr.getDef(), hm);
           PointerVariable retval = Util.makeReturnValuePointer(callee, hm);
           PointerStatement stmt = Util.makePointerStatement(instr, lhs, retval, PointerStatement.EdgeType.Assign, null, lineId,
               lineNum);
@@ -917,9 +948,9 @@ public class AbstractDependencyRuleGenerator {
           while (retvalSuccs.hasNext()) {
             PointerVariable succ = Util.makePointerVariable(retvalSuccs.next());
             if (succ == null) continue; // makePointerVariable() can return null for exception literals
-            PointsToEdge shown = new PointsToEdge(lhs, succ);
+            PointsToEdge shown = PointsToEdge.make(lhs, succ);
             TreeSet<PointsToEdge> toShow = new TreeSet<PointsToEdge>();
-            toShow.add(new PointsToEdge(retval, succ));
+            toShow.add(PointsToEdge.make(retval, succ));
             DependencyRule rule = new DependencyRule(shown, stmt, toShow, node,
                 (SSACFG.BasicBlock) ir.getBasicBlockForInstruction(instr));
             addRule(rule, instr, node);
@@ -933,7 +964,7 @@ public class AbstractDependencyRuleGenerator {
         for (int j = 0; j < instruction.getNumberOfUses(); j++) {
           int localValNum = instruction.getUse(j);
           if (tbl.isNullConstant(localValNum)) continue;
-          PointerVariable lhs = new ConcretePointerVariable(hm.getPointerKeyForLocal(callee, j + 1), callee, j + 1);
+          PointerVariable lhs = ConcretePointerVariable.make(hm.getPointerKeyForLocal(callee, j + 1), callee, j + 1);
           PointerKey rhsKey = hm.getPointerKeyForLocal(node, localValNum);
           PointerVariable rhsPointer = Util.makePointerVariable(rhsKey);
           if (rhsPointer == null) continue;
@@ -945,8 +976,8 @@ public class AbstractDependencyRuleGenerator {
             PointerVariable rhs = Util.makePointerVariable(ptValues.next());
             if (rhs == null) continue;
             if (rhs != null) {
-              PointsToEdge shown = new PointsToEdge(lhs, rhs);
-              PointsToEdge toShow = new PointsToEdge(rhsPointer, rhs);
+              PointsToEdge shown = PointsToEdge.make(lhs, rhs);
+              PointsToEdge toShow = PointsToEdge.make(rhsPointer, rhs);
               TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
               if (!toShow.containsStringConst())
                 toShowSet.add(toShow);
@@ -1043,8 +1074,8 @@ public class AbstractDependencyRuleGenerator {
                   // generate dependency rule
                   PointerVariable rhs = Util.makePointerVariable(rhsObj);
                   if (rhs != null) {
-                    PointsToEdge shown = new PointsToEdge(lhs, rhs);
-                    PointsToEdge toShow0 = PointsToEdge.make(rhsPointerName, rhsPointer, null);
+                    PointsToEdge shown = PointsToEdge.make(lhs, rhs);
+                    PointsToEdge toShow0 = PointsToEdge.make(rhsPointerName, rhsPointer);
                     PointsToEdge toShow1 = PointsToEdge.make(rhsPointer, rhs, ifk);
 
                     TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
@@ -1154,8 +1185,8 @@ public class AbstractDependencyRuleGenerator {
     while (ptValues.hasNext()) {
       PointerVariable rhs = Util.makePointerVariable(ptValues.next());
       if (rhs != null) {
-        PointsToEdge shown = new PointsToEdge(rhsPointer, rhs);
-        PointsToEdge toShow = new PointsToEdge(lhs, rhs);
+        PointsToEdge shown = PointsToEdge.make(rhsPointer, rhs);
+        PointsToEdge toShow = PointsToEdge.make(lhs, rhs);
         TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
         if (!toShow.containsStringConst())
           toShowSet.add(toShow);
@@ -1187,8 +1218,8 @@ public class AbstractDependencyRuleGenerator {
     while (ptValues.hasNext()) {
       PointerVariable rhs = Util.makePointerVariable(ptValues.next());
       if (rhs != null) {
-        PointsToEdge shown = new PointsToEdge(lhs, rhs, staticLhs);
-        PointsToEdge toShow = new PointsToEdge(rhsPointer, rhs, staticRhs);
+        PointsToEdge shown = PointsToEdge.make(lhs, rhs, staticLhs);
+        PointsToEdge toShow = PointsToEdge.make(rhsPointer, rhs, staticRhs);
         TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
         if (!toShow.containsStringConst())
           toShowSet.add(toShow);
@@ -1217,7 +1248,7 @@ public class AbstractDependencyRuleGenerator {
     // generate dependency rule for each possible value of rhs
     // Iterator<Object> ptValues = hg.getSuccNodes(lhsKey);
     Iterator<Object> ptValues = hg.getSuccNodes(rhsKey);
-    Set<InstanceKey> possibleKeys = HashSetFactory.make();// new HashSet<InstanceKey>();
+    Set<InstanceKey> possibleKeys = new InstanceKeySet(pa);// new HashSet<InstanceKey>();
     while (ptValues.hasNext()) {
       Object next = ptValues.next();
       Util.Assert(next instanceof InstanceKey, "found non-instance key " + next);
@@ -1225,8 +1256,8 @@ public class AbstractDependencyRuleGenerator {
     }
     if (possibleKeys.isEmpty()) return rules;
     PointerVariable rhs = SymbolicPointerVariable.makeSymbolicVar(possibleKeys);
-    PointsToEdge shown = new PointsToEdge(lhs, rhs, staticLhs);
-    PointsToEdge toShow = new PointsToEdge(rhsPointer, rhs, staticRhs);
+    PointsToEdge shown = PointsToEdge.make(lhs, rhs, staticLhs);
+    PointsToEdge toShow = PointsToEdge.make(rhsPointer, rhs, staticRhs);
     TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
     toShowSet.add(toShow);
     DependencyRule rule = new DependencyRule(shown, stmt, toShowSet, node, (SSACFG.BasicBlock) node.getIR()
@@ -1248,8 +1279,8 @@ public class AbstractDependencyRuleGenerator {
     while (ptValues.hasNext()) {
       PointerVariable rhs = Util.makePointerVariable(ptValues.next());
       if (rhs != null) {
-        PointsToEdge shown = new PointsToEdge(lhs, rhs);
-        PointsToEdge toShow = new PointsToEdge(rhsPointer, rhs);
+        PointsToEdge shown = PointsToEdge.make(lhs, rhs);
+        PointsToEdge toShow = PointsToEdge.make(rhsPointer, rhs);
         TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
         if (!toShow.containsStringConst())
           toShowSet.add(toShow);
@@ -1287,13 +1318,13 @@ public class AbstractDependencyRuleGenerator {
       // Util.Debug("field value " + fieldKey);
       PointerVariable fieldPointer = Util.makePointerVariable(fieldKey);
       if (fieldPointer != null) {
-        PointsToEdge toShow0 = PointsToEdge.make(lhs, fieldPointer, null);
+        PointsToEdge toShow0 = PointsToEdge.make(lhs, fieldPointer);
         // consider possible values for y
         Iterator<Object> ptValues = hg.getSuccNodes(rhsKey);
         if (!ptValues.hasNext()) {
           // rhs is a constant
-          PointerVariable rhs = new ConcretePointerVariable("CONST");
-          PointsToEdge shown = new PointsToEdge(fieldPointer, rhs, new InstanceFieldKey(fieldKey, field));
+          PointerVariable rhs = ConcretePointerVariable.make("CONST");
+          PointsToEdge shown = PointsToEdge.make(fieldPointer, rhs, new InstanceFieldKey(fieldKey, field));
           DependencyRule rule = new DependencyRule(shown, stmt, new TreeSet<PointsToEdge>(), node, (SSACFG.BasicBlock) node.getIR()
               .getBasicBlockForInstruction(instr));
           // Util.Debug("adding const rule " + rule);
@@ -1308,8 +1339,8 @@ public class AbstractDependencyRuleGenerator {
           // Util.Debug("rhs " + rhs);
           if (rhs != null) {
             if (!selfAssignment || rhs.equals(lhs)) {
-              PointsToEdge shown = new PointsToEdge(fieldPointer, rhs, new InstanceFieldKey(fieldKey, field));
-              PointsToEdge toShow1 = new PointsToEdge(rhsPointer, rhs);
+              PointsToEdge shown = PointsToEdge.make(fieldPointer, rhs, new InstanceFieldKey(fieldKey, field));
+              PointsToEdge toShow1 = PointsToEdge.make(rhsPointer, rhs);
               if (!toShow1.containsStringConst())
                 toShowSet.add(toShow1);
               DependencyRule rule = new DependencyRule(shown, stmt, toShowSet, node, (SSACFG.BasicBlock) node.getIR()
@@ -1338,7 +1369,7 @@ public class AbstractDependencyRuleGenerator {
     PointerStatement stmt = Util.makePointerStatement(instr, x, y, PointerStatement.EdgeType.PutField, field.toString(), lineId,
         lineNum);
 
-    Set<InstanceKey> possibleXObjs = HashSetFactory.make(), possibleYVals = HashSetFactory.make();
+    Set<InstanceKey> possibleXObjs = new InstanceKeySet(pa), possibleYVals = new InstanceKeySet(pa);
     // consider possible values for x
     Iterator<Object> fieldValues = hg.getSuccNodes(lhsKey);
     while (fieldValues.hasNext()) {
@@ -1364,9 +1395,9 @@ public class AbstractDependencyRuleGenerator {
     else
       yVal = xObj;
 
-    PointsToEdge shown = new PointsToEdge(xObj, yVal, field);
-    PointsToEdge toShow0 = PointsToEdge.make(x, xObj, null);
-    PointsToEdge toShow1 = new PointsToEdge(y, yVal);
+    PointsToEdge shown = PointsToEdge.make(xObj, yVal, field);
+    PointsToEdge toShow0 = PointsToEdge.make(x, xObj);
+    PointsToEdge toShow1 = PointsToEdge.make(y, yVal);
     TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
     toShowSet.add(toShow0);
     toShowSet.add(toShow1);
@@ -1390,7 +1421,7 @@ public class AbstractDependencyRuleGenerator {
       InstanceKey fieldKey = (InstanceKey) fieldValues.next();
       PointerVariable fieldPointer = Util.makePointerVariable(fieldKey);
       if (fieldPointer != null) {
-        PointsToEdge toShow0 = PointsToEdge.make(lhs, fieldPointer, null);
+        PointsToEdge toShow0 = PointsToEdge.make(lhs, fieldPointer);
         // consider possible values for y
         Iterator<Object> ptValues = hg.getSuccNodes(rhsKey);
         while (ptValues.hasNext()) {
@@ -1400,8 +1431,8 @@ public class AbstractDependencyRuleGenerator {
           InstanceKey rhsInstance = (InstanceKey) ptValues.next();
           PointerVariable rhs = Util.makePointerVariable(rhsInstance);
           if (rhs != null) {
-            PointsToEdge shown = new PointsToEdge(fieldPointer, rhs, new ArrayContentsKey(fieldKey));
-            PointsToEdge toShow1 = new PointsToEdge(rhsPointer, rhs);
+            PointsToEdge shown = PointsToEdge.make(fieldPointer, rhs, new ArrayContentsKey(fieldKey));
+            PointsToEdge toShow1 = PointsToEdge.make(rhsPointer, rhs);
             if (!toShow1.containsStringConst())
               toShowSet.add(toShow1);
             DependencyRule rule = new DependencyRule(shown, stmt, toShowSet, node, (SSACFG.BasicBlock) node.getIR()
@@ -1424,8 +1455,8 @@ public class AbstractDependencyRuleGenerator {
     PointerStatement stmt = Util.makePointerStatement(instr, lhs, rhsPointer, PointerStatement.EdgeType.PutField,
         PointerStatement.ARRAY, lineId, lineNum);
 
-    Set<InstanceKey> possibleXValues = HashSetFactory.make();//new HashSet<InstanceKey>();
-    Set<InstanceKey> possibleYValues = HashSetFactory.make();//new HashSet<InstanceKey>();new HashSet<InstanceKey>();
+    Set<InstanceKey> possibleXValues = new InstanceKeySet(pa);//new HashSet<InstanceKey>();
+    Set<InstanceKey> possibleYValues = new InstanceKeySet(pa);//new HashSet<InstanceKey>();new HashSet<InstanceKey>();
 
     // consider possible values for x
     Iterator<Object> xValues = hg.getSuccNodes(lhsKey);
@@ -1446,10 +1477,10 @@ public class AbstractDependencyRuleGenerator {
     PointerVariable xVal = SymbolicPointerVariable.makeSymbolicVar(possibleXValues);
     PointerVariable yVal = SymbolicPointerVariable.makeSymbolicVar(possibleYValues);
 
-    PointsToEdge shown = new PointsToEdge(xVal, yVal, ARRAY_CONTENTS);
+    PointsToEdge shown = PointsToEdge.make(xVal, yVal, ARRAY_CONTENTS);
     TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
-    PointsToEdge toShow0 = PointsToEdge.make(lhs, xVal, null);
-    PointsToEdge toShow1 = new PointsToEdge(rhsPointer, yVal);
+    PointsToEdge toShow0 = PointsToEdge.make(lhs, xVal);
+    PointsToEdge toShow1 = PointsToEdge.make(rhsPointer, yVal);
     toShowSet.add(toShow0);
     toShowSet.add(toShow1);
     DependencyRule rule = new DependencyRule(shown, stmt, toShowSet, node, (SSACFG.BasicBlock) node.getIR()
@@ -1473,7 +1504,7 @@ public class AbstractDependencyRuleGenerator {
    * while (fieldValues.hasNext()) { PointerVariable fieldPointer =
    * Util.makePointerVariable(fieldValues.next()); //PointerVariable
    * fieldPointer = Util.makeSymbolicPointerVariable(fieldValues.next());
-   * PointsToEdge toShow0 = new PointsToEdge(lhs, fieldPointer, null); //
+   * PointsToEdge toShow0 = PointsToEdge.make(lhs, fieldPointer); //
    * consider possible values for rhs
    * 
    * Iterator ptValues = hg.getSuccNodes(rhsKey);
@@ -1486,7 +1517,7 @@ public class AbstractDependencyRuleGenerator {
    * toShowSet.add(toShow0); PointerVariable rhs =
    * Util.makePointerVariable(ptValues.next()); PointsToEdge shown = new
    * PointsToEdge(fieldPointer, rhs, stmt.getFieldName()); PointsToEdge toShow1
-   * = new PointsToEdge(rhsPointer, rhs, null); if
+   * = PointsToEdge.make(rhsPointer, rhs); if
    * (!toShow1.containsStringConst()) toShowSet.add(toShow1); DependencyRule
    * rule = new DependencyRule(shown, stmt, toShowSet, node, (SSACFG.BasicBlock)
    * node.getIR().getBasicBlockForInstruction(instr));
@@ -1534,46 +1565,116 @@ public class AbstractDependencyRuleGenerator {
 
   }
 
-  public static String makeKeyForInstr(SSAInstruction instr, CGNode node) {
-    StringBuilder builder = new StringBuilder();
-    builder.append(instr.toString());
-    builder.append(" & ");
-    builder.append(node.toString());
-    return builder.toString();
-  }
-
-  private void addRule(DependencyRule rule, SSAInstruction instr, CGNode node) {
+  private synchronized void addRule(DependencyRule rule, SSAInstruction instr, CGNode node) {
     if (rule != null) {
       // if (DEBUG) System.out.println(rule);
       // System.out.println("THIS RULE: " + rule + " " + rule.hashCode());
       // System.out.println("contains? " + rules.contains(rule));
       // System.out.println(rules.add(rule));
       // rules.put(rule.hashCode(), rule);
+      // System.err.println("ADDING RULE " + rule + " for " + instr);
+      ruleIndex.add(cg.getNumber(node), instr, rule);
+    }
+  }
 
-      String instrKey = makeKeyForInstr(instr, node);
-      TreeSet<DependencyRule> mods = instrModMap.get(instrKey);
-      if (mods == null) {
-        mods = new TreeSet<DependencyRule>();
-        instrModMap.put(instrKey, mods);
+  /**
+   * @return copies of @param rules in which each symbolic variable is replaced
+   *         by a fresh one with the same possible values. every visit to an
+   *         instruction must introduce its own symbolic variables; otherwise
+   *         two visits (e.g., two loop iterations) would claim to see the same
+   *         unknown object
+   */
+  private static Set<DependencyRule> freshenSymbolicVars(DependencyRule[] rules) {
+    // a variable may be shared by several rules for the instruction; give it one replacement
+    Map<SymbolicPointerVariable, PointerVariable> subMap = new IdentityHashMap<SymbolicPointerVariable, PointerVariable>();
+    for (DependencyRule rule : rules) {
+      addFreshVars(rule.getShown(), subMap);
+      for (PointsToEdge edge : rule.getToShow()) {
+        addFreshVars(edge, subMap);
+      }
+    }
+    Set<DependencyRule> fresh = new TreeSet<DependencyRule>();
+    for (DependencyRule rule : rules) {
+      fresh.add(rule.substitute(subMap));
+    }
+    return fresh;
+  }
+
+  private static void addFreshVars(PointsToEdge edge, Map<SymbolicPointerVariable, PointerVariable> subMap) {
+    for (PointerVariable var : new PointerVariable[] { edge.getSource(), edge.getSink() }) {
+      if (var instanceof SymbolicPointerVariable && !subMap.containsKey(var)) {
+        SymbolicPointerVariable symb = (SymbolicPointerVariable) var;
+        subMap.put(symb, new SymbolicPointerVariable(InstanceKeySet.copyOf(symb.getPossibleValues())));
       }
-      mods.add(rule);
-      TreeSet<DependencyRule> rules = nodeRuleMap.get(node);
-      if (rules == null)
-        rules = new TreeSet<DependencyRule>();
-      rules.add(rule);
-      // System.err.println("ADDING RULE " + rule + " for " + instr);
-      nodeRuleMap.put(node, rules);
     }
   }
 
+  /**
+   * @return a number that changes whenever an edge is removed from the heap
+   *         graph, which changes the rules we generate
+   */
+  int getHeapGraphVersion() {
+    return hg instanceof HeapGraphWrapper ? ((HeapGraphWrapper) hg).getVersion() : 0;
+  }
+
+  /**
+   * @return fingerprint of the edges removed from the heap graph so far; see
+   *         HeapGraphWrapper.getIgnoredFingerprint()
+   */
+  long getIgnoredFingerprint() {
+    return hg instanceof HeapGraphWrapper ? ((HeapGraphWrapper) hg).getIgnoredFingerprint() : 0;
+  }
+
+  public void setRuleCache(RuleCache ruleCache) {
+    this.ruleCache = ruleCache;
+  }
+
+  /**
+   * write out the rules generated or reused in this run, if there's a cache
+   */
+  public void saveRuleCache() {
+    if (ruleCache != null) ruleCache.save();
+  }
+
   public Set<DependencyRule> getRulesForInstr(SSAInstruction instr, CGNode node) {
     if (Options.GEN_DEPENDENCY_RULES_EAGERLY) {
-      String instrKey = makeKeyForInstr(instr, node);
-      Set<DependencyRule> rules = instrModMap.get(instrKey);
+      Set<DependencyRule> rules = ruleIndex.getRulesForInstr(cg.getNumber(node), instr);
       return filterOutRefuted(rules);
     } else {
       if (Options.ABSTRACT_DEPENDENCY_RULES) {
-        return generateAbstractRulesForInstr(instr, node, 0, 1, node.getIR());
+        if (!Options.CACHE_INSTR_RULES) return generateAbstractRulesForInstr(instr, node, 0, 1, node.getIR());
+        long key = RuleIndex.makeKey(cg.getNumber(node), instr);
+        int version = getHeapGraphVersion();
+        InstrRules cached = instrRuleCache.get(key);
+        HeapGraphWrapper hgw = hg instanceof HeapGraphWrapper ? (HeapGraphWrapper) hg : null;
+        if (cached == null || cached.hgVersion != version) {
+          long fingerprint = getIgnoredFingerprint();
+          DependencyRule[] stored = ruleCache == null ? null : ruleCache.lookup(node, instr, fingerprint);
+          if (stored != null && getHeapGraphVersion() == version) {
+            instrRuleCache.put(key, new InstrRules(version, stored, null));
+            if (hgw != null) hgw.noteUnknownReads();
+            return freshenSymbolicVars(stored);
+          }
+          HeapGraphWrapper.Reads reads = hgw == null ? null : hgw.pushReads();
+          Set<DependencyRule> rules;
+          try {
+            rules = generateAbstractRulesForInstr(instr, node, 0, 1, node.getIR());
+          } finally {
+            if (hgw != null) hgw.popReads(reads);
+          }
+          // don't cache rules that saw the heap graph change under them
+          if (getHeapGraphVersion() == version) {
+            DependencyRule[] generated = rules.toArray(new DependencyRule[rules.size()]);
+            instrRuleCache.put(key, new InstrRules(version, generated, reads));
+            if (ruleCache != null) ruleCache.record(node, instr, fingerprint, generated);
+          }
+          return rules;
+        }
+        if (hgw != null) {
+          if (cached.reads == null) hgw.noteUnknownReads();
+          else hgw.noteReads(cached.reads);
+        }
+        return freshenSymbolicVars(cached.rules);
       } else {
         Set<DependencyRule> rules = visit(instr, node, 0, 1, node.getIR());
         return rules;
@@ -1612,9 +1713,9 @@ public class AbstractDependencyRuleGenerator {
             // generate dependency rule
             PointerVariable rhs = Util.makePointerVariable(ref2Values.next());
             if (rhs != null) {
-              PointsToEdge shown = new PointsToEdge(lhs, rhs);
-              PointsToEdge toShow0 = new PointsToEdge(rhsPointerName, rhsPointer);
-              PointsToEdge toShow1 = new PointsToEdge(rhsPointer, rhs, new ArrayContentsKey(ref0));
+              PointsToEdge shown = PointsToEdge.make(lhs, rhs);
+              PointsToEdge toShow0 = PointsToEdge.make(rhsPointerName, rhsPointer);
+              PointsToEdge toShow1 = PointsToEdge.make(rhsPointer, rhs, new ArrayContentsKey(ref0));
 
               TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
               if (!toShow0.containsStringConst())
@@ -1646,8 +1747,8 @@ public class AbstractDependencyRuleGenerator {
       PointerStatement stmt = Util.makePointerStatement(instr, lhs, rhsPointerName, PointerStatement.EdgeType.GetField, fieldName,
           lineId, lineNum);
 
-      Set<InstanceKey> possibleYObjs = HashSetFactory.make(); //new HashSet<InstanceKey>();
-      Set<InstanceKey> possibleArrValues = HashSetFactory.make(); //new HashSet<InstanceKey>();
+      Set<InstanceKey> possibleYObjs = new InstanceKeySet(pa); //new HashSet<InstanceKey>();
+      Set<InstanceKey> possibleArrValues = new InstanceKeySet(pa); //new HashSet<InstanceKey>();
 
       // TODO: possible loss of preicison here (merging contents of all arrays
       // that y can point to). consider addressing if it is a problem
@@ -1672,9 +1773,9 @@ public class AbstractDependencyRuleGenerator {
       PointerVariable yObj = SymbolicPointerVariable.makeSymbolicVar(possibleYObjs);
       PointerVariable arrVal = SymbolicPointerVariable.makeSymbolicVar(possibleArrValues);
 
-      PointsToEdge shown = new PointsToEdge(lhs, arrVal);
-      PointsToEdge toShow0 = new PointsToEdge(rhsPointerName, yObj);
-      PointsToEdge toShow1 = new PointsToEdge(yObj, arrVal, ARRAY_CONTENTS);
+      PointsToEdge shown = PointsToEdge.make(lhs, arrVal);
+      PointsToEdge toShow0 = PointsToEdge.make(rhsPointerName, yObj);
+      PointsToEdge toShow1 = PointsToEdge.make(yObj, arrVal, ARRAY_CONTENTS);
 
       TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>();
       toShowSet.add(toShow0);
@@ -1727,10 +1828,10 @@ public class AbstractDependencyRuleGenerator {
    * Util.makePointerVariable(rhsObj); rhsHeapLocs.add(rhs); } } }
    * 
    * for (PointerVariable mid : middleVars) { for (PointerVariable rhs :
-   * rhsHeapLocs) { PointsToEdge shown = new PointsToEdge(lhs, rhs, null);
-   * PointsToEdge toShow0 = new PointsToEdge(rhsPointerName, mid, null);
-   * //PointsToEdge toShow1 = new PointsToEdge(rhsPointer, rhs,
-   * f.getName().toString()); PointsToEdge toShow1 = new PointsToEdge(mid, rhs,
+   * rhsHeapLocs) { PointsToEdge shown = PointsToEdge.make(lhs, rhs);
+   * PointsToEdge toShow0 = PointsToEdge.make(rhsPointerName, mid);
+   * //PointsToEdge toShow1 = PointsToEdge.make(rhsPointer, rhs,
+   * f.getName().toString()); PointsToEdge toShow1 = PointsToEdge.make(mid, rhs,
    * f); TreeSet<PointsToEdge> toShowSet = new TreeSet<PointsToEdge>(); if
    * (!toShow0.containsStringConst()) toShowSet.add(toShow0); if
    * (!toShow1.containsStringConst()) toShowSet.add(toShow1); DependencyRule
@@ -1751,25 +1852,10 @@ public class AbstractDependencyRuleGenerator {
     return this.modRef;
   }
 
-  public Map<PointerKey, Set<CGNode>> getReversedModRef() {
-    if (reversedModRef == null) {
-      Util.Print("computing reversed mod/ref");
-      reversedModRef = HashMapFactory.make();//new HashMap<PointerKey, Set<CGNode>>();
-      // create reverse mod/ref mapping: map from PointerKey's to CGNode's that
-      // might modify them
-      for (CGNode node : modRef.keySet()) { // for each CGNode
-        for (PointerKey key : modRef.get(node)) { // get PointerKeys it modifies
-          Set<CGNode> nodes = reversedModRef.get(key);
-          if (nodes == null) {
-            nodes = new HashSet<CGNode>();
-            reversedModRef.put(key, nodes);
-          }
-          // if (Util.writesKeyLocally(node, key, heapModel, hg, cha)) {
-          nodes.add(node);
-          // }
-        }
-      }
-    }
+  // map from PointerKey's to CGNode's that might modify them; each key's
+  // modifiers are computed the first time they're asked for
+  public synchronized ReversedModRef getReversedModRef() {
+    if (reversedModRef == null) reversedModRef = new ReversedModRef(cg, modRef);
     return reversedModRef;
   }
 
@@ -196,7 +196,7 @@ public class AndroidUIChecker {
 	// TODO: assertion about # of params, use getParam()?
 	PointerKey paramKey = hm.getPointerKeyForLocal(eventHandler, 2);
 	PointerVariable lhs = Util.makePointerVariable(paramKey);
-    PointsToEdge edge = new PointsToEdge(lhs, btn.var);
+    PointsToEdge edge = PointsToEdge.make(lhs, btn.var);
 	IQuery query = new CombinedPathAndPointsToQuery(edge, drg);
 
 	// push query backwards through event handler method, logging each method call we see
@@ -278,7 +278,7 @@ public class AndroidUIChecker {
       PointerVariable lhs = Util.makePointerVariable(receiver);
       PointerVariable rhs = SymbolicPointerVariable.makeSymbolicVar(receiver, hg);
       Util.Assert(rhs != null);
-      PointsToEdge startEdge = new PointsToEdge(lhs, rhs);
+      PointsToEdge startEdge = PointsToEdge.make(lhs, rhs);
       UIQuery.buttonId = -1; // reset static button id so we don't get confused
       UIQuery query = new UIQuery(startEdge, drg, findMethods);
       ISSABasicBlock[] blks = node.getIR().getBasicBlocksForCall(call.getCallSite());
@@ -3,6 +3,7 @@ package edu.colorado.thresher.core;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ibm.wala.analysis.pointers.HeapGraph;
 import com.ibm.wala.classLoader.IField;
@@ -42,25 +43,29 @@ public class AtomicPathConstraint extends AbstractConstraint implements Constrai
   private final int id; // unique constraint id that persists across
                         // substitution
   private final int hash;
-  private static int idCounter = 0;
+  // 64-bit hash of the same string as hash; see FeasibilityCache
+  private final long fingerprint;
+  private static final AtomicInteger idCounter = new AtomicInteger();
 
   public AtomicPathConstraint() {
     this.lhs = null;
     this.rhs = null;
     this.vars = null;
     this.op = null;
-    this.id = idCounter++;
-    this.hash = makeHash();
+    this.id = idCounter.getAndIncrement();
+    String hashString = makeHashString();
+    this.hash = hashString.hashCode();
+    this.fingerprint = makeFingerprint(hashString);
     // this.uniqueId = "id";
   }
 
   // public constructors for creating entirely new constraints
   public AtomicPathConstraint(PointerVariable lhs, PointerVariable rhs, ConditionalBranchInstruction.Operator op) {
-    this(lhs, rhs, op, idCounter++);
+    this(lhs, rhs, op, idCounter.getAndIncrement());
   }
 
   public AtomicPathConstraint(PathTerm lhs, PathTerm rhs, ConditionalBranchInstruction.Operator op) {
-    this(lhs, rhs, op, idCounter++);
+    this(lhs, rhs, op, idCounter.getAndIncrement());
   }
 
   // private constructors for maintaining id across substitution
@@ -82,7 +87,9 @@ public class AtomicPathConstraint extends AbstractConstraint implements Constrai
     this.vars = HashSetFactory.make();
     vars.add(lhs);
     vars.add(rhs);
-    this.hash = makeHash();
+    String hashString = makeHashString();
+    this.hash = hashString.hashCode();
+    this.fingerprint = makeFingerprint(hashString);
   }
 
   private AtomicPathConstraint(PathTerm lhs, PathTerm rhs, ConditionalBranchInstruction.Operator op, int id) {
@@ -102,7 +109,9 @@ public class AtomicPathConstraint extends AbstractConstraint implements Constrai
     this.vars = HashSetFactory.make();
     vars.addAll(lhs.getVars());
     vars.addAll(rhs.getVars());
-    this.hash = makeHash();
+    String hashString = makeHashString();
+    this.hash = hashString.hashCode();
+    this.fingerprint = makeFingerprint(hashString);
     
     //if (Options.DEBUG) {
       // sanity check to make sure path conditions aren't growing extremely large
@@ -467,7 +476,7 @@ public class AtomicPathConstraint extends AbstractConstraint implements Constrai
       Util.Assert(!possibleVals.isEmpty());
       rhs = SymbolicPointerVariable.makeSymbolicVar(possibleVals);
     }
-    return new PointsToEdge(lhs, rhs);
+    return PointsToEdge.make(lhs, rhs);
 
   }
   
@@ -605,9 +614,22 @@ public class AtomicPathConstraint extends AbstractConstraint implements Constrai
     return op.compareTo(pc.getOp());
   }
 
-  private int makeHash() {
-    String hashString = lhs + " " + op + " " + rhs;
-    return hashString.hashCode();
+  private String makeHashString() {
+    return lhs + " " + op + " " + rhs;
+  }
+
+  // FNV-1a
+  private static long makeFingerprint(String hashString) {
+    long h = 0xcbf29ce484222325L;
+    for (int i = 0; i < hashString.length(); i++) {
+      h ^= hashString.charAt(i);
+      h *= 0x100000001b3L;
+    }
+    return h;
+  }
+
+  long getFingerprint() {
+    return fingerprint;
   }
 
   @Override
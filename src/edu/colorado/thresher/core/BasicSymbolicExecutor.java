@@ -1,11 +1,13 @@
 package edu.colorado.thresher.core;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ibm.wala.classLoader.CallSiteReference;
 import com.ibm.wala.ipa.callgraph.CGNode;
@@ -20,7 +22,6 @@ import com.ibm.wala.ssa.SSAInstruction;
 import com.ibm.wala.ssa.SSAInvokeInstruction;
 import com.ibm.wala.ssa.SSASwitchInstruction;
 import com.ibm.wala.util.collections.HashMapFactory;
-import com.ibm.wala.util.collections.HashSetFactory;
 import com.ibm.wala.util.graph.Graph;
 import com.ibm.wala.util.intset.IntIterator;
 import com.ibm.wala.util.intset.IntSet;
@@ -44,20 +45,31 @@ import com.microsoft.z3.Z3Exception;
 public class BasicSymbolicExecutor implements ISymbolicExecutor {
   // call graph for the program to be executed
   protected final CallGraph callGraph;
-  // paths to be executed
-  protected final LinkedList<IPathInfo> pathsToExplore;
+  // paths to be executed; order is chosen by Options.PATH_SELECTION
+  protected final PathFrontier pathsToExplore;
 
   // optimization: map from CGNode -> paths seen in order to avoid redundant exploration
-  protected final Map<CGNode, Set<IPathInfo>> seenPaths;
+  protected final Map<CGNode, SummaryIndex> seenPaths;
   protected final Logger logger;
+  // decides when to drop summaries or give up because the heap is filling up
+  protected final MemoryGovernor memoryGovernor;
+  // counters for the query we're exploring; replaced each time executeBackward() starts
+  Metrics.Query queryMetrics = new Metrics.Query();
+  // paths executed for the current query, and whether the memory governor told us to give up on it
+  int pathCount = 0;
+  boolean outOfMemory = false;
+  static final Metrics.Gauge FRONTIER_SIZE = Metrics.gauge("frontier size");
+  // nodes we have executed paths in; concurrent because parallel workers record visits too
+  private final Set<CGNode> visitedNodes = Collections.newSetFromMap(new ConcurrentHashMap<CGNode, Boolean>());
   
   private Collection<String> synthesizedClasses;
 
   public BasicSymbolicExecutor(CallGraph callGraph, Logger logger) {
     this.callGraph = callGraph;
     this.logger = logger;
-    this.pathsToExplore = new LinkedList<IPathInfo>();
-    this.seenPaths = HashMapFactory.make();//new HashMap<CGNode, Set<IPathInfo>>();
+    this.pathsToExplore = new PathFrontier(callGraph);
+    this.seenPaths = HashMapFactory.make();//new HashMap<CGNode, SummaryIndex>();
+    this.memoryGovernor = new MemoryGovernor(logger);
   }
 
   /**
@@ -119,17 +131,53 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
    */
   @Override
   public boolean executeBackward() {
-    int pathCount = 0;
-    for (;;) {
-      // also timeout if we use too much memory
-      boolean oom = false;
-      if (Runtime.getRuntime().freeMemory() / Runtime.getRuntime().totalMemory() >= 0.95)
-        oom = true;
+    queryMetrics = new Metrics.Query();
+    boolean witnessed = false;
+    try {
+      witnessed = explorePaths();
+    } finally {
+      Metrics.finishQuery(queryMetrics, witnessed);
+    }
+    return witnessed;
+  }
 
-      if (++pathCount > Options.PATH_EXPLORE_LIMIT || oom) {
+  // give a new query the full path budget
+  void resetBudget() {
+    pathCount = 0;
+    outOfMemory = false;
+    memoryGovernor.reset();
+  }
+
+  /**
+   * count one more path against the current query's budget, dropping summaries
+   * if the heap is filling up. every loop that executes paths for the query
+   * should call this, so nested explorations share the budget
+   * 
+   * @return false if the query is out of paths or memory and should time out
+   */
+  boolean chargePath() {
+    switch (memoryGovernor.check()) {
+      case EVICT:
+        evictSummaries();
+        break;
+      case ABANDON:
+        outOfMemory = true;
+        break;
+      default:
+        break;
+    }
+    return ++pathCount <= Options.PATH_EXPLORE_LIMIT && !outOfMemory;
+  }
+
+  private boolean explorePaths() {
+    resetBudget();
+    for (;;) {
+      FRONTIER_SIZE.set(pathsToExplore.size());
+      // also timeout if we use too much memory, but try dropping summaries first
+      if (!chargePath()) {
         logger.logTimeout();
         Util.Print("TIMEOUT");
-        Util.Print("oom? " + oom);
+        Util.Print("oom? " + outOfMemory);
         Util.Print("Had " + pathsToExplore.size() + " paths left to explore");
         logger.logPathCount(pathCount);
         return true;
@@ -140,44 +188,75 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
         logger.logPathCount(pathCount);
         return false; // have executed all paths without finding a witness
       }
-      // if (path.isDummy() || path.isLoopMergeIndicator()) continue;
-      Util.Assert(!path.isLoopMergeIndicator(), "shouldn't get a loop merge indicator here!");
-      Util.Assert(!path.isDummy(), "shouldn't get a dummy path here!");
-      // if (path.getPathId() != lastPath) { // prevent printing except when we
-      // pick a new path (logging parsimony issue, not correctness issue)
-      if (Options.DEBUG)
-        Util.Debug("executing path " + path.getPathId() + "X");
-      if (Options.DEBUG)
-        Util.Debug(path.toString());
-      // } else Util.Debug("executing path " + path.getPathId() + "X");
-      boolean hitProcBoundary = executeBackwardsPathIntraprocedural(path);
-      if (path.foundWitness()) {
+      if (executePath(path)) {
         logger.logPathCount(pathCount);
         if (Options.LOG_WITNESSES) logger.logWitnessList(path.getWitnessList());
+        this.witnessQuery = path.query;
         return true;
-      }
-      // if (!path.isFeasible()) continue; // refuted. this case shouldn't be
-      // needed; executeBWPath should never return true for an infeasible path.
-      if (hitProcBoundary) {
-        // path hit procedure boundary, perform interprocedural execution
-        if (handleInterproceduralExecution(path)) {
-          logger.logPathCount(pathCount);
-          if (Options.LOG_WITNESSES) logger.logWitnessList(path.getWitnessList());
-          this.witnessQuery = path.query;
-          return true;
-        }
       } // else, path is infeasible, either because it split or because it was
         // refuted. execute next path
     }
   }
+
+  /**
+   * execute @param path selected from the frontier until it is refuted, splits,
+   * or produces a witness, continuing into callers when it hits a procedure
+   * boundary
+   * 
+   * @return true if the path produced a witness
+   */
+  boolean executePath(IPathInfo path) {
+    // if (path.isDummy() || path.isLoopMergeIndicator()) continue;
+    Util.Assert(!path.isLoopMergeIndicator(), "shouldn't get a loop merge indicator here!");
+    Util.Assert(!path.isDummy(), "shouldn't get a dummy path here!");
+    // if (path.getPathId() != lastPath) { // prevent printing except when we
+    // pick a new path (logging parsimony issue, not correctness issue)
+    if (Options.DEBUG)
+      Util.Debug("executing path " + path.getPathId() + "X");
+    if (Options.DEBUG)
+      Util.Debug(path.toString());
+    // } else Util.Debug("executing path " + path.getPathId() + "X");
+    boolean hitProcBoundary = executeBackwardsPathIntraprocedural(path);
+    if (path.foundWitness()) return true;
+    // if (!path.isFeasible()) continue; // refuted. this case shouldn't be
+    // needed; executeBWPath should never return true for an infeasible path.
+    // path hit procedure boundary, perform interprocedural execution
+    return hitProcBoundary && handleInterproceduralExecution(path);
+  }
   
-  private IQuery witnessQuery;
+  @Override
+  public Set<CGNode> getVisitedNodes() {
+    return visitedNodes;
+  }
+
+  /**
+   * note that we are executing a path in @param node
+   */
+  void recordVisit(CGNode node) {
+    visitedNodes.add(node);
+  }
+  
+  IQuery witnessQuery;
   IQuery witnessQuery() { return witnessQuery; }
   
 
   void end() {
   } // do nothing
 
+  /**
+   * drop everything we only keep around to avoid redundant work, since the
+   * heap is filling up. sound: losing a summary just means re-exploring a path
+   */
+  void evictSummaries() {
+    int numEvicted = 0;
+    for (SummaryIndex seen : seenPaths.values()) {
+      numEvicted += seen.size();
+    }
+    seenPaths.clear();
+    FeasibilityCache.clear();
+    Util.Print("heap filling up; evicted " + numEvicted + " path summaries");
+  }
+
   /**
    * symbolic execution in fakeWorldClinit (WALA's model of the Java class
    * initializers) requires special handling. we do not attempt to model the
@@ -203,14 +282,15 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
   boolean isPathInSummary(IPathInfo path) {
     if (path.getCallStackDepth() != 0) return false; // TODO: match call stack?
     if (!Options.USE_SUMMARIES) return false;
-    Set<IPathInfo> seen = seenPaths.get(path.getCurrentNode());
+    SummaryIndex seen = seenPaths.get(path.getCurrentNode());
     if (seen == null) {
       // create seen and add this path to it
-      seen = HashSetFactory.make();
+      seen = new SummaryIndex();
       seenPaths.put(path.getCurrentNode(), seen);
       seen.add(path);
-    } else {
-      return !IPathInfo.mergePathWithPathSet(path, seen);
+    } else if (!seen.add(path)) {
+      queryMetrics.inc(Metrics.QueryCounter.SUMMARY_HITS);
+      return true;
     }
     return false;
   }
@@ -261,7 +341,7 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
           return true;
         }
         
-        Context ctx = qry.ctx;
+        Context ctx = qry.getContext();
         // map from free variables in our representation to free variables in the theorem prover
         Map<SimplePathTerm,AST> termVarMap = HashMapFactory.make();
         
@@ -399,6 +479,7 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
             // this is both a recursive call and relevant. overapproximate its
             // effects by dropping constraints
             // that it could possibly produce
+            queryMetrics.inc(Metrics.QueryCounter.CALLEE_SKIPS);
             newPath.skipCall((SSAInvokeInstruction) instr, this.callGraph, caller);
             // query.dropConstraintsProduceableInCall(instr,
             // this.getCurrentNode(), callee);
@@ -507,6 +588,7 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
             // this is both a recursive call and relevant. overapproximate its
             // effects by dropping constraints
             // that it could possibly produce
+            queryMetrics.inc(Metrics.QueryCounter.CALLEE_SKIPS);
             newPath.skipCall((SSAInvokeInstruction) instr, this.callGraph, caller);
             // query.dropConstraintsProduceableInCall(instr,
             // this.getCurrentNode(), callee);
@@ -568,7 +650,8 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
 
   /**
    * remove and return a path from paths to explore. override to change
-   * exploration strategy. default is DFS selectPath() should return null if and
+   * exploration strategy; the frontier orders paths according to
+   * Options.PATH_SELECTION (default is DFS). selectPath() should return null if and
    * only if there are no paths left to execute
    * 
    * @return next path to execute, or null if there are none left
@@ -582,8 +665,7 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
 
   /**
    * add a path to the paths to explore. override to change exploration
-   * strategy. default is DFS override to change exploration strategy. default
-   * is DFS
+   * strategy. default is DFS; see PathFrontier for the others
    */
   @Override
   public void addPath(IPathInfo path) {
@@ -625,6 +707,8 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
    */
   @Override
   public boolean executeBackwardsPathIntraprocedural(IPathInfo path) {
+    queryMetrics.inc(Metrics.QueryCounter.PATHS_EXPLORED);
+    recordVisit(path.getCurrentNode());
     final IR ir = path.getCurrentNode().getIR();
     // Util.Print(path.getCurrentNode().getIR().toString());
 
@@ -758,14 +842,33 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
   boolean visitCalleeWrapper(SSAAbstractInvokeInstruction instr, CGNode callee, IPathInfo info) {
     Util.Assert(instr instanceof SSAInvokeInstruction, "expecting invoke here");
     // if (callee.getIR() != null) Util.Print(callee.getIR().toString());
+    int depth = info.getCallStackDepth();
     List<IPathInfo> caseSplits = info.enterCall((SSAInvokeInstruction) instr, callGraph, callee);
+    // enterCall() skips the callee (leaving the path in the caller) if it isn't worth entering
+    queryMetrics.inc(info.getCallStackDepth() > depth ? Metrics.QueryCounter.CALLEE_ENTRIES : Metrics.QueryCounter.CALLEE_SKIPS);
     if (caseSplits == null) return false; // infeasible
     for (IPathInfo path : caseSplits) {
-      addPath(path);
+      if (addCalleePath(path, callee)) {
+        // TODO: as below, not really a fake witness; the witness is on a path in the callee
+        info.declareFakeWitness();
+        return true;
+      }
     }
     return true;
   }
 
+  /**
+   * add a path that has just been through enterCall() for @param callee. the
+   * path is at the callee's exit if the call was entered, or still in the
+   * caller if it was skipped. override to handle callees specially
+   * 
+   * @return true if handling the path produced a witness
+   */
+  boolean addCalleePath(IPathInfo path, CGNode callee) {
+    addPath(path);
+    return false;
+  }
+
   // DEBUG only
   boolean split = false;
 
@@ -783,6 +886,7 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
         info.visit(instr);
       } else {
         Util.Debug("callees empty...skipping call");
+        queryMetrics.inc(Metrics.QueryCounter.CALLEE_SKIPS);
         info.skipCall((SSAInvokeInstruction) instr, callGraph, null); 
       }
       return true;
@@ -800,8 +904,12 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
         return false; // path refuted
       }
       if (!visitCalleeWrapper(instr, callee, info)) return false; // refuted by parameter binding
+      if (info.foundWitness()) return true; // found witness in a case split
       // else, ordinary call
-      addPath(info);
+      if (addCalleePath(info, callee)) {
+        info.declareFakeWitness();
+        return true; // found witness in callee
+      }
       if (Options.DEBUG_ASSERTS) split = true;
       // don't want to continue executing instructions that occur before call in caller, so return false
       return false; 
@@ -818,6 +926,7 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
         
         if (Options.SKIP_DYNAMIC_DISPATCH) {
           // heuristic: skip any dynamic dispatch. exploration cost is not worth it
+          queryMetrics.inc(Metrics.QueryCounter.CALLEE_SKIPS);
           info.skipCall((SSAInvokeInstruction) instr, this.callGraph, callee);
           if (info.foundWitness()) return true;
           allRefuted = false;
@@ -828,7 +937,10 @@ public class BasicSymbolicExecutor implements ISymbolicExecutor {
               info.declareFakeWitness();
               return true;
             }
-            addPath(copy);
+            if (addCalleePath(copy, callee)) {
+              info.declareFakeWitness();
+              return true;
+            }
             allRefuted = true;
             if (Options.DEBUG_ASSERTS) split = true;
           } // else, refuted by parameter binding
@@ -0,0 +1,98 @@
+package edu.colorado.thresher.core;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * thread-safe LRU cache for facts computed from CFG's, bounded both by number
+ * of entries (Options.CFG_CACHE_SIZE) and by total weight
+ * (Options.CFG_CACHE_WEIGHT), where the weight of an entry is the number of
+ * basic blocks it covers. least recently used entries are evicted until both
+ * bounds hold; a bound <= 0 means no bound on that dimension
+ *
+ * values are computed outside the lock, so two threads that miss on the same
+ * key at once may both compute it; the second put wins
+ */
+public class CFGCache<K, V> {
+
+  private final String name;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  private static final class Entry<V> {
+    final V value;
+    final int weight;
+
+    Entry(V value, int weight) {
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+
+  // access-ordered, so iteration starts at the least recently used entry
+  private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true);
+  private long weight = 0;
+
+  public CFGCache(String name) {
+    this.name = name;
+  }
+
+  /**
+   * @return the value cached for @param key, or null if there isn't one
+   */
+  public V get(K key) {
+    Entry<V> entry;
+    synchronized (this) {
+      entry = map.get(key);
+    }
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry.value;
+  }
+
+  public void put(K key, V value, int valueWeight) {
+    synchronized (this) {
+      Entry<V> old = map.put(key, new Entry<V>(value, valueWeight));
+      if (old != null) weight -= old.weight;
+      weight += valueWeight;
+      // evict from the LRU end, but never the entry we just added
+      Iterator<Map.Entry<K, Entry<V>>> iter = map.entrySet().iterator();
+      int maxEntries = Options.CFG_CACHE_SIZE, maxWeight = Options.CFG_CACHE_WEIGHT;
+      while (map.size() > 1 && ((maxEntries > 0 && map.size() > maxEntries) || (maxWeight > 0 && weight > maxWeight))) {
+        Map.Entry<K, Entry<V>> eldest = iter.next();
+        weight -= eldest.getValue().weight;
+        iter.remove();
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    map.clear();
+    weight = 0;
+  }
+
+  public synchronized int size() {
+    return map.size();
+  }
+
+  public String dumpStats() {
+    long numHits = hits.get(), numMisses = misses.get(), total = numHits + numMisses;
+    long curWeight;
+    int curSize;
+    synchronized (this) {
+      curWeight = weight;
+      curSize = map.size();
+    }
+    return numHits + " " + name + " cache hits\n" + numMisses + " " + name + " cache misses\n" + evictions.get() + " "
+        + name + " cache evictions\n" + (total == 0 ? 0 : (numHits * 100.0) / total) + "% " + name + " cache hit rate\n"
+        + curSize + " " + name + " cache entries weighing " + curWeight + "\n";
+  }
+}
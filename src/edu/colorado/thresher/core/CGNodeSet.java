@@ -0,0 +1,60 @@
+package edu.colorado.thresher.core;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.util.intset.IntIterator;
+import com.ibm.wala.util.intset.IntSet;
+
+/**
+ * read-only view of a set of call graph node numbers as CGNode's
+ */
+final class CGNodeSet extends AbstractSet<CGNode> {
+  private final CallGraph cg;
+  private final IntSet nodes;
+
+  CGNodeSet(CallGraph cg, IntSet nodes) {
+    this.cg = cg;
+    this.nodes = nodes;
+  }
+
+  @Override
+  public int size() {
+    return nodes.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return nodes.isEmpty();
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return o instanceof CGNode && nodes.contains(cg.getNumber((CGNode) o));
+  }
+
+  @Override
+  public Iterator<CGNode> iterator() {
+    final IntIterator iter = nodes.intIterator();
+    return new Iterator<CGNode>() {
+      @Override
+      public boolean hasNext() {
+        return iter.hasNext();
+      }
+
+      @Override
+      public CGNode next() {
+        if (!iter.hasNext()) throw new NoSuchElementException();
+        return cg.getNode(iter.next());
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
@@ -0,0 +1,244 @@
+package edu.colorado.thresher.core;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.util.intset.IntIterator;
+import com.ibm.wala.util.intset.IntSet;
+import com.ibm.wala.util.intset.MutableIntSet;
+import com.ibm.wala.util.intset.MutableSparseIntSet;
+import com.ibm.wala.util.intset.SemiSparseMutableIntSet;
+
+/**
+ * transitive closure of the "calls" relation: for each node, the nodes
+ * reachable from it by following one or more call edges (so a node reaches
+ * itself only if it is recursive). same answers as
+ * WALACallGraphUtil.getCallGraphTransitiveClosure
+ *
+ * computed once per call graph and shared, on the condensation of the call
+ * graph into strongly connected components: every member of a component has the
+ * same reachable set, so we store one set per component. components are
+ * processed bottom-up, and the components at the same height don't depend on
+ * each other, so their sets are computed in parallel. sets switch from sparse
+ * arrays to bit vectors as they grow
+ *
+ * immutable once built, so safe to share between threads
+ */
+public class CallGraphClosure {
+
+  private static final IntSet EMPTY = MutableSparseIntSet.makeEmpty();
+
+  // closures by call graph. a closure only holds its call graph weakly, or the
+  // entry would keep its own key alive and never go away
+  private static final Map<CallGraph, CallGraphClosure> closures = new WeakHashMap<CallGraph, CallGraphClosure>();
+
+  private final WeakReference<CallGraph> cgRef;
+  // node number -> number of its strongly connected component
+  private final int[] compOf;
+  // component number -> numbers of the nodes reachable from its members
+  private final IntSet[] reach;
+
+  /**
+   * @return the closure of @param cg, computing it if no one has asked for it yet
+   */
+  public static CallGraphClosure get(CallGraph cg) {
+    Util.Pre(cg != null);
+    synchronized (closures) {
+      CallGraphClosure closure = closures.get(cg);
+      if (closure == null) {
+        closure = new CallGraphClosure(cg, Math.max(1, Options.NUM_WORKERS));
+        closures.put(cg, closure);
+      }
+      return closure;
+    }
+  }
+
+  private CallGraphClosure(CallGraph cg, int numThreads) {
+    this.cgRef = new WeakReference<CallGraph>(cg);
+    this.compOf = new int[cg.getMaxNumber() + 1];
+    int numComps = findComponents(cg);
+
+    // members, successor components, and whether there's a cycle, for each component.
+    // Tarjan's algorithm numbers components in reverse topological order, so successors
+    // have smaller numbers than their predecessors
+    final MutableSparseIntSet[] members = new MutableSparseIntSet[numComps];
+    final MutableSparseIntSet[] succComps = new MutableSparseIntSet[numComps];
+    final boolean[] cyclic = new boolean[numComps];
+    for (int nodeNum = 0; nodeNum < compOf.length; nodeNum++) {
+      CGNode node = cg.getNode(nodeNum);
+      if (node == null) continue;
+      int comp = compOf[nodeNum];
+      if (members[comp] == null) members[comp] = MutableSparseIntSet.makeEmpty();
+      members[comp].add(nodeNum);
+      for (IntIterator succs = cg.getSuccNodeNumbers(node).intIterator(); succs.hasNext();) {
+        int succComp = compOf[succs.next()];
+        if (succComp == comp) cyclic[comp] = true;
+        else {
+          if (succComps[comp] == null) succComps[comp] = MutableSparseIntSet.makeEmpty();
+          succComps[comp].add(succComp);
+        }
+      }
+    }
+
+    // group the components by height in the condensation
+    int[] height = new int[numComps];
+    List<List<Integer>> byHeight = new ArrayList<List<Integer>>();
+    for (int comp = 0; comp < numComps; comp++) {
+      if (succComps[comp] != null) {
+        for (IntIterator iter = succComps[comp].intIterator(); iter.hasNext();) {
+          height[comp] = Math.max(height[comp], height[iter.next()] + 1);
+        }
+      }
+      if (height[comp] == byHeight.size()) byHeight.add(new ArrayList<Integer>());
+      byHeight.get(height[comp]).add(comp);
+    }
+
+    this.reach = new IntSet[numComps];
+    ExecutorService pool = numThreads > 1 ? Executors.newFixedThreadPool(numThreads) : null;
+    try {
+      for (final List<Integer> comps : byHeight) {
+        if (pool == null || comps.size() < numThreads * 2) {
+          for (int comp : comps) reach[comp] = computeReach(comp, members, succComps, cyclic);
+          continue;
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(numThreads);
+        final int chunk = (comps.size() + numThreads - 1) / numThreads;
+        for (int i = 0; i < comps.size(); i += chunk) {
+          final List<Integer> share = comps.subList(i, Math.min(i + chunk, comps.size()));
+          tasks.add(new Callable<Void>() {
+            @Override
+            public Void call() {
+              for (int comp : share) reach[comp] = computeReach(comp, members, succComps, cyclic);
+              return null;
+            }
+          });
+        }
+        // invokeAll waits for the whole height, so the next one sees every set it needs
+        for (Future<Void> future : pool.invokeAll(tasks)) future.get();
+      }
+    } catch (InterruptedException e) {
+      Util.Assert(false, "interrupted while computing call graph closure " + e);
+    } catch (ExecutionException e) {
+      Util.Assert(false, "worker crashed while computing call graph closure: " + e.getCause());
+    } finally {
+      if (pool != null) pool.shutdown();
+    }
+  }
+
+  // reachable from comp = its own members if it's cyclic, plus each successor component's members and reachable set
+  private IntSet computeReach(int comp, IntSet[] members, IntSet[] succComps, boolean[] cyclic) {
+    if (succComps[comp] == null && !cyclic[comp]) return EMPTY;
+    MutableIntSet result = new SemiSparseMutableIntSet();
+    if (cyclic[comp]) result.addAll(members[comp]);
+    if (succComps[comp] != null) {
+      for (IntIterator iter = succComps[comp].intIterator(); iter.hasNext();) {
+        int succComp = iter.next();
+        result.addAll(members[succComp]);
+        result.addAll(reach[succComp]);
+      }
+    }
+    return result;
+  }
+
+  // iterative Tarjan over node numbers. fills in compOf and returns the number of components
+  private int findComponents(CallGraph cg) {
+    int numNodes = compOf.length, nextIndex = 0, numComps = 0, sccTop = 0, dfsTop = 0;
+    int[] index = new int[numNodes], low = new int[numNodes], sccStack = new int[numNodes], dfsStack = new int[numNodes];
+    boolean[] onStack = new boolean[numNodes];
+    IntIterator[] succs = new IntIterator[numNodes];
+    Arrays.fill(index, -1);
+
+    for (int root = 0; root < numNodes; root++) {
+      if (index[root] >= 0 || cg.getNode(root) == null) continue;
+      index[root] = low[root] = nextIndex++;
+      sccStack[sccTop++] = root;
+      onStack[root] = true;
+      dfsStack[dfsTop++] = root;
+      succs[root] = cg.getSuccNodeNumbers(cg.getNode(root)).intIterator();
+      while (dfsTop > 0) {
+        int node = dfsStack[dfsTop - 1];
+        if (succs[node].hasNext()) {
+          int succ = succs[node].next();
+          if (index[succ] < 0) {
+            index[succ] = low[succ] = nextIndex++;
+            sccStack[sccTop++] = succ;
+            onStack[succ] = true;
+            dfsStack[dfsTop++] = succ;
+            succs[succ] = cg.getSuccNodeNumbers(cg.getNode(succ)).intIterator();
+          } else if (onStack[succ]) low[node] = Math.min(low[node], index[succ]);
+          continue;
+        }
+        // done with node
+        succs[node] = null;
+        dfsTop--;
+        if (dfsTop > 0) {
+          int parent = dfsStack[dfsTop - 1];
+          low[parent] = Math.min(low[parent], low[node]);
+        }
+        if (low[node] == index[node]) {
+          int member;
+          do {
+            member = sccStack[--sccTop];
+            onStack[member] = false;
+            compOf[member] = numComps;
+          } while (member != node);
+          numComps++;
+        }
+      }
+    }
+    return numComps;
+  }
+
+  // whoever asks about the closure holds on to the call graph, so it's still around
+  private CallGraph getCallGraph() {
+    CallGraph cg = cgRef.get();
+    Util.Assert(cg != null, "call graph of closure was collected");
+    return cg;
+  }
+
+  private IntSet getReachableNumbers(CGNode src) {
+    return reach[compOf[getCallGraph().getNumber(src)]];
+  }
+
+  /**
+   * @return nodes reachable from @param src by one or more call edges
+   */
+  public Set<CGNode> getReachable(CGNode src) {
+    IntSet reachable = getReachableNumbers(src);
+    return reachable.isEmpty() ? Collections.<CGNode> emptySet() : new CGNodeSet(getCallGraph(), reachable);
+  }
+
+  /**
+   * @return true if @param snk is reachable from @param src
+   */
+  public boolean reaches(CGNode src, CGNode snk) {
+    return getReachableNumbers(src).contains(getCallGraph().getNumber(snk));
+  }
+
+  /**
+   * @return true if some node in @param snks is reachable from @param src
+   */
+  public boolean reachesAny(CGNode src, Collection<CGNode> snks) {
+    IntSet reachable = getReachableNumbers(src);
+    if (reachable.isEmpty()) return false;
+    CallGraph cg = getCallGraph();
+    for (CGNode snk : snks) {
+      if (reachable.contains(cg.getNumber(snk))) return true;
+    }
+    return false;
+  }
+}
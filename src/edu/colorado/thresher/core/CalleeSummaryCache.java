@@ -0,0 +1,609 @@
+package edu.colorado.thresher.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.wala.classLoader.IField;
+import com.ibm.wala.classLoader.NewSiteReference;
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.propagation.ArrayContentsKey;
+import com.ibm.wala.ipa.callgraph.propagation.HeapModel;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceFieldKey;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ipa.callgraph.propagation.StaticFieldKey;
+import com.ibm.wala.types.FieldReference;
+import com.ibm.wala.util.collections.HashMapFactory;
+import com.ibm.wala.util.collections.HashSetFactory;
+import com.ibm.wala.util.intset.MutableIntSet;
+import com.ibm.wala.util.intset.MutableSparseIntSet;
+import com.ibm.wala.util.intset.OrdinalSet;
+import com.ibm.wala.util.intset.OrdinalSetMapping;
+import com.ibm.wala.util.strings.Atom;
+
+/**
+ * bounded LRU cache of procedure summaries, shared by all the queries on one
+ * call graph: the states that reached the entry of a callee when we explored it
+ * starting from a given state at its exit. an empty summary means every path
+ * through the callee was refuted. a path that enters the callee again in the
+ * same state can skip straight to the return into its caller
+ *
+ * only the part of the state the callee can touch goes into the key: the
+ * constraints that mention one of its variables, a field it (or one of its
+ * callees) may write according to mod/ref, or an object it may allocate, and
+ * then every constraint that may share a variable with those. the rest, the
+ * frame, passes through the callee unchanged and can't make a path in it
+ * infeasible, so a summary made under one frame applies under any other: the
+ * entry states are the recorded ones with the recorded frame swapped for the
+ * current one. symbolic variables in the key are numbered by where they occur,
+ * so states of different queries that only differ in the names of their
+ * symbolic variables share a summary; applying it renames the recorded
+ * variables to ours, and gives the ones created inside the callee fresh copies.
+ * states with symbolic variables in path constraints aren't summarized
+ *
+ * the key also has the callee, the full call stack (which decides how deep we
+ * may go inside and which calls count as recursive), and the loop heads already
+ * seen. summaries are made from dependency rules for the current heap graph, so
+ * refuting an edge drops all of them. reusing a summary skips the paths it took
+ * to make it, so a query close to its path budget may now finish where it used
+ * to run out
+ */
+public class CalleeSummaryCache {
+
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+  private static final AtomicLong evictions = new AtomicLong();
+
+  // caches by call graph. a cache doesn't refer to its call graph, so the entry goes away with it
+  private static final Map<CallGraph, CalleeSummaryCache> caches = new WeakHashMap<CallGraph, CalleeSummaryCache>();
+
+  // what a callee and everything it may call may write or allocate
+  private static final class Footprint {
+    // numbers of the callee and its transitive callees
+    final MutableIntSet nodes;
+    // names of the fields they may write, static or not
+    final Set<Atom> fields;
+    // true if they may write array contents
+    final boolean arrays;
+    final InstanceKeySet allocated;
+
+    Footprint(MutableIntSet nodes, Set<Atom> fields, boolean arrays, InstanceKeySet allocated) {
+      this.nodes = nodes;
+      this.fields = fields;
+      this.arrays = arrays;
+      this.allocated = allocated;
+    }
+  }
+
+  // a points-to edge with each symbolic variable replaced by its number in the state
+  private static final class NormalEdge {
+    final Object src, snk;
+    final IField field;
+
+    NormalEdge(Object src, IField field, Object snk) {
+      this.src = src;
+      this.field = field;
+      this.snk = snk;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof NormalEdge)) return false;
+      NormalEdge edge = (NormalEdge) other;
+      return src.equals(edge.src) && snk.equals(edge.snk) && (field == null ? edge.field == null : field.equals(edge.field));
+    }
+
+    @Override
+    public int hashCode() {
+      return (src.hashCode() * 31 + (field == null ? 0 : field.hashCode())) * 31 + snk.hashCode();
+    }
+  }
+
+  static final class Key {
+    private final CGNode callee;
+    private final List<IStackFrame> callStack;
+    private final Set<?> loopHeads;
+    private final Set<AtomicPathConstraint> pathConstraints;
+    private final Set<NormalEdge> constraints, produced;
+    // possible values of the symbolic variables, by number
+    private final List<Set<InstanceKey>> symbValues;
+    private final int hash;
+
+    private Key(CGNode callee, List<IStackFrame> callStack, Set<?> loopHeads, Set<AtomicPathConstraint> pathConstraints,
+        Set<NormalEdge> constraints, Set<NormalEdge> produced, List<Set<InstanceKey>> symbValues) {
+      this.callee = callee;
+      this.callStack = callStack;
+      this.loopHeads = loopHeads;
+      this.pathConstraints = pathConstraints;
+      this.constraints = constraints;
+      this.produced = produced;
+      this.symbValues = symbValues;
+      this.hash = (((callee.hashCode() * 31 + callStack.hashCode()) * 31 + pathConstraints.hashCode()) * 31
+          + constraints.hashCode()) * 31 + produced.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Key)) return false;
+      Key key = (Key) other;
+      return hash == key.hash && callee.equals(key.callee) && callStack.equals(key.callStack)
+          && pathConstraints.equals(key.pathConstraints) && constraints.equals(key.constraints)
+          && produced.equals(key.produced) && symbValues.equals(key.symbValues) && loopHeads.equals(key.loopHeads);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * the part of a path's state that the callee it has just entered may touch
+   */
+  static final class Projection {
+    final Key key;
+    final Set<AtomicPathConstraint> pathConstraints;
+    final Set<PointsToEdge> constraints, produced;
+    // the symbolic variables of the key, by number
+    final List<SymbolicPointerVariable> symbVars;
+    // what the callee can't touch
+    final Set<AtomicPathConstraint> framePathConstraints;
+    final Set<PointsToEdge> frameConstraints, frameProduced;
+    final int pathWitnesses, ptWitnesses;
+    // the heap graph and its version when we made the projection
+    final HeapGraphWrapper hg;
+    final int hgVersion;
+
+    private Projection(Key key, Set<AtomicPathConstraint> pathConstraints, Set<PointsToEdge> constraints,
+        Set<PointsToEdge> produced, List<SymbolicPointerVariable> symbVars, CombinedPathAndPointsToQuery query) {
+      this.key = key;
+      this.pathConstraints = pathConstraints;
+      this.constraints = constraints;
+      this.produced = produced;
+      this.symbVars = symbVars;
+      this.framePathConstraints = minus(query.constraints, pathConstraints);
+      this.frameConstraints = minus(query.pointsToQuery.constraints, constraints);
+      this.frameProduced = minus(query.pointsToQuery.produced, produced);
+      this.pathWitnesses = query.witnessList.size();
+      this.ptWitnesses = query.pointsToQuery.witnessList.size();
+      this.hg = query.depRuleGenerator.getHeapGraph() instanceof HeapGraphWrapper
+          ? (HeapGraphWrapper) query.depRuleGenerator.getHeapGraph() : null;
+      this.hgVersion = hg == null ? 0 : hg.getVersion();
+    }
+  }
+
+  // one state at the callee's entry, without the frame
+  private static final class EntryState {
+    final Set<AtomicPathConstraint> pathConstraints;
+    final Set<PointsToEdge> constraints, produced;
+    // appended to the witness lists inside the callee
+    final List<AtomicPathConstraint> pathWitnesses;
+    final List<DependencyRule> ptWitnesses;
+
+    EntryState(Set<AtomicPathConstraint> pathConstraints, Set<PointsToEdge> constraints, Set<PointsToEdge> produced,
+        List<AtomicPathConstraint> pathWitnesses, List<DependencyRule> ptWitnesses) {
+      this.pathConstraints = pathConstraints;
+      this.constraints = constraints;
+      this.produced = produced;
+      this.pathWitnesses = pathWitnesses;
+      this.ptWitnesses = ptWitnesses;
+    }
+  }
+
+  private static final class Summary {
+    // the recording's symbolic variables, by number in the key
+    final List<SymbolicPointerVariable> symbVars;
+    final List<EntryState> entries;
+    // heap graph nodes read while making the summary, or null if we don't know
+    final HeapGraphWrapper.Reads reads;
+
+    Summary(List<SymbolicPointerVariable> symbVars, List<EntryState> entries, HeapGraphWrapper.Reads reads) {
+      this.symbVars = symbVars;
+      this.entries = entries;
+      this.reads = reads;
+    }
+  }
+
+  private final Map<CGNode, Footprint> footprints = HashMapFactory.make();
+
+  // guarded by this
+  private final Map<Key, Summary> summaries = new LinkedHashMap<Key, Summary>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, Summary> eldest) {
+      if (size() <= Options.CALLEE_SUMMARY_CACHE_SIZE) return false;
+      evictions.incrementAndGet();
+      return true;
+    }
+  };
+  // heap graph version the summaries were made against. guarded by this
+  private int hgVersion = 0;
+
+  private CalleeSummaryCache() {
+  }
+
+  /**
+   * @return the summaries shared by the executors on @param cg
+   */
+  public static CalleeSummaryCache get(CallGraph cg) {
+    synchronized (caches) {
+      CalleeSummaryCache cache = caches.get(cg);
+      if (cache == null) {
+        cache = new CalleeSummaryCache();
+        caches.put(cg, cache);
+      }
+      return cache;
+    }
+  }
+
+  /**
+   * @return the part of the state of @param path that its current node, which
+   *         it has just entered, may touch, or null if we can't summarize it
+   */
+  Projection project(IPathInfo path) {
+    if (!(path.query instanceof CombinedPathAndPointsToQuery)) return null;
+    CombinedPathAndPointsToQuery query = (CombinedPathAndPointsToQuery) path.query;
+    CGNode callee = path.getCurrentNode();
+    // constructors and class initializers set fields to their defaults when we leave them, which
+    // touches constraints that don't mention anything they write
+    if (callee.getMethod().isInit() || callee.getMethod().isClinit()) return null;
+    CallGraph cg = query.depRuleGenerator.getCallGraph();
+    Footprint footprint = getFootprint(callee, query.depRuleGenerator);
+    // without mod/ref we can't tell what the callee writes
+    if (footprint == null) return null;
+
+    Set<AtomicPathConstraint> pathConstraints = HashSetFactory.make();
+    Set<PointsToEdge> constraints = HashSetFactory.make(), produced = HashSetFactory.make();
+    List<PointerVariable> vars = new ArrayList<PointerVariable>();
+    // add what the callee touches, then what may share a variable with that, until nothing changes
+    for (boolean changed = true; changed;) {
+      changed = addTouched(query.constraints, pathConstraints, vars, footprint, cg)
+          | addTouched(query.pointsToQuery.constraints, constraints, vars, footprint, cg)
+          | addTouched(query.pointsToQuery.produced, produced, vars, footprint, cg);
+    }
+    for (AtomicPathConstraint constraint : pathConstraints) {
+      for (PointerVariable var : constraint.getVars()) {
+        if (var.isSymbolic()) return null;
+      }
+    }
+
+    // number the symbolic variables in an order that doesn't depend on their names
+    List<PointsToEdge> edges = new ArrayList<PointsToEdge>(constraints);
+    edges.addAll(produced);
+    final Map<PointsToEdge, String> sortKeys = HashMapFactory.make();
+    for (PointsToEdge edge : edges) {
+      sortKeys.put(edge, (constraints.contains(edge) ? "c " : "p ") + sortKey(edge.getSource()) + " " + edge.getFieldRef() + " "
+          + sortKey(edge.getSink()));
+    }
+    Collections.sort(edges, new Comparator<PointsToEdge>() {
+      @Override
+      public int compare(PointsToEdge e1, PointsToEdge e2) {
+        return sortKeys.get(e1).compareTo(sortKeys.get(e2));
+      }
+    });
+    Map<SymbolicPointerVariable, Integer> symbNums = new IdentityHashMap<SymbolicPointerVariable, Integer>();
+    List<SymbolicPointerVariable> symbVars = new ArrayList<SymbolicPointerVariable>();
+    List<Set<InstanceKey>> symbValues = new ArrayList<Set<InstanceKey>>();
+    for (PointsToEdge edge : edges) {
+      for (PointerVariable var : new PointerVariable[] { edge.getSource(), edge.getSink() }) {
+        if (var instanceof SymbolicPointerVariable && !symbNums.containsKey(var)) {
+          SymbolicPointerVariable symb = (SymbolicPointerVariable) var;
+          symbNums.put(symb, symbVars.size());
+          symbVars.add(symb);
+          symbValues.add(InstanceKeySet.copyOf(symb.getPossibleValues()));
+        }
+      }
+    }
+    Key key = new Key(callee, new ArrayList<IStackFrame>(path.getCallStack()), new HashSet<Object>(path.getLoopHeadSet()),
+        new HashSet<AtomicPathConstraint>(pathConstraints), normalize(constraints, symbNums),
+        normalize(produced, symbNums), symbValues);
+    return new Projection(key, pathConstraints, constraints, produced, symbVars, query);
+  }
+
+  private static String sortKey(PointerVariable var) {
+    if (var instanceof ConcretePointerVariable) return "c" + ((ConcretePointerVariable) var).getId();
+    Set<InstanceKey> values = var.getPossibleValues();
+    return "s" + values.size() + "," + values.hashCode();
+  }
+
+  private static Set<NormalEdge> normalize(Set<PointsToEdge> edges, Map<SymbolicPointerVariable, Integer> symbNums) {
+    Set<NormalEdge> normal = HashSetFactory.make();
+    for (PointsToEdge edge : edges) {
+      normal.add(new NormalEdge(normalize(edge.getSource(), symbNums), edge.getFieldRef(), normalize(edge.getSink(), symbNums)));
+    }
+    return normal;
+  }
+
+  private static Object normalize(PointerVariable var, Map<SymbolicPointerVariable, Integer> symbNums) {
+    Integer num = symbNums.get(var);
+    return num == null ? var : num;
+  }
+
+  /**
+   * move the constraints in @param from that the callee touches, or that may
+   * share a variable with @param vars, to @param to, adding their variables to
+   * @param vars
+   *
+   * @return true if we moved any
+   */
+  private static <T extends Constraint> boolean addTouched(Set<T> from, Set<T> to, List<PointerVariable> vars,
+      Footprint footprint, CallGraph cg) {
+    boolean changed = false;
+    for (T constraint : from) {
+      if (to.contains(constraint)) continue;
+      if (touches(constraint, footprint, cg) || mayShareVar(constraint.getVars(), vars)) {
+        to.add(constraint);
+        vars.addAll(constraint.getVars());
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  private static boolean touches(Constraint constraint, Footprint footprint, CallGraph cg) {
+    if (footprint.arrays && (constraint.isArrayContentsConstraint() || constraint.isArrayIndexConstraint())) return true;
+    for (FieldReference field : constraint.getFields()) {
+      if (PathQuery.isArrayIndexField(field) ? footprint.arrays : footprint.fields.contains(field.getName())) return true;
+    }
+    for (PointerVariable var : constraint.getVars()) {
+      if (touches(var, footprint, cg)) return true;
+    }
+    return false;
+  }
+
+  private static boolean touches(PointerVariable var, Footprint footprint, CallGraph cg) {
+    if (var.isSymbolic()) {
+      Set<InstanceKey> values = var.getPossibleValues();
+      if (values instanceof InstanceKeySet) return footprint.allocated.intersects((InstanceKeySet) values);
+      for (InstanceKey key : values) {
+        if (footprint.allocated.contains(key)) return true;
+      }
+      return false;
+    }
+    if (var.isLocalVar()) return var.getNode() != null && footprint.nodes.contains(cg.getNumber(var.getNode()));
+    Object key = var.getInstanceKey();
+    if (key instanceof StaticFieldKey) return footprint.fields.contains(((StaticFieldKey) key).getField().getName());
+    return key instanceof InstanceKey && footprint.allocated.contains(key);
+  }
+
+  private static boolean mayShareVar(Set<PointerVariable> vars, List<PointerVariable> others) {
+    for (PointerVariable var : vars) {
+      for (PointerVariable other : others) {
+        if (mayAlias(var, other)) return true;
+      }
+    }
+    return false;
+  }
+
+  // conservative: symbolic variables may stand for any of their possible values
+  private static boolean mayAlias(PointerVariable var0, PointerVariable var1) {
+    if (var0 == var1 || var0.equals(var1) || var1.equals(var0)) return true;
+    if (!var0.isSymbolic() && !var1.isSymbolic()) return false;
+    Set<InstanceKey> values0 = var0.getPossibleValues(), values1 = var1.getPossibleValues();
+    if (values0 == null || values1 == null) return false;
+    if (values0 instanceof InstanceKeySet && values1 instanceof InstanceKeySet) {
+      return ((InstanceKeySet) values0).intersects((InstanceKeySet) values1);
+    }
+    for (InstanceKey key : values0) {
+      if (values1.contains(key)) return true;
+    }
+    return false;
+  }
+
+  private Footprint getFootprint(CGNode callee, AbstractDependencyRuleGenerator depRuleGenerator) {
+    synchronized (footprints) {
+      Footprint footprint = footprints.get(callee);
+      if (footprint != null) return footprint;
+    }
+    Map<CGNode, OrdinalSet<PointerKey>> modRef = depRuleGenerator.getModRef();
+    OrdinalSet<PointerKey> mod = modRef == null ? null : modRef.get(callee);
+    if (mod == null) return null;
+    CallGraph cg = depRuleGenerator.getCallGraph();
+    HeapModel hm = depRuleGenerator.getHeapModel();
+    List<CGNode> nodes = new ArrayList<CGNode>(CallGraphClosure.get(cg).getReachable(callee));
+    nodes.add(callee);
+    MutableIntSet nodeNums = MutableSparseIntSet.makeEmpty();
+    OrdinalSetMapping<InstanceKey> keyNumbers = depRuleGenerator.pa.getInstanceKeyMapping();
+    InstanceKeySet allocated = new InstanceKeySet(keyNumbers);
+    for (CGNode node : nodes) {
+      nodeNums.add(cg.getNumber(node));
+      for (Iterator<NewSiteReference> sites = node.iterateNewSites(); sites.hasNext();) {
+        InstanceKey key = hm.getInstanceKeyForAllocation(node, sites.next());
+        // a key the pointer analysis never saw can't be in any points-to set
+        if (key != null && keyNumbers.getMappedIndex(key) >= 0) allocated.add(key);
+      }
+    }
+    // mod/ref already includes what the callees write
+    Set<Atom> fields = HashSetFactory.make();
+    boolean arrays = false;
+    for (PointerKey key : mod) {
+      if (key instanceof InstanceFieldKey) fields.add(((InstanceFieldKey) key).getField().getName());
+      else if (key instanceof StaticFieldKey) fields.add(((StaticFieldKey) key).getField().getName());
+      else if (key instanceof ArrayContentsKey) arrays = true;
+    }
+    Footprint footprint = new Footprint(nodeNums, fields, arrays, allocated);
+    synchronized (footprints) {
+      footprints.put(callee, footprint);
+    }
+    return footprint;
+  }
+
+  private static <T> Set<T> minus(Set<T> set, Set<T> toRemove) {
+    Set<T> result = HashSetFactory.make();
+    for (T elem : set) {
+      if (!toRemove.contains(elem)) result.add(elem);
+    }
+    return result;
+  }
+
+  /**
+   * @return copies of @param path at the entry of its current node, one for
+   *         each state in the summary for @param exit (the projection of
+   *         @param path), or null if we don't have a summary
+   */
+  List<IPathInfo> lookup(Projection exit, IPathInfo path) {
+    Summary summary;
+    synchronized (this) {
+      dropIfStale(exit.hgVersion);
+      summary = summaries.get(exit.key);
+    }
+    if (summary == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    // the summary depends on what we read while making it
+    if (exit.hg != null) {
+      if (summary.reads == null) exit.hg.noteUnknownReads();
+      else exit.hg.noteReads(summary.reads);
+    }
+
+    List<IPathInfo> paths = new ArrayList<IPathInfo>(summary.entries.size());
+    for (EntryState entry : summary.entries) {
+      // the recording's variables -> ours. variables made inside the callee get fresh copies each time
+      Map<SymbolicPointerVariable, PointerVariable> ruleSubs = new IdentityHashMap<SymbolicPointerVariable, PointerVariable>();
+      Map<PointerVariable, PointerVariable> subs = new IdentityHashMap<PointerVariable, PointerVariable>();
+      for (int i = 0; i < summary.symbVars.size(); i++) {
+        ruleSubs.put(summary.symbVars.get(i), exit.symbVars.get(i));
+        subs.put(summary.symbVars.get(i), exit.symbVars.get(i));
+      }
+      CombinedPathAndPointsToQuery query = ((CombinedPathAndPointsToQuery) path.query).deepCopy();
+      query.constraints.removeAll(exit.pathConstraints);
+      query.constraints.addAll(entry.pathConstraints);
+      query.pointsToQuery.constraints.removeAll(exit.constraints);
+      for (PointsToEdge edge : entry.constraints) {
+        query.pointsToQuery.constraints.add(substitute(edge, subs, ruleSubs));
+      }
+      query.pointsToQuery.produced.removeAll(exit.produced);
+      for (PointsToEdge edge : entry.produced) {
+        query.pointsToQuery.produced.add(substitute(edge, subs, ruleSubs));
+      }
+      query.witnessList.addAll(entry.pathWitnesses);
+      for (DependencyRule rule : entry.ptWitnesses) {
+        query.pointsToQuery.witnessList.add(rule.substitute(ruleSubs));
+      }
+      query.rebuildPathVars();
+      paths.add(path.deepCopyWithQuery(query));
+    }
+    return paths;
+  }
+
+  private static PointsToEdge substitute(PointsToEdge edge, Map<PointerVariable, PointerVariable> subs,
+      Map<SymbolicPointerVariable, PointerVariable> ruleSubs) {
+    for (PointerVariable var : new PointerVariable[] { edge.getSource(), edge.getSink() }) {
+      if (var instanceof SymbolicPointerVariable && !subs.containsKey(var)) {
+        SymbolicPointerVariable symb = (SymbolicPointerVariable) var;
+        PointerVariable fresh = new SymbolicPointerVariable(InstanceKeySet.copyOf(symb.getPossibleValues()));
+        subs.put(symb, fresh);
+        ruleSubs.put(symb, fresh);
+      }
+    }
+    return edge.substitute(subs);
+  }
+
+  /**
+   * start recording what exploring the callee from @param exit reads from the
+   * heap graph
+   *
+   * @return the reads to pass to endRecording() and record()
+   */
+  HeapGraphWrapper.Reads startRecording(Projection exit) {
+    return exit.hg == null ? null : exit.hg.pushReads();
+  }
+
+  void endRecording(Projection exit, HeapGraphWrapper.Reads reads) {
+    if (exit.hg != null) exit.hg.popReads(reads);
+  }
+
+  /**
+   * @param entryQueries
+   *          - copies of the queries that reached the callee's entry from
+   *          @param exit; not modified afterward
+   */
+  void record(Projection exit, List<IQuery> entryQueries, HeapGraphWrapper.Reads reads) {
+    if (Options.CALLEE_SUMMARY_CACHE_SIZE <= 0) return;
+    Set<SymbolicPointerVariable> frameVars = Collections.newSetFromMap(new IdentityHashMap<SymbolicPointerVariable, Boolean>());
+    for (PointsToEdge edge : exit.frameConstraints) frameVars.addAll(edge.getSymbolicVars());
+    for (PointsToEdge edge : exit.frameProduced) frameVars.addAll(edge.getSymbolicVars());
+    List<EntryState> entries = new ArrayList<EntryState>(entryQueries.size());
+    for (IQuery entryQuery : entryQueries) {
+      EntryState entry = removeFrame(exit, (CombinedPathAndPointsToQuery) entryQuery, frameVars);
+      // the frame didn't pass through the callee untouched after all; don't trust the summary
+      if (entry == null) return;
+      entries.add(entry);
+    }
+    synchronized (this) {
+      dropIfStale(exit.hgVersion);
+      // don't keep a summary that saw the heap graph change under it
+      if (exit.hg != null && exit.hg.getVersion() != exit.hgVersion) return;
+      summaries.put(exit.key, new Summary(exit.symbVars, entries, reads));
+    }
+  }
+
+  private static EntryState removeFrame(Projection exit, CombinedPathAndPointsToQuery entry, Set<SymbolicPointerVariable> frameVars) {
+    if (!entry.constraints.containsAll(exit.framePathConstraints)
+        || !entry.pointsToQuery.constraints.containsAll(exit.frameConstraints)
+        || !entry.pointsToQuery.produced.containsAll(exit.frameProduced)
+        || entry.witnessList.size() < exit.pathWitnesses || entry.pointsToQuery.witnessList.size() < exit.ptWitnesses) {
+      return null;
+    }
+    Set<AtomicPathConstraint> pathConstraints = minus(entry.constraints, exit.framePathConstraints);
+    for (AtomicPathConstraint constraint : pathConstraints) {
+      for (PointerVariable var : constraint.getVars()) {
+        if (var.isSymbolic()) return null;
+      }
+    }
+    Set<PointsToEdge> constraints = minus(entry.pointsToQuery.constraints, exit.frameConstraints);
+    Set<PointsToEdge> produced = minus(entry.pointsToQuery.produced, exit.frameProduced);
+    // the callee can't have touched the frame's symbolic variables
+    if (usesAny(constraints, frameVars) || usesAny(produced, frameVars)) return null;
+    List<AtomicPathConstraint> pathWitnesses = new ArrayList<AtomicPathConstraint>(entry.witnessList.subList(exit.pathWitnesses,
+        entry.witnessList.size()));
+    for (AtomicPathConstraint constraint : pathWitnesses) {
+      for (PointerVariable var : constraint.getVars()) {
+        if (var.isSymbolic()) return null;
+      }
+    }
+    List<DependencyRule> ptWitnesses = new ArrayList<DependencyRule>(entry.pointsToQuery.witnessList.subList(exit.ptWitnesses,
+        entry.pointsToQuery.witnessList.size()));
+    return new EntryState(pathConstraints, constraints, produced, pathWitnesses, ptWitnesses);
+  }
+
+  private static boolean usesAny(Set<PointsToEdge> edges, Set<SymbolicPointerVariable> vars) {
+    for (PointsToEdge edge : edges) {
+      for (SymbolicPointerVariable var : edge.getSymbolicVars()) {
+        if (vars.contains(var)) return true;
+      }
+    }
+    return false;
+  }
+
+  // summaries made against an older heap graph may use refuted edges. call with the lock held
+  private void dropIfStale(int version) {
+    if (version == hgVersion) return;
+    evictions.addAndGet(summaries.size());
+    summaries.clear();
+    hgVersion = version;
+  }
+
+  public synchronized void clear() {
+    evictions.addAndGet(summaries.size());
+    summaries.clear();
+  }
+
+  public static String dumpStats() {
+    long numHits = hits.get(), numMisses = misses.get(), total = numHits + numMisses;
+    return numHits + " callee summary hits\n" + numMisses + " callee summary misses\n" + evictions.get()
+        + " callee summary evictions\n" + (total == 0 ? 0 : (numHits * 100.0) / total) + "% callee summary hit rate\n";
+  }
+}
@@ -76,7 +76,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
     }
     
     PointsToQueryWrapper(PointsToQuery qry, CombinedPathAndPointsToQuery parent) {
-      super(Util.deepCopyPointsToEdgeSet(qry.constraints), Util.deepCopySet(qry.produced), Util.deepCopyList(qry.witnessList), 
+      super(PersistentSet.copyOf(qry.constraints), PersistentSet.copyOf(qry.produced), PersistentList.copyOf(qry.witnessList), 
             qry.depRuleGenerator);
       this.parent = parent;
     }
@@ -111,7 +111,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
     }
     
     public PointsToQueryWrapper deepCopy(CombinedPathAndPointsToQuery parent) {
-      return new PointsToQueryWrapper(Util.deepCopyPointsToEdgeSet(constraints), Util.deepCopySet(produced), Util.deepCopyList(witnessList),
+      return new PointsToQueryWrapper(PersistentSet.copyOf(constraints), PersistentSet.copyOf(produced), PersistentList.copyOf(witnessList),
           depRuleGenerator, parent);
     }
   }
@@ -130,25 +130,25 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
   }
 
   CombinedPathAndPointsToQuery(PointsToQueryWrapper pointsToQuery, PathQuery pathQuery) {
-    super(pathQuery.constraints, pathQuery.pathVars, pathQuery.witnessList, pathQuery.depRuleGenerator, pathQuery.ctx, pathQuery.solver);
+    super(pathQuery.constraints, pathQuery.pathVars, pathQuery.witnessList, pathQuery.depRuleGenerator, pathQuery.solver);
     this.pointsToQuery = pointsToQuery.deepCopy(this);
   }
   
   CombinedPathAndPointsToQuery(PointsToQuery ptQuery, PathQuery pathQuery) {
-    super(pathQuery.constraints, pathQuery.pathVars, pathQuery.witnessList, pathQuery.depRuleGenerator, pathQuery.ctx, pathQuery.solver);
+    super(pathQuery.constraints, pathQuery.pathVars, pathQuery.witnessList, pathQuery.depRuleGenerator, pathQuery.solver);
     this.pointsToQuery = new PointsToQueryWrapper(ptQuery, this);
   }
   
   CombinedPathAndPointsToQuery(PathQuery pathQuery) {
-    super(pathQuery.constraints, pathQuery.pathVars, pathQuery.witnessList, pathQuery.depRuleGenerator, pathQuery.ctx, pathQuery.solver);
-    Set<PointsToEdge> ptConstraints = HashSetFactory.make();
-    Set<PointsToEdge> ptProduced = HashSetFactory.make();
-    this.pointsToQuery = new PointsToQueryWrapper(ptConstraints, ptProduced, new ArrayList<DependencyRule>(),
+    super(pathQuery.constraints, pathQuery.pathVars, pathQuery.witnessList, pathQuery.depRuleGenerator, pathQuery.solver);
+    Set<PointsToEdge> ptConstraints = new PersistentSet<PointsToEdge>();
+    Set<PointsToEdge> ptProduced = new PersistentSet<PointsToEdge>();
+    this.pointsToQuery = new PointsToQueryWrapper(ptConstraints, ptProduced, new PersistentList<DependencyRule>(),
         pathQuery.depRuleGenerator, this);
   }
   
   CombinedPathAndPointsToQuery(CombinedPathAndPointsToQuery query) {
-    super(query.constraints, query.pathVars, query.witnessList, query.depRuleGenerator, query.ctx, query.solver);
+    super(query.constraints, query.pathVars, query.witnessList, query.depRuleGenerator, query.solver);
     this.pointsToQuery = query.pointsToQuery;
   }
   
@@ -156,7 +156,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
     Util.Pre(old instanceof CombinedPathAndPointsToQuery);
     CombinedPathAndPointsToQuery other = (CombinedPathAndPointsToQuery) old;    
     Set<PointsToEdge> newPtEdges = HashSetFactory.make();
-    Set<AtomicPathConstraint> newPathConstraints = HashSetFactory.make();
+    Set<AtomicPathConstraint> newPathConstraints = new PersistentSet<AtomicPathConstraint>();
         
     for (Constraint constraint : constraints) {
       if (constraint instanceof PointsToEdge) {
@@ -172,7 +172,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
     }
     
     Set<PointerVariable> newPathVars = HashSetFactory.make();
-    PathQuery newPathQuery = new PathQuery(newPathConstraints, newPathVars, Collections.EMPTY_LIST, other.depRuleGenerator, other.ctx, other.solver);
+    PathQuery newPathQuery = new PathQuery(newPathConstraints, newPathVars, new PersistentList<AtomicPathConstraint>(), other.depRuleGenerator, other.solver);
     CombinedPathAndPointsToQuery newQuery = new CombinedPathAndPointsToQuery(newPathQuery);
     newQuery.pointsToQuery.constraints.addAll(newPtEdges);
     return newQuery;
@@ -221,7 +221,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
     if (!super.visit(instr, node, tbl)) return false;
     // help the points-to constraints spot assignments to null--we don't generate dependency rules for these
     if (tbl.isNullConstant(instr.getVal())) {      
-      PointerVariable varName = new ConcretePointerVariable(node, instr.getRef(), this.heapModel);
+      PointerVariable varName = ConcretePointerVariable.make(node, instr.getRef(), this.heapModel);
       PointerVariable heapVar = this.pointsToQuery.getPointedTo(varName);
       if (heapVar == null) return true;// pts-to constraints do not contain varName
       FieldReference fieldName = instr.getDeclaredField();
@@ -238,7 +238,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
   @Override
   boolean visitStaticPut(SSAPutInstruction instr, CGNode node, SymbolTable tbl) {
     if (!super.visitStaticPut(instr, node, tbl)) return false;
-    PointerVariable localVar = new ConcretePointerVariable(node, instr.getUse(0), depRuleGenerator.getHeapModel());
+    PointerVariable localVar = ConcretePointerVariable.make(node, instr.getUse(0), depRuleGenerator.getHeapModel());
     PointerVariable heapVal = this.pointsToQuery.getPointedTo(localVar, false);
     if (pathVars.contains(heapVal)) {
       // do substitution
@@ -251,7 +251,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
   @Override
   boolean visit(SSAGetInstruction instr, CGNode node) {
     Util.Assert(instr.getNumberOfDefs() == 1, "Expecting only 1 def!");
-    PointerVariable varName = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable varName = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(varName)) {
       SimplePathTerm toSub = null;
       if (instr.isStatic()) { // static field get
@@ -315,7 +315,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
   
   @Override
   public boolean visit(SSALoadMetadataInstruction instr, CGNode node) {
-    PointerVariable lhsVar = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable lhsVar = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(lhsVar)) {
       if (Util.isClassMetadataGetter(instr)) {
         // this instruction is lhsVar = something.class
@@ -334,7 +334,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
   
   @Override
   public boolean visit(SSAInstanceofInstruction instr, CGNode node) {
-    PointerVariable lhsVar = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable lhsVar = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(lhsVar)) {
       boolean negated = false, found = false;
       // find the constraint and see if it's negated or not
@@ -358,7 +358,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
       ClassHierarchy cha = this.depRuleGenerator.getClassHierarchy();
       // instruction is lhsVar = instanceof checkedVar
       // get local whose type we checked
-      PointerVariable checkedVar = new ConcretePointerVariable(node, instr.getUse(0), this.heapModel);
+      PointerVariable checkedVar = ConcretePointerVariable.make(node, instr.getUse(0), this.heapModel);
       // see what the local var points to according to the points-to query
       PointerVariable rhsVar = this.pointsToQuery.getPointedTo(checkedVar);
       
@@ -366,7 +366,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
       if (rhsVar == null) {
         Util.Debug("var " + checkedVar + " not in pts-to constraints... looking it up");
         // checkedVar not in the points-to query; find it in the pointer analysis and get its possible values
-        oldKeys = HashSetFactory.make();
+        oldKeys = new InstanceKeySet(this.getDepRuleGenerator().pa);
         Iterator<Object> succs = this.getDepRuleGenerator().getHeapGraph().getSuccNodes(checkedVar.getInstanceKey());
         while (succs.hasNext()) {
           Object key = succs.next();
@@ -382,7 +382,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
         } else {
           // add checkedVar -> possibleValues edge to points-to constraints.
           // no need to check feasibility here. since we know checkedVar wasn't an lhs before, this can't cause a refutation
-          this.pointsToQuery.constraints.add(new PointsToEdge(checkedVar, SymbolicPointerVariable.makeSymbolicVar(oldKeys)));
+          this.pointsToQuery.constraints.add(PointsToEdge.make(checkedVar, SymbolicPointerVariable.makeSymbolicVar(oldKeys)));
         }
       } else {
         // look inside rhsVar and grab the instance keys that are of the required type
@@ -392,7 +392,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
       // get the class for the type we checked against 
       TypeReference type = instr.getCheckedType();
       IClass checkedType = cha.lookupClass(type);
-      Set<InstanceKey> newKeys = HashSetFactory.make();
+      Set<InstanceKey> newKeys = new InstanceKeySet(this.getDepRuleGenerator().pa);
       for (InstanceKey key : oldKeys) {
         if (cha.isAssignableFrom(checkedType, key.getConcreteType())) {
           if (!negated) {
@@ -430,7 +430,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
         }
       }
       if (toRemove != null) ptConstraints.remove(toRemove);
-      PointsToEdge instanceOfConstrainedEdge = new PointsToEdge(checkedVar, SymbolicPointerVariable.makeSymbolicVar(newKeys)); 
+      PointsToEdge instanceOfConstrainedEdge = PointsToEdge.make(checkedVar, SymbolicPointerVariable.makeSymbolicVar(newKeys)); 
       ptConstraints.add(instanceOfConstrainedEdge);
     }
     return true;
@@ -438,7 +438,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
   
   @Override
   boolean visit(SSANewInstruction instr, CGNode node, SymbolTable tbl) {
-    PointerVariable local = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable local = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     InstanceKey allocatedKey = null;
     try {
       allocatedKey = this.heapModel.getInstanceKeyForAllocation(node, instr.getNewSite());
@@ -471,7 +471,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
         if (tbl.isConstant(instr.getUse(0))) {
           arrLength = new SimplePathTerm(tbl.getIntValue(instr.getUse(0)));
         } else {
-          arrLength = new SimplePathTerm(new ConcretePointerVariable(node, instr.getUse(0), this.heapModel));
+          arrLength = new SimplePathTerm(ConcretePointerVariable.make(node, instr.getUse(0), this.heapModel));
         }
         substituteExpForFieldRead(arrLength, subFor, SimplePathTerm.LENGTH);
       }
@@ -495,7 +495,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
               if (term.getObject() != null && term.getObject().getInstanceKey() != null && term.getObject().getInstanceKey().equals(arrRef)) {
                 Util.Assert(term.getFirstField() != null);
                 // remove constraints on index value
-                PointerVariable indexName = new ConcretePointerVariable(term.getFirstField().getName().toString());
+                PointerVariable indexName = ConcretePointerVariable.make(term.getFirstField().getName().toString());
                 toRemove.addAll(this.getConstraintsWithVar(indexName, false));
                 // assign to default value
                 //substituteExpForFieldRead(DEFAULT_ARR_VAL, term.getObject(), term.getFirstField());
@@ -516,7 +516,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
     int storedVal = instr.getValue();
     SimplePathTerm stored;
     if (tbl.isIntegerConstant(storedVal)) stored = new SimplePathTerm(tbl.getIntValue(storedVal));
-    else stored = new SimplePathTerm(new ConcretePointerVariable(node, storedVal, this.heapModel));
+    else stored = new SimplePathTerm(ConcretePointerVariable.make(node, storedVal, this.heapModel));
     
     List<AtomicPathConstraint> arrConstraints = getConstraintsWithVar(arrayVar, true);    
     if (arrConstraints.isEmpty()) return true; // can't affect us   
@@ -574,7 +574,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
   @Override
   // TODO: this is too slow--redo with local vars
   boolean visit(SSAArrayStoreInstruction instr, CGNode node, SymbolTable tbl) {
-    PointerVariable arrayVar = new ConcretePointerVariable(node, instr.getArrayRef(), this.heapModel);
+    PointerVariable arrayVar = ConcretePointerVariable.make(node, instr.getArrayRef(), this.heapModel);
     if (Options.INDEX_SENSITIVITY) {
       if (pathVars.contains(arrayVar)) {
         return visitArrayStoreInternal(instr, node, tbl, arrayVar);
@@ -657,21 +657,21 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
   public boolean handleStubbedMethod(SSAInvokeInstruction instr, IPathInfo currentPath) {
     Util.Print("handling stub;");
     CGNode caller = currentPath.getCurrentNode();
-    substituteExpForVar(new SimplePathTerm(new ConcretePointerVariable(caller, instr.getUse(0), this.depRuleGenerator.hm)),
-                        new ConcretePointerVariable(caller, instr.getDef(), this.depRuleGenerator.hm));
+    substituteExpForVar(new SimplePathTerm(ConcretePointerVariable.make(caller, instr.getUse(0), this.depRuleGenerator.hm)),
+                        ConcretePointerVariable.make(caller, instr.getDef(), this.depRuleGenerator.hm));
    return isFeasible();
     
     /*
     if (tbl.isIntegerConstant(instr.getUse(0))) {
       substituteExpForVar(new SimplePathTerm(tbl.getIntValue(instr.getUse(0))), 
-                          new ConcretePointerVariable(caller, instr.getDef(), this.depRuleGenerator.hm));
+                          ConcretePointerVariable.make(caller, instr.getDef(), this.depRuleGenerator.hm));
       return isFeasible();
     }*/
     //return true;
    
      //Util.Assert(instr.hasDef() && instr.getNumberOfUses() == 1);
-     //PointerVariable retval = new ConcretePointerVariable(caller, instr.getDef(), this.heapModel);
-     //PointerVariable receiver = new ConcretePointerVariable(caller, instr.getReceiver(), this.heapModel);
+     //PointerVariable retval = ConcretePointerVariable.make(caller, instr.getDef(), this.heapModel);
+     //PointerVariable receiver = ConcretePointerVariable.make(caller, instr.getReceiver(), this.heapModel);
    
   }
   
@@ -714,14 +714,14 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
     int[] params = callee.getIR().getParameterValueNumbers();
     HeapGraph hg = this.depRuleGenerator.getHeapGraph();
     for (int i = 0; i < params.length; i++) { // for each parameter
-      PointerVariable param = new ConcretePointerVariable(callee, params[i], this.heapModel);
+      PointerVariable param = ConcretePointerVariable.make(callee, params[i], this.heapModel);
       Set<InstanceKey> pt = param.getPointsToSet(hg);
       if (!pt.isEmpty()) {
         PointsToEdge toAdd = null;
         PointerVariable paramPT = SymbolicPointerVariable.makeSymbolicVar(pt);
         for (PointsToEdge edge : pointsToQuery.constraints) {
           if (paramPT.symbEq(edge.getSource())) {
-            toAdd = new PointsToEdge(param, edge.getSource());
+            toAdd = PointsToEdge.make(param, edge.getSource());
             break;
           }        
         }
@@ -761,8 +761,8 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
                 if (possibleVals.contains(site)) {                  
                   // found one. add a new points-to edge connecting the local associated with this new site to arrayVar
                   Util.Assert(!added); // more than one possible local ptr to array var! need to do case split
-                  PointerVariable local = new ConcretePointerVariable(callee, newInstr.getDef(), heapModel);
-                  PointsToEdge edge = new PointsToEdge(local, arrayVar);
+                  PointerVariable local = ConcretePointerVariable.make(callee, newInstr.getDef(), heapModel);
+                  PointsToEdge edge = PointsToEdge.make(local, arrayVar);
                   Util.Print("adding local constraint " + edge + " for array index constraint");
                   this.pointsToQuery.constraints.add(edge);
                   added = true;
@@ -781,12 +781,12 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
     MutableIntSet bound = new BitVectorIntSet();
     for (int i = 0; i < params.length; i++) { // for each parameter
       PointerKey key = hm.getPointerKeyForLocal(callee, params[i]);
-      PointerVariable param = new ConcretePointerVariable(callee, params[i], this.heapModel);
+      PointerVariable param = ConcretePointerVariable.make(callee, params[i], this.heapModel);
       Iterator<Object> succs = hg.getSuccNodes(key);
       while (succs.hasNext()) { // for each object this parameter might point to
         Object succ = succs.next();
         PointerVariable paramPointedTo = Util.makePointerVariable(succ);
-        PointsToEdge producedEdge = new PointsToEdge(param, paramPointedTo);
+        PointsToEdge producedEdge = PointsToEdge.make(param, paramPointedTo);
         
         List<PointsToEdge> ptConstraintsToRemove = new ArrayList(1);
         List<PointsToEdge> ptConstraintsToAdd = new ArrayList(1);
@@ -797,7 +797,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
             if (edge.getSource().isSymbolic()) {
               // instantiate source with concrete value of paramPointedTo   
               ptConstraintsToRemove.add(edge);
-              ptConstraintsToAdd.add(new PointsToEdge(paramPointedTo, edge.getSink(), edge.getField()));
+              ptConstraintsToAdd.add(PointsToEdge.make(paramPointedTo, edge.getSink(), edge.getField()));
             }
 
             if (pointsToQuery.produced.add(producedEdge)) {
@@ -910,7 +910,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
     IMethod method = node.getMethod();
     for (int i = 0; i < method.getNumberOfParameters(); i++) {
       if (method.getParameterType(i).isPrimitiveType()) continue;
-      PointerVariable param = new ConcretePointerVariable(node, i + 1, this.heapModel);
+      PointerVariable param = ConcretePointerVariable.make(node, i + 1, this.heapModel);
       Set<InstanceKey> possibleValues = param.getPointsToSet(hg);
       if (possibleValues.isEmpty()) continue;
       for (PointerVariable var : maySub) {
@@ -1093,7 +1093,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
       if (Options.DEBUG) Util.Debug("dropping constraint produceable by rule set" + constraint);
       removeConstraint(constraint);
     }
-    super.rebuildZ3Constraints();
+    super.rebuildPathVars();
   }
   
 
@@ -1125,14 +1125,14 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
             dropConstraintsContaining(staticFieldVar);
           }
         } else {
-          PointerVariable varName = new ConcretePointerVariable(node, instr.getUse(0), this.heapModel); 
+          PointerVariable varName = ConcretePointerVariable.make(node, instr.getUse(0), this.heapModel); 
           if (pathVars.contains(varName)) {
             Util.Debug("dropping constraints with " + varName + " due to loop instr " + instr);
             dropConstraintsContaining(varName, fld);
           }
         }
       } else if (instr.hasDef()) {
-        PointerVariable var = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+        PointerVariable var = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
         if (this.pathVars.contains(var)) {
           Util.Debug("dropping constraints with " + var + " due to loop insr " + instr);
           dropConstraintsContaining(var);
@@ -1156,7 +1156,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
   void dropPathConstraintsProduceableByCall(SSAInvokeInstruction instr, CGNode caller, CGNode callee) {
     ConcretePointerVariable retval = null;
     if (instr.hasDef()) {
-      retval = new ConcretePointerVariable(caller, instr.getDef(), this.heapModel);
+      retval = ConcretePointerVariable.make(caller, instr.getDef(), this.heapModel);
       dropConstraintsContaining(retval);
     }
     // a null callee means we're dropping constraints for a call that resolves to 0 call sites (so only need
@@ -1181,7 +1181,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
   boolean doesCallWriteToHeapLocsInPathConstraints(SSAInvokeInstruction instr, CGNode caller, CGNode callee, CallGraph cg) {
     // do constraints contain retval of this call?
     if (instr.hasDef()) {
-      ConcretePointerVariable retval = new ConcretePointerVariable(caller, instr.getDef(), this.heapModel);
+      ConcretePointerVariable retval = ConcretePointerVariable.make(caller, instr.getDef(), this.heapModel);
       if (this.pathVars.contains(retval)) {
         Util.Debug("path vars contain retval");
         return true; // constraints contain retval; definitely relevant
@@ -1389,7 +1389,7 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
   private Map<Constraint, Set<CGNode>> getModifiersForQueryHelper() {
     CallGraph cg = depRuleGenerator.getCallGraph();
     CGNode fakeWorldClinit = WALACFGUtil.getFakeWorldClinitNode(cg);
-    Map<PointerKey, Set<CGNode>> reversedModRef = this.depRuleGenerator.getReversedModRef();
+    ReversedModRef reversedModRef = this.depRuleGenerator.getReversedModRef();
     Map<Constraint, Set<CGNode>> constraintModMap = HashMapFactory.make();//new HashMap<Constraint, Set<CGNode>>();
     for (AtomicPathConstraint constraint : this.constraints) {
       Set<CGNode> nodes = HashSetFactory.make();
@@ -1397,10 +1397,8 @@ public class CombinedPathAndPointsToQuery extends PathQuery {
       addClassInitsForStaticFields(constraint, nodes);
       // if it may write to the constraint
       for (PointerKey key : constraint.getPointerKeys(depRuleGenerator)) {
-        Set<CGNode> modRefNodes = reversedModRef.get(key);
-        // this can happen when var is the this param for a class with no fields
-        if (modRefNodes == null) continue;
-        for (CGNode node : modRefNodes) {
+        // empty when var is the this param for a class with no fields
+        for (CGNode node : reversedModRef.getModifiers(key)) {
           // add to mapping *only* if node modifies pointer key directly (not via callees)
           // this is because the use of the reversed mod/ref is to jump directly to
           // the node that might modify our key of interest
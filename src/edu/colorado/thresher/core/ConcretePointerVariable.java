@@ -3,6 +3,7 @@ package edu.colorado.thresher.core;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ibm.wala.analysis.pointers.HeapGraph;
 import com.ibm.wala.classLoader.IField;
@@ -27,10 +28,62 @@ public class ConcretePointerVariable implements PointerVariable { // implements
                                                                   // Comparable
                                                                   // {
 
+  // interned vars by everything they were made from. vars made from equal WALA
+  // keys but a different node, method, use, or name are equal, but print
+  // differently, so they are interned separately
+  private static final WeakInternTable<VarKey, ConcretePointerVariable> internTable = new WeakInternTable<VarKey, ConcretePointerVariable>();
+  // equality class of each WALA key a var has been made from
+  private static final WeakInternTable<Object, KeyId> keyIds = new WeakInternTable<Object, KeyId>();
+  private static final AtomicInteger idCounter = new AtomicInteger();
+
+  // dense id shared by all vars made from keys equal to key. holds key, so
+  // the entry for it in keyIds lives as long as some var has this id
+  private static final class KeyId {
+    final Object key;
+    final int id;
+
+    KeyId(Object key, int id) {
+      this.key = key;
+      this.id = id;
+    }
+  }
+
+  private static final class VarKey {
+    final KeyId keyId;
+    final CGNode node;
+    final IMethod method;
+    final int useNum;
+    final String name;
+
+    VarKey(KeyId keyId, CGNode node, IMethod method, int useNum, String name) {
+      this.keyId = keyId;
+      this.node = node;
+      this.method = method;
+      this.useNum = useNum;
+      this.name = name;
+    }
+
+    @Override
+    public int hashCode() {
+      return keyId.id * 31 + useNum;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof VarKey)) return false;
+      VarKey k = (VarKey) other;
+      return keyId == k.keyId && useNum == k.useNum && Util.equal(node, k.node) && Util.equal(method, k.method)
+          && Util.equal(name, k.name);
+    }
+  }
+
   public final static ConcretePointerVariable NEVER_EQ = new ConcretePointerVariable();
 
   private final String name;
-  //private final int id;
+  // equal vars have the same id; see equals()
+  private final int id;
+  // keeps this var's entry in the intern table alive as long as the var is
+  private final VarKey key;
   // private final int typeId;
 
   private final CGNode node;
@@ -44,7 +97,8 @@ public class ConcretePointerVariable implements PointerVariable { // implements
 
   private ConcretePointerVariable() {
     this.name = null;
-    //this.id = -1;
+    this.id = idCounter.getAndIncrement();
+    this.key = null;
     // this.typeId = -1;
     this.node = null;
     this.useNum = -5;
@@ -53,111 +107,80 @@ public class ConcretePointerVariable implements PointerVariable { // implements
     this.method = null;
   }
 
-  // public ConcretePointerVariable(CGNode node, int useNum,
-  // AbstractDependencyRuleGenerator gen, int nodeNum) {
-  public ConcretePointerVariable(CGNode node, int useNum, HeapModel hm) {
+  private ConcretePointerVariable(Object instanceKey, CGNode node, IMethod method, int useNum, String name, int id, VarKey key) {
+    this.instanceKey = instanceKey;
     this.node = node;
+    this.method = method;
     this.useNum = useNum;
-    this.name = Util.makeLocalVarName(node, useNum);
+    this.name = name;
+    this.id = id;
+    this.key = key;
+  }
+
+  /**
+   * @return the variable made from exactly these arguments, creating it if
+   *         there isn't one yet
+   */
+  private static ConcretePointerVariable intern(Object instanceKey, CGNode node, IMethod method, int useNum, String name) {
+    // vars without a key are only equal to themselves
+    if (instanceKey == null) return new ConcretePointerVariable(instanceKey, node, method, useNum, name, idCounter.getAndIncrement(), null);
+    KeyId keyId = keyIds.get(instanceKey);
+    if (keyId == null) keyId = keyIds.intern(instanceKey, new KeyId(instanceKey, idCounter.getAndIncrement()));
+    VarKey key = new VarKey(keyId, node, method, useNum, name);
+    ConcretePointerVariable var = internTable.get(key);
+    if (var != null) return var;
+    return internTable.intern(key, new ConcretePointerVariable(instanceKey, node, method, useNum, name, keyId.id, key));
+  }
 
-    // this.typeId = Util.getIdForType(name);
-    // if (useNum != -1) Util.Assert(name.indexOf('@') == -1, "weird var name "
-    // + name + " " + useNum);
+  // public ConcretePointerVariable(CGNode node, int useNum,
+  // AbstractDependencyRuleGenerator gen, int nodeNum) {
+  public static ConcretePointerVariable make(CGNode node, int useNum, HeapModel hm) {
     // this.instanceKey = gen.getHeapModel().getPointerKeyForLocal(node,
     // useNum);
-    this.instanceKey = hm.getPointerKeyForLocal(node, useNum);
-
-    // this.id = gen.getHeapGraph().getNumber(instanceKey);
-
+    Object key = hm.getPointerKeyForLocal(node, useNum);
     // Util.Assert(instanceKey != null, "couldn't find pointerkey for " + node +
     // " -v " + useNum);
-    //this.id = instanceKey.toString().hashCode();// Util.getIdForVar(name);
-    // Util.Assert(((LocalPointerKey) instanceKey).getNode().equals(node),
-    // "nodes don't match!");
-
-    // this.instanceNum = PointerVariable.ANY_INSTANCE_NUM;
-    this.method = null;
+    // the name is only printed when there is no key; don't build it otherwise
+    return intern(key, node, null, useNum, key == null ? Util.makeLocalVarName(node, useNum) : null);
   }  
 
-  public ConcretePointerVariable(Object key, CGNode node) {
-    this.node = node;
-    this.useNum = -1;
-    this.name = null;
-    this.instanceKey = key;
-    //this.id = instanceKey.toString().hashCode();
-    this.method = null;
+  public static ConcretePointerVariable make(Object key, CGNode node) {
+    return intern(key, node, null, -1, null);
   }
 
-  public ConcretePointerVariable(Object key, CGNode node, int useNum) {
-    this.node = node;
-    this.useNum = useNum;
-    this.name = null;
-    // if (name.contains("synthetic")) {
-    // name = name.replace("synthetic ", "");
-    // }
-    // this.name = name;
-    // this.id = Util.getIdForVar(name);
-    // this.typeId = typeId;
-    // Util.Assert(!name.contains("synthetic"), "evil synthetic var name " +
-    // name);
-    // if (useNum != -1) Util.Assert(name.indexOf('@') == -1, "weird var name "
-    // + name + " " + useNum);
-    this.instanceKey = key;
-    //this.id = instanceKey.toString().hashCode();
-    // this.instanceNum = PointerVariable.ANY_INSTANCE_NUM;
-    this.method = null;
+  public static ConcretePointerVariable make(Object key, CGNode node, int useNum) {
+    return intern(key, node, null, useNum, null);
   }
 
-  public ConcretePointerVariable(Object walaKey, CGNode node, String name) {
-    this.node = node;
-    this.useNum = -1;
-    this.name = name;
-    // this.id = Util.getIdForVar(name);
-    // this.typeId = typeId;
-    this.instanceKey = walaKey;
-    //this.id = instanceKey.toString().hashCode();
-    // this.instanceNum = PointerVariable.ANY_INSTANCE_NUM;
-    this.method = null;
+  public static ConcretePointerVariable make(Object walaKey, CGNode node, String name) {
+    return intern(walaKey, node, null, -1, name);
   }
 
   // for static fields / allocation sites with no context
-  public ConcretePointerVariable(Object walaKey, IMethod method, String name) {
-    this.node = null;
-    this.useNum = -1;
-    this.name = name;
-    // this.id = Util.getIdForVar(name);
-    // this.typeId = typeId;
-    this.instanceKey = walaKey;
-    //this.id = instanceKey.toString().hashCode();
-    // this.instanceNum = -1;
-    this.method = method;
+  public static ConcretePointerVariable make(Object walaKey, IMethod method, String name) {
+    return intern(walaKey, null, method, -1, name);
   }
 
   // for types
-  public ConcretePointerVariable(Object walaKey, String name) {
-    this.node = null;
-    this.useNum = -1;
-    this.name = name;
-    // this.id = Util.getIdForVar(name);
-    // this.typeId = typeId;
-    this.instanceKey = walaKey;
-    //this.id = instanceKey.toString().hashCode();
-    // this.instanceNum = -1;
-    this.method = null;
+  public static ConcretePointerVariable make(Object walaKey, String name) {
+    return intern(walaKey, null, null, -1, name);
   }
 
   // for constants
-  public ConcretePointerVariable(String name) {
-    this.node = null;
-    this.useNum = -1;
-    this.name = name;
-    // this.id = Util.getIdForVar(name);
-    // this.typeId = typeId;
-    //this.instanceKey = null;
-    this.instanceKey = name;
-    //this.id = name.hashCode();
-    // this.instanceNum = -1;
-    this.method = null;
+  public static ConcretePointerVariable make(String name) {
+    return intern(name, null, null, -1, name);
+  }
+
+  // for RuleCache, which stores everything a var was made from
+  static ConcretePointerVariable make(Object key, CGNode node, int useNum, String name) {
+    return intern(key, node, null, useNum, name);
+  }
+
+  /**
+   * @return number of interned vars that are still live
+   */
+  public static int getNumInterned() {
+    return internTable.size();
   }
   
   public static PointerVariable make(Object key) {
@@ -192,7 +215,7 @@ public class ConcretePointerVariable implements PointerVariable { // implements
    */
   @Override
   public Set<InstanceKey> getPointsAtSet(HeapGraph hg, IField fld) {
-    Set<InstanceKey> pointsAtSet = HashSetFactory.make();
+    Set<InstanceKey> pointsAtSet = new InstanceKeySet(hg.getPointerAnalysis());
     Util.Pre(!fld.isStatic(), "what to do here?");
     boolean arrayFld = fld.equals(AbstractDependencyRuleGenerator.ARRAY_CONTENTS);
     for (Iterator<Object> fldIter = hg.getPredNodes(this.instanceKey); fldIter.hasNext();) {
@@ -253,7 +276,7 @@ public class ConcretePointerVariable implements PointerVariable { // implements
   
   public static Set<InstanceKey> getPointsToSet(Set keys, IField fld, HeapGraph hg) {
     Util.Pre(fld != null);
-    Set<InstanceKey> pointsToSet = HashSetFactory.make();
+    Set<InstanceKey> pointsToSet = new InstanceKeySet(hg.getPointerAnalysis());
     boolean arrayFld = fld.equals(AbstractDependencyRuleGenerator.ARRAY_CONTENTS);
     boolean staticFld = fld.isStatic();
     
@@ -289,7 +312,7 @@ public class ConcretePointerVariable implements PointerVariable { // implements
   @Override
   public Set<InstanceKey> getPointsToSet(HeapGraph hg) {
     Util.Pre(this.isLocalVar());
-    Set<InstanceKey> keys = HashSetFactory.make();
+    Set<InstanceKey> keys = new InstanceKeySet(hg.getPointerAnalysis());
     for (Iterator<Object> succs = hg.getSuccNodes(this.instanceKey); succs.hasNext();) {
       keys.add((InstanceKey) succs.next());
     }    
@@ -391,9 +414,9 @@ public class ConcretePointerVariable implements PointerVariable { // implements
     if (other instanceof SymbolicPointerVariable)
       return 1;
     else if (other instanceof ConcretePointerVariable) {
-      ConcretePointerVariable p = (ConcretePointerVariable) other;      
-      //return this.id - p.id;
-      return this.instanceKey.toString().compareTo(p.instanceKey.toString());
+      // orders vars by when their key was first seen
+      int otherId = ((ConcretePointerVariable) other).id;
+      return id < otherId ? -1 : (id == otherId ? 0 : 1);
     } else {
       Util.Unimp("comparing to non-pointer " + other);
       return 1;
@@ -402,22 +425,18 @@ public class ConcretePointerVariable implements PointerVariable { // implements
 
   @Override
   public boolean equals(Object other) {
-    if (other instanceof ConcretePointerVariable) {
-      ConcretePointerVariable p = (ConcretePointerVariable) other;
-      //return this.id == p.id;
-      return this.instanceKey.equals(p.instanceKey);
-      /*
-       * // return this.id == p.id; if (instanceKey != null && p.instanceKey !=
-       * null) { //return
-       * instanceKey.toString().equals(p.instanceKey.toString()); return this.id
-       * == p.id; } else if (this.method != null && p.method != null) {
-       * Util.Assert(false, "bad pointer vars " + other + " " + this); return
-       * this.method.toString().equals(p.method.toString()); //return
-       * this.method.hashCode() == p.method.hashCode(); } //return
-       * this.toString().equals(p.toString());
-       */
-    }
-    return false;
+    if (this == other) return true;
+    if (!(other instanceof ConcretePointerVariable)) return false;
+    // vars with equal keys are equal even if they were made in different
+    // nodes. NEVER_EQ and vars without a key are only equal to themselves
+    return this.id == ((ConcretePointerVariable) other).id;
+  }
+
+  /**
+   * @return dense id that equal vars share
+   */
+  int getId() {
+    return id;
   }
 
   public int getUseNum() {
@@ -461,20 +480,12 @@ public class ConcretePointerVariable implements PointerVariable { // implements
 
   @Override
   public int hashCode() {
-    // String hashString = this.method.toString() + " " + this.name + " " +
-    // this.instanceNum;
-    // return hashString.hashCode();
-    // return name.hashCode();
-    if (instanceKey != null)
-      return instanceKey.hashCode(); // return
-                                     // instanceKey.toString().hashCode();
-    return name.hashCode();
+    return id;
   }
 
-  // public String getName() { return name; }
-  /*
-   * public int getId() { return id; }
-   */
+  String getName() {
+    return name;
+  }
 
   public boolean isSymbolic() {
     return false;
@@ -0,0 +1,403 @@
+package edu.colorado.thresher.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.wala.shrikeBT.ConditionalBranchInstruction.Operator;
+import com.ibm.wala.util.collections.HashMapFactory;
+import com.ibm.wala.util.collections.HashSetFactory;
+
+/**
+ * cheap decision procedure that runs before Z3. handles constraint sets whose
+ * sides are sums and differences of variables and integer constants, as long
+ * as each constraint boils down to var op c or x - y op c. var == var
+ * constraints merge equivalence classes (union-find), var op c constraints
+ * give each class an interval plus a set of excluded values, and x - y op c
+ * constraints become edges of a difference-bound graph over the classes, whose
+ * satisfiability Bellman-Ford decides. disequalities the graph can't decide,
+ * and anything else (multiplication, disjunctions, x + y), are left to Z3
+ */
+public class ConstraintPreSolver {
+
+  private static final AtomicLong numDecided = new AtomicLong();
+  private static final AtomicLong numFallbacks = new AtomicLong();
+
+  private static final long INF = Long.MAX_VALUE;
+
+  // equivalence class of variables. Z3 names a SimplePathTerm by its string
+  // representation, so we do the same
+  private static class VarClass {
+    VarClass parent = this;
+    long lo = Long.MIN_VALUE, hi = Long.MAX_VALUE;
+    Set<Long> excluded = null;
+    // node in the difference-bound graph
+    int node = -1;
+    // true if some difference constraint mentions the class
+    boolean related = false;
+
+    VarClass find() {
+      VarClass root = this;
+      while (root.parent != root) root = root.parent;
+      // path compression
+      VarClass cur = this;
+      while (cur.parent != root) {
+        VarClass next = cur.parent;
+        cur.parent = root;
+        cur = next;
+      }
+      return root;
+    }
+
+    void exclude(long val) {
+      if (excluded == null) excluded = HashSetFactory.make();
+      excluded.add(val);
+    }
+
+    // intersect with [lo, hi]. @return false if the interval becomes empty
+    boolean restrict(long newLo, long newHi) {
+      lo = Math.max(lo, newLo);
+      hi = Math.min(hi, newHi);
+      return lo <= hi;
+    }
+
+    // shrink the bounds past excluded values. @return false if no value is left
+    boolean normalize() {
+      if (lo > hi) return false;
+      if (excluded == null) return true;
+      while (lo != Long.MIN_VALUE && lo <= hi && excluded.contains(lo)) lo++;
+      while (hi != Long.MAX_VALUE && lo <= hi && excluded.contains(hi)) hi--;
+      return lo <= hi;
+    }
+  }
+
+  // sum of variables (by name) times their coefficients, plus a constant
+  private static class Linear {
+    final Map<String, Long> coeffs = HashMapFactory.make();
+    long constant = 0;
+
+    // add @param sign times @param term. @return false if term isn't linear
+    boolean add(PathTerm term, long sign) {
+      if (term instanceof SimplePathTerm) {
+        if (term.isIntegerConstant()) {
+          constant += sign * term.evaluate();
+          return true;
+        }
+        String name = term.toString();
+        Long coeff = coeffs.get(name);
+        long newCoeff = (coeff == null ? 0 : coeff) + sign;
+        if (newCoeff == 0) coeffs.remove(name);
+        else coeffs.put(name, newCoeff);
+        return true;
+      }
+      if (term instanceof PathTermWithBinOp) {
+        PathTermWithBinOp binOp = (PathTermWithBinOp) term;
+        switch (binOp.getBinOp()) {
+          case ADD:
+            return add(binOp.getLHS(), sign) && add(binOp.getRHS(), sign);
+          case SUB:
+            return add(binOp.getLHS(), sign) && add(binOp.getRHS(), -sign);
+          default:
+            return false;
+        }
+      }
+      return false;
+    }
+  }
+
+  // lhs op c
+  private static class Bound {
+    final String var;
+    final Operator op;
+    final long c;
+
+    Bound(String var, Operator op, long c) {
+      this.var = var;
+      this.op = op;
+      this.c = c;
+    }
+  }
+
+  // x - y op c
+  private static class Difference {
+    final String x, y;
+    final Operator op;
+    final long c;
+
+    Difference(String x, String y, Operator op, long c) {
+      this.x = x;
+      this.y = y;
+      this.op = op;
+      this.c = c;
+    }
+  }
+
+  private final Map<String, VarClass> classes = HashMapFactory.make();
+  // edges of the difference-bound graph: {from, to, w} means to - from <= w.
+  // node 0 stands for the constant 0, so intervals are edges to and from it
+  private final List<long[]> edges = new ArrayList<long[]>();
+  private int numNodes = 1;
+
+  private ConstraintPreSolver() {
+  }
+
+  /**
+   * @return TRUE if @param constraints are definitely satisfiable, FALSE if
+   *         they are definitely unsatisfiable, and null if Z3 must decide
+   */
+  public static Boolean decide(Set<AtomicPathConstraint> constraints) {
+    Boolean result = new ConstraintPreSolver().solve(constraints);
+    if (result == null) numFallbacks.incrementAndGet();
+    else numDecided.incrementAndGet();
+    return result;
+  }
+
+  private VarClass getClass(String name) {
+    VarClass cls = classes.get(name);
+    if (cls == null) {
+      cls = new VarClass();
+      classes.put(name, cls);
+    }
+    return cls.find();
+  }
+
+  private Boolean solve(Set<AtomicPathConstraint> constraints) {
+    List<Bound> bounds = new ArrayList<Bound>();
+    List<Difference> differences = new ArrayList<Difference>();
+
+    // first pass: make sure we can handle everything and merge var == var classes
+    for (AtomicPathConstraint constraint : constraints) {
+      if (constraint.getOp() == null) return null;
+      // lhs op rhs -> lhs - rhs op 0
+      Linear diff = new Linear();
+      if (!diff.add(constraint.getLhs(), 1) || !diff.add(constraint.getRhs(), -1)) return null;
+      Operator op = constraint.getOp();
+      if (diff.coeffs.isEmpty()) {
+        if (!holds(diff.constant, op, 0)) return Boolean.FALSE;
+      } else if (diff.coeffs.size() == 1) {
+        Map.Entry<String, Long> var = diff.coeffs.entrySet().iterator().next();
+        // var + k op 0 -> var op -k; -var + k op 0 -> var op' k
+        if (var.getValue() == 1) bounds.add(new Bound(var.getKey(), op, -diff.constant));
+        else if (var.getValue() == -1) bounds.add(new Bound(var.getKey(), flip(op), diff.constant));
+        else return null;
+      } else if (diff.coeffs.size() == 2) {
+        String x = null, y = null;
+        for (Map.Entry<String, Long> var : diff.coeffs.entrySet()) {
+          if (var.getValue() == 1) x = var.getKey();
+          else if (var.getValue() == -1) y = var.getKey();
+        }
+        // x + y, 2x - y, ...
+        if (x == null || y == null) return null;
+        // x - y + k op 0 -> x - y op -k
+        if (op == Operator.EQ && diff.constant == 0) {
+          VarClass xCls = getClass(x), yCls = getClass(y);
+          if (xCls != yCls) yCls.parent = xCls;
+        } else {
+          differences.add(new Difference(x, y, op, -diff.constant));
+        }
+      } else {
+        return null;
+      }
+    }
+
+    // second pass: var op const constraints narrow the interval of their class
+    for (Bound bound : bounds) {
+      VarClass cls = getClass(bound.var);
+      long c = bound.c;
+      boolean nonEmpty;
+      switch (bound.op) {
+        case EQ:
+          nonEmpty = cls.restrict(c, c);
+          break;
+        case NE:
+          cls.exclude(c);
+          nonEmpty = true;
+          break;
+        case LT:
+          nonEmpty = cls.restrict(Long.MIN_VALUE, c - 1);
+          break;
+        case LE:
+          nonEmpty = cls.restrict(Long.MIN_VALUE, c);
+          break;
+        case GT:
+          nonEmpty = cls.restrict(c + 1, Long.MAX_VALUE);
+          break;
+        case GE:
+          nonEmpty = cls.restrict(c, Long.MAX_VALUE);
+          break;
+        default:
+          return null;
+      }
+      if (!nonEmpty) return Boolean.FALSE;
+    }
+
+    // all unions happened in the first pass, so the bounds are on the roots
+    for (VarClass cls : classes.values()) {
+      if (cls.parent != cls) continue;
+      if (!cls.normalize()) return Boolean.FALSE;
+      cls.node = numNodes++;
+      if (cls.hi != Long.MAX_VALUE) addEdge(0, cls.node, cls.hi);
+      if (cls.lo != Long.MIN_VALUE) addEdge(cls.node, 0, -cls.lo);
+    }
+
+    // third pass: x - y op c constraints become edges of the graph
+    List<Difference> disequalities = new ArrayList<Difference>();
+    for (Difference diff : differences) {
+      VarClass xCls = getClass(diff.x), yCls = getClass(diff.y);
+      if (xCls == yCls) {
+        // x - x op c
+        if (!holds(0, diff.op, diff.c)) return Boolean.FALSE;
+        continue;
+      }
+      xCls.related = yCls.related = true;
+      switch (diff.op) {
+        case EQ:
+          addEdge(yCls.node, xCls.node, diff.c);
+          addEdge(xCls.node, yCls.node, -diff.c);
+          break;
+        case LE:
+          addEdge(yCls.node, xCls.node, diff.c);
+          break;
+        case LT:
+          addEdge(yCls.node, xCls.node, diff.c - 1);
+          break;
+        case GE:
+          addEdge(xCls.node, yCls.node, -diff.c);
+          break;
+        case GT:
+          addEdge(xCls.node, yCls.node, -diff.c - 1);
+          break;
+        case NE:
+          disequalities.add(diff);
+          break;
+        default:
+          return null;
+      }
+    }
+    // a negative cycle means the differences contradict each other
+    if (hasNegativeCycle()) return Boolean.FALSE;
+
+    // the differences and intervals have an integer solution. it satisfies the
+    // disequalities too if they hold for every solution
+    boolean allHold = true;
+    Map<Integer, long[]> dists = HashMapFactory.make();
+    for (VarClass cls : classes.values()) {
+      // an unrelated class can take any of its remaining values
+      if (cls.parent != cls || cls.excluded == null || !cls.related) continue;
+      long lo = lowerBound(cls.node, 0, dists), hi = upperBound(cls.node, 0, dists);
+      for (long val : cls.excluded) {
+        if (val < lo || val > hi) continue;
+        if (lo == hi) return Boolean.FALSE;
+        allHold = false;
+      }
+    }
+    for (Difference diff : disequalities) {
+      VarClass xCls = getClass(diff.x), yCls = getClass(diff.y);
+      long lo = lowerBound(xCls.node, yCls.node, dists), hi = upperBound(xCls.node, yCls.node, dists);
+      if (diff.c < lo || diff.c > hi) continue;
+      if (lo == hi) return Boolean.FALSE;
+      allHold = false;
+    }
+    return allHold ? Boolean.TRUE : null;
+  }
+
+  // to - from <= w
+  private void addEdge(int from, int to, long w) {
+    edges.add(new long[] { from, to, w });
+  }
+
+  private boolean hasNegativeCycle() {
+    // start every node at 0, as if from a virtual source with an edge to each
+    long[] dist = new long[numNodes];
+    for (int i = 0; i < numNodes; i++) {
+      boolean changed = false;
+      for (long[] edge : edges) {
+        long d = dist[(int) edge[0]] + edge[2];
+        if (d < dist[(int) edge[1]]) {
+          dist[(int) edge[1]] = d;
+          changed = true;
+        }
+      }
+      if (!changed) return false;
+    }
+    return true;
+  }
+
+  // shortest distances from @param src; INF if unreachable. only call when there is no negative cycle
+  private long[] distancesFrom(int src, Map<Integer, long[]> dists) {
+    long[] dist = dists.get(src);
+    if (dist != null) return dist;
+    dist = new long[numNodes];
+    Arrays.fill(dist, INF);
+    dist[src] = 0;
+    for (int i = 1; i < numNodes; i++) {
+      boolean changed = false;
+      for (long[] edge : edges) {
+        long from = dist[(int) edge[0]];
+        if (from == INF) continue;
+        if (from + edge[2] < dist[(int) edge[1]]) {
+          dist[(int) edge[1]] = from + edge[2];
+          changed = true;
+        }
+      }
+      if (!changed) break;
+    }
+    dists.put(src, dist);
+    return dist;
+  }
+
+  // greatest lower bound of x - y over all solutions
+  private long lowerBound(int x, int y, Map<Integer, long[]> dists) {
+    long d = distancesFrom(x, dists)[y];
+    return d == INF ? Long.MIN_VALUE : -d;
+  }
+
+  // least upper bound of x - y over all solutions
+  private long upperBound(int x, int y, Map<Integer, long[]> dists) {
+    return distancesFrom(y, dists)[x];
+  }
+
+  private static Operator flip(Operator op) {
+    switch (op) {
+      case LT:
+        return Operator.GT;
+      case LE:
+        return Operator.GE;
+      case GT:
+        return Operator.LT;
+      case GE:
+        return Operator.LE;
+      default:
+        return op; // EQ and NE are symmetric
+    }
+  }
+
+  private static boolean holds(long lhs, Operator op, long rhs) {
+    switch (op) {
+      case EQ:
+        return lhs == rhs;
+      case NE:
+        return lhs != rhs;
+      case LT:
+        return lhs < rhs;
+      case LE:
+        return lhs <= rhs;
+      case GT:
+        return lhs > rhs;
+      case GE:
+        return lhs >= rhs;
+      default:
+        Util.Assert(false, "Unsupported op!");
+        return false;
+    }
+  }
+
+  public static String dumpStats() {
+    long decided = numDecided.get(), total = decided + numFallbacks.get();
+    return decided + " of " + total + " feasibility checks decided without z3 ("
+        + (total == 0 ? 0 : (decided * 100.0) / total) + "%)\n";
+  }
+}
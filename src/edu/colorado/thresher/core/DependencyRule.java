@@ -14,7 +14,6 @@ import com.ibm.wala.util.collections.HashSetFactory;
 
 public class DependencyRule implements Comparable {
 
-  public static int symbCounter = 0;
   private final PointsToEdge shown;
   private final PointerStatement stmt;
   private final TreeSet<PointsToEdge> toShow;
@@ -88,7 +87,7 @@ public class DependencyRule implements Comparable {
         */
       }
     }
-    PointsToEdge newShown = new PointsToEdge(newSrc, newSnk, shown.getFieldRef());
+    PointsToEdge newShown = PointsToEdge.make(newSrc, newSnk, shown.getFieldRef());
     
     // get new toShow set
     TreeSet<PointsToEdge> newToShow = new TreeSet<PointsToEdge>();
@@ -114,7 +113,7 @@ public class DependencyRule implements Comparable {
           else snk = subMap.get(subFor);
         }
       }
-      newToShow.add(new PointsToEdge(src, snk, edge.getFieldRef()));
+      newToShow.add(PointsToEdge.make(src, snk, edge.getFieldRef()));
     }
      
     Util.Assert(newToShow.size() == toShow.size());//"discrepancy in toShow set sizes! newToShow " + Util.printCollection(newToShow)
@@ -304,13 +303,13 @@ public class DependencyRule implements Comparable {
    * Util.Assert(false, "not expecting creation of new symbolic vars!"); newSymb
    * = true; createNewSymb(); } PointerVariable src = edge0.getSource();
    * PointerVariable snk = edge0.getSink(); int symbNum = symbCounter;
-   * newSet.add(new PointsToEdge(src, new PointerVariable(symbNum + "symb",
+   * newSet.add(PointsToEdge.make(src, new PointerVariable(symbNum + "symb",
    * snk.getTypeId(), true), edge0.getFieldName())); } else if
    * (edge0.getSink().equals(edge1.getSink())) { if (!newSymb) {
    * Util.Assert(false, "not expecting creation of new symbolic vars!"); newSymb
    * = true; createNewSymb(); } PointerVariable src = edge0.getSource();
    * PointerVariable snk = edge0.getSink(); int symbNum = symbCounter;
-   * newSet.add(new PointsToEdge(new PointerVariable(symbNum + "symb",
+   * newSet.add(PointsToEdge.make(new PointerVariable(symbNum + "symb",
    * src.getTypeId(), true), snk, edge0.getFieldName())); } } } return new
    * DependencyRule(shown, stmt, newSet); }
    */
@@ -0,0 +1,125 @@
+package edu.colorado.thresher.core;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * bounded LRU cache from path constraint sets to the SAT/UNSAT verdict Z3 gave
+ * for them. sibling paths often reach the same constraint set, so this lets us
+ * skip the solver for sets we have already seen. shared by all queries and
+ * worker threads; a constraint set's satisfiability doesn't depend on the
+ * query it came from
+ *
+ * a set is keyed by a 128-bit fingerprint built from the 64-bit hashes of its
+ * constraints' strings (which is also how Z3 names their terms), so recording a
+ * set doesn't copy it and looking one up doesn't compare constraints. the
+ * cache is split into stripes with their own locks and LRU orders, so threads
+ * checking different sets rarely wait on each other
+ */
+public class FeasibilityCache {
+
+  private static final int STRIPES = 16;
+
+  private static final AtomicLong hits = new AtomicLong();
+  private static final AtomicLong misses = new AtomicLong();
+
+  private static final class Fingerprint {
+    final long sum, mixedSum;
+    final int size;
+
+    Fingerprint(Set<AtomicPathConstraint> constraints) {
+      // sums don't depend on iteration order. the second one goes through a
+      // mixer so that sets with the same sum rarely agree on it too
+      long sum = 0, mixedSum = 0;
+      for (AtomicPathConstraint constraint : constraints) {
+        long h = constraint.getFingerprint();
+        sum += h;
+        mixedSum += mix(h);
+      }
+      this.sum = sum;
+      this.mixedSum = mixedSum;
+      this.size = constraints.size();
+    }
+
+    // finalizer of MurmurHash3
+    private static long mix(long h) {
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      return h ^ (h >>> 33);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Fingerprint)) return false;
+      Fingerprint fp = (Fingerprint) other;
+      return sum == fp.sum && mixedSum == fp.mixedSum && size == fp.size;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (mixedSum ^ (mixedSum >>> 32));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static final Map<Fingerprint, Boolean>[] stripes = new Map[STRIPES];
+  static {
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new LinkedHashMap<Fingerprint, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Fingerprint, Boolean> eldest) {
+          return size() > Math.max(1, Options.FEASIBILITY_CACHE_SIZE / STRIPES);
+        }
+      };
+    }
+  }
+
+  private static Map<Fingerprint, Boolean> stripeFor(Fingerprint key) {
+    int h = key.hashCode();
+    return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+  }
+
+  /**
+   * @return the cached feasibility of @param constraints, or null if we
+   *         haven't seen them yet
+   */
+  public static Boolean lookup(Set<AtomicPathConstraint> constraints) {
+    if (Options.FEASIBILITY_CACHE_SIZE <= 0) return null;
+    Fingerprint key = new Fingerprint(constraints);
+    Map<Fingerprint, Boolean> stripe = stripeFor(key);
+    Boolean result;
+    synchronized (stripe) {
+      result = stripe.get(key);
+    }
+    if (result == null) misses.incrementAndGet();
+    else hits.incrementAndGet();
+    return result;
+  }
+
+  public static void record(Set<AtomicPathConstraint> constraints, boolean feasible) {
+    if (Options.FEASIBILITY_CACHE_SIZE <= 0) return;
+    Fingerprint key = new Fingerprint(constraints);
+    Map<Fingerprint, Boolean> stripe = stripeFor(key);
+    synchronized (stripe) {
+      stripe.put(key, feasible);
+    }
+  }
+
+  public static void clear() {
+    for (Map<Fingerprint, Boolean> stripe : stripes) {
+      synchronized (stripe) {
+        stripe.clear();
+      }
+    }
+  }
+
+  public static String dumpStats() {
+    long numHits = hits.get(), numMisses = misses.get(), total = numHits + numMisses;
+    return numHits + " feasibility cache hits\n" + numMisses + " feasibility cache misses\n"
+        + (total == 0 ? 0 : (numHits * 100.0) / total) + "% feasibility cache hit rate\n";
+  }
+}
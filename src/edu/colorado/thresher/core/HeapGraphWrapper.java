@@ -1,5 +1,6 @@
 package edu.colorado.thresher.core;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -23,8 +24,17 @@ import com.ibm.wala.util.intset.MutableSparseIntSet;
  */
 public class HeapGraphWrapper extends BasicHeapGraph {
 
-  // p -> q pairs to ignore
+  // p -> q pairs to ignore. guarded by itself, since workers exploring edges
+  // in parallel read it while the refutation loop adds to it
   private final IBinaryNaturalRelation ignoreEdges;
+  // number of calls to addIgnoreEdge, guarded by ignoreEdges
+  private int version = 0;
+  // (src number, snk number) passed to the i'th call to addIgnoreEdge, packed
+  // into a long. guarded by ignoreEdges
+  private final List<Long> ignoreLog = new ArrayList<Long>();
+  // sum of the hashes of the printed ignored edges, which (unlike their
+  // numbers) is the same from run to run. guarded by ignoreEdges
+  private long ignoredFingerprint = 0;
 
   // WALA encodes p ->{f} q as p -> f -> q. it's not correct to remove edges p
   // -> f and f -> q. instead, we must say that
@@ -39,17 +49,137 @@ public class HeapGraphWrapper extends BasicHeapGraph {
 
   // TODO: "de-pollute" (i.e. re-run small part of pts-to analysis) whenever ignore edges are added?
   public void addIgnoreEdge(Object src, Object snk) {
-    this.ignoreEdges.add(this.getNumber(src), this.getNumber(snk));
+    synchronized (ignoreEdges) {
+      if (this.ignoreEdges.add(this.getNumber(src), this.getNumber(snk))) {
+        ignoredFingerprint += hashEdge(src + " -> " + snk);
+      }
+      ignoreLog.add(((long) getNumber(src) << 32) | getNumber(snk));
+      version++;
+    }
+  }
+
+  /**
+   * the nodes whose successors or predecessors a thread asked for; see
+   * pushReads()
+   */
+  public static final class Reads {
+    private final MutableIntSet succsOf = MutableSparseIntSet.makeEmpty();
+    private final MutableIntSet predsOf = MutableSparseIntSet.makeEmpty();
+    // true if we don't know what was read
+    private boolean all = false;
+    private final Reads parent;
+
+    private Reads(Reads parent) {
+      this.parent = parent;
+    }
+
+    private void addAll(Reads other) {
+      if (other.all) all = true;
+      else {
+        succsOf.addAll(other.succsOf);
+        predsOf.addAll(other.predsOf);
+      }
+    }
+  }
+
+  private static final ThreadLocal<Reads> reads = new ThreadLocal<Reads>();
+
+  /**
+   * start recording the nodes the current thread reads the edges of, until
+   * the matching popReads(). recordings nest; the reads of an inner recording
+   * also count for the outer ones
+   */
+  public Reads pushReads() {
+    Reads r = new Reads(reads.get());
+    reads.set(r);
+    return r;
+  }
+
+  public void popReads(Reads r) {
+    Util.Pre(reads.get() == r, "unbalanced popReads()");
+    if (r.parent != null) r.parent.addAll(r);
+    reads.set(r.parent);
+  }
+
+  /**
+   * count @param r as read by the current thread, e.g. because it reused a
+   * result computed from those reads
+   */
+  public void noteReads(Reads r) {
+    Reads cur = reads.get();
+    if (cur != null) cur.addAll(r);
+  }
+
+  /**
+   * the current thread reused a result without knowing what it read
+   */
+  public void noteUnknownReads() {
+    Reads cur = reads.get();
+    if (cur != null) cur.all = true;
+  }
+
+  /**
+   * @return true if none of the edges ignored since @param version (see
+   *         getVersion()) have an end whose edges were read in @param r. if
+   *         so, every read in @param r gives the same answer now as it did
+   *         then
+   */
+  public boolean unseenSince(int version, Reads r) {
+    synchronized (ignoreEdges) {
+      for (int i = version; i < ignoreLog.size(); i++) {
+        if (r.all) return false;
+        long edge = ignoreLog.get(i);
+        if (r.succsOf.contains((int) (edge >>> 32)) || r.predsOf.contains((int) edge)) return false;
+      }
+      return true;
+    }
+  }
+
+  // 64-bit FNV-1a, so that distinct edge sets rarely sum to the same fingerprint
+  private static long hashEdge(String edge) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < edge.length(); i++) {
+      hash = (hash ^ edge.charAt(i)) * 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * @return a fingerprint of the set of ignored edges that doesn't depend on
+   *         the order they were added in or on how this run numbered them
+   */
+  public long getIgnoredFingerprint() {
+    synchronized (ignoreEdges) {
+      return ignoredFingerprint;
+    }
+  }
+
+  /**
+   * @return a number that changes whenever an ignore edge is added, so two
+   *         calls that return the same number saw the same graph in between
+   */
+  public int getVersion() {
+    synchronized (ignoreEdges) {
+      return version;
+    }
+  }
+
+  private boolean isIgnored(int srcNum, int snkNum) {
+    synchronized (ignoreEdges) {
+      return ignoreEdges.contains(srcNum, snkNum);
+    }
   }
   
   @Override
   public Iterator<Object> getSuccNodes(Object N) {
     Iterator<Object> iter = super.getSuccNodes(N);
     int srcNum = getNumber(N);
+    Reads r = reads.get();
+    if (r != null) r.succsOf.add(srcNum);
     List<Object> result = new LinkedList<Object>();
     while (iter.hasNext()) {
       Object snk = iter.next();
-      if (!ignoreEdges.contains(srcNum, getNumber(snk))) {
+      if (!isIgnored(srcNum, getNumber(snk))) {
         result.add(snk);
       } // else, ignoring edge
     }
@@ -60,10 +190,12 @@ public class HeapGraphWrapper extends BasicHeapGraph {
   public Iterator<Object> getPredNodes(Object N) {
     Iterator<Object> iter = super.getPredNodes(N);
     int snkNum = getNumber(N);
+    Reads r = reads.get();
+    if (r != null) r.predsOf.add(snkNum);
     List<Object> result = new LinkedList<Object>();
     while (iter.hasNext()) {
       Object src = iter.next();
-      if (!ignoreEdges.contains(getNumber(src), snkNum)) {
+      if (!isIgnored(getNumber(src), snkNum)) {
         result.add(src);
       } // else, ignoring edge
     }
@@ -1,6 +1,7 @@
 package edu.colorado.thresher.core;
 
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ssa.IR;
@@ -34,14 +35,14 @@ public class IBranchPoint {
   public final int id;
 
   private static final int DUMMY_ID = -1;
-  private static int idCounter = 0;
+  private static final AtomicInteger idCounter = new AtomicInteger();
 
   public static IBranchPoint makeBranchPoint(SSAConditionalBranchInstruction instr, int lineNum, SSACFG.BasicBlock blk, CGNode node) {
-    return new IBranchPoint(instr, lineNum, blk, node, false, idCounter++);
+    return new IBranchPoint(instr, lineNum, blk, node, false, idCounter.getAndIncrement());
   }
 
   public static IBranchPoint makeBranchPoint(SSAInstruction instr, int lineNum, SSACFG.BasicBlock blk, CGNode node, boolean loopHead) {
-    return new IBranchPoint(instr, lineNum, blk, node, loopHead, idCounter++);
+    return new IBranchPoint(instr, lineNum, blk, node, loopHead, idCounter.getAndIncrement());
   }
 
   public static IBranchPoint makeDummyBranchPoint() {
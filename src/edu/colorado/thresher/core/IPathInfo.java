@@ -6,6 +6,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ipa.callgraph.CallGraph;
@@ -18,7 +19,6 @@ import com.ibm.wala.ssa.SSASwitchInstruction;
 import com.ibm.wala.types.ClassLoaderReference;
 import com.ibm.wala.types.MethodReference;
 import com.ibm.wala.types.TypeReference;
-import com.ibm.wala.util.collections.HashSetFactory;
 import com.ibm.wala.util.collections.Pair;
 
 /**
@@ -38,7 +38,7 @@ public class IPathInfo { // implements Comparable {
   // path id for all dummy (non-executable) paths
   private static final int DUMMY_ID = -1;
   private static final int MERGE_ID = -2;
-  private static int pathIdCounter = 1;
+  private static final AtomicInteger pathIdCounter = new AtomicInteger(1);
 
   // unique identifier
   private final int pathId;
@@ -52,7 +52,7 @@ public class IPathInfo { // implements Comparable {
   // index into into the current block corresponding to next instruction to execute
   private int currentLineNum;
 
-  private final LinkedList<IStackFrame> callStack;
+  private final PersistentStack<IStackFrame> callStack;
   // set of loop heads that we have already seen and should not visit again
   private final Set<Pair<CGNode, SSACFG.BasicBlock>> loopHeadSet;
   // set of CGNode's that we've already explored during piecewise execution
@@ -116,14 +116,14 @@ public class IPathInfo { // implements Comparable {
   // constructor for building PathInfo from scratch
   public IPathInfo(CGNode currentNode, SSACFG.BasicBlock currentBlock, int currentLineNum, IQuery query) {
     Util.Pre(currentBlock != null, "current block should not be null!");
-    this.pathId = pathIdCounter++;
+    this.pathId = pathIdCounter.getAndIncrement();
     this.currentNode = currentNode;
     this.currentBlock = currentBlock;
     this.lastBlock = null;
     this.currentLineNum = currentLineNum;
-    this.callStack = new LinkedList<IStackFrame>();
+    this.callStack = new PersistentStack<IStackFrame>();
     // this.branchStack = new LinkedList<Pair<IBranchPoint,Boolean>>();
-    this.loopHeadSet = HashSetFactory.make();//new HashSet<Pair<CGNode, SSACFG.BasicBlock>>();
+    this.loopHeadSet = new PersistentSet<Pair<CGNode, SSACFG.BasicBlock>>();
     this.query = query;
     this.initialQuery = query.deepCopy();
     this.piecewiseGraph = new PiecewiseGraph();
@@ -133,10 +133,10 @@ public class IPathInfo { // implements Comparable {
 
   // constructor to be used only for deep copying
   private IPathInfo(CGNode currentNode, SSACFG.BasicBlock currentBlock, SSACFG.BasicBlock lastBlock, int currentLineNum,
-      LinkedList<IStackFrame> callStack, Set<Pair<CGNode, SSACFG.BasicBlock>> loopHeadSet, IQuery query, IQuery initialQuery,
+      PersistentStack<IStackFrame> callStack, Set<Pair<CGNode, SSACFG.BasicBlock>> loopHeadSet, IQuery query, IQuery initialQuery,
       PiecewiseGraph piecewiseGraph) {
     Util.Pre(currentBlock != null, "current block should not be null!");
-    this.pathId = pathIdCounter++;
+    this.pathId = pathIdCounter.getAndIncrement();
     this.currentNode = currentNode;
     this.currentBlock = currentBlock;
     this.lastBlock = lastBlock;
@@ -154,7 +154,7 @@ public class IPathInfo { // implements Comparable {
   public IPathInfo deepCopy() {
     Util.Pre(!atBranchPoint);
     return new IPathInfo(this.currentNode, this.currentBlock, this.lastBlock, this.currentLineNum,
-        Util.deepCopyStackList(this.callStack), Util.deepCopySet(loopHeadSet), query.deepCopy(), this.initialQuery,
+        this.callStack.copy(), PersistentSet.copyOf(loopHeadSet), query.deepCopy(), this.initialQuery,
         this.piecewiseGraph.deepCopy());
   }
 
@@ -164,7 +164,7 @@ public class IPathInfo { // implements Comparable {
    */
   public IPathInfo deepCopyWithQuery(IQuery newQuery) {
     return new IPathInfo(this.currentNode, this.currentBlock, this.lastBlock, this.currentLineNum,
-        Util.deepCopyStackList(this.callStack), Util.deepCopySet(loopHeadSet), newQuery, this.initialQuery, this.piecewiseGraph);
+        this.callStack.copy(), PersistentSet.copyOf(loopHeadSet), newQuery, this.initialQuery, this.piecewiseGraph);
   }
 
   /**
@@ -539,7 +539,7 @@ public class IPathInfo { // implements Comparable {
   }
 
   public static int getPathIdCounter() {
-    return pathIdCounter;
+    return pathIdCounter.get();
   }
 
   public CGNode getCurrentNode() {
@@ -608,7 +608,7 @@ public class IPathInfo { // implements Comparable {
 
   // only to be used in regression tests
   public static void resetPathIdCounter() {
-    pathIdCounter = 1;
+    pathIdCounter.set(1);
   }
 
   // has query been refuted?
@@ -681,15 +681,18 @@ public class IPathInfo { // implements Comparable {
   public static boolean mergePathWithPathSet(IPathInfo info, Set<IPathInfo> pathSet) {
     if (Options.USE_SUMMARIES) {
       List<IPathInfo> toRemove = new ArrayList<IPathInfo>(pathSet.size());
+      // paths in these sets keep executing, so their signatures have to be computed fresh
+      final SummaryIndex.Signature infoSig = SummaryIndex.Signature.make(info.query);
       for (IPathInfo path : pathSet) {
         if (info == path) continue;
         if (info.callStacksEqual(path)) {
-          if (info.containsQuery(path)) {
+          SummaryIndex.Signature pathSig = SummaryIndex.Signature.make(path.query);
+          if (infoSig.mayContain(pathSig) && info.containsQuery(path)) {
             // already seen path simpler than this; don't add
             if (Options.DEBUG) Util.Debug(info.getPathId() + " refuted by summary; " 
                                           + path.getPathId() + " is simpler");
             return false;
-          } else if (path.containsQuery(info)) {
+          } else if (pathSig.mayContain(infoSig) && path.containsQuery(info)) {
             toRemove.add(path);
           } 
         } // else, they're incomparable
@@ -742,9 +745,16 @@ public class IPathInfo { // implements Comparable {
     return this.callStack.equals(other.callStack);
   }
   
-  public LinkedList<IStackFrame> getCallStack() {
+  public PersistentStack<IStackFrame> getCallStack() {
     return callStack;
   }
+
+  /**
+   * @return snapshot of the loop heads we have already seen
+   */
+  Set<Pair<CGNode, SSACFG.BasicBlock>> getLoopHeadSet() {
+    return PersistentSet.copyOf(loopHeadSet);
+  }
   
   @Override
   public String toString() {
@@ -761,9 +771,9 @@ public class IPathInfo { // implements Comparable {
     private final Set<CGNode> seenNodes;
 
     public PiecewiseGraph() {
-      this.traversedEdges = HashSetFactory.make();//new HashSet<Pair<CGNode, CGNode>>();
-      this.skippedEdges = HashSetFactory.make();//new HashSet<Pair<CGNode, CGNode>>();
-      this.seenNodes = HashSetFactory.make();//new HashSet<CGNode>();
+      this.traversedEdges = new PersistentSet<Pair<CGNode, CGNode>>();
+      this.skippedEdges = new PersistentSet<Pair<CGNode, CGNode>>();
+      this.seenNodes = new PersistentSet<CGNode>();
     }
 
     private PiecewiseGraph(Set<Pair<CGNode, CGNode>> traversedEdges, Set<Pair<CGNode, CGNode>> skippedEdges, Set<CGNode> seenNodes) {
@@ -773,7 +783,7 @@ public class IPathInfo { // implements Comparable {
     }
 
     public PiecewiseGraph deepCopy() {
-      return new PiecewiseGraph(Util.deepCopySet(traversedEdges), Util.deepCopySet(skippedEdges), Util.deepCopySet(seenNodes));
+      return new PiecewiseGraph(PersistentSet.copyOf(traversedEdges), PersistentSet.copyOf(skippedEdges), PersistentSet.copyOf(seenNodes));
     }
 
     public boolean addSeen(IPathInfo path, CGNode caller) {
@@ -44,6 +44,11 @@ public class IStackFrame {
         this.block.equals(otherFrame.block) &&
         this.lineNum == otherFrame.lineNum;
   }
+
+  @Override
+  public int hashCode() {
+    return (cgNode.hashCode() * 31 + block.hashCode()) * 31 + lineNum;
+  }
   
   @Override
   public String toString() {
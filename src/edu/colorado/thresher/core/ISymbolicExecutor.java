@@ -2,6 +2,7 @@ package edu.colorado.thresher.core;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.Set;
 
 import com.ibm.wala.ipa.callgraph.CGNode;
 import com.ibm.wala.ssa.ISSABasicBlock;
@@ -107,6 +108,11 @@ public interface ISymbolicExecutor {
    */
   void addPath(IPathInfo path);
 
+  /**
+   * @return nodes that paths have been executed in so far
+   */
+  Set<CGNode> getVisitedNodes();
+
   /**
    * override to customize instruction visiting
    * 
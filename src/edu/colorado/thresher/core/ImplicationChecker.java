@@ -0,0 +1,148 @@
+package edu.colorado.thresher.core;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.wala.util.collections.HashMapFactory;
+import com.ibm.wala.util.collections.HashSetFactory;
+import com.ibm.wala.util.collections.Pair;
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Solver;
+import com.microsoft.z3.Status;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * per-thread solver for checking implication between path constraint sets
+ * (used for summary / loop head subsumption). keeps one Z3 context alive
+ * instead of creating a fresh one for every check, caches the Z3 AST for each
+ * constraint, and memoizes the result of each pair of constraint sets compared
+ */
+public class ImplicationChecker {
+
+  // once this many ASTs or results are cached, throw away the context and start over
+  private static final int MAX_CACHE_SIZE = 20000;
+
+  private static final ThreadLocal<ImplicationChecker> checkers = new ThreadLocal<ImplicationChecker>() {
+    @Override
+    protected ImplicationChecker initialValue() {
+      return new ImplicationChecker();
+    }
+  };
+
+  // bumped when variable ids are reset; checkers from an older generation start over
+  private static final AtomicInteger generation = new AtomicInteger();
+
+  private static final AtomicLong numChecks = new AtomicLong();
+  private static final AtomicLong numMemoHits = new AtomicLong();
+  private static final Metrics.Histogram CHECKS = Metrics.histogram("z3 implication check");
+
+  private Context ctx;
+  private Solver solver;
+  private int checkerGeneration;
+  private final Map<AtomicPathConstraint, BoolExpr> astCache;
+  private final Map<Pair<Set<AtomicPathConstraint>, Set<AtomicPathConstraint>>, Boolean> results;
+
+  private ImplicationChecker() {
+    this.astCache = HashMapFactory.make();
+    this.results = HashMapFactory.make();
+    makeContext();
+  }
+
+  /**
+   * @return the implication checker for the current thread
+   */
+  public static ImplicationChecker get() {
+    ImplicationChecker checker = checkers.get();
+    if (checker.checkerGeneration != generation.get()) checker.reset();
+    return checker;
+  }
+
+  /**
+   * make every thread's checker drop its context and caches before its next use
+   */
+  public static void invalidateAll() {
+    generation.incrementAndGet();
+  }
+
+  private void makeContext() {
+    this.checkerGeneration = generation.get();
+    try {
+      this.ctx = new Context();
+      this.solver = ctx.MkSolver();
+    } catch (Z3Exception e) {
+      Util.Assert(false, "problem with z3 " + e);
+    }
+  }
+
+  private void reset() {
+    astCache.clear();
+    results.clear();
+    ctx.Dispose();
+    makeContext();
+  }
+
+  private BoolExpr toZ3AST(AtomicPathConstraint constraint) {
+    BoolExpr ast = astCache.get(constraint);
+    if (ast == null) {
+      ast = (BoolExpr) constraint.toZ3AST(ctx);
+      astCache.put(constraint, ast);
+    }
+    return ast;
+  }
+
+  private BoolExpr mkAnd(Set<AtomicPathConstraint> constraints) throws Z3Exception {
+    final BoolExpr[] conjuncts = new BoolExpr[constraints.size()];
+    int i = 0;
+    for (AtomicPathConstraint constraint : constraints) {
+      conjuncts[i++] = toZ3AST(constraint);
+    }
+    return ctx.MkAnd(conjuncts);
+  }
+
+  /**
+   * @return true if the conjunction of @param lhs implies the conjunction of
+   *         @param rhs for all values
+   */
+  public boolean implies(Set<AtomicPathConstraint> lhs, Set<AtomicPathConstraint> rhs) {
+    Boolean memo = results.get(Pair.make(lhs, rhs));
+    if (memo != null) {
+      numMemoHits.incrementAndGet();
+      return memo.booleanValue();
+    }
+    if (astCache.size() > MAX_CACHE_SIZE || results.size() > MAX_CACHE_SIZE) reset();
+
+    numChecks.incrementAndGet();
+    Status result = null;
+    try {
+      final BoolExpr implLHS = mkAnd(lhs), implRHS = mkAnd(rhs);
+      // ask: is there some assignment for which LHS does not imply RHS?
+      solver.Push();
+      solver.Assert(ctx.MkNot(ctx.MkImplies(implLHS, implRHS)));
+      // if not, then we know LHS => RHS for all values
+      long start = System.nanoTime();
+      result = solver.Check();
+      CHECKS.record(System.nanoTime() - start);
+      solver.Pop();
+    } catch (Z3Exception e) {
+      Util.Assert(false, " problem with z3 " + e);
+      return false;
+    }
+
+    if (result == Status.UNKNOWN) {
+      Util.Assert(false, "z3 decidability problem");
+      return false;
+    }
+    boolean boolResult = result == Status.UNSATISFIABLE;
+    // the sets belong to live queries that may change later; memoize copies
+    Set<AtomicPathConstraint> lhsCopy = HashSetFactory.make(lhs), rhsCopy = HashSetFactory.make(rhs);
+    results.put(Pair.make(lhsCopy, rhsCopy), boolResult);
+    return boolResult;
+  }
+
+  public static String dumpStats() {
+    return numChecks.get() + " z3 implication checks\n" + numMemoHits.get() + " memoized implication results used\n";
+  }
+}
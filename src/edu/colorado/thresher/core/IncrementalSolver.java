@@ -0,0 +1,162 @@
+package edu.colorado.thresher.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.microsoft.z3.BoolExpr;
+import com.microsoft.z3.Context;
+import com.microsoft.z3.Solver;
+import com.microsoft.z3.Status;
+import com.microsoft.z3.Z3Exception;
+
+/**
+ * Z3 solver session shared by all copies of a PathQuery. each asserted path
+ * constraint lives in its own solver scope, so checking a constraint set only
+ * pops the constraints the last checked set had that this one doesn't and
+ * pushes the ones it is missing. since backward execution explores paths
+ * depth-first, consecutive checks usually share everything but the last
+ * constraint or two. when paths of one query are explored by several threads,
+ * each thread gets its own context and solver
+ */
+public class IncrementalSolver {
+
+  // canonical order for constraint sets. new constraints get larger ids than
+  // old ones (and substitution preserves ids), so sorting by id puts the
+  // constraints a path shares with its parent first
+  static final Comparator<AtomicPathConstraint> CONSTRAINT_ORDER = new Comparator<AtomicPathConstraint>() {
+    @Override
+    public int compare(AtomicPathConstraint c0, AtomicPathConstraint c1) {
+      if (c0.getId() != c1.getId()) return c0.getId() < c1.getId() ? -1 : 1;
+      return c0.compareTo(c1);
+    }
+  };
+
+  // latency stats for all sessions
+  private static final Metrics.Histogram CHECKS = Metrics.histogram("z3 feasibility check");
+  private static final AtomicLong numPushes = new AtomicLong();
+  private static final AtomicLong numPops = new AtomicLong();
+
+  // one Z3 context and solver per thread using this session; Z3 contexts
+  // must not be shared across threads. the thread that created the session
+  // gets the first one
+  private static class ThreadSession {
+    final Context ctx;
+    final Solver solver;
+    // constraints currently asserted on the solver; the i'th constraint is
+    // asserted in scope i + 1
+    final List<AtomicPathConstraint> asserted = new ArrayList<AtomicPathConstraint>();
+
+    ThreadSession() {
+      Context tmpCtx = null;
+      Solver tmpSolver = null;
+      try {
+        tmpCtx = new Context();
+        tmpSolver = tmpCtx.MkSolver();
+      } catch (Z3Exception e) {
+        Util.Assert(false, "problem with z3 " + e);
+      }
+      this.ctx = tmpCtx;
+      this.solver = tmpSolver;
+    }
+  }
+
+  private final ThreadSession creatorSession;
+  private final List<ThreadSession> allSessions;
+  private final ThreadLocal<ThreadSession> sessions;
+
+  public IncrementalSolver() {
+    this.creatorSession = new ThreadSession();
+    this.allSessions = Collections.synchronizedList(new ArrayList<ThreadSession>());
+    allSessions.add(creatorSession);
+    this.sessions = new ThreadLocal<ThreadSession>() {
+      @Override
+      protected ThreadSession initialValue() {
+        ThreadSession session = new ThreadSession();
+        allSessions.add(session);
+        return session;
+      }
+    };
+    sessions.set(creatorSession);
+  }
+
+  /**
+   * @return the calling thread's context. ASTs made with it can only be given
+   *         to solvers made with it, on the same thread
+   */
+  public Context getContext() {
+    return sessions.get().ctx;
+  }
+
+  /**
+   * @return constraints in the order check() expects them
+   */
+  public static List<AtomicPathConstraint> canonicalize(Set<AtomicPathConstraint> constraints) {
+    List<AtomicPathConstraint> ordered = new ArrayList<AtomicPathConstraint>(constraints);
+    Collections.sort(ordered, CONSTRAINT_ORDER);
+    return ordered;
+  }
+
+  /**
+   * check satisfiability of the conjunction of @param constraints, which
+   * should be in canonical order
+   */
+  public Status check(List<AtomicPathConstraint> constraints) {
+    final ThreadSession session = sessions.get();
+    final List<AtomicPathConstraint> asserted = session.asserted;
+    final Solver solver = session.solver;
+    try {
+      // find the longest prefix of constraints that is already asserted
+      int shared = 0;
+      while (shared < asserted.size() && shared < constraints.size() && asserted.get(shared).equals(constraints.get(shared))) {
+        shared++;
+      }
+      // pop the asserted constraints that this set doesn't have...
+      int toPop = asserted.size() - shared;
+      if (toPop > 0) {
+        solver.Pop(toPop);
+        asserted.subList(shared, asserted.size()).clear();
+        numPops.addAndGet(toPop);
+      }
+      // ...and push the ones it has that aren't asserted yet
+      for (int i = shared; i < constraints.size(); i++) {
+        AtomicPathConstraint constraint = constraints.get(i);
+        solver.Push();
+        solver.Assert((BoolExpr) constraint.toZ3AST(session.ctx));
+        asserted.add(constraint);
+        numPushes.incrementAndGet();
+      }
+
+      long start = System.nanoTime();
+      Status status = solver.Check();
+      CHECKS.record(System.nanoTime() - start);
+      return status;
+    } catch (Z3Exception e) {
+      Util.Assert(false, "problem with z3 " + e);
+      return Status.UNKNOWN;
+    }
+  }
+
+  // clears all memory Z3 is using for this session. only call once no other
+  // thread is using it
+  public void dispose() {
+    synchronized (allSessions) {
+      for (ThreadSession session : allSessions) {
+        session.asserted.clear();
+        session.ctx.Dispose();
+      }
+      allSessions.clear();
+    }
+  }
+
+  public static String dumpStats() {
+    long checks = CHECKS.getCount();
+    double totalMs = CHECKS.getSum() / 1000000.0;
+    return checks + " z3 checks\n" + totalMs + " ms in z3 checks\n" + (checks == 0 ? 0 : totalMs / checks)
+        + " ms per z3 check\n" + (CHECKS.getMax() / 1000000.0) + " ms longest z3 check\n" + numPushes.get()
+        + " z3 pushes\n" + numPops.get() + " z3 pops\n";
+  }
+}
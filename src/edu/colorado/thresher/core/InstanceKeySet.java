@@ -0,0 +1,276 @@
+package edu.colorado.thresher.core;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerAnalysis;
+import com.ibm.wala.util.intset.IntSet;
+import com.ibm.wala.util.intset.IntSetAction;
+import com.ibm.wala.util.intset.OrdinalSet;
+import com.ibm.wala.util.intset.OrdinalSetMapping;
+
+/**
+ * set of instance keys stored as a bit vector over the pointer analysis's
+ * numbering of instance keys. used for the possible values of symbolic pointer
+ * variables, whose points-to sets can contain thousands of keys; intersection,
+ * subset, equality, and emptiness checks against another InstanceKeySet over
+ * the same numbering are word-level operations
+ *
+ * not thread-safe, just like the HashSet's it replaces
+ */
+public class InstanceKeySet extends AbstractSet<InstanceKey> {
+
+  private static final long[] NO_WORDS = new long[0];
+
+  // instance key <-> number, from the pointer analysis. null only for empty sets made from empty
+  // OrdinalSet's, which take the numbering of the first set added to them
+  private OrdinalSetMapping<InstanceKey> mapping;
+  private long[] words;
+  private int size;
+
+  public InstanceKeySet(OrdinalSetMapping<InstanceKey> mapping) {
+    this(mapping, NO_WORDS, 0);
+  }
+
+  @SuppressWarnings("unchecked")
+  public InstanceKeySet(PointerAnalysis pa) {
+    this(pa.getInstanceKeyMapping());
+  }
+
+  public InstanceKeySet(OrdinalSetMapping<InstanceKey> mapping, Collection<? extends InstanceKey> keys) {
+    this(mapping);
+    addAll(keys);
+  }
+
+  private InstanceKeySet(OrdinalSetMapping<InstanceKey> mapping, long[] words, int size) {
+    this.mapping = mapping;
+    this.words = words;
+    this.size = size;
+  }
+
+  public InstanceKeySet copy() {
+    return new InstanceKeySet(mapping, words.clone(), size);
+  }
+
+  /**
+   * @return a copy of @param keys, which must be an InstanceKeySet unless it
+   *         has at most one element
+   */
+  public static Set<InstanceKey> copyOf(Collection<? extends InstanceKey> keys) {
+    if (keys instanceof InstanceKeySet) return ((InstanceKeySet) keys).copy();
+    return new HashSet<InstanceKey>(keys);
+  }
+
+  public static InstanceKeySet make(OrdinalSet<InstanceKey> keys) {
+    IntSet backing = keys.getBackingSet();
+    if (backing == null || backing.isEmpty()) return new InstanceKeySet(keys.getMapping());
+    // the numbers are the pointer analysis's, so we can fill in the words directly
+    final long[] words = new long[(backing.max() >>> 6) + 1];
+    backing.foreach(new IntSetAction() {
+      @Override
+      public void act(int bit) {
+        words[bit >>> 6] |= 1L << bit;
+      }
+    });
+    return new InstanceKeySet(keys.getMapping(), words, backing.size());
+  }
+
+  private int getNumber(InstanceKey key) {
+    int num = mapping == null ? -1 : mapping.getMappedIndex(key);
+    if (num < 0) Util.Assert(false, "key " + key + " isn't numbered by the pointer analysis");
+    return num;
+  }
+
+  // @return number of key, or -1 if key isn't numbered (so it can't be in the set)
+  private int findNumber(Object key) {
+    return mapping == null ? -1 : mapping.getMappedIndex(key);
+  }
+
+  // @return true if we can combine our words with those of @param other
+  private boolean sameNumbering(InstanceKeySet other) {
+    if (mapping == null && size == 0) mapping = other.mapping;
+    return mapping == other.mapping || other.size == 0;
+  }
+
+  private boolean get(int bit) {
+    int word = bit >>> 6;
+    return word < words.length && (words[word] & (1L << bit)) != 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof InstanceKey)) return false;
+    int num = findNumber(o);
+    return num != -1 && get(num);
+  }
+
+  @Override
+  public boolean add(InstanceKey key) {
+    Util.Pre(key != null, "null elements not allowed");
+    int bit = getNumber(key), word = bit >>> 6;
+    if (word >= words.length) words = Arrays.copyOf(words, Math.max(word + 1, words.length * 2));
+    long mask = 1L << bit;
+    if ((words[word] & mask) != 0) return false;
+    words[word] |= mask;
+    size++;
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    if (!(o instanceof InstanceKey)) return false;
+    int bit = findNumber(o);
+    if (bit == -1 || !get(bit)) return false;
+    words[bit >>> 6] &= ~(1L << bit);
+    size--;
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    words = NO_WORDS;
+    size = 0;
+  }
+
+  private static int popCount(long[] words) {
+    int count = 0;
+    for (long word : words) count += Long.bitCount(word);
+    return count;
+  }
+
+  @Override
+  public boolean addAll(Collection<? extends InstanceKey> c) {
+    if (!(c instanceof InstanceKeySet) || !sameNumbering((InstanceKeySet) c)) return super.addAll(c);
+    long[] other = ((InstanceKeySet) c).words;
+    if (other.length > words.length) words = Arrays.copyOf(words, other.length);
+    for (int i = 0; i < other.length; i++) words[i] |= other[i];
+    int oldSize = size;
+    size = popCount(words);
+    return size != oldSize;
+  }
+
+  @Override
+  public boolean retainAll(Collection<?> c) {
+    if (!(c instanceof InstanceKeySet) || !sameNumbering((InstanceKeySet) c)) return super.retainAll(c);
+    long[] other = ((InstanceKeySet) c).words;
+    for (int i = 0; i < words.length; i++) words[i] &= i < other.length ? other[i] : 0;
+    int oldSize = size;
+    size = popCount(words);
+    return size != oldSize;
+  }
+
+  @Override
+  public boolean removeAll(Collection<?> c) {
+    if (!(c instanceof InstanceKeySet) || !sameNumbering((InstanceKeySet) c)) return super.removeAll(c);
+    long[] other = ((InstanceKeySet) c).words;
+    for (int i = 0; i < words.length && i < other.length; i++) words[i] &= ~other[i];
+    int oldSize = size;
+    size = popCount(words);
+    return size != oldSize;
+  }
+
+  @Override
+  public boolean containsAll(Collection<?> c) {
+    if (!(c instanceof InstanceKeySet) || !sameNumbering((InstanceKeySet) c)) return super.containsAll(c);
+    InstanceKeySet otherSet = (InstanceKeySet) c;
+    if (otherSet.size > size) return false;
+    long[] other = otherSet.words;
+    for (int i = 0; i < other.length; i++) {
+      long mine = i < words.length ? words[i] : 0;
+      if ((other[i] & ~mine) != 0) return false;
+    }
+    return true;
+  }
+
+  /**
+   * @return true if this set and @param other have an element in common
+   */
+  public boolean intersects(InstanceKeySet other) {
+    if (!sameNumbering(other)) {
+      for (InstanceKey key : other) {
+        if (contains(key)) return true;
+      }
+      return false;
+    }
+    int len = Math.min(words.length, other.words.length);
+    for (int i = 0; i < len; i++) {
+      if ((words[i] & other.words[i]) != 0) return true;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof InstanceKeySet) || !sameNumbering((InstanceKeySet) o)) return super.equals(o);
+    InstanceKeySet other = (InstanceKeySet) o;
+    if (other.size != size) return false;
+    int len = Math.max(words.length, other.words.length);
+    for (int i = 0; i < len; i++) {
+      long mine = i < words.length ? words[i] : 0, theirs = i < other.words.length ? other.words[i] : 0;
+      if (mine != theirs) return false;
+    }
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    // must agree with AbstractSet.hashCode() so we can be compared with other sets
+    return super.hashCode();
+  }
+
+  @Override
+  public Iterator<InstanceKey> iterator() {
+    return new Iterator<InstanceKey>() {
+      private int next = nextSetBit(0);
+      private int last = -1;
+
+      private int nextSetBit(int from) {
+        int word = from >>> 6;
+        if (word >= words.length) return -1;
+        long bits = words[word] & (-1L << from);
+        for (;;) {
+          if (bits != 0) return (word << 6) + Long.numberOfTrailingZeros(bits);
+          if (++word >= words.length) return -1;
+          bits = words[word];
+        }
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next != -1;
+      }
+
+      @Override
+      public InstanceKey next() {
+        if (next == -1) throw new NoSuchElementException();
+        last = next;
+        next = nextSetBit(next + 1);
+        return mapping.getMappedObject(last);
+      }
+
+      @Override
+      public void remove() {
+        if (last == -1) throw new IllegalStateException();
+        words[last >>> 6] &= ~(1L << last);
+        size--;
+        last = -1;
+      }
+    };
+  }
+}
@@ -0,0 +1,289 @@
+package edu.colorado.thresher.core;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * end-to-end benchmark: runs the Android leak checker on each app in a
+ * directory (by default the apps/pldi13 benchmarks) and records the wall time
+ * and allocation of each phase (see PhaseTimer), plus the total. results go to
+ * -bench_out as CSV and JSON. with -bench_baseline, compares against the CSV of
+ * an earlier run and exits with status 1 if any phase regressed by more than
+ * -bench_tolerance percent. with -bench_check_workers and -num_workers above 1,
+ * each app's errors are also refuted with a single worker first; the time of
+ * that refutation is recorded as its own phase, and the benchmark exits with
+ * status 1 if any error got a different verdict than with -num_workers
+ *
+ * takes the same options as Main; -app is the directory of apps, each of which
+ * is analyzed from its bin/ directory. like the regression tests, this expects
+ * to be run from the root of a checkout named thresher. usage, e.g.:
+ * make run-leak-bench LEAK_BENCH_ARGS="-bench_baseline leak_bench_old.csv"
+ */
+public class LeakBenchmark {
+
+  static final String TOTAL = "total";
+  static final String SEQUENTIAL_REFUTATION = PhaseTimer.REFUTATION + "_1_worker";
+  private static final String CSV_HEADER = "app,phase,wall_ms,alloc_bytes,refuted";
+  // differences below these are noise, whatever the percentage
+  private static final long MIN_WALL_REGRESSION_MS = 100;
+  private static final long MIN_ALLOC_REGRESSION_BYTES = 16L * 1024 * 1024;
+
+  // one row of results
+  private static final class Row {
+    final String app, phase;
+    final long wallMs, allocBytes;
+    final boolean refuted;
+
+    Row(String app, String phase, long wallMs, long allocBytes, boolean refuted) {
+      this.app = app;
+      this.phase = phase;
+      this.wallMs = wallMs;
+      this.allocBytes = allocBytes;
+      this.refuted = refuted;
+    }
+
+    String key() {
+      return app + "," + phase;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    String target = args.length == 0 ? null : Options.parseArgs(args);
+    if (target == null) target = "apps/pldi13";
+    File targetDir = new File(target);
+    Util.Assert(targetDir.isDirectory(), "Benchmark directory " + target + " does not exist, exiting");
+    Options.ANDROID_LEAK = true;
+
+    File[] apps = targetDir.listFiles();
+    Arrays.sort(apps);
+    boolean checkWorkers = Options.BENCH_CHECK_WORKERS && Options.NUM_WORKERS > 1;
+    List<Row> rows = new ArrayList<Row>();
+    int mismatches = 0;
+    for (File app : apps) {
+      File bin = new File(app, "bin");
+      if (!bin.isDirectory()) continue;
+      String binPath = target + "/" + app.getName() + "/bin";
+      Map<String, Boolean> sequentialVerdicts = null;
+      long sequentialMs = 0;
+      if (checkWorkers) {
+        sequentialVerdicts = new LinkedHashMap<String, Boolean>();
+        sequentialMs = runSequential(app.getName(), binPath, sequentialVerdicts);
+      }
+      Main.lastErrorVerdicts.clear();
+      List<Row> appRows = runApp(app.getName(), binPath);
+      if (checkWorkers) {
+        mismatches += compareVerdicts(app.getName(), sequentialVerdicts, Main.lastErrorVerdicts);
+        long parallelMs = 0;
+        for (Row row : appRows) {
+          if (row.phase.equals(PhaseTimer.REFUTATION)) parallelMs = row.wallMs;
+        }
+        Util.Print(app.getName() + ": refutation took " + sequentialMs + " ms with 1 worker, " + parallelMs + " ms with "
+            + Options.NUM_WORKERS + (parallelMs > 0 ? String.format(" (%.2fx)", sequentialMs / (double) parallelMs) : ""));
+        appRows.add(new Row(app.getName(), SEQUENTIAL_REFUTATION, sequentialMs, -1, appRows.get(0).refuted));
+      }
+      rows.addAll(appRows);
+    }
+    Util.Assert(!rows.isEmpty(), "no apps with a bin/ directory in " + target);
+
+    writeCSV(rows, Options.BENCH_OUT + ".csv");
+    writeJSON(rows, Options.BENCH_OUT + ".json");
+    Util.Print("Wrote results to " + Options.BENCH_OUT + ".csv and " + Options.BENCH_OUT + ".json");
+
+    if (!Options.BENCH_BASELINE.equals("")) {
+      int regressions = compare(rows, readCSV(Options.BENCH_BASELINE), Options.BENCH_TOLERANCE);
+      if (regressions > 0) {
+        Util.Print(regressions + " regression(s) against " + Options.BENCH_BASELINE);
+        System.exit(1);
+      }
+      Util.Print("No regressions against " + Options.BENCH_BASELINE);
+    }
+    if (mismatches > 0) {
+      Util.Print(mismatches + " error(s) got different verdicts with " + Options.NUM_WORKERS + " workers than with 1");
+      System.exit(1);
+    }
+  }
+
+  /**
+   * refute the errors of @param app with one worker and no cache directory,
+   * putting each error's verdict (true if refuted) in @param verdicts. leaves
+   * the global state that carries over from app to app as it found it, so the
+   * run with -num_workers starts from the same state
+   *
+   * @return wall time of the refutation in ms
+   */
+  private static long runSequential(String app, String binPath, Map<String, Boolean> verdicts) throws Exception {
+    Util.Print("Refuting " + app + " with 1 worker");
+    int numWorkers = Options.NUM_WORKERS;
+    String cacheDir = Options.CACHE_DIR;
+    boolean alreadyJumped = PruningSymbolicExecutor.alreadyJumped;
+    Options.NUM_WORKERS = 1;
+    Options.CACHE_DIR = "";
+    try {
+      PhaseTimer.reset();
+      AbstractDependencyRuleGenerator depRuleGenerator = Main.buildCGAndPT(binPath, Options.MAIN_CLASS, Options.MAIN_METHOD);
+      Main.lastErrorVerdicts.clear();
+      Main.checkAnnotations(binPath, "Landroid/app/Activity", depRuleGenerator);
+      verdicts.putAll(Main.lastErrorVerdicts);
+      long[] refutation = PhaseTimer.snapshot().get(PhaseTimer.REFUTATION);
+      return refutation == null ? 0 : refutation[0] / 1000000;
+    } finally {
+      Options.NUM_WORKERS = numWorkers;
+      Options.CACHE_DIR = cacheDir;
+      PruningSymbolicExecutor.alreadyJumped = alreadyJumped;
+      Util.clear();
+      WALACFGUtil.clearCaches();
+    }
+  }
+
+  /**
+   * print each error whose verdict in @param parallel differs from (or is
+   * missing in) @param sequential
+   *
+   * @return the number of such errors
+   */
+  static int compareVerdicts(String app, Map<String, Boolean> sequential, Map<String, Boolean> parallel) {
+    int mismatches = 0;
+    for (Map.Entry<String, Boolean> entry : sequential.entrySet()) {
+      Boolean other = parallel.get(entry.getKey());
+      if (!entry.getValue().equals(other)) {
+        Util.Print("MISMATCH: " + app + " " + entry.getKey() + " refuted " + entry.getValue() + " with 1 worker, "
+            + other + " with " + Options.NUM_WORKERS);
+        mismatches++;
+      }
+    }
+    for (String error : parallel.keySet()) {
+      if (!sequential.containsKey(error)) {
+        Util.Print("MISMATCH: " + app + " " + error + " only found with " + Options.NUM_WORKERS + " workers");
+        mismatches++;
+      }
+    }
+    return mismatches;
+  }
+
+  private static List<Row> runApp(String app, String binPath) throws Exception {
+    Util.Print("Benchmarking " + app);
+    PhaseTimer.reset();
+    PhaseTimer.Split split = PhaseTimer.start();
+    AbstractDependencyRuleGenerator depRuleGenerator = Main.buildCGAndPT(binPath, Options.MAIN_CLASS, Options.MAIN_METHOD);
+    boolean refuted = Main.checkAnnotations(binPath, "Landroid/app/Activity", depRuleGenerator);
+    PhaseTimer.stop(TOTAL, split);
+    Util.Print(PhaseTimer.dumpStats());
+    // don't let one app's caches speed up (or slow down) the next
+    Util.clear();
+    WALACFGUtil.clearCaches();
+
+    List<Row> rows = new ArrayList<Row>();
+    for (Map.Entry<String, long[]> entry : PhaseTimer.snapshot().entrySet()) {
+      long[] totals = entry.getValue();
+      rows.add(new Row(app, entry.getKey(), totals[0] / 1000000, totals[1], refuted));
+    }
+    return rows;
+  }
+
+  /**
+   * print each phase in @param rows that is slower or allocates more than the
+   * same phase in @param baseline, by more than @param tolerance percent
+   *
+   * @return the number of regressions
+   */
+  static int compare(List<Row> rows, Map<String, Row> baseline, int tolerance) {
+    int regressions = 0;
+    for (Row row : rows) {
+      Row base = baseline.get(row.key());
+      if (base == null) {
+        Util.Print("No baseline for " + row.key());
+        continue;
+      }
+      if (isRegression(row.wallMs, base.wallMs, tolerance, MIN_WALL_REGRESSION_MS)) {
+        Util.Print("REGRESSION: " + row.app + " " + row.phase + " took " + row.wallMs + " ms; baseline " + base.wallMs + " ms");
+        regressions++;
+      }
+      if (row.allocBytes >= 0 && base.allocBytes >= 0
+          && isRegression(row.allocBytes, base.allocBytes, tolerance, MIN_ALLOC_REGRESSION_BYTES)) {
+        Util.Print("REGRESSION: " + row.app + " " + row.phase + " allocated " + row.allocBytes + " bytes; baseline "
+            + base.allocBytes + " bytes");
+        regressions++;
+      }
+      if (row.phase.equals(TOTAL) && row.refuted != base.refuted) {
+        // not a performance regression, but an upgrade that changes answers needs a look
+        Util.Print("CHANGED: " + row.app + " refuted " + row.refuted + "; baseline " + base.refuted);
+        regressions++;
+      }
+    }
+    return regressions;
+  }
+
+  private static boolean isRegression(long cur, long base, int tolerance, long minDiff) {
+    return cur - base > minDiff && cur * 100 > base * (100L + tolerance);
+  }
+
+  private static void writeCSV(List<Row> rows, String path) throws IOException {
+    PrintWriter out = new PrintWriter(path);
+    try {
+      out.println(CSV_HEADER);
+      for (Row row : rows) {
+        out.println(row.app + "," + row.phase + "," + row.wallMs + "," + row.allocBytes + "," + row.refuted);
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void writeJSON(List<Row> rows, String path) throws IOException {
+    // group the phases of each app
+    Map<String, List<Row>> byApp = new LinkedHashMap<String, List<Row>>();
+    for (Row row : rows) {
+      List<Row> appRows = byApp.get(row.app);
+      if (appRows == null) {
+        appRows = new ArrayList<Row>();
+        byApp.put(row.app, appRows);
+      }
+      appRows.add(row);
+    }
+    PrintWriter out = new PrintWriter(path);
+    try {
+      out.println("[");
+      int appNum = 0;
+      for (Map.Entry<String, List<Row>> entry : byApp.entrySet()) {
+        List<Row> appRows = entry.getValue();
+        out.println("  { \"app\": \"" + entry.getKey() + "\", \"refuted\": " + appRows.get(0).refuted + ", \"phases\": {");
+        for (int i = 0; i < appRows.size(); i++) {
+          Row row = appRows.get(i);
+          out.println("    \"" + row.phase + "\": { \"wall_ms\": " + row.wallMs + ", \"alloc_bytes\": " + row.allocBytes + " }"
+              + (i < appRows.size() - 1 ? "," : ""));
+        }
+        out.println("  } }" + (++appNum < byApp.size() ? "," : ""));
+      }
+      out.println("]");
+    } finally {
+      out.close();
+    }
+  }
+
+  static Map<String, Row> readCSV(String path) throws IOException {
+    Map<String, Row> rows = new LinkedHashMap<String, Row>();
+    BufferedReader in = new BufferedReader(new FileReader(path));
+    try {
+      String line = in.readLine();
+      Util.Assert(CSV_HEADER.equals(line), "Unexpected header in baseline " + path + ": " + line);
+      while ((line = in.readLine()) != null) {
+        if (line.trim().isEmpty()) continue;
+        String[] fields = line.split(",");
+        Util.Assert(fields.length == 5, "Bad line in baseline " + path + ": " + line);
+        Row row = new Row(fields[0], fields[1], Long.parseLong(fields[2]), Long.parseLong(fields[3]), Boolean.parseBoolean(fields[4]));
+        rows.put(row.key(), row);
+      }
+    } finally {
+      in.close();
+    }
+    return rows;
+  }
+}
@@ -1,22 +1,17 @@
 package edu.colorado.thresher.core;
 
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
 
 import com.ibm.wala.classLoader.IBytecodeMethod;
 import com.ibm.wala.shrikeCT.InvalidClassFileException;
 import com.ibm.wala.ssa.IR;
-import com.ibm.wala.util.collections.HashMapFactory;
 import com.ibm.wala.util.collections.HashSetFactory;
 import com.ibm.wala.util.intset.BitVectorIntSet;
 import com.ibm.wala.util.intset.MutableIntSet;
 
 public class Logger {
 
-  final Map<String, Integer> countMap = HashMapFactory.make();
-
   int failures = 0;
   int timeouts = 0;
   int edgesRefuted = 0;
@@ -40,14 +35,12 @@ public class Logger {
 
   public Logger() {}
 
+  /**
+   * bump the run-wide counter named @param str. hot paths should keep the
+   * Metrics.Counter instead
+   */
   public void log(String str) {
-    Integer count = countMap.get(str);
-    int countValue;
-    if (count == null)
-      countValue = 0;
-    else
-      countValue = count.intValue();
-    countMap.put(str, ++countValue);
+    Metrics.counter(str).inc();
   }
 
   public void logWitnessList(List<DependencyRule> witnessList) {
@@ -68,14 +61,7 @@ public class Logger {
   }
 
   public String dumpCountMap() {
-    StringBuffer buf = new StringBuffer();
-    for (Entry<String, Integer> entry : countMap.entrySet()) {
-      buf.append(entry.getValue());
-      buf.append(" : ");
-      buf.append(entry.getKey());
-      buf.append("'s\n");
-    }
-    return buf.toString();
+    return Metrics.dumpCounters();
   }
 
   public String dumpCSV() {
@@ -91,6 +77,27 @@ public class Logger {
         + "edgesRefuted" + "," + "edgesWitnessed" + "," + "timeouts";
   }
 
+  /**
+   * fold the counts collected by @param other (typically the logger of a
+   * worker thread) into this logger. counts from log() are already run-wide
+   */
+  public void merge(Logger other) {
+    failures += other.failures;
+    timeouts += other.timeouts;
+    edgesRefuted += other.edgesRefuted;
+    edgesWitnessed += other.edgesWitnessed;
+    errorsRefuted += other.errorsRefuted;
+    errorsWitnessed += other.errorsWitnessed;
+    falseWitnesses += other.falseWitnesses;
+    totalProducingStatements += other.totalProducingStatements;
+    if (other.maxPathStackSize > maxPathStackSize) maxPathStackSize = other.maxPathStackSize;
+    numPaths += other.numPaths;
+    totalPaths += other.totalPaths;
+    totalPathsWithRelevantLoop += other.totalPathsWithRelevantLoop;
+    witnessedFields.addAll(other.witnessedFields);
+    pathsWithRelevantLoop.addAll(other.pathsWithRelevantLoop);
+  }
+
   public void logPathWithRelevantLoop(IPathInfo path) {
     pathsWithRelevantLoop.add(path.getPathId());
   }
@@ -108,7 +115,8 @@ public class Logger {
     failures++;
   }
 
-  public void logPathStackSize(int pathStackSize) {
+  // parallel workers log this on their executor's shared logger
+  public synchronized void logPathStackSize(int pathStackSize) {
     if (pathStackSize > this.maxPathStackSize)
       this.maxPathStackSize = pathStackSize;
   }
@@ -16,6 +16,11 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarFile;
 
 import javax.tools.DiagnosticCollector;
@@ -64,7 +69,6 @@ import com.ibm.wala.ipa.callgraph.propagation.cfa.ZeroXInstanceKeys;
 import com.ibm.wala.ipa.cha.ClassHierarchy;
 import com.ibm.wala.ipa.cha.ClassHierarchyException;
 import com.ibm.wala.ipa.cha.IClassHierarchy;
-import com.ibm.wala.ipa.modref.ModRef;
 import com.ibm.wala.ipa.summaries.MethodSummary;
 import com.ibm.wala.ipa.summaries.SummarizedMethod;
 import com.ibm.wala.ipa.summaries.SyntheticIRFactory;
@@ -128,6 +132,9 @@ public class Main {
       CallGraphBuilderCancelException {    
     
     String target = Options.parseArgs(args);
+    if (!Options.METRICS_OUT.equals("") && Options.METRICS_INTERVAL > 0) {
+      Metrics.startLiveDump(Options.METRICS_OUT, Options.METRICS_INTERVAL);
+    }
     if (target == null) {
       System.out.println("No analysis targets given...exiting.");
       System.exit(1);
@@ -166,6 +173,7 @@ public class Main {
         //checkAnnotations(target, "Landroid/app/Activity", "");
       }
     }
+    if (!Options.METRICS_OUT.equals("")) Metrics.writeJSON(Options.METRICS_OUT);
   }
 
   public static void runAllRegressionTests() throws Exception, IOException, ClassHierarchyException, IllegalArgumentException,
@@ -224,6 +232,7 @@ public class Main {
     String mainClass = "LAct";
     for (String test : tests) {
       Util.Print("Running test " + testNum + ": " + test);
+      Metrics.reset();
       long testStart = System.currentTimeMillis();
       try {
         String path = regressionDir + test;
@@ -285,6 +294,7 @@ public class Main {
     for (String test : weakImmutabilityTests) {
     //for (String test : tests0) {
       Util.Print("Running test " + testNum + ": " + test);
+      Metrics.reset();
       long testStart = System.currentTimeMillis();
       try {
         result = runImmutabilityCheck(regressionDir + test);
@@ -343,6 +353,7 @@ public class Main {
     int testNum = 0;
     for (String test : tests) {
       Util.Print("Running test " + test);
+      Metrics.reset();
       //long testStart = System.currentTimeMillis();
       CastCheckingResults results;
       try {
@@ -569,9 +580,11 @@ public class Main {
     HeapGraph hg = new HeapGraphWrapper(pointerAnalysis, cg);
     HeapModel hm = pointerAnalysis.getHeapModel();
     Util.Print("Building mod/ref");
-    ModRef modref = ModRef.make();
-    Map<CGNode, OrdinalSet<PointerKey>> modRefMap = modref.computeMod(cg, pointerAnalysis);
-    return new AbstractDependencyRuleGenerator(cg, hg, hm, cache, modRefMap);
+    String analysisKey = ModRefCache.makeKey(scope, cg.getClassHierarchy(), entryPoints, builder);
+    Map<CGNode, OrdinalSet<PointerKey>> modRefMap = ModRefCache.computeMod(cg, pointerAnalysis, analysisKey);
+    AbstractDependencyRuleGenerator depRuleGenerator = new AbstractDependencyRuleGenerator(cg, hg, hm, cache, modRefMap);
+    depRuleGenerator.setRuleCache(RuleCache.make(analysisKey, cg, pointerAnalysis));
+    return depRuleGenerator;
   }
   
   private static Map<MethodReference,MethodSummary> readSummaries(AnalysisScope scope) {
@@ -775,7 +788,7 @@ public class Main {
             } else {
               Util.Unimp("anonymous listener function " + invoke + " " + ir);
             }
-            Set<InstanceKey> keys = HashSetFactory.make();
+            Set<InstanceKey> keys = new InstanceKeySet(hg.getPointerAnalysis());
             for (Iterator<Object> succIter = hg.getSuccNodes(local); succIter.hasNext();) {
               keys.add((InstanceKey) succIter.next());
             }
@@ -787,7 +800,7 @@ public class Main {
               Util.Unimp("no keys!");
             } else  rhs = SymbolicPointerVariable.makeSymbolicVar(keys);
   
-            PointsToEdge startEdge = new PointsToEdge(lhs, rhs);
+            PointsToEdge startEdge = PointsToEdge.make(lhs, rhs);
             UIQuery.buttonId = -1; // reset static button id so we don't get confused
             UIQuery query = new UIQuery(startEdge, depRuleGenerator, findMethods);
             ISSABasicBlock[] blks = node.getIR().getBasicBlocksForCall(invoke.getCallSite());
@@ -847,7 +860,7 @@ public class Main {
             PointerKey receiverKey = hm.getPointerKeyForLocal(eventHandlerNode, invoke.getUse(0));
             PointerVariable lhs = Util.makePointerVariable(receiverKey);
             PointerVariable rhs = SymbolicPointerVariable.makeSymbolicVar((OrdinalSet<InstanceKey>) hg.getPointerAnalysis().getPointsToSet(receiverKey));
-            PointsToEdge startEdge = new PointsToEdge(lhs, rhs);
+            PointsToEdge startEdge = PointsToEdge.make(lhs, rhs);
             // TODO: make special query that stops at function boundary
             IQuery query = new CombinedPathAndPointsToQuery(startEdge, depRuleGenerator);
             ISymbolicExecutor exec = new OptimizedPathSensitiveSymbolicExecutor(cg, logger);
@@ -921,7 +934,7 @@ public class Main {
         PathQuery query = new PathQuery(depRuleGenerator);
         
         // add constraint expressing that assertion *should* fail (we want a counterexample for the synthesizer)
-        //query.addConstraint(new AtomicPathConstraint(new SimplePathTerm(new ConcretePointerVariable(node, invoke.getUse(0), hm)),
+        //query.addConstraint(new AtomicPathConstraint(new SimplePathTerm(ConcretePointerVariable.make(node, invoke.getUse(0), hm)),
           //                                           new SimplePathTerm(0), ConditionalBranchInstruction.Operator.EQ));
         
         ISSABasicBlock[] blks = node.getIR().getBasicBlocksForCall(invoke.getCallSite());
@@ -1201,7 +1214,7 @@ public class Main {
                           hm.getPointerKeyForLocal(pred, callInstr.getUse(0)));
                       PointerVariable immutableInstanceKey = Util.makePointerVariable(next);
                       
-                      PointsToEdge witnessMe = new PointsToEdge(receiver, immutableInstanceKey);
+                      PointsToEdge witnessMe = PointsToEdge.make(receiver, immutableInstanceKey);
                       Util.Print("witnessMe: " + witnessMe);
                       toWitness.add(witnessMe);
 
@@ -1266,7 +1279,28 @@ public class Main {
   }
   
   //public static CastCheckingResults runCastChecker(String appPath) 
-  public static CastCheckingResults checkCasts(AbstractDependencyRuleGenerator depRuleGenerator) throws Exception {
+  public static CastCheckingResults checkCasts(final AbstractDependencyRuleGenerator depRuleGenerator) throws Exception {
+    ExecutorService pool = null;
+    if (Options.NUM_WORKERS > 1 && !Options.FLOW_INSENSITIVE_ONLY) {
+      buildIRs(depRuleGenerator.getCallGraph());
+      pool = Executors.newFixedThreadPool(Options.NUM_WORKERS);
+    }
+    CastCheckingResults results;
+    try {
+      results = checkCasts(depRuleGenerator, pool);
+    } finally {
+      // also stops the workers if enumerating or submitting casts threw
+      if (pool != null) pool.shutdownNow();
+    }
+    depRuleGenerator.saveRuleCache();
+    return results;
+  }
+
+  /**
+   * @param pool - runs the Thresher queries if non-null; the caller shuts it down
+   */
+  private static CastCheckingResults checkCasts(final AbstractDependencyRuleGenerator depRuleGenerator, ExecutorService pool)
+      throws Exception {
     Options.FULL_WITNESSES = true;
     /*
     String appName;
@@ -1312,6 +1346,10 @@ public class Main {
     IClassHierarchy cha = depRuleGenerator.getClassHierarchy();
     
     int numSafe = 0, numMightFail = 0, numThresherProvedSafe = 0, total = 0;
+    // when checking casts in parallel, Thresher queries are handed to the pool as they are found 
+    // and their results are collected once all casts have been enumerated
+    List<Future<Boolean>> thresherResults = null;
+    if (pool != null) thresherResults = new ArrayList<Future<Boolean>>();
 /*
     // TODO: TMP! just for experiments
     if (!REGRESSIONS) {
@@ -1341,7 +1379,7 @@ public class Main {
         // for instr v0 = checkcast v1 T, query is v1 -> a && (a from badKeys)
         PointerVariable src = Util.makePointerVariable(castPk);
         PointerVariable snk = SymbolicPointerVariable.makeSymbolicVar(badKeys);
-        PointsToEdge startEdge = new PointsToEdge(src, snk);
+        PointsToEdge startEdge = PointsToEdge.make(src, snk);
         final IQuery query = new CombinedPathAndPointsToQuery(startEdge, depRuleGenerator);
         SSACFG.BasicBlock startBlk = (SSACFG.BasicBlock) node.getIR().getBasicBlockForInstruction(castInstr);
         int startLineBlkIndex = WALACFGUtil.findInstrIndexInBlock(castInstr, startBlk);
@@ -1410,7 +1448,7 @@ public class Main {
                                         ", line " + Util.getSourceLineNumber(ir, i));
           PointerKey castPk = heapModel.getPointerKeyForLocal(node, castInstr.getUse(0));
           OrdinalSet<InstanceKey> keys = (OrdinalSet<InstanceKey>) pointerAnalysis.getPointsToSet(castPk);
-          Set<InstanceKey> badKeys = HashSetFactory.make();
+          Set<InstanceKey> badKeys = new InstanceKeySet(pointerAnalysis);
           for (InstanceKey key : keys) { // for each instance key in the points-to set
             TypeReference ikTypeRef = key.getConcreteType().getReference();
             for (TypeReference t : declaredResultTypes) {
@@ -1428,45 +1466,85 @@ public class Main {
             Util.Print("According to point-to analysis, cast #" + total + " may fail.");
             numMightFail++;
             if (Options.FLOW_INSENSITIVE_ONLY) continue;
-            // invoke Thresher, try to show that failure can't happen
-            // query (informally): when cast occurs, local var cast doesn't point to a bad key
-            // for instr v0 = checkcast v1 T, query is v1 -> a && (a from badKeys)
-            PointerVariable src = Util.makePointerVariable(castPk);
-            PointerVariable snk = SymbolicPointerVariable.makeSymbolicVar(badKeys);
-            PointsToEdge startEdge = new PointsToEdge(src, snk);
-            final IQuery query = new CombinedPathAndPointsToQuery(startEdge, depRuleGenerator);
-            SSACFG.BasicBlock startBlk = (SSACFG.BasicBlock) ir.getBasicBlockForInstruction(castInstr);
-            int startLineBlkIndex = WALACFGUtil.findInstrIndexInBlock(castInstr, startBlk);
-            Util.Assert(startBlk.getAllInstructions().get(startLineBlkIndex).equals(castInstr));
-
-            Logger logger = new Logger();
-            boolean foundWitness = true, fail = false;
-            try {
-              //ISymbolicExecutor exec = new PruningSymbolicExecutor(cg, logger);//new OptimizedPathSensitiveSymbolicExecutor(cg, logger);
-              ISymbolicExecutor exec = new OptimizedPathSensitiveSymbolicExecutor(cg, logger);
-              // start at line BEFORE cast statement
-              foundWitness = exec.executeBackward(node, startBlk, startLineBlkIndex - 1, query);
-            } catch (Exception e) {
-              if (Options.EXIT_ON_FAIL) throw e;
-              Util.Print("FAILED " + e + " " + Util.printArray(e.getStackTrace()));
-              Util.Print("Thresher failed on cast #" + total);
-              fail = true;
+            if (pool != null) {
+              final CGNode castNode = node;
+              final SSACheckCastInstruction cast = castInstr;
+              final PointerKey pk = castPk;
+              final Set<InstanceKey> keysToRefute = badKeys;
+              final int castNum = total;
+              thresherResults.add(pool.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                  return proveCastSafe(castNode, cast, pk, keysToRefute, castNum, depRuleGenerator);
+                }
+              }));
+            } else if (proveCastSafe(node, castInstr, castPk, badKeys, total, depRuleGenerator)) {
+              numThresherProvedSafe++;
             }
-            if (!foundWitness) {
-              Util.Print("Thresher proved cast #" + total + " safe.");
-              numThresherProvedSafe++; 
-            } else Util.Print("Thresher cannot prove cast #" + total + " safe. Fail? " + fail);
           }
         }
       }
     }
+    if (pool != null) {
+      for (Future<Boolean> result : thresherResults) {
+        try {
+          if (result.get()) numThresherProvedSafe++;
+        } catch (ExecutionException e) {
+          // only thrown when Options.EXIT_ON_FAIL is set; mirror the sequential behavior
+          Throwable cause = e.getCause();
+          if (cause instanceof Exception) throw (Exception) cause;
+          throw e;
+        }
+      }
+    }
     //}
     Util.Debug("Total safe: " + numSafe);
     Util.Debug("Total might fail: " + numMightFail);
     Util.Debug("Thresher proved safe: " + numThresherProvedSafe);
+    Util.Debug("Z3 stats:\n" + IncrementalSolver.dumpStats() + FeasibilityCache.dumpStats() + CalleeSummaryCache.dumpStats() + WALACFGUtil.dumpStats() + ConstraintPreSolver.dumpStats() + ImplicationChecker.dumpStats());
     return new CastCheckingResults(numSafe, numMightFail, numThresherProvedSafe);
   }
   
+  /**
+   * invoke Thresher to try to show that the cast @param castInstr in @param node cannot fail
+   * 
+   * @param badKeys - instance keys in the points-to set of the casted value that would make the cast fail
+   * @return - true if Thresher proved the cast safe, false otherwise
+   */
+  private static boolean proveCastSafe(CGNode node, SSACheckCastInstruction castInstr, PointerKey castPk, 
+      Set<InstanceKey> badKeys, int castNum, AbstractDependencyRuleGenerator depRuleGenerator) throws Exception {
+    // query (informally): when cast occurs, local var cast doesn't point to a bad key
+    // for instr v0 = checkcast v1 T, query is v1 -> a && (a from badKeys)
+    PointerVariable src = Util.makePointerVariable(castPk);
+    PointerVariable snk = SymbolicPointerVariable.makeSymbolicVar(badKeys);
+    PointsToEdge startEdge = PointsToEdge.make(src, snk);
+    final IQuery query = new CombinedPathAndPointsToQuery(startEdge, depRuleGenerator);
+    IR ir = node.getIR();
+    SSACFG.BasicBlock startBlk = (SSACFG.BasicBlock) ir.getBasicBlockForInstruction(castInstr);
+    int startLineBlkIndex = WALACFGUtil.findInstrIndexInBlock(castInstr, startBlk);
+    Util.Assert(startBlk.getAllInstructions().get(startLineBlkIndex).equals(castInstr));
+
+    Logger logger = new Logger();
+    boolean foundWitness = true, fail = false;
+    try {
+      //ISymbolicExecutor exec = new PruningSymbolicExecutor(cg, logger);//new OptimizedPathSensitiveSymbolicExecutor(cg, logger);
+      ISymbolicExecutor exec = new OptimizedPathSensitiveSymbolicExecutor(depRuleGenerator.getCallGraph(), logger);
+      // start at line BEFORE cast statement
+      foundWitness = exec.executeBackward(node, startBlk, startLineBlkIndex - 1, query);
+    } catch (Exception e) {
+      if (Options.EXIT_ON_FAIL) throw e;
+      Util.Print("FAILED " + e + " " + Util.printArray(e.getStackTrace()));
+      Util.Print("Thresher failed on cast #" + castNum);
+      fail = true;
+    }
+    if (!foundWitness) {
+      Util.Print("Thresher proved cast #" + castNum + " safe.");
+      return true;
+    } 
+    Util.Print("Thresher cannot prove cast #" + castNum + " safe. Fail? " + fail);
+    return false;
+  }
+  
   public static boolean checkAllFields(CGNode node, SSAInstruction instr, int callIndex,
       AbstractDependencyRuleGenerator depRuleGenerator, Logger logger) {
     HeapGraph hg = depRuleGenerator.getHeapGraph();
@@ -1496,7 +1574,7 @@ public class Main {
           Util.Print("Field is " + field);
           Iterator<Object> fieldSuccs = hg.getSuccNodes(field);
           if (!fieldSuccs.hasNext()) continue;
-          Set<InstanceKey> fieldSuccsSet = HashSetFactory.make();
+          Set<InstanceKey> fieldSuccsSet = new InstanceKeySet(hg.getPointerAnalysis());
           while (fieldSuccs.hasNext()) { // for each successor of the field
             Object fieldSucc = fieldSuccs.next();
             //Util.Print("field succ " + fieldSucc);
@@ -1512,7 +1590,7 @@ public class Main {
             // <immutable loc>.f -> {all things that <immutable loc>.f might point to}
             // for each write that might occur *after* the construction of the immutable
             // container, we must refute this edge
-            PointsToEdge toRefute = new PointsToEdge(lhs, SymbolicPointerVariable.makeSymbolicVar(fieldSuccsSet),
+            PointsToEdge toRefute = PointsToEdge.make(lhs, SymbolicPointerVariable.makeSymbolicVar(fieldSuccsSet),
                                                      field.getField());
             Util.Print("to refute " + toRefute);
             PruningSymbolicExecutor exec = new PruningSymbolicExecutor(depRuleGenerator.getCallGraph(), logger);
@@ -1569,6 +1647,7 @@ public class Main {
     for (String test : tests) {
       try {
         Util.Print("Running test " + testNum + ": " + test);
+        Metrics.reset();
         long testStart = System.currentTimeMillis();
         String filename = APP_PATH + test + "/";
         Options.APP = filename;
@@ -1718,7 +1797,9 @@ public class Main {
     if (exclusionsFile.exists()) {
       scope.setExclusions(new FileOfClasses(new FileInputStream(exclusionsFile)));
     }
+    PhaseTimer.Split split = PhaseTimer.start();
     IClassHierarchy cha = ClassHierarchy.make(scope);
+    PhaseTimer.stop(PhaseTimer.CLASS_HIERARCHY, split);
     Collection<Entrypoint> entryPoints = new ArrayList<Entrypoint>();
     for (Iterator<IClass> classes = cha.iterator(); classes.hasNext();) {
       IClass c = classes.next();
@@ -1779,7 +1860,9 @@ public class Main {
     }
     
     Util.Print("Building call graph.");
+    split = PhaseTimer.start();
     CallGraph cg = builder.makeCallGraph(options, null);  
+    PhaseTimer.stop(PhaseTimer.CALL_GRAPH, split);
     Util.Print(CallGraphStats.getStats(cg));
     /*
     try {
@@ -1789,12 +1872,18 @@ public class Main {
     }
     */
     
+    split = PhaseTimer.start();
     PointerAnalysis pointerAnalysis = builder.getPointerAnalysis();
     HeapGraph hg = new HeapGraphWrapper(pointerAnalysis, cg);
     HeapModel hm = pointerAnalysis.getHeapModel();
-    ModRef modref = ModRef.make();
-    Map<CGNode, OrdinalSet<PointerKey>> modRefMap = modref.computeMod(cg, pointerAnalysis);
-    return new AbstractDependencyRuleGenerator(cg, hg, hm, cache, modRefMap);
+    PhaseTimer.stop(PhaseTimer.POINTER_ANALYSIS, split);
+    split = PhaseTimer.start();
+    String analysisKey = ModRefCache.makeKey(scope, cg.getClassHierarchy(), entryPoints, builder);
+    Map<CGNode, OrdinalSet<PointerKey>> modRefMap = ModRefCache.computeMod(cg, pointerAnalysis, analysisKey);
+    PhaseTimer.stop(PhaseTimer.MOD_REF, split);
+    AbstractDependencyRuleGenerator depRuleGenerator = new AbstractDependencyRuleGenerator(cg, hg, hm, cache, modRefMap);
+    depRuleGenerator.setRuleCache(RuleCache.make(analysisKey, cg, pointerAnalysis));
+    return depRuleGenerator;
   }
   
   private static Collection<String> checkAssertions(AbstractDependencyRuleGenerator depRuleGenerator) {
@@ -1852,7 +1941,7 @@ public class Main {
       if (foundWitness) { // if there's a possibility the assertion could fail
         PathQuery query = new PathQuery(depRuleGenerator);
         // add constraint expressing that assertion *should* fail (we want a counterexample for the synthesizer)
-        query.addConstraint(new AtomicPathConstraint(new SimplePathTerm(new ConcretePointerVariable(node, invoke.getUse(0), hm)),
+        query.addConstraint(new AtomicPathConstraint(new SimplePathTerm(ConcretePointerVariable.make(node, invoke.getUse(0), hm)),
                                                      new SimplePathTerm(0), ConditionalBranchInstruction.Operator.EQ));
         ISSABasicBlock[] blks = node.getIR().getBasicBlocksForCall(invoke.getCallSite());
         Util.Assert(blks.length == 1);
@@ -1962,7 +2051,7 @@ public class Main {
       if (foundWitness) { // if there's a possibility the assertion could fail
         PathQuery query = new PathQuery(depRuleGenerator);
         // add constraint expressing that assertion *should* fail (we want a counterexample for the synthesizer)
-        query.addConstraint(new AtomicPathConstraint(new SimplePathTerm(new ConcretePointerVariable(node, invoke.getUse(0), hm)),
+        query.addConstraint(new AtomicPathConstraint(new SimplePathTerm(ConcretePointerVariable.make(node, invoke.getUse(0), hm)),
                                                      new SimplePathTerm(0), ConditionalBranchInstruction.Operator.EQ));
         ISSABasicBlock[] blks = node.getIR().getBasicBlocksForCall(invoke.getCallSite());
         Util.Assert(blks.length == 1);
@@ -2006,7 +2095,7 @@ public class Main {
             String fieldName = tbl.getStringValue(callInstrs[i].getUse(1));
             Util.Print(succ + "." + fieldName);
             Iterator<Object> fields = hg.getSuccNodes(succ);
-            Set<InstanceKey> possibleVals = HashSetFactory.make();
+            Set<InstanceKey> possibleVals = new InstanceKeySet(hg.getPointerAnalysis());
             PointerVariable lhs = Util.makePointerVariable(succ);
             PointsToEdge edge = null;
             while (fields.hasNext()) {
@@ -2019,7 +2108,7 @@ public class Main {
                     possibleVals.add((InstanceKey) fieldSuccs.next());
                   }
                   PointerVariable rhs = SymbolicPointerVariable.makeSymbolicVar(possibleVals);
-                  edge = new PointsToEdge(lhs, rhs, fieldKey.getField());
+                  edge = PointsToEdge.make(lhs, rhs, fieldKey.getField());
                   break;
                 }
               } else if (field instanceof ArrayContentsKey) {
@@ -2029,7 +2118,7 @@ public class Main {
                     possibleVals.add((InstanceKey) fieldSuccs.next());
                   }
                   PointerVariable rhs = SymbolicPointerVariable.makeSymbolicVar(possibleVals);
-                  edge = new PointsToEdge(lhs, rhs, AbstractDependencyRuleGenerator.ARRAY_CONTENTS);
+                  edge = PointsToEdge.make(lhs, rhs, AbstractDependencyRuleGenerator.ARRAY_CONTENTS);
                   Util.Print("edge " + edge);
                   break;
                 }
@@ -2171,7 +2260,9 @@ public class Main {
     long refuteStart = System.currentTimeMillis();
     boolean result = false;
     if (!Options.FLOW_INSENSITIVE_ONLY) {
+      PhaseTimer.Split split = PhaseTimer.start();
       result = refuteFieldErrors(fieldErrorList, depRuleGenerator, logger);
+      PhaseTimer.stop(PhaseTimer.REFUTATION, split);
     }
     long refuteEnd = System.currentTimeMillis();
     Util.Print("Symbolic execution completed in " + ((refuteEnd - refuteStart) / 1000.0) + " seconds");
@@ -2181,44 +2272,43 @@ public class Main {
   }
   
 
+  // error -> true if refuted, for the errors of the last call to refuteFieldErrors. lets LeakBenchmark
+  // compare verdicts across runs
+  static final Map<String, Boolean> lastErrorVerdicts = HashMapFactory.make();
+
   public static boolean refuteFieldErrors(List<Pair<Object, Object>> fieldErrors, AbstractDependencyRuleGenerator aDepRuleGenerator, Logger logger) {
     List<Pair<Object, Object>> trueErrors = new LinkedList<Pair<Object, Object>>(), falseErrors = new LinkedList<Pair<Object, Object>>();
-    Set<PointsToEdge> producedEdges = HashSetFactory.make(), refutedEdges = HashSetFactory.make();
     //AbstractDependencyRuleGenerator aDepRuleGenerator = new AbstractDependencyRuleGenerator(cg, hg, hm, cache, modRef);
 
-    int count = 1;
-    //Collection<Object> snkCollection = new LinkedList<Object>();
-
-    // for each error
-    for (Pair<Object, Object> error : fieldErrors) {
-      try {
-        Util.Print("starting on error " + count++ + " of " + fieldErrors.size() + ": " + error.fst);
-        //snkCollection.add(error.snd);
-        // if we can refute error
-        if (refuteFieldErrorForward(error, producedEdges, aDepRuleGenerator, 
-                                    refutedEdges, logger)) {
-          Util.Print("successfully refuted error path " + error);
-          logger.logRefutedError();
-          falseErrors.add(error);
-        } else {
-          Util.Print("successfully witnessed error path " + error);
-          logger.logWitnessedError();
-          logger.logWitnessedField(error.fst.toString());
-          trueErrors.add(error);
-        }
-        //relation = finder.getIgnoreIfBoth();
-      } catch (Exception e) {
-        Util.Print("problem while examining " + error + ": " + e + " " + Util.printArray(e.getStackTrace()));
-        logger.logFailure();
-        Thread.dumpStack();
-        if (Options.EXIT_ON_FAIL)
-          System.exit(1);
-        // otherwise, soundly (but not precisely) add error to witnessed list
-        trueErrors.add(error);
+    // verdicts for edges from the last run, if we're doing incremental analysis
+    VerdictCache verdictCache = VerdictCache.make(aDepRuleGenerator.getCallGraph());
+    List<Boolean> verdicts;
+    if (Options.NUM_WORKERS > 1) {
+      verdicts = refuteFieldErrorsParallel(fieldErrors, aDepRuleGenerator, verdictCache, logger);
+    } else {
+      Set<PointsToEdge> producedEdges = HashSetFactory.make(), refutedEdges = HashSetFactory.make();
+      verdicts = new ArrayList<Boolean>(fieldErrors.size());
+      int count = 1;
+      // for each error
+      for (Pair<Object, Object> error : fieldErrors) {
+        verdicts.add(refuteFieldError(error, count++, fieldErrors.size(), producedEdges, refutedEdges, aDepRuleGenerator, 
+                                      verdictCache, null, logger));
       }
     }
+    if (verdictCache != null) verdictCache.save();
+    aDepRuleGenerator.saveRuleCache();
+    
+    Iterator<Boolean> verdictIter = verdicts.iterator();
+    lastErrorVerdicts.clear();
+    for (Pair<Object, Object> error : fieldErrors) {
+      boolean refuted = verdictIter.next();
+      lastErrorVerdicts.put(error.toString(), refuted);
+      if (refuted) falseErrors.add(error);
+      else trueErrors.add(error);
+    }
     Util.Print("Refuted " + falseErrors.size() + " errors, witnessed " + trueErrors.size() + " errors");
     Util.Print("STATS:\n" + logger.dumpHumanReadable() + "\n" + logger.dumpCountMap());
+    Util.Print("Z3 STATS:\n" + IncrementalSolver.dumpStats() + FeasibilityCache.dumpStats() + CalleeSummaryCache.dumpStats() + WALACFGUtil.dumpStats() + ConstraintPreSolver.dumpStats() + ImplicationChecker.dumpStats());
     boolean result = falseErrors.size() == 0;
     Util.Print("<Labels>" + logger.dumpColumnLabels() + "</Labels>");
     Util.Print("<CSV>" + logger.dumpCSV() + "</CSV>");
@@ -2226,18 +2316,95 @@ public class Main {
     return result;
   }
   
-  private static boolean refuteFieldErrorForward(Pair<Object, Object> error, Set<PointsToEdge> producedEdges, 
-      AbstractDependencyRuleGenerator aDepRuleGenerator, Set<PointsToEdge> refutedEdges,
-      Logger logger) {
-    return refuteFieldErrorForward(error.fst, error.snd, producedEdges, aDepRuleGenerator, refutedEdges, logger);
+  /**
+   * WALA's IR cache is not safe for concurrent construction; build the IR's for all nodes of @param cg
+   * up front before handing work to multiple threads
+   */
+  private static void buildIRs(CallGraph cg) {
+    for (CGNode node : cg) node.getIR();
   }
+  
+  /**
+   * refute the errors in @param fieldErrors, exploring edges on Options.NUM_WORKERS threads. errors and edges are
+   * visited in the same order as in the sequential case, and get the same verdicts; see ParallelEdgeVerdicts
+   * 
+   * @return - list of verdicts (true if refuted) in the same order as @param fieldErrors
+   */
+  private static List<Boolean> refuteFieldErrorsParallel(List<Pair<Object, Object>> fieldErrors, 
+      AbstractDependencyRuleGenerator aDepRuleGenerator, VerdictCache verdictCache, Logger logger) {
+    buildIRs(aDepRuleGenerator.getCallGraph());
+    // these executors ask for the modifiers of most keys, so invert all of mod/ref now while we have the threads
+    if (Options.PIECEWISE_EXECUTION || Options.CALLGRAPH_PRUNING) {
+      aDepRuleGenerator.getReversedModRef().precompute(Options.NUM_WORKERS);
+    }
 
+    Util.Print("refuting " + fieldErrors.size() + " errors with " + Options.NUM_WORKERS + " workers");
+    Set<PointsToEdge> producedEdges = HashSetFactory.make(), refutedEdges = HashSetFactory.make();
+    List<Boolean> verdicts = new ArrayList<Boolean>(fieldErrors.size());
+    ParallelEdgeVerdicts edgeVerdicts = new ParallelEdgeVerdicts(aDepRuleGenerator, verdictCache, Options.NUM_WORKERS);
+    try {
+      int count = 1, lookahead = 0;
+      for (Pair<Object, Object> error : fieldErrors) {
+        // keep the workers busy with the next few errors while we're on this one
+        for (; lookahead < Math.min(count + Options.NUM_WORKERS, fieldErrors.size()); lookahead++) {
+          if (lookahead >= count) prefetchError(fieldErrors.get(lookahead), producedEdges, refutedEdges, aDepRuleGenerator, edgeVerdicts);
+        }
+        verdicts.add(refuteFieldError(error, count++, fieldErrors.size(), producedEdges, refutedEdges, aDepRuleGenerator, 
+                                      verdictCache, edgeVerdicts, logger));
+      }
+    } finally {
+      edgeVerdicts.finish(logger);
+    }
+    // the caches aren't cleared between edges and errors while workers may be using them
+    WALACFGUtil.clearCaches();
+    Util.clear();
+    return verdicts;
+  }
+  
   /**
-   * @return - true if the error is a refutation, false otherwise
+   * @return - true if the error is a refutation, false if it is witnessed (or we failed while examining it)
    */
+  private static boolean refuteFieldError(Pair<Object, Object> error, int errorNum, int numErrors, Set<PointsToEdge> producedEdges, 
+      Set<PointsToEdge> refutedEdges, AbstractDependencyRuleGenerator aDepRuleGenerator, VerdictCache verdictCache, 
+      ParallelEdgeVerdicts edgeVerdicts, Logger logger) {
+    try {
+      Util.Print("starting on error " + errorNum + " of " + numErrors + ": " + error.fst);
+      // if we can refute error
+      if (refuteFieldErrorForward(error.fst, error.snd, producedEdges, aDepRuleGenerator, 
+                                  refutedEdges, verdictCache, edgeVerdicts, logger)) {
+        Util.Print("successfully refuted error path " + error);
+        logger.logRefutedError();
+        return true;
+      } else {
+        Util.Print("successfully witnessed error path " + error);
+        logger.logWitnessedError();
+        logger.logWitnessedField(error.fst.toString());
+        return false;
+      }
+    } catch (Exception e) {
+      Util.Print("problem while examining " + error + ": " + e + " " + Util.printArray(e.getStackTrace()));
+      logger.logFailure();
+      Thread.dumpStack();
+      if (Options.EXIT_ON_FAIL)
+        System.exit(1);
+      // otherwise, soundly (but not precisely) add error to witnessed list
+      return false;
+    }
+  }
+  
   public static boolean refuteFieldErrorForward(Object src1, Object snk1, Set<PointsToEdge> producedEdges, 
                           AbstractDependencyRuleGenerator aDepRuleGenerator, Set<PointsToEdge> refutedEdges,
-                          Logger logger) {
+                          VerdictCache verdictCache, Logger logger) {
+    return refuteFieldErrorForward(src1, snk1, producedEdges, aDepRuleGenerator, refutedEdges, verdictCache, null, logger);
+  }
+
+  /**
+   * @param edgeVerdicts - workers exploring edges ahead of time, or null to explore each edge when we get to it
+   * @return - true if the error is a refutation, false otherwise
+   */
+  private static boolean refuteFieldErrorForward(Object src1, Object snk1, Set<PointsToEdge> producedEdges, 
+                          AbstractDependencyRuleGenerator aDepRuleGenerator, Set<PointsToEdge> refutedEdges,
+                          VerdictCache verdictCache, ParallelEdgeVerdicts edgeVerdicts, Logger logger) {
     HeapGraphWrapper hg = (HeapGraphWrapper) aDepRuleGenerator.getHeapGraph();
     IClassHierarchy cha = aDepRuleGenerator.getClassHierarchy();
     List<Object> errorPath = findNewErrorPath(hg, src1, snk1, cha); 
@@ -2253,6 +2420,7 @@ public class Main {
     }
     errorPath = newPath;
     Util.Print("have error path; size is " + errorPath.size());
+    if (edgeVerdicts != null) prefetchEdges(errorPath, producedEdges, refutedEdges, edgeVerdicts);
     int witnessedCount = 0;
 
     while (errorPath != null) {
@@ -2282,7 +2450,7 @@ public class Main {
             fieldKey = (StaticFieldKey) src;
           PointerVariable source = Util.makePointerVariable(src);
           PointerVariable sink = Util.makePointerVariable(snk);
-          PointsToEdge witnessMe = new PointsToEdge(source, sink, fieldKey);
+          PointsToEdge witnessMe = PointsToEdge.make(source, sink, fieldKey);
 
           if (!producedEdges.contains(witnessMe)) {
             // for now, we insist on refuting *all* contexts for a given edge
@@ -2303,9 +2471,11 @@ public class Main {
                 Util.Debug("ATTEMPTING TO REFUTE EDGE " + witnessMe);
               Util.Print("%%%%%%%%%%%%%%%%%Starting on edge " + witnessMe + "%%%%%%%%%%%%%%%%%");
               long start = System.currentTimeMillis();
-              witnessed = generateWitness(witnessMe, aDepRuleGenerator, logger);
+              if (edgeVerdicts == null) witnessed = generateWitness(witnessMe, aDepRuleGenerator, verdictCache, logger);
+              else witnessed = edgeVerdicts.getVerdict(witnessMe, logger);
               Util.Print("Edge took " + ((System.currentTimeMillis() - start) / 1000.0) + " seconds.");
-              WALACFGUtil.clearCaches();
+              // workers may still be using the caches; refuteFieldErrorsParallel clears them at the end
+              if (edgeVerdicts == null) WALACFGUtil.clearCaches();
             }
             if (witnessed) {
             //if (srcFieldPairs == null) {
@@ -2340,6 +2510,7 @@ public class Main {
                   Util.Print(edge.toString());
                 }
                 errorPath = newPath;
+                if (edgeVerdicts != null) prefetchEdges(errorPath, producedEdges, refutedEdges, edgeVerdicts);
               } else
                 Util.Debug("no path found!");
               refutation = true;
@@ -2363,29 +2534,109 @@ public class Main {
           Util.Print(Util.printCollection(errorPath));
           Util.Print("</Err Path>");
         }
-        Util.clear();
+        if (edgeVerdicts == null) Util.clear();
         return false;
       }
     } // end of "while path exists" loop
     // error path is null; we have a refutation!
-    Util.clear();
+    if (edgeVerdicts == null) Util.clear();
     return true;
   }
 
+  /**
+   * start exploring the edges of the error path we'd find for @param error against the current heap graph
+   */
+  private static void prefetchError(Pair<Object, Object> error, Set<PointsToEdge> producedEdges, Set<PointsToEdge> refutedEdges,
+      AbstractDependencyRuleGenerator aDepRuleGenerator, ParallelEdgeVerdicts edgeVerdicts) {
+    HeapGraphWrapper hg = (HeapGraphWrapper) aDepRuleGenerator.getHeapGraph();
+    // removing weak references now could change the verdicts of the errors before this one
+    List<Object> errorPath = findNewErrorPath(hg, error.fst, error.snd, aDepRuleGenerator.getClassHierarchy(), false);
+    if (errorPath == null) return;
+    LinkedList<Object> reversed = new LinkedList<Object>();
+    for (Object edge : errorPath) reversed.addFirst(edge);
+    prefetchEdges(reversed, producedEdges, refutedEdges, edgeVerdicts);
+  }
+
+  /**
+   * start exploring the edges of (reversed) @param errorPath that we don't have verdicts for yet
+   */
+  private static void prefetchEdges(List<Object> errorPath, Set<PointsToEdge> producedEdges, Set<PointsToEdge> refutedEdges,
+      ParallelEdgeVerdicts edgeVerdicts) {
+    // same walk as refuteFieldErrorForward
+    int srcIndex = 1, snkIndex = 0;
+    PointerKey fieldKey = null;
+    for (; srcIndex < errorPath.size(); srcIndex++) {
+      Object snk = errorPath.get(srcIndex);
+      if (snk instanceof PointerKey && !(snk instanceof StaticFieldKey)) {
+        fieldKey = (PointerKey) snk;
+        continue;
+      }
+      Object src = errorPath.get(snkIndex);
+      if (src instanceof StaticFieldKey) fieldKey = (StaticFieldKey) src;
+      PointsToEdge edge = PointsToEdge.make(Util.makePointerVariable(src), Util.makePointerVariable(snk), fieldKey);
+      if (!producedEdges.contains(edge) && !refutedEdges.contains(edge)) edgeVerdicts.prefetch(edge);
+      fieldKey = null;
+      snkIndex = srcIndex;
+    }
+  }
+
   /**
    * @return - true if witness for edge witnessMe found, false otherwise
    */
   public static boolean generateWitness(PointsToEdge witnessMe,
       AbstractDependencyRuleGenerator depRuleGenerator, Logger logger) {
-    CallGraph cg = depRuleGenerator.getCallGraph();
+    return generateWitness(witnessMe, depRuleGenerator, null, logger);
+  }
+
+  /**
+   * @param verdictCache - verdicts from the last run to reuse if possible, or null
+   * @return - true if witness for edge witnessMe found, false otherwise
+   */
+  public static boolean generateWitness(PointsToEdge witnessMe,
+      AbstractDependencyRuleGenerator depRuleGenerator, VerdictCache verdictCache, Logger logger) {
+    Set<DependencyRule> lastApplied = getProducers(witnessMe, depRuleGenerator);
+    if (verdictCache != null) {
+      Boolean cached = lookupVerdict(witnessMe, lastApplied, verdictCache, logger);
+      if (cached != null) return cached;
+    }
+    // nodes whose code the verdict depends on
+    Set<CGNode> touched = verdictCache == null ? null : HashSetFactory.<CGNode>make();
+    boolean witnessed = exploreProducers(witnessMe, lastApplied, depRuleGenerator, touched, logger);
+    if (verdictCache != null) verdictCache.record(witnessMe, witnessed, touched);
+    return witnessed;
+  }
 
+  static Set<DependencyRule> getProducers(PointsToEdge witnessMe, AbstractDependencyRuleGenerator depRuleGenerator) {
     final Set<DependencyRule> lastApplied;
     if (Options.GEN_DEPENDENCY_RULES_EAGERLY)
       lastApplied = Util.getRulesProducingEdge(witnessMe, depRuleGenerator);
     else
       lastApplied = Util.getProducersForEdge(witnessMe, depRuleGenerator);
     Util.Print(lastApplied.size() + " potential starting points.");
+    return lastApplied;
+  }
 
+  /**
+   * @return verdict for @param witnessMe from the last run, or null if there isn't a usable one
+   */
+  static Boolean lookupVerdict(PointsToEdge witnessMe, Set<DependencyRule> lastApplied, VerdictCache verdictCache, Logger logger) {
+    Boolean cached = verdictCache.lookup(witnessMe, lastApplied);
+    if (cached != null) {
+      Util.Print("reusing verdict from last run: " + (cached ? "witnessed" : "refuted"));
+      logger.log("reused edge verdicts");
+    }
+    return cached;
+  }
+
+  /**
+   * execute backward from each rule in @param lastApplied until one of them produces @param witnessMe
+   * 
+   * @param touched - if non-null, filled in with the nodes the verdict depends on
+   * @return - true if witness for edge witnessMe found, false otherwise
+   */
+  static boolean exploreProducers(PointsToEdge witnessMe, Set<DependencyRule> lastApplied, 
+      AbstractDependencyRuleGenerator depRuleGenerator, Set<CGNode> touched, Logger logger) {
+    CallGraph cg = depRuleGenerator.getCallGraph();
     logger.logProducingStatementsForEdge(lastApplied.size());
     int lastRuleCounter = 1;
     for (DependencyRule lastRule : lastApplied) {
@@ -2401,6 +2652,13 @@ public class Main {
       
       Util.Print("starting in method " + startNode);
       final IQuery query = new CombinedPathAndPointsToQuery(lastRule, depRuleGenerator);
+      if (touched != null) {
+        touched.add(startNode);
+        Map<Constraint, Set<CGNode>> mods = query.getModifiersForQuery();
+        if (mods != null) {
+          for (Set<CGNode> nodes : mods.values()) touched.addAll(nodes);
+        }
+      }
       IR ir = lastRule.getNode().getIR();
       SSACFG cfg = ir.getControlFlowGraph();
       SSACFG.BasicBlock startBlk = cfg.getBlockForInstruction(startLine);
@@ -2417,11 +2675,16 @@ public class Main {
         exec = new PiecewiseSymbolicExecutor(cg, logger);
       else if (Options.CALLGRAPH_PRUNING)
         exec = new PruningSymbolicExecutor(cg, logger);
+      else if (Options.BASIC_EXECUTOR && Options.PATH_WORKERS > 1)
+        exec = new ParallelSymbolicExecutor(cg, logger);
+      else if (Options.BASIC_EXECUTOR)
+        exec = new BasicSymbolicExecutor(cg, logger);
       else
         exec = new OptimizedPathSensitiveSymbolicExecutor(cg, logger);
       // start at line BEFORE snkStmt
       foundWitness = exec.executeBackward(startNode, startBlk, startLineBlkIndex - 1, query);
       Util.Print(logger.dumpEdgeStats());
+      if (touched != null) touched.addAll(exec.getVisitedNodes());
       if (foundWitness) return true; 
       // else, refuted this attempt; try again
     }
@@ -2431,6 +2694,15 @@ public class Main {
   
   // returns error path without weak refs if one can be found, null otherwise
   public static List<Object> findNewErrorPath(HeapGraphWrapper hg, Object srcKey, Object snkKey, IClassHierarchy cha) {
+    return findNewErrorPath(hg, srcKey, snkKey, cha, true);
+  }
+
+  /**
+   * @param ignoreWeakRefs - if false, leave @param hg alone and return null instead of looking for a path
+   *        without the weak references on the first path found
+   */
+  private static List<Object> findNewErrorPath(HeapGraphWrapper hg, Object srcKey, Object snkKey, IClassHierarchy cha,
+      boolean ignoreWeakRefs) {
     boolean foundWeakRef;
     for (;;) {
       foundWeakRef = false;
@@ -2457,6 +2729,7 @@ public class Main {
         } else {
           Object snk = path.get(snkIndex);
           if (isWeakReference(src, snk, cha)) {
+            if (!ignoreWeakRefs) return null;
             hg.addIgnoreEdge(fieldKey, snk);
             foundWeakRef = true;
             break;
@@ -0,0 +1,104 @@
+package edu.colorado.thresher.core;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+
+/**
+ * decides what a symbolic executor should do when the heap fills up. heap
+ * occupancy is measured after GC (the collection usage of the old generation)
+ * when the JVM reports it, since plain heap usage includes garbage that hasn't
+ * been collected yet. above Options.MEMORY_EVICT_PERCENT the executor should
+ * drop its path summaries and other caches; if occupancy is still above
+ * Options.MEMORY_ABANDON_PERCENT once a GC has run after that, it should give
+ * up on the query
+ *
+ * each executor owns one governor; the escalation state is per query
+ */
+public class MemoryGovernor {
+
+  public enum Action {
+    NONE, EVICT, ABANDON
+  }
+
+  // heap pool whose post-GC usage we watch, or null if there isn't one
+  private static final MemoryPoolMXBean TENURED_POOL = findTenuredPool();
+
+  static final Metrics.Gauge HEAP_PERCENT = Metrics.gauge("heap percent used");
+
+  private final Logger logger;
+  // GC count when we last told the executor to evict, or -1 if we haven't
+  private long gcCountAtEviction = -1;
+
+  public MemoryGovernor(Logger logger) {
+    this.logger = logger;
+  }
+
+  private static MemoryPoolMXBean findTenuredPool() {
+    MemoryPoolMXBean tenured = null;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() != MemoryType.HEAP || !pool.isCollectionUsageThresholdSupported()) continue;
+      // the old generation is the biggest heap pool that reports post-GC usage
+      if (tenured == null || pool.getUsage().getMax() > tenured.getUsage().getMax()) tenured = pool;
+    }
+    return tenured;
+  }
+
+  private static long getGCCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      long gcCount = gc.getCollectionCount();
+      if (gcCount > 0) count += gcCount;
+    }
+    return count;
+  }
+
+  /**
+   * @return percent of the heap in use, measured after the last GC when
+   *         possible
+   */
+  public static int getHeapPercentUsed() {
+    MemoryUsage usage = null;
+    if (TENURED_POOL != null) usage = TENURED_POOL.getCollectionUsage();
+    if (usage == null || usage.getMax() <= 0) usage = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    long max = usage.getMax() > 0 ? usage.getMax() : usage.getCommitted();
+    if (max <= 0) return 0;
+    return (int) ((usage.getUsed() * 100) / max);
+  }
+
+  /**
+   * start over for a new query
+   */
+  public void reset() {
+    gcCountAtEviction = -1;
+  }
+
+  /**
+   * @return what the executor should do about memory right now
+   */
+  public synchronized Action check() {
+    int percentUsed = getHeapPercentUsed();
+    HEAP_PERCENT.set(percentUsed);
+    if (percentUsed < Options.MEMORY_EVICT_PERCENT) return Action.NONE;
+    long gcCount = getGCCount();
+    if (gcCountAtEviction == -1) {
+      gcCountAtEviction = gcCount;
+      logger.log("memory governor evictions");
+      if (Options.DEBUG) Util.Debug("heap " + percentUsed + "% full; evicting summaries");
+      return Action.EVICT;
+    }
+    // wait for a GC to run after the last eviction before judging its effect
+    if (gcCount == gcCountAtEviction) return Action.NONE;
+    if (percentUsed >= Options.MEMORY_ABANDON_PERCENT) {
+      logger.log("memory governor abandoned queries");
+      Util.Print("heap " + percentUsed + "% full after evicting summaries; abandoning query");
+      return Action.ABANDON;
+    }
+    // eviction helped, but summaries have piled up again
+    gcCountAtEviction = gcCount;
+    logger.log("memory governor evictions");
+    return Action.EVICT;
+  }
+}
@@ -0,0 +1,356 @@
+package edu.colorado.thresher.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * run-wide metrics: counters, latency histograms, and gauges, registered by
+ * name, plus per-query counters for each query a symbolic executor explores.
+ * callers keep the instruments they use in static fields, so recording is an
+ * atomic add or two, with no lookups or allocation; cheap enough to leave on
+ *
+ * snapshotJSON() can be called at any time, from any thread, for a live view;
+ * with -metrics_out, Main writes it out at the end of the run (and every
+ * -metrics_interval seconds during it)
+ */
+public class Metrics {
+
+  public static final class Counter {
+    private final AtomicLong count = new AtomicLong();
+
+    public void inc() {
+      count.incrementAndGet();
+    }
+
+    public void add(long n) {
+      count.addAndGet(n);
+    }
+
+    public long get() {
+      return count.get();
+    }
+  }
+
+  /**
+   * latencies in nanoseconds, in power-of-two buckets: bucket i holds values
+   * in [2^(i-1), 2^i), so percentiles are exact to within a factor of two
+   */
+  public static final class Histogram {
+    private static final int NUM_BUCKETS = 65;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+      if (nanos < 0) nanos = 0;
+      buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+      count.incrementAndGet();
+      sum.addAndGet(nanos);
+      long curMax = max.get();
+      while (nanos > curMax && !max.compareAndSet(curMax, nanos)) {
+        curMax = max.get();
+      }
+    }
+
+    public long getCount() {
+      return count.get();
+    }
+
+    public long getSum() {
+      return sum.get();
+    }
+
+    public long getMax() {
+      return max.get();
+    }
+
+    /**
+     * @return upper bound of the bucket holding the @param percent'th
+     *         percentile, or 0 if nothing has been recorded
+     */
+    public long percentile(double percent) {
+      long total = count.get(), seen = 0;
+      if (total == 0) return 0;
+      long rank = (long) Math.ceil(total * percent / 100.0);
+      for (int i = 0; i < NUM_BUCKETS; i++) {
+        seen += buckets.get(i);
+        if (seen >= rank) return i == 0 ? 0 : i >= 63 ? Long.MAX_VALUE : (1L << i) - 1;
+      }
+      return max.get();
+    }
+  }
+
+  /**
+   * the last value set, and the largest
+   */
+  public static final class Gauge {
+    private final AtomicLong value = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void set(long newValue) {
+      value.set(newValue);
+      long curMax = max.get();
+      while (newValue > curMax && !max.compareAndSet(curMax, newValue)) {
+        curMax = max.get();
+      }
+    }
+
+    public long get() {
+      return value.get();
+    }
+
+    public long getMax() {
+      return max.get();
+    }
+  }
+
+  public enum QueryCounter {
+    PATHS_EXPLORED("paths explored"),
+    SPLITS("path splits"),
+    SUMMARY_HITS("summary hits"),
+    LOOP_HEAD_MERGES("loop head merges"),
+    CALLEE_ENTRIES("callee entries"),
+    CALLEE_SKIPS("callee skips");
+
+    final String name;
+    // run-wide total
+    final Counter total;
+
+    QueryCounter(String name) {
+      this.name = name;
+      this.total = counter(name);
+    }
+  }
+
+  /**
+   * counters for one query. the workers of a ParallelSymbolicExecutor share
+   * their query's counters, so they're atomic
+   */
+  public static final class Query {
+    private static final AtomicInteger idCounter = new AtomicInteger();
+
+    final int id = idCounter.getAndIncrement();
+    private final long startNanos = System.nanoTime();
+    private final AtomicLongArray counts = new AtomicLongArray(QueryCounter.values().length);
+    // set by finishQuery
+    private long wallNanos = -1;
+    private boolean witnessed;
+
+    public void inc(QueryCounter counter) {
+      counts.incrementAndGet(counter.ordinal());
+      counter.total.inc();
+    }
+
+    public long get(QueryCounter counter) {
+      return counts.get(counter.ordinal());
+    }
+  }
+
+  // registries. ConcurrentHashMap's for the sake of live snapshots
+  private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+  private static final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<String, Histogram>();
+  private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+  // most recently finished queries, oldest first
+  private static final LinkedList<Query> finishedQueries = new LinkedList<Query>();
+  private static final AtomicLong numFinishedQueries = new AtomicLong();
+
+  private static Timer liveDumper = null;
+
+  /**
+   * @return the counter named @param name, creating it if need be
+   */
+  public static Counter counter(String name) {
+    Counter counter = counters.get(name);
+    if (counter == null) {
+      counters.putIfAbsent(name, new Counter());
+      counter = counters.get(name);
+    }
+    return counter;
+  }
+
+  /**
+   * @return the histogram named @param name, creating it if need be
+   */
+  public static Histogram histogram(String name) {
+    Histogram histogram = histograms.get(name);
+    if (histogram == null) {
+      histograms.putIfAbsent(name, new Histogram());
+      histogram = histograms.get(name);
+    }
+    return histogram;
+  }
+
+  /**
+   * @return the gauge named @param name, creating it if need be
+   */
+  public static Gauge gauge(String name) {
+    Gauge gauge = gauges.get(name);
+    if (gauge == null) {
+      gauges.putIfAbsent(name, new Gauge());
+      gauge = gauges.get(name);
+    }
+    return gauge;
+  }
+
+  /**
+   * record that the executor is done with @param query, which @param witnessed
+   * (or timed out on)
+   */
+  public static void finishQuery(Query query, boolean witnessed) {
+    query.wallNanos = System.nanoTime() - query.startNanos;
+    query.witnessed = witnessed;
+    numFinishedQueries.incrementAndGet();
+    if (Options.METRICS_QUERY_HISTORY <= 0) return;
+    synchronized (finishedQueries) {
+      finishedQueries.addLast(query);
+      while (finishedQueries.size() > Options.METRICS_QUERY_HISTORY) {
+        finishedQueries.removeFirst();
+      }
+    }
+  }
+
+  /**
+   * zero everything. instruments stay registered, so the static fields holding
+   * them stay live
+   */
+  public static void reset() {
+    for (Counter counter : counters.values()) {
+      counter.count.set(0);
+    }
+    for (Histogram histogram : histograms.values()) {
+      for (int i = 0; i < Histogram.NUM_BUCKETS; i++) {
+        histogram.buckets.set(i, 0);
+      }
+      histogram.count.set(0);
+      histogram.sum.set(0);
+      histogram.max.set(0);
+    }
+    for (Gauge gauge : gauges.values()) {
+      gauge.value.set(0);
+      gauge.max.set(0);
+    }
+    synchronized (finishedQueries) {
+      finishedQueries.clear();
+    }
+    numFinishedQueries.set(0);
+  }
+
+  private static String quote(String str) {
+    return "\"" + str.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+  }
+
+  private static String ms(long nanos) {
+    return String.valueOf(nanos / 1000000.0);
+  }
+
+  /**
+   * @return everything recorded so far as a JSON object
+   */
+  public static String snapshotJSON() {
+    StringBuilder sb = new StringBuilder("{\n  \"counters\": {");
+    String sep = "\n";
+    for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(counters).entrySet()) {
+      sb.append(sep + "    " + quote(entry.getKey()) + ": " + entry.getValue().get());
+      sep = ",\n";
+    }
+    sb.append("\n  },\n  \"histograms_ms\": {");
+    sep = "\n";
+    for (Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()) {
+      Histogram histogram = entry.getValue();
+      sb.append(sep + "    " + quote(entry.getKey()) + ": { \"count\": " + histogram.getCount() + ", \"total\": "
+          + ms(histogram.getSum()) + ", \"p50\": " + ms(histogram.percentile(50)) + ", \"p90\": " + ms(histogram.percentile(90))
+          + ", \"p99\": " + ms(histogram.percentile(99)) + ", \"max\": " + ms(histogram.getMax()) + " }");
+      sep = ",\n";
+    }
+    sb.append("\n  },\n  \"gauges\": {");
+    // heap use is read now rather than whenever someone last set it
+    MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+    sb.append("\n    \"heap used bytes\": { \"value\": " + heap.getUsed() + " }");
+    sb.append(",\n    \"heap percent used after gc\": { \"value\": " + MemoryGovernor.getHeapPercentUsed() + " }");
+    for (Map.Entry<String, Gauge> entry : new TreeMap<String, Gauge>(gauges).entrySet()) {
+      Gauge gauge = entry.getValue();
+      sb.append(",\n    " + quote(entry.getKey()) + ": { \"value\": " + gauge.get() + ", \"max\": " + gauge.getMax() + " }");
+    }
+    List<Query> queries;
+    synchronized (finishedQueries) {
+      queries = new ArrayList<Query>(finishedQueries);
+    }
+    sb.append("\n  },\n  \"queries_finished\": " + numFinishedQueries.get() + ",\n  \"recent_queries\": [");
+    sep = "\n";
+    for (Query query : queries) {
+      sb.append(sep + "    { \"id\": " + query.id + ", \"wall_ms\": " + ms(query.wallNanos) + ", \"witnessed\": " + query.witnessed);
+      for (QueryCounter counter : QueryCounter.values()) {
+        sb.append(", " + quote(counter.name) + ": " + query.get(counter));
+      }
+      sb.append(" }");
+      sep = ",\n";
+    }
+    sb.append("\n  ]\n}\n");
+    return sb.toString();
+  }
+
+  public static void writeJSON(String path) {
+    // write to a temporary file and rename, so a reader never sees a partial snapshot
+    File tmp = new File(path + ".tmp");
+    try {
+      PrintWriter out = new PrintWriter(tmp);
+      try {
+        out.print(snapshotJSON());
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      Util.Print("couldn't write metrics to " + path + ": " + e);
+      return;
+    }
+    if (!tmp.renameTo(new File(path))) Util.Print("couldn't write metrics to " + path);
+  }
+
+  /**
+   * rewrite @param path with a snapshot every @param seconds until the JVM
+   * exits
+   */
+  public static synchronized void startLiveDump(final String path, int seconds) {
+    Util.Pre(seconds > 0);
+    if (liveDumper != null) liveDumper.cancel();
+    liveDumper = new Timer("metrics dumper", true);
+    liveDumper.schedule(new TimerTask() {
+      @Override
+      public void run() {
+        writeJSON(path);
+      }
+    }, seconds * 1000L, seconds * 1000L);
+  }
+
+  /**
+   * @return the counters, one per line, as Logger.dumpCountMap() always printed them
+   */
+  public static String dumpCounters() {
+    StringBuffer buf = new StringBuffer();
+    for (Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(counters).entrySet()) {
+      if (entry.getValue().get() == 0) continue;
+      buf.append(entry.getValue().get());
+      buf.append(" : ");
+      buf.append(entry.getKey());
+      buf.append("'s\n");
+    }
+    return buf.toString();
+  }
+}
@@ -0,0 +1,355 @@
+package edu.colorado.thresher.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.ibm.wala.classLoader.FileModule;
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IField;
+import com.ibm.wala.classLoader.JarFileModule;
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.classLoader.ModuleEntry;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.Entrypoint;
+import com.ibm.wala.ipa.callgraph.propagation.ArrayContentsKey;
+import com.ibm.wala.ipa.callgraph.propagation.HeapModel;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceFieldKey;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerAnalysis;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ipa.callgraph.propagation.StaticFieldKey;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.ipa.modref.ModRef;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.util.collections.HashMapFactory;
+import com.ibm.wala.util.collections.HashSetFactory;
+import com.ibm.wala.util.intset.MutableMapping;
+import com.ibm.wala.util.intset.MutableSparseIntSet;
+import com.ibm.wala.util.intset.OrdinalSet;
+
+/**
+ * on-disk cache of mod/ref results, so that repeated runs on the same code
+ * don't redo ModRef.computeMod(). cache files live in Options.CACHE_DIR and
+ * are named by a hash of everything the result depends on: the modules in the
+ * analysis scope, the classes in the class hierarchy (which reflects the
+ * exclusions), the entrypoints, and the call graph builder and options used.
+ * modules are keyed on the bytes of their files rather than their paths or
+ * modification times, so a fresh checkout of unchanged code still hits. jars
+ * are hashed as whole files without unpacking them, which costs about 0.1s
+ * for the JRE's rt.jar
+ *
+ * call graph nodes and pointer keys are stored by their printed form and
+ * matched against the freshly built call graph and pointer analysis on load.
+ * if anything doesn't match up exactly (e.g., WALA numbered the nodes
+ * differently), we ignore the cache and compute mod/ref as usual
+ */
+public class ModRefCache {
+
+  private static final int MAGIC = 0x7468726d; // "thrm"
+  private static final int VERSION = 1;
+  private static final byte STATIC_FIELD = 0, INSTANCE_FIELD = 1, ARRAY_CONTENTS = 2;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * @return a hash of everything the call graph and pointer analysis depend on,
+   *         which names the cache files for this analysis, or null if
+   *         Options.CACHE_DIR is empty or the scope couldn't be read
+   */
+  static String makeKey(AnalysisScope scope, IClassHierarchy cha, Collection<? extends Entrypoint> entrypoints, Object builder) {
+    if (Options.CACHE_DIR.equals("")) return null;
+    try {
+      return makeKeyImpl(scope, cha, entrypoints, builder);
+    } catch (IOException e) {
+      Util.Print("Couldn't hash analysis scope; not caching: " + e);
+      return null;
+    }
+  }
+
+  /**
+   * @return mod/ref for @param cg, from the cache for @param analysisKey (see
+   *         makeKey()) if possible
+   */
+  public static Map<CGNode, OrdinalSet<PointerKey>> computeMod(CallGraph cg, PointerAnalysis pa, String analysisKey) {
+    if (analysisKey == null) return ModRef.make().computeMod(cg, pa);
+
+    File cacheFile = new File(Options.CACHE_DIR, analysisKey + ".modref.gz");
+    try {
+      if (cacheFile.exists()) {
+        Map<CGNode, OrdinalSet<PointerKey>> modRef = load(cacheFile, cg, pa);
+        if (modRef != null) {
+          Util.Print("Loaded mod/ref from " + cacheFile);
+          return modRef;
+        }
+        Util.Print("Mod/ref cache " + cacheFile + " doesn't match this call graph; recomputing");
+      }
+    } catch (IOException e) {
+      Util.Print("Couldn't read mod/ref cache: " + e);
+    }
+
+    Map<CGNode, OrdinalSet<PointerKey>> modRef = ModRef.make().computeMod(cg, pa);
+    try {
+      store(cacheFile, cg, modRef);
+    } catch (IOException e) {
+      Util.Print("Couldn't write mod/ref cache: " + e);
+    }
+    return modRef;
+  }
+
+  private static String makeKeyImpl(AnalysisScope scope, IClassHierarchy cha, Collection<? extends Entrypoint> entrypoints,
+      Object builder) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+    byte[] buf = new byte[65536];
+    for (ClassLoaderReference loader : scope.getLoaders()) {
+      update(digest, loader.toString());
+      for (Module module : scope.getModules(loader)) {
+        hashModule(module, digest, buf);
+      }
+    }
+
+    List<String> classes = new ArrayList<String>();
+    for (IClass c : cha) {
+      classes.add(c.getReference().toString());
+    }
+    Collections.sort(classes);
+    for (String c : classes) update(digest, c);
+
+    List<String> entries = new ArrayList<String>();
+    for (Entrypoint e : entrypoints) {
+      entries.add(e.toString());
+    }
+    Collections.sort(entries);
+    for (String e : entries) update(digest, e);
+
+    update(digest, builder.getClass().getName() + " " + Options.PRIM_ARRAY_SENSITIVITY + " " + Options.USE_PI_NODES + " "
+        + Options.ANDROID_UI + " " + Options.ANDROID_LEAK);
+
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b & 0xff));
+    }
+    return hex.toString();
+  }
+
+  private static void hashModule(Module module, MessageDigest digest, byte[] buf) throws IOException {
+    if (module instanceof JarFileModule) {
+      hashFile(new File(((JarFileModule) module).getAbsolutePath()), digest, buf);
+      return;
+    }
+    for (Iterator<? extends ModuleEntry> iter = module.getEntries(); iter.hasNext();) {
+      ModuleEntry entry = iter.next();
+      update(digest, entry.getName());
+      if (entry instanceof FileModule) {
+        hashFile(((FileModule) entry).getFile(), digest, buf);
+        continue;
+      }
+      if (entry.isModuleFile()) {
+        hashModule(entry.asModule(), digest, buf);
+        continue;
+      }
+      // not backed by a file of its own (e.g., a class in a nested jar)
+      hashStream(entry.getInputStream(), digest, buf);
+    }
+  }
+
+  private static void hashFile(File file, MessageDigest digest, byte[] buf) throws IOException {
+    hashStream(new FileInputStream(file), digest, buf);
+  }
+
+  private static void hashStream(InputStream in, MessageDigest digest, byte[] buf) throws IOException {
+    try {
+      for (int read; (read = in.read(buf)) != -1;) digest.update(buf, 0, read);
+    } finally {
+      in.close();
+    }
+    digest.update((byte) 0);
+  }
+
+  private static void update(MessageDigest digest, String str) {
+    digest.update(str.getBytes(UTF8));
+    digest.update((byte) 0);
+  }
+
+  private static void store(File cacheFile, CallGraph cg, Map<CGNode, OrdinalSet<PointerKey>> modRef) throws IOException {
+    // number the keys that show up in mod/ref
+    Map<PointerKey, Integer> keyNums = HashMapFactory.make();
+    List<PointerKey> keys = new ArrayList<PointerKey>();
+    for (OrdinalSet<PointerKey> mods : modRef.values()) {
+      for (PointerKey key : mods) {
+        if (keyNums.containsKey(key)) continue;
+        if (!(key instanceof StaticFieldKey || key instanceof InstanceFieldKey || key instanceof ArrayContentsKey)) {
+          Util.Print("Not caching mod/ref; don't know how to store key " + key);
+          return;
+        }
+        keyNums.put(key, keys.size());
+        keys.add(key);
+      }
+    }
+
+    File dir = cacheFile.getParentFile();
+    if (!dir.exists() && !dir.mkdirs()) throw new IOException("couldn't create " + dir);
+    // write to a temp file and rename so readers never see a partial cache
+    File tmp = File.createTempFile("modref", ".tmp", dir);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(cg.getNumberOfNodes());
+      for (CGNode node : cg) {
+        out.writeInt(cg.getNumber(node));
+        out.writeUTF(node.toString());
+      }
+      out.writeInt(keys.size());
+      for (PointerKey key : keys) {
+        if (key instanceof StaticFieldKey) {
+          out.writeByte(STATIC_FIELD);
+          out.writeUTF(((StaticFieldKey) key).getField().toString());
+        } else if (key instanceof InstanceFieldKey) {
+          InstanceFieldKey fieldKey = (InstanceFieldKey) key;
+          out.writeByte(INSTANCE_FIELD);
+          out.writeUTF(fieldKey.getInstanceKey().toString());
+          out.writeUTF(fieldKey.getField().toString());
+        } else {
+          out.writeByte(ARRAY_CONTENTS);
+          out.writeUTF(((ArrayContentsKey) key).getInstanceKey().toString());
+        }
+      }
+      out.writeInt(modRef.size());
+      for (Map.Entry<CGNode, OrdinalSet<PointerKey>> entry : modRef.entrySet()) {
+        out.writeInt(cg.getNumber(entry.getKey()));
+        OrdinalSet<PointerKey> mods = entry.getValue();
+        out.writeInt(mods.size());
+        for (PointerKey key : mods) {
+          out.writeInt(keyNums.get(key));
+        }
+      }
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(cacheFile)) {
+      tmp.delete();
+      throw new IOException("couldn't rename " + tmp + " to " + cacheFile);
+    }
+    Util.Print("Wrote mod/ref cache " + cacheFile);
+  }
+
+  /**
+   * @return mod/ref read from @param cacheFile, or null if it doesn't match
+   *         @param cg and @param pa
+   */
+  private static Map<CGNode, OrdinalSet<PointerKey>> load(File cacheFile, CallGraph cg, PointerAnalysis pa)
+      throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(cacheFile))));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+      int numNodes = in.readInt();
+      if (numNodes != cg.getNumberOfNodes()) return null;
+      for (int i = 0; i < numNodes; i++) {
+        int nodeNum = in.readInt();
+        String name = in.readUTF();
+        if (nodeNum < 0 || nodeNum > cg.getMaxNumber()) return null;
+        CGNode node = cg.getNode(nodeNum);
+        if (node == null || !node.toString().equals(name)) return null;
+      }
+
+      Set<String> ambiguous = HashSetFactory.make();
+      Map<String, InstanceKey> instanceKeys = indexInstanceKeys(pa, ambiguous);
+      Map<String, IField> fields = indexFields(cg.getClassHierarchy(), ambiguous);
+
+      HeapModel hm = pa.getHeapModel();
+      MutableMapping<PointerKey> keyMapping = MutableMapping.make();
+      int numKeys = in.readInt();
+      int[] keyIndices = new int[numKeys];
+      for (int i = 0; i < numKeys; i++) {
+        PointerKey key;
+        byte kind = in.readByte();
+        if (kind == STATIC_FIELD) {
+          IField field = resolve(fields, ambiguous, in.readUTF());
+          if (field == null) return null;
+          key = hm.getPointerKeyForStaticField(field);
+        } else if (kind == INSTANCE_FIELD) {
+          InstanceKey ik = resolve(instanceKeys, ambiguous, in.readUTF());
+          IField field = resolve(fields, ambiguous, in.readUTF());
+          if (ik == null || field == null) return null;
+          key = hm.getPointerKeyForInstanceField(ik, field);
+        } else if (kind == ARRAY_CONTENTS) {
+          InstanceKey ik = resolve(instanceKeys, ambiguous, in.readUTF());
+          if (ik == null) return null;
+          key = hm.getPointerKeyForArrayContents(ik);
+        } else return null;
+        if (key == null) return null;
+        keyIndices[i] = keyMapping.add(key);
+      }
+
+      Map<CGNode, OrdinalSet<PointerKey>> modRef = HashMapFactory.make();
+      int numEntries = in.readInt();
+      for (int i = 0; i < numEntries; i++) {
+        CGNode node = cg.getNode(in.readInt());
+        int numMods = in.readInt();
+        MutableSparseIntSet mods = MutableSparseIntSet.makeEmpty();
+        for (int j = 0; j < numMods; j++) {
+          mods.add(keyIndices[in.readInt()]);
+        }
+        modRef.put(node, new OrdinalSet<PointerKey>(mods, keyMapping));
+      }
+      return modRef;
+    } finally {
+      in.close();
+    }
+  }
+
+  // the instance keys and fields of an analysis by their printed form. a name
+  // that more than one of them prints as goes in ambiguous and can't be resolved
+
+  static Map<String, InstanceKey> indexInstanceKeys(PointerAnalysis pa, Set<String> ambiguous) {
+    Map<String, InstanceKey> instanceKeys = HashMapFactory.make();
+    for (Object o : pa.getInstanceKeys()) {
+      String name = o.toString();
+      if (instanceKeys.put(name, (InstanceKey) o) != null) ambiguous.add(name);
+    }
+    return instanceKeys;
+  }
+
+  static Map<String, IField> indexFields(IClassHierarchy cha, Set<String> ambiguous) {
+    Map<String, IField> fields = HashMapFactory.make();
+    for (IClass c : cha) {
+      for (IField f : c.getDeclaredInstanceFields()) {
+        if (fields.put(f.toString(), f) != null) ambiguous.add(f.toString());
+      }
+      for (IField f : c.getDeclaredStaticFields()) {
+        if (fields.put(f.toString(), f) != null) ambiguous.add(f.toString());
+      }
+    }
+    return fields;
+  }
+
+  static <T> T resolve(Map<String, T> map, Set<String> ambiguous, String name) {
+    if (ambiguous.contains(name)) return null;
+    return map.get(name);
+  }
+}
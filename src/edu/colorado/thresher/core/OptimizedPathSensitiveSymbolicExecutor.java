@@ -1,5 +1,6 @@
 package edu.colorado.thresher.core;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -33,6 +34,12 @@ public class OptimizedPathSensitiveSymbolicExecutor extends PathSensitiveSymboli
   private final Map<String, IBranchPoint> branchPointMap;
   LinkedList<IBranchPoint> branchPointStack;
   protected final Map<SSACFG.BasicBlock,Set<IPathInfo>> loopHeadSeenPaths;
+  // what we found the last time we explored a callee from a given state; shared with other queries
+  private final CalleeSummaryCache calleeSummaries;
+  static final Metrics.Histogram CALLEE_EXPLORATION = Metrics.histogram("callee exploration");
+  // number of paths pruned because we had seen them at a loop head; these
+  // summaries outlive the call stack they were made under
+  private int loopHeadPrunes = 0;
   // TODO: clear this after merging loop head!
   // map from (CGNode, Block#) -> set of paths seen at block
   //private final Map<Pair<CGNode, Integer>, Set<IPathInfo>> loopHeadSeenPaths;
@@ -48,8 +55,120 @@ public class OptimizedPathSensitiveSymbolicExecutor extends PathSensitiveSymboli
     this.branchPointMap = HashMapFactory.make();
     this.branchPointStack = new LinkedList<IBranchPoint>();
     this.loopHeadSeenPaths = HashMapFactory.make();
+    this.calleeSummaries = CalleeSummaryCache.get(callGraph);
   }
   
+  @Override
+  void evictSummaries() {
+    loopHeadSeenPaths.clear();
+    calleeSummaries.clear();
+    super.evictSummaries();
+  }
+
+  /**
+   * override to turn off callee summaries for executors that leave callees in
+   * unusual ways
+   */
+  boolean useCalleeSummaries() {
+    return Options.CALLEE_SUMMARY_CACHE_SIZE > 0;
+  }
+
+  /**
+   * if @param path entered @param callee, explore the callee to completion
+   * right away (or reuse what we found the last time we, or another query,
+   * entered it in a state that agrees on what it can touch) and add the paths that return to the caller instead
+   */
+  @Override
+  boolean addCalleePath(IPathInfo path, CGNode callee) {
+    if (!useCalleeSummaries() || !path.getCurrentNode().equals(callee)
+        || !path.getCurrentBlock().equals(callee.getIR().getExitBlock())) {
+      // call was skipped
+      addPath(path);
+      return false;
+    }
+    for (IStackFrame frame : path.getCallStack()) {
+      // recursive; an outer activation of the callee can affect the inner one
+      if (frame.getCGNode().equals(callee)) {
+        addPath(path);
+        return false;
+      }
+    }
+    CalleeSummaryCache.Projection exit = calleeSummaries.project(path);
+    if (exit == null) {
+      addPath(path);
+      return false;
+    }
+    List<IPathInfo> summary = calleeSummaries.lookup(exit, path);
+    if (summary != null) {
+      queryMetrics.inc(Metrics.QueryCounter.SUMMARY_HITS);
+      if (Options.DEBUG) Util.Debug("applying summary of " + summary.size() + " paths for " + callee);
+      for (IPathInfo copy : summary) {
+        if (copy.returnFromCall()) addPath(copy);
+      }
+      return false;
+    }
+    long start = System.nanoTime();
+    List<IPathInfo> returned = new ArrayList<IPathInfo>();
+    boolean witnessed = exploreCallee(path, exit, returned);
+    CALLEE_EXPLORATION.record(System.nanoTime() - start);
+    if (witnessed) return true;
+    for (IPathInfo returnedPath : returned) {
+      addPath(returnedPath);
+    }
+    return false;
+  }
+
+  /**
+   * explore @param path, which has just entered a callee, until all of its
+   * descendants have returned to the caller, adding those to @param toReturn
+   * and recording the queries that reach the callee's entry as a summary for
+   * @param exit. like visitCallInLoopHead(), but the paths count against the
+   * query's budget; if it runs out, we stop executing and hand the remaining
+   * paths back unexplored without recording a summary
+   * 
+   * @return true if we found a witness, in which case we stop right away
+   */
+  private boolean exploreCallee(IPathInfo path, CalleeSummaryCache.Projection exit, List<IPathInfo> toReturn) {
+    final int calleeDepth = path.getCallStackDepth(), prunesBefore = loopHeadPrunes;
+    List<IQuery> entryQueries = new ArrayList<IQuery>();
+    boolean complete = true, witnessed = false;
+
+    HeapGraphWrapper.Reads reads = calleeSummaries.startRecording(exit);
+    try {
+      addPathAndBranchPlaceholders();
+      addPath(path);
+      for (IPathInfo next = selectNonDummyPath(); next != null; next = selectNonDummyPath()) {
+        // once we have a witness, the query is done; just empty our part of the frontier
+        if (witnessed) continue;
+        if (!complete || !chargePath()) {
+          // out of paths or memory; the caller's loop will time out the query
+          complete = false;
+          toReturn.add(next);
+          continue;
+        }
+        boolean hitProcBoundary = executeBackwardsPathIntraprocedural(next);
+        if (next.foundWitness()) {
+          witnessed = true;
+        } else if (hitProcBoundary) {
+          if (next.getCallStackDepth() == calleeDepth) {
+            // at the callee's entry
+            entryQueries.add(next.query.deepCopy());
+            if (next.returnFromCall()) toReturn.add(next);
+          } else if (next.returnFromCall()) addPath(next);
+        }
+      }
+      cleanupPathAndBranchPlaceholders();
+    } finally {
+      calleeSummaries.endRecording(exit, reads);
+    }
+    if (witnessed) return true;
+
+    // a path pruned at a loop head was covered by one we saw earlier, maybe under
+    // another call stack, so what reached the entry this time isn't the whole story
+    if (complete && loopHeadPrunes == prunesBefore) calleeSummaries.record(exit, entryQueries, reads);
+    return false;
+  }
+
   /**
    * perform summary check to avoid redundant exploration
    * 
@@ -64,8 +183,10 @@ public class OptimizedPathSensitiveSymbolicExecutor extends PathSensitiveSymboli
       seen = HashSetFactory.make();
       loopHeadSeenPaths.put(path.getCurrentBlock(), seen);
       seen.add(path);
-    } else {
-      return !IPathInfo.mergePathWithPathSet(path, seen);
+    } else if (!IPathInfo.mergePathWithPathSet(path, seen)) {
+      loopHeadPrunes++;
+      queryMetrics.inc(Metrics.QueryCounter.SUMMARY_HITS);
+      return true;
     }
     return false;
   }
@@ -102,6 +223,7 @@ public class OptimizedPathSensitiveSymbolicExecutor extends PathSensitiveSymboli
       // check if we've seen this path at the loop head before
 
       if (!point.addPathToLoopHead(info)) {
+        loopHeadPrunes++;
         if (Options.DEBUG)
           Util.Debug("already seen this path... stopping execution");
         // TODO: what is the point of this?
@@ -375,6 +497,7 @@ public class OptimizedPathSensitiveSymbolicExecutor extends PathSensitiveSymboli
   public IPathInfo mergeLoop(Set<IPathInfo> truePaths, Set<IPathInfo> falsePaths, SSACFG.BasicBlock loopHeadBlock) {
     Util.Pre(falsePaths.isEmpty());
     if (Options.DEBUG) Util.Debug("merging loop");
+    queryMetrics.inc(Metrics.QueryCounter.LOOP_HEAD_MERGES);
     
     if (Options.SYNTHESIS) {
       Util.Debug("adding loop taken constraint");
@@ -64,6 +64,9 @@ public class Options {
   @boolOpt(description = "perform callgraph pruning based on constraint set at function boundaries", _default = false)
   public static boolean CALLGRAPH_PRUNING = false;
 
+  @boolOpt(description = "use the basic symbolic executor, which neither merges paths at branch points nor keeps loop head summaries. needed for -path_workers above 1", _default = false)
+  public static boolean BASIC_EXECUTOR = false;
+
   @boolOpt(description = "attempt to generate test cases for violations (currently unsupported)", _default = false)
   public static boolean GEN_TESTS = false;
   
@@ -120,6 +123,9 @@ public class Options {
   @boolOpt(description = "use symbolic variables in dependency rules rather than doing a case split on concrete locations", _default = true)
   public static boolean ABSTRACT_DEPENDENCY_RULES = true; // you want this on to be fast
 
+  @boolOpt(description = "generate the abstract dependency rules for an instruction once and reuse them (with fresh symbolic variables) on later visits", _default = true)
+  public static boolean CACHE_INSTR_RULES = true;
+
   @boolOpt(description = "perform intersection of from constraints when applying rules", _default = true)
   public static boolean NARROW_FROM_CONSTRAINTS = true; // you want this on to be fast
   
@@ -176,10 +182,41 @@ public class Options {
 
   @intOpt(description = "if we explore more paths than this while trying to refute/witness an edge, we report a timeout and (falsely) witness the edge", _default = 10000)
   public static int PATH_EXPLORE_LIMIT = 10000;
+
+  // the parallel executor ignores this, so parseArgs() rejects anything but dfs with -path_workers above 1
+  @stringOpt(description = "order in which to explore paths: dfs, bfs, fewest_constraints, shallowest_stack, or closest_to_entry", _default = "dfs")
+  public static String PATH_SELECTION = "dfs";
+
+  @intOpt(description = "percent of the heap still in use after GC at which the symbolic executor drops its path summaries and cached solver results", _default = 85)
+  public static int MEMORY_EVICT_PERCENT = 85;
+
+  @intOpt(description = "percent of the heap still in use after GC, even after dropping summaries, at which the symbolic executor gives up on a query and reports a timeout", _default = 95)
+  public static int MEMORY_ABANDON_PERCENT = 95;
   
   @intOpt(description = "time out and report a witness if we spend more time than this on a query", _default = 10)
   public static int TIMEOUT = 10;  
   
+  @intOpt(description = "number of worker threads to use when refuting errors; 1 means refute errors sequentially", _default = 1)
+  public static int NUM_WORKERS = 1;
+
+  @intOpt(description = "number of threads exploring the paths of a single query; above 1 needs -basic_executor", _default = 1)
+  public static int PATH_WORKERS = 1;
+
+  @intOpt(description = "maximum number of path constraint sets whose feasibility is cached; 0 disables the cache", _default = 10000)
+  public static int FEASIBILITY_CACHE_SIZE = 10000;
+
+  @intOpt(description = "maximum number of callee summaries kept per query; 0 explores every callee from scratch each time it is entered", _default = 1000)
+  public static int CALLEE_SUMMARY_CACHE_SIZE = 1000;
+
+  @intOpt(description = "maximum number of entries in each of the loop header, dominators, and loop body caches; 0 means no limit", _default = 10000)
+  public static int CFG_CACHE_SIZE = 10000;
+
+  @intOpt(description = "maximum total weight (basic blocks) of the entries in each of the loop header, dominators, and loop body caches; 0 means no limit", _default = 1000000)
+  public static int CFG_CACHE_WEIGHT = 1000000;
+
+  @boolOpt(description = "try to decide path constraint feasibility with a cheap interval/equality pre-solver before calling Z3", _default = true)
+  public static boolean PRESOLVE_CONSTRAINTS = true;
+  
   @intOpt(description = "check a cast with a particular number", _default = -1)
   public static int CAST = -1;
   
@@ -207,6 +244,33 @@ public class Options {
   
   @stringOpt(description = "List of classes to excluse from analysis", _default = "config/exclusions.txt")
   public static String EXCLUSIONS = "config/exclusions.txt";
+
+  @stringOpt(description = "directory for caching mod/ref results and dependency rules (and, with -incremental, edge verdicts) across runs on the same code; empty disables the cache", _default = "")
+  public static String CACHE_DIR = "";
+
+  @boolOpt(description = "reuse the edge verdicts stored in -cache_dir by the last run for edges whose exploration touched no methods that changed since then", _default = false)
+  public static boolean INCREMENTAL = false;
+
+  @stringOpt(description = "LeakBenchmark only: write per-phase results to <path>.csv and <path>.json", _default = "leak_bench")
+  public static String BENCH_OUT = "leak_bench";
+
+  @stringOpt(description = "LeakBenchmark only: CSV from an earlier run to compare against; phases that got slower or allocate more are reported as regressions", _default = "")
+  public static String BENCH_BASELINE = "";
+
+  @intOpt(description = "LeakBenchmark only: percent a phase may exceed its -bench_baseline time or allocation before it counts as a regression", _default = 10)
+  public static int BENCH_TOLERANCE = 10;
+
+  @boolOpt(description = "LeakBenchmark only: also refute each app's errors with a single worker (and no -cache_dir), report the refutation time against the -num_workers run, and exit with status 1 if any error gets a different verdict", _default = false)
+  public static boolean BENCH_CHECK_WORKERS = false;
+
+  @stringOpt(description = "write counters, latency histograms, gauges, and per-query counters to this file as JSON at the end of the run; empty disables", _default = "")
+  public static String METRICS_OUT = "";
+
+  @intOpt(description = "with -metrics_out, also rewrite the file with a live snapshot every this many seconds; 0 writes only at the end", _default = 0)
+  public static int METRICS_INTERVAL = 0;
+
+  @intOpt(description = "number of most recently finished queries whose counters are kept for the metrics snapshot", _default = 1000)
+  public static int METRICS_QUERY_HISTORY = 1000;
   
   @stringOpt(description = "run regression tests", _default = "")
   public static String REGRESSIONS;
@@ -292,6 +356,13 @@ public class Options {
       }
       index++;
     }
+    // only the basic executor explores paths in parallel; don't trade precision for speed behind the user's back
+    if (PATH_WORKERS > 1 && !BASIC_EXECUTOR) {
+      complain("-path_workers above 1 needs -basic_executor, which doesn't merge paths at branch points");
+    }
+    if (PATH_WORKERS > 1 && !PATH_SELECTION.equals(PathFrontier.DFS)) {
+      complain("-path_selection " + PATH_SELECTION + " isn't supported with -path_workers above 1");
+    }
     return APP;
   }
 
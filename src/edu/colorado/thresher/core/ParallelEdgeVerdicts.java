@@ -0,0 +1,207 @@
+package edu.colorado.thresher.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.util.collections.HashMapFactory;
+import com.ibm.wala.util.collections.HashSetFactory;
+
+/**
+ * edge verdicts (see Main.generateWitness) computed ahead of time by a pool of
+ * workers, for refuting field errors with -num_workers above 1. the refutation
+ * loop itself stays on one thread and visits errors and edges in the same order
+ * as the sequential run; it prefetches the edges of the error paths it finds
+ * (including those of upcoming errors), and then asks for their verdicts one at
+ * a time
+ *
+ * refuting an edge removes it from the heap graph, which later explorations
+ * see. so each exploration records which heap graph nodes it read the edges
+ * of, and its verdict is only used if none of the edges refuted since it
+ * started touch those nodes. then every read it did gives the same answer
+ * against the heap graph the loop has when it asks for the verdict, so it is
+ * the verdict the sequential run would compute there. the same goes for the
+ * jump in PruningSymbolicExecutor: workers never take it, and a verdict whose
+ * exploration would have is recomputed by the loop
+ *
+ * verdicts are recorded in the VerdictCache only when they are used. the
+ * worker loggers, merged by finish(), also count explorations whose verdicts
+ * went unused
+ *
+ * not thread-safe: only the refutation loop's thread may call it
+ */
+class ParallelEdgeVerdicts {
+
+  // the outcome of one prefetched exploration
+  private static final class Verdict {
+    final boolean witnessed;
+    // heap graph version when the exploration started
+    final int version;
+    // heap graph nodes the exploration read the edges of
+    final HeapGraphWrapper.Reads reads;
+    // true if the exploration wanted to jump, which only the loop may do
+    final boolean wouldJump;
+    // nodes the verdict depends on, or null if it was reused from the last run
+    final Set<CGNode> touched;
+
+    Verdict(boolean witnessed, int version, HeapGraphWrapper.Reads reads, boolean wouldJump, Set<CGNode> touched) {
+      this.witnessed = witnessed;
+      this.version = version;
+      this.reads = reads;
+      this.wouldJump = wouldJump;
+      this.touched = touched;
+    }
+  }
+
+  // an exploration handed to the pool. whoever claims it first runs it: a
+  // worker, or the loop when it asks for the verdict before a worker got to it
+  private final class Prefetch implements Callable<Verdict> {
+    final PointsToEdge edge;
+    final AtomicBoolean claimed = new AtomicBoolean();
+    Future<Verdict> future;
+
+    Prefetch(PointsToEdge edge) {
+      this.edge = edge;
+    }
+
+    @Override
+    public Verdict call() {
+      return claimed.compareAndSet(false, true) ? explore(edge) : null;
+    }
+  }
+
+  private final AbstractDependencyRuleGenerator depRuleGenerator;
+  private final HeapGraphWrapper hg;
+  private final VerdictCache verdictCache;
+  private final ExecutorService pool;
+  private final List<Logger> workerLoggers = new ArrayList<Logger>();
+  private final ThreadLocal<Logger> workerLogger = new ThreadLocal<Logger>() {
+    @Override
+    protected Logger initialValue() {
+      Logger workerLog = new Logger();
+      synchronized (workerLoggers) {
+        workerLoggers.add(workerLog);
+      }
+      return workerLog;
+    }
+  };
+  private final Map<PointsToEdge, Prefetch> prefetched = HashMapFactory.make();
+
+  ParallelEdgeVerdicts(AbstractDependencyRuleGenerator depRuleGenerator, VerdictCache verdictCache, int numWorkers) {
+    this.depRuleGenerator = depRuleGenerator;
+    this.hg = (HeapGraphWrapper) depRuleGenerator.getHeapGraph();
+    this.verdictCache = verdictCache;
+    this.pool = Executors.newFixedThreadPool(numWorkers);
+  }
+
+  /**
+   * start exploring @param edge on a worker, unless there is already an
+   * exploration of it whose verdict may still be usable
+   */
+  void prefetch(PointsToEdge edge) {
+    Prefetch old = prefetched.get(edge);
+    if (old != null && (!old.future.isDone() || isValid(old))) return;
+    Prefetch p = new Prefetch(edge);
+    p.future = pool.submit(p);
+    prefetched.put(edge, p);
+  }
+
+  // call only once p is done
+  private boolean isValid(Prefetch p) {
+    Verdict verdict;
+    try {
+      verdict = p.future.get();
+    } catch (Exception e) {
+      // let getVerdict() rethrow it
+      return true;
+    }
+    // null means the loop ran the exploration itself
+    return verdict != null && !verdict.wouldJump && hg.unseenSince(verdict.version, verdict.reads);
+  }
+
+  // runs on a worker
+  private Verdict explore(PointsToEdge edge) {
+    Logger logger = workerLogger.get();
+    PruningSymbolicExecutor.startSpeculating();
+    int version = hg.getVersion();
+    HeapGraphWrapper.Reads reads = hg.pushReads();
+    boolean witnessed, wouldJump;
+    Set<CGNode> touched = null;
+    try {
+      Set<DependencyRule> lastApplied = Main.getProducers(edge, depRuleGenerator);
+      Boolean cached = verdictCache == null ? null : Main.lookupVerdict(edge, lastApplied, verdictCache, logger);
+      if (cached != null) witnessed = cached;
+      else {
+        if (verdictCache != null) touched = HashSetFactory.make();
+        witnessed = Main.exploreProducers(edge, lastApplied, depRuleGenerator, touched, logger);
+      }
+    } finally {
+      hg.popReads(reads);
+      wouldJump = PruningSymbolicExecutor.stopSpeculating();
+    }
+    return new Verdict(witnessed, version, reads, wouldJump, touched);
+  }
+
+  /**
+   * @return true if @param edge can be witnessed against the current heap
+   *         graph, false if it is refuted. if a worker's exploration of the
+   *         edge threw, so does this
+   */
+  boolean getVerdict(PointsToEdge edge, Logger logger) {
+    Prefetch p = prefetched.remove(edge);
+    // if no worker started on it yet, exploring it here is faster than waiting
+    if (p != null && p.claimed.compareAndSet(false, true)) {
+      p.future.cancel(false);
+      logger.log("unstarted prefetched edge verdicts");
+    } else if (p != null) {
+      Verdict verdict;
+      try {
+        verdict = p.future.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException("interrupted while waiting for verdict on " + edge, e);
+      } catch (ExecutionException e) {
+        // rethrow as if the exploration had run here, as it does in the sequential case
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+        if (cause instanceof Error) throw (Error) cause;
+        throw new RuntimeException(cause);
+      }
+      if (!verdict.wouldJump && hg.unseenSince(verdict.version, verdict.reads)) {
+        if (verdictCache != null && verdict.touched != null) verdictCache.record(edge, verdict.witnessed, verdict.touched);
+        logger.log("used prefetched edge verdicts");
+        return verdict.witnessed;
+      }
+      logger.log(verdict.wouldJump ? "prefetched edge verdicts that would jump" : "stale prefetched edge verdicts");
+    }
+    return Main.generateWitness(edge, depRuleGenerator, verdictCache, logger);
+  }
+
+  /**
+   * stop the workers, wait for the ones that are still exploring, and merge
+   * their loggers into @param logger
+   */
+  void finish(Logger logger) {
+    prefetched.clear();
+    pool.shutdownNow();
+    try {
+      while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+        Util.Print("waiting for workers to finish prefetched edges");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (workerLoggers) {
+      for (Logger worker : workerLoggers) logger.merge(worker);
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package edu.colorado.thresher.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+
+/**
+ * explores the paths of a single query on several threads. each worker pushes
+ * and pops paths on its own deque (so each worker does DFS locally) and steals
+ * the oldest path from another worker's deque when its own runs dry, or waits
+ * for one to show up if there's nothing to steal. the first witness found by
+ * any worker stops the others. workers execute paths just as the sequential
+ * loop does, sharing its path budget. each worker checks constraints with its
+ * own Z3 context (see IncrementalSolver), and summaries are shared across
+ * workers so subsumption still prunes paths explored elsewhere.
+ *
+ * like BasicSymbolicExecutor (and unlike the path-sensitive executors), paths
+ * are not merged at branch points; merging depends on a single global
+ * exploration order. so Main only runs this with -basic_executor, which asks
+ * for that precision trade-off
+ */
+public class ParallelSymbolicExecutor extends BasicSymbolicExecutor {
+
+  private final int numWorkers;
+  private final List<LinkedBlockingDeque<IPathInfo>> deques;
+  // index of the deque owned by the current worker thread
+  private final ThreadLocal<Integer> workerIndex = new ThreadLocal<Integer>();
+  // summaries shared by all workers
+  private final ConcurrentHashMap<CGNode, SummaryIndex> sharedSeenPaths = new ConcurrentHashMap<CGNode, SummaryIndex>();
+  // paths added but not completely executed yet; exploration is over when
+  // this is 0 and every deque is empty
+  private final AtomicInteger pendingPaths = new AtomicInteger();
+  // idle workers wait on this for a path to steal, or for exploration to end
+  private final Object idleLock = new Object();
+  private final AtomicInteger numSteals = new AtomicInteger();
+  private final AtomicReference<IPathInfo> witnessPath = new AtomicReference<IPathInfo>();
+  // set when some worker finds a witness or we time out; tells the others to stop
+  private volatile boolean done = false;
+  private volatile boolean timedOut = false;
+
+  public ParallelSymbolicExecutor(CallGraph callGraph, Logger logger) {
+    this(callGraph, logger, Options.PATH_WORKERS);
+  }
+
+  public ParallelSymbolicExecutor(CallGraph callGraph, Logger logger, int numWorkers) {
+    super(callGraph, logger);
+    Util.Pre(numWorkers > 0, "need at least one worker");
+    // workers take paths from their own deques, not from the frontier
+    Util.Pre(Options.PATH_SELECTION.equals(PathFrontier.DFS), "path selection " + Options.PATH_SELECTION + " not supported");
+    this.numWorkers = numWorkers;
+    this.deques = new ArrayList<LinkedBlockingDeque<IPathInfo>>(numWorkers);
+    for (int i = 0; i < numWorkers; i++) {
+      deques.add(new LinkedBlockingDeque<IPathInfo>());
+    }
+  }
+
+  /**
+   * main execution loop - run workers until no paths are left or one of them
+   * finds a witness
+   *
+   * @return false if query is refuted on all paths, true otherwise
+   */
+  @Override
+  public boolean executeBackward() {
+    queryMetrics = new Metrics.Query();
+    boolean witnessed = false;
+    try {
+      witnessed = runWorkers();
+    } finally {
+      Metrics.finishQuery(queryMetrics, witnessed);
+    }
+    return witnessed;
+  }
+
+  private boolean runWorkers() {
+    resetBudget();
+    // the initial path was added to the sequential frontier; hand it to the first worker
+    while (!pathsToExplore.isEmpty()) {
+      pendingPaths.incrementAndGet();
+      deques.get(0).addLast(pathsToExplore.removeFirst());
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(numWorkers);
+    List<Future<Void>> workers = new ArrayList<Future<Void>>(numWorkers);
+    for (int i = 0; i < numWorkers; i++) {
+      final int index = i;
+      workers.add(pool.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          workerIndex.set(index);
+          runWorker(index);
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<Void> worker : workers) {
+        worker.get();
+      }
+    } catch (InterruptedException e) {
+      stop();
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      stop();
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+      if (cause instanceof Error) throw (Error) cause;
+      throw new RuntimeException(cause);
+    } finally {
+      pool.shutdownNow();
+    }
+
+    if (Options.DEBUG) Util.Debug(numSteals.get() + " paths stolen by " + numWorkers + " workers");
+    if (timedOut) {
+      logger.logTimeout();
+      Util.Print("TIMEOUT");
+      Util.Print("oom? " + outOfMemory);
+      Util.Print("Had " + pendingPaths.get() + " paths left to explore");
+      logger.logPathCount(pathCount);
+      return true;
+    }
+    logger.logPathCount(pathCount);
+    IPathInfo witness = witnessPath.get();
+    if (witness != null) {
+      if (Options.LOG_WITNESSES) logger.logWitnessList(witness.getWitnessList());
+      this.witnessQuery = witness.query;
+      return true;
+    }
+    end();
+    return false; // have executed all paths without finding a witness
+  }
+
+  private void runWorker(int index) {
+    for (;;) {
+      IPathInfo path = awaitPath(index);
+      if (path == null) return;
+      try {
+        FRONTIER_SIZE.set(pendingPaths.get());
+        if (!chargePath()) {
+          timedOut = true;
+          stop();
+          return;
+        }
+        if (executePath(path) && witnessPath.compareAndSet(null, path)) stop();
+      } finally {
+        // once no one is executing a path and the deques are empty, no more paths will show up
+        if (pendingPaths.decrementAndGet() == 0) wakeIdleWorkers();
+      }
+    }
+  }
+
+  /**
+   * @return a path for worker @param index to execute, waiting until some
+   *         other worker adds one if need be, or null if exploration is over
+   */
+  private IPathInfo awaitPath(int index) {
+    IPathInfo path = takePath(index);
+    if (path != null || done) return path;
+    synchronized (idleLock) {
+      // addPath() notifies under idleLock after pushing, so a path pushed after
+      // this check wakes us up
+      for (;;) {
+        if (done) return null;
+        path = takePath(index);
+        if (path != null) return path;
+        if (pendingPaths.get() == 0) return null;
+        try {
+          idleLock.wait();
+        } catch (InterruptedException e) {
+          // the pool is being shut down
+          return null;
+        }
+      }
+    }
+  }
+
+  private void wakeIdleWorkers() {
+    synchronized (idleLock) {
+      idleLock.notifyAll();
+    }
+  }
+
+  // tell the workers to stop at their next path
+  private void stop() {
+    done = true;
+    wakeIdleWorkers();
+  }
+
+  // the sequential loop's budget, shared by the workers
+  @Override
+  synchronized boolean chargePath() {
+    return super.chargePath();
+  }
+
+  // pop from our own deque, or steal the oldest path from someone else's
+  private IPathInfo takePath(int index) {
+    IPathInfo path = deques.get(index).pollFirst();
+    if (path != null) return path;
+    for (int i = 1; i < numWorkers; i++) {
+      path = deques.get((index + i) % numWorkers).pollLast();
+      if (path != null) {
+        numSteals.incrementAndGet();
+        return path;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public IPathInfo selectPath() {
+    Integer index = workerIndex.get();
+    return takePath(index == null ? 0 : index);
+  }
+
+  /**
+   * add a path to the current worker's deque
+   */
+  @Override
+  public void addPath(IPathInfo path) {
+    if (Options.DEBUG_ASSERTS && !path.isFeasible()) return; // same HACK as BasicSymbolicExecutor
+    Integer index = workerIndex.get();
+    logger.logPathStackSize(pendingPaths.incrementAndGet());
+    deques.get(index == null ? 0 : index).addFirst(path);
+    synchronized (idleLock) {
+      idleLock.notify();
+    }
+  }
+
+  @Override
+  void evictSummaries() {
+    // workers holding on to a removed set just add to a set no one else will see
+    sharedSeenPaths.clear();
+    super.evictSummaries();
+  }
+
+  @Override
+  boolean isPathInSummary(IPathInfo path) {
+    if (path.getCallStackDepth() != 0) return false;
+    if (!Options.USE_SUMMARIES) return false;
+    SummaryIndex seen = sharedSeenPaths.get(path.getCurrentNode());
+    if (seen == null) {
+      SummaryIndex newSeen = new SummaryIndex();
+      seen = sharedSeenPaths.putIfAbsent(path.getCurrentNode(), newSeen);
+      if (seen == null) seen = newSeen;
+    }
+    synchronized (seen) {
+      if (seen.isEmpty()) {
+        seen.add(path);
+        return false;
+      }
+      if (seen.add(path)) return false;
+    }
+    queryMetrics.inc(Metrics.QueryCounter.SUMMARY_HITS);
+    return true;
+  }
+}
@@ -0,0 +1,200 @@
+package edu.colorado.thresher.core;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import com.ibm.wala.ipa.callgraph.CallGraph;
+
+/**
+ * paths waiting to be explored by a symbolic executor. the executors treat
+ * this as a stack: dummy paths (branch placeholders) and loop merge indicators
+ * are markers whose position matters, so they are kept in stack order. the
+ * ordinary paths pushed since the last marker form a segment, and the next
+ * path is chosen from the top segment according to Options.PATH_SELECTION:
+ *
+ * dfs - most recently added first (the default; same order as a plain stack)
+ * bfs - least recently added first
+ * fewest_constraints - path whose query has the fewest constraints first
+ * shallowest_stack - path with the shallowest call stack first
+ * closest_to_entry - path whose current method is the fewest calls away from an entrypoint first
+ *
+ * ties are broken in DFS order
+ *
+ * in the optimized executors, a segment holds the paths between two
+ * placeholders: those pushed since the last branch placeholder (a callee being
+ * explored, a call in a loop head) or loop merge indicator. the strategy picks
+ * among them; branch points are still merged in dominator order, once their
+ * segment runs dry. the parallel executor's workers keep deques of their own,
+ * so it requires dfs
+ */
+public class PathFrontier implements Iterable<IPathInfo> {
+
+  public static final String DFS = "dfs", BFS = "bfs", FEWEST_CONSTRAINTS = "fewest_constraints",
+      SHALLOWEST_STACK = "shallowest_stack", CLOSEST_TO_ENTRY = "closest_to_entry";
+
+  private static class Entry {
+    final IPathInfo path;
+    // insertion order
+    final long seq;
+    // strategy-specific priority; lower is explored first
+    final long priority;
+
+    Entry(IPathInfo path, long seq, long priority) {
+      this.path = path;
+      this.seq = seq;
+      this.priority = priority;
+    }
+  }
+
+  private static final Comparator<Entry> PRIORITY_THEN_DFS = new Comparator<Entry>() {
+    @Override
+    public int compare(Entry e0, Entry e1) {
+      if (e0.priority != e1.priority) return e0.priority < e1.priority ? -1 : 1;
+      // newest first
+      if (e0.seq != e1.seq) return e0.seq > e1.seq ? -1 : 1;
+      return 0;
+    }
+  };
+
+  private final CallGraph callGraph;
+  private final String strategy;
+  // segments.get(i) sits on top of markers.get(i); the last segment is the
+  // bottom of the stack
+  private final LinkedList<PriorityQueue<Entry>> segments;
+  private final LinkedList<IPathInfo> markers;
+  private long seqCounter = 0;
+  private int size = 0;
+
+  public PathFrontier(CallGraph callGraph) {
+    this(callGraph, Options.PATH_SELECTION);
+  }
+
+  public PathFrontier(CallGraph callGraph, String strategy) {
+    Util.Pre(strategy.equals(DFS) || strategy.equals(BFS) || strategy.equals(FEWEST_CONSTRAINTS)
+        || strategy.equals(SHALLOWEST_STACK) || strategy.equals(CLOSEST_TO_ENTRY), "unknown path selection strategy " + strategy);
+    this.callGraph = callGraph;
+    this.strategy = strategy;
+    this.segments = new LinkedList<PriorityQueue<Entry>>();
+    this.markers = new LinkedList<IPathInfo>();
+    segments.add(makeSegment());
+  }
+
+  private static PriorityQueue<Entry> makeSegment() {
+    return new PriorityQueue<Entry>(11, PRIORITY_THEN_DFS);
+  }
+
+  private static boolean isMarker(IPathInfo path) {
+    return path.isDummy() || path.isLoopMergeIndicator();
+  }
+
+  private long getPriority(IPathInfo path, long seq) {
+    if (strategy.equals(DFS)) return 0;
+    else if (strategy.equals(BFS)) return seq;
+    else if (strategy.equals(FEWEST_CONSTRAINTS)) {
+      int count = 0;
+      for (Iterator<? extends Constraint> iter = path.query.constraints(); iter.hasNext(); iter.next()) count++;
+      return count;
+    } else if (strategy.equals(SHALLOWEST_STACK)) return path.getCallStackDepth();
+    else {
+      int dist = WALACFGUtil.distanceToEntrypoint(callGraph, path.getCurrentNode());
+      // unreachable nodes go last
+      return dist == -1 ? Integer.MAX_VALUE : dist;
+    }
+  }
+
+  /**
+   * push @param path onto the frontier
+   */
+  public void addFirst(IPathInfo path) {
+    if (isMarker(path)) {
+      markers.addFirst(path);
+      segments.addFirst(makeSegment());
+    } else {
+      long seq = seqCounter++;
+      segments.getFirst().add(new Entry(path, seq, getPriority(path, seq)));
+    }
+    size++;
+  }
+
+  public void push(IPathInfo path) {
+    addFirst(path);
+  }
+
+  /**
+   * add @param path to the bottom segment of the frontier. only used to seed
+   * an empty frontier
+   */
+  public void add(IPathInfo path) {
+    Util.Pre(!isMarker(path), "can't add marker " + path + " to bottom of frontier");
+    long seq = seqCounter++;
+    segments.getLast().add(new Entry(path, seq, getPriority(path, seq)));
+    size++;
+  }
+
+  /**
+   * remove and return the next path to explore, or the marker on top of the
+   * stack if the top segment is empty
+   */
+  public IPathInfo removeFirst() {
+    PriorityQueue<Entry> top = segments.getFirst();
+    if (!top.isEmpty()) {
+      size--;
+      return top.poll().path;
+    }
+    if (markers.isEmpty()) throw new NoSuchElementException();
+    segments.removeFirst();
+    size--;
+    return markers.removeFirst();
+  }
+
+  public IPathInfo pop() {
+    return removeFirst();
+  }
+
+  /**
+   * @return the path removeFirst() would return, or null if the frontier is
+   *         empty
+   */
+  public IPathInfo peek() {
+    PriorityQueue<Entry> top = segments.getFirst();
+    if (!top.isEmpty()) return top.peek().path;
+    return markers.peekFirst();
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean contains(IPathInfo path) {
+    if (isMarker(path)) return markers.contains(path);
+    for (PriorityQueue<Entry> segment : segments) {
+      for (Entry entry : segment) {
+        if (entry.path.equals(path)) return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * iterate over all paths and markers, top segment first. order within a
+   * segment is unspecified
+   */
+  @Override
+  public Iterator<IPathInfo> iterator() {
+    List<IPathInfo> all = new LinkedList<IPathInfo>();
+    Iterator<IPathInfo> markerIter = markers.iterator();
+    for (PriorityQueue<Entry> segment : segments) {
+      for (Entry entry : segment) all.add(entry.path);
+      if (markerIter.hasNext()) all.add(markerIter.next());
+    }
+    return all.iterator();
+  }
+}
@@ -7,6 +7,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ibm.wala.analysis.pointers.HeapGraph;
 import com.ibm.wala.classLoader.IField;
@@ -53,13 +54,8 @@ import com.ibm.wala.types.TypeReference;
 import com.ibm.wala.util.collections.HashMapFactory;
 import com.ibm.wala.util.collections.HashSetFactory;
 import com.ibm.wala.util.collections.Pair;
-import com.microsoft.z3.AST;
-import com.microsoft.z3.BoolExpr;
 import com.microsoft.z3.Context;
-import com.microsoft.z3.Expr;
-import com.microsoft.z3.Solver;
 import com.microsoft.z3.Status;
-import com.microsoft.z3.Z3Exception;
 
 /**
  * Query regarding path feasibility containing formulae acquired from path
@@ -92,15 +88,8 @@ public class PathQuery implements IQuery {
   // lookups
   public final Set<PointerVariable> pathVars;
 
-  // Z3Context shared among all paths. do not make copies of this unless you dispose of them properly!
-  //final Z3Context ctx;
-  final Context ctx;
-  final Solver solver;
-  
-  // a z3 representation of the z3 assumption tied to the current path
-  // constraints
-  //Z3AST currentPathAssumption;
-  BoolExpr currentPathAssumption;
+  // solver session shared among all paths; holds the constraints of the last path checked
+  final IncrementalSolver solver;
 
   boolean fakeWitness = false;
   boolean feasible = true;
@@ -111,39 +100,36 @@ public class PathQuery implements IQuery {
     this.heapModel = depRuleGenerator.getHeapModel();
     // this should be the only place Z3Context's are created unless they are disposed of carefully
     //this.ctx = new Z3Context(new Z3Config());
-    Context tmpCtx = null;
-    Solver tmpSolver = null;
-    try {
-      tmpCtx = new Context();
-      tmpSolver = tmpCtx.MkSolver();
-    } catch (Z3Exception e) {
-      Util.Assert(false, "problem with z3 " + e);      
-    }
-    this.ctx = tmpCtx;
-    this.solver = tmpSolver;
-    this.constraints = HashSetFactory.make(); 
+    this.solver = new IncrementalSolver();
+    this.constraints = new PersistentSet<AtomicPathConstraint>();
     this.pathVars = HashSetFactory.make(); 
-    this.witnessList = new LinkedList<AtomicPathConstraint>();
-    this.currentPathAssumption = null;
+    this.witnessList = new PersistentList<AtomicPathConstraint>();
   }
   
   // if the context is not copied, this will clear all memory Z3 is using
-  public void dispose() { ctx.Dispose(); } //ctx.delete(); }
+  public void dispose() { solver.dispose(); } //ctx.delete(); }
 
   // constructor for deep copying only
   // PathQuery(TreeSet<AtomicPathConstraint> constraints, Set<PointerVariable>
   // pathVars, List<AtomicPathConstraint> witnessList,
   PathQuery(Set<AtomicPathConstraint> constraints, Set<PointerVariable> pathVars, List<AtomicPathConstraint> witnessList,
-      AbstractDependencyRuleGenerator depRuleGenerator, Context ctx, Solver solver) {
+      AbstractDependencyRuleGenerator depRuleGenerator, IncrementalSolver solver) {
     this.constraints = constraints;
     this.pathVars = pathVars;
     this.witnessList = witnessList;
     this.depRuleGenerator = depRuleGenerator;
     this.heapModel = depRuleGenerator.getHeapModel();
-    this.ctx = ctx; 
     this.solver = solver;
-    this.currentPathAssumption = null;
-    rebuildZ3Constraints();
+    rebuildPathVars();
+  }
+
+  /**
+   * @return the calling thread's Z3 context for this query. paths of one query
+   *         may be explored on several threads, and Z3 contexts must not be
+   *         shared between threads, so don't hold on to it
+   */
+  Context getContext() {
+    return solver.getContext();
   }
   
   @Override
@@ -151,8 +137,9 @@ public class PathQuery implements IQuery {
     // return new PathQuery(Util.deepCopyTreeSet(constraints),
     // Util.deepCopySet(pathVars), Util.deepCopyList(witnessList),
     // depRuleGenerator);//, ctx);
-    return new PathQuery(Util.deepCopySet(constraints), Util.deepCopySet(pathVars), Util.deepCopyList(witnessList),
-        depRuleGenerator, ctx, solver);// , ctx);
+    // persistent copies share structure with ours; O(1). the constructor rebuilds pathVars
+    return new PathQuery(PersistentSet.copyOf(constraints), HashSetFactory.<PointerVariable>make(), PersistentList.copyOf(witnessList),
+        depRuleGenerator, solver);// , ctx);
   }
 
   @Override
@@ -189,7 +176,7 @@ public class PathQuery implements IQuery {
   @Override
   public void dropReturnValueConstraintsForCall(SSAInvokeInstruction instr, CGNode caller) {
     if (instr.hasDef()) {
-      PointerVariable retval = new ConcretePointerVariable(caller, instr.getDef(), this.heapModel);
+      PointerVariable retval = ConcretePointerVariable.make(caller, instr.getDef(), this.heapModel);
       dropConstraintsContaining(retval);
     }
   }
@@ -307,51 +294,20 @@ public class PathQuery implements IQuery {
   }
 
   /**
-   * rebuild Z3 constraints to reflect update to constraint set
-   */
-  /*
-   * void rebuildZ3Constraints() { pathVars.clear(); if (constraints.size() > 0)
-   * { Z3AST[] constraintsArr = new Z3AST[constraints.size()]; int i = 0; for
-   * (AtomicPathConstraint constraint : constraints) {
-   * pathVars.addAll(constraint.getVars()); Z3AST z3Constraint =
-   * constraint.toZ3AST(ctx); constraintsArr[i++] = z3Constraint; } Z3AST
-   * pathConstraint = ctx.mkAnd(constraintsArr); Z3AST newAssumption =
-   * Util.makeFreshPropositionalVar(ctx);
-   * ctx.assertCnstr(ctx.mkImplies(newAssumption, pathConstraint));
-   * this.currentPathAssumption = newAssumption; } // else, do nothing; no
-   * constraints to work with }
+   * rebuild path vars to reflect update to constraint set. the Z3 side is
+   * synced lazily by isFeasible()
    */
-
-  void rebuildZ3Constraints() {
+  void rebuildPathVars() {
     pathVars.clear();
-    if (constraints.size() > 0) {
-      // ctx.delete();
-      //AST[] constraintsArr = new AST[constraints.size()];
-      BoolExpr[] constraintsArr = new BoolExpr[constraints.size()];
-      int i = 0;
-      for (AtomicPathConstraint constraint : constraints) {
-        pathVars.addAll(constraint.getVars());
-        AST z3Constraint = constraint.toZ3AST(ctx);
-        constraintsArr[i++] = (BoolExpr) z3Constraint;
-      }
-      try {
-        //AST pathConstraint = ctx.mkAnd(constraintsArr);
-        BoolExpr pathConstraint = ctx.MkAnd(constraintsArr);
-        BoolExpr newAssumption = Util.makeFreshPropositionalVar(ctx);
-        solver.Assert(ctx.MkImplies(newAssumption, pathConstraint));
-        //ctx.assertCnstr(ctx.mkImplies(newAssumption, pathConstraint));
-        this.currentPathAssumption = newAssumption;
-      } catch (Z3Exception e) {
-        Util.Assert(false, "problem with z3 " + e);
-      }
-      
-    } // else, do nothing; no constraints to work with
+    for (AtomicPathConstraint constraint : constraints) {
+      pathVars.addAll(constraint.getVars());
+    }
   }
 
   public boolean visit(SSAArrayLengthInstruction instr, CGNode node) {
-    PointerVariable varName = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable varName = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(varName)) {
-      SimplePathTerm arrLength = new SimplePathTerm(new ConcretePointerVariable(node, instr.getUse(0),
+      SimplePathTerm arrLength = new SimplePathTerm(ConcretePointerVariable.make(node, instr.getUse(0),
           this.heapModel), SimplePathTerm.LENGTH);
       substituteExpForVar(arrLength, varName);
       return isFeasible();
@@ -361,7 +317,7 @@ public class PathQuery implements IQuery {
 
   boolean visit(SSAGetInstruction instr, CGNode node) {
     Util.Assert(instr.getNumberOfDefs() == 1, "Expecting only 1 def!");
-    PointerVariable varName = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable varName = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(varName)) {
       SimplePathTerm toSub = null;
       if (instr.isStatic()) { // static field get
@@ -410,9 +366,9 @@ public class PathQuery implements IQuery {
           dropConstraintsContaining(staticFieldVar);
         }
       } else { // assigning var to field
-        // PointerVariable rhsVarName = new ConcretePointerVariable(node,
+        // PointerVariable rhsVarName = ConcretePointerVariable.make(node,
         // instr.getUse(1), this.heapModel);
-        PointerVariable rhsVarName = new ConcretePointerVariable(node, use, this.heapModel);
+        PointerVariable rhsVarName = ConcretePointerVariable.make(node, use, this.heapModel);
         substituteExpForVar(new SimplePathTerm(rhsVarName), staticFieldVar);
       }
       return isFeasible();
@@ -423,7 +379,7 @@ public class PathQuery implements IQuery {
   boolean visit(SSAPutInstruction instr, CGNode node, SymbolTable tbl) {
     if (instr.isStatic()) return visitStaticPut(instr, node, tbl); // static field
     // else, non-static field
-    PointerVariable varName = new ConcretePointerVariable(node, instr.getUse(0), this.heapModel); 
+    PointerVariable varName = ConcretePointerVariable.make(node, instr.getUse(0), this.heapModel); 
     if (pathVars.contains(varName)) {
       FieldReference fieldName = instr.getDeclaredField();
       int use = instr.getUse(1);
@@ -456,7 +412,7 @@ public class PathQuery implements IQuery {
         }
       } else { // assigning var to field
         // TODO: write test where name being substituted is active at multiple locations
-        PointerVariable rhsVarName = new ConcretePointerVariable(node, instr.getUse(1), this.heapModel);
+        PointerVariable rhsVarName = ConcretePointerVariable.make(node, instr.getUse(1), this.heapModel);
         substituteExpForFieldRead(new SimplePathTerm(rhsVarName), varName, fieldName);
       }
       return isFeasible();
@@ -466,7 +422,7 @@ public class PathQuery implements IQuery {
 
   boolean visit(SSAInvokeInstruction instr, CGNode callee, CGNode caller) {
     if (instr.hasDef()) {
-      PointerVariable returnValue = new ConcretePointerVariable(caller, instr.getDef(), this.heapModel);
+      PointerVariable returnValue = ConcretePointerVariable.make(caller, instr.getDef(), this.heapModel);
       if (pathVars.contains((returnValue))) {
         // substituteExpForVar(new
         // SimplePathTerm(Util.makeReturnValuePointer(instr.getDeclaredTarget())),
@@ -499,7 +455,7 @@ public class PathQuery implements IQuery {
           else
             Util.Unimp("subbing non-integer constants");
         } else {
-          PointerVariable result = new ConcretePointerVariable(node, resultNum, this.heapModel);
+          PointerVariable result = ConcretePointerVariable.make(node, resultNum, this.heapModel);
           substituteExpForVar(new SimplePathTerm(result), retvalName);
         }
         return isFeasible();
@@ -509,7 +465,7 @@ public class PathQuery implements IQuery {
   }
 
   boolean visit(SSANewInstruction instr, CGNode node, SymbolTable tbl) {
-    PointerVariable local = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable local = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(local)) {
       if (instr.getNewSite().getDeclaredType().isArrayType()) { // special case
                                                                 // for arrays
@@ -518,7 +474,7 @@ public class PathQuery implements IQuery {
         if (tbl.isConstant(instr.getUse(0)))
           arrLength = new SimplePathTerm(tbl.getIntValue(instr.getUse(0)));
         else
-          arrLength = new SimplePathTerm(new ConcretePointerVariable(node, instr.getUse(0), this.heapModel));
+          arrLength = new SimplePathTerm(ConcretePointerVariable.make(node, instr.getUse(0), this.heapModel));
         substituteExpForFieldRead(arrLength, local, SimplePathTerm.LENGTH);
 
       } else { // not an array
@@ -532,9 +488,9 @@ public class PathQuery implements IQuery {
   }
 
   boolean visit(SSAUnaryOpInstruction instr, CGNode node) {
-    PointerVariable varName = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable varName = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(varName)) {
-      PointerVariable negated = new ConcretePointerVariable(node, instr.getUse(0), this.heapModel);
+      PointerVariable negated = ConcretePointerVariable.make(node, instr.getUse(0), this.heapModel);
       IUnaryOpInstruction.IOperator op = instr.getOpcode();
       if (op == IUnaryOpInstruction.Operator.NEG) {
         // replace x with 0 - x
@@ -550,7 +506,7 @@ public class PathQuery implements IQuery {
   boolean visit(SSABinaryOpInstruction instr, CGNode node, SymbolTable tbl) {
     Util.Assert(instr.getNumberOfDefs() == 1, "Expecting only 1 def; found " + instr.getNumberOfDefs());
     Util.Assert(instr.getNumberOfUses() == 2, "Expecting only 2 uses; found " + instr.getNumberOfUses());
-    PointerVariable varName = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable varName = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(varName)) {
 
       if (!(instr.getOperator() instanceof BinaryOpInstruction.Operator)) {
@@ -616,16 +572,16 @@ public class PathQuery implements IQuery {
           return true;
         }
       } else if (lhsConstant) { // constant on left side of binary operator only
-        PathTermWithBinOp binExp = new PathTermWithBinOp(tbl.getIntValue(instr.getUse(0)), new ConcretePointerVariable(node,
+        PathTermWithBinOp binExp = new PathTermWithBinOp(tbl.getIntValue(instr.getUse(0)), ConcretePointerVariable.make(node,
             instr.getUse(1), this.heapModel), op);
         substituteExpForVar(binExp, varName);
       } else if (rhsConstant) { // constant on right of binary operator only
-        PathTermWithBinOp binExp = new PathTermWithBinOp(new ConcretePointerVariable(node, instr.getUse(0),
+        PathTermWithBinOp binExp = new PathTermWithBinOp(ConcretePointerVariable.make(node, instr.getUse(0),
             this.heapModel), tbl.getIntValue(instr.getUse(1)), op);
         substituteExpForVar(binExp, varName);
       } else { // no constants
-        PointerVariable lhs = new ConcretePointerVariable(node, instr.getUse(0), this.heapModel);
-        PointerVariable rhs = new ConcretePointerVariable(node, instr.getUse(1), this.heapModel);
+        PointerVariable lhs = ConcretePointerVariable.make(node, instr.getUse(0), this.heapModel);
+        PointerVariable rhs = ConcretePointerVariable.make(node, instr.getUse(1), this.heapModel);
         substituteExpForVar(new PathTermWithBinOp(lhs, rhs, op), varName);
       }
       return isFeasible();
@@ -635,7 +591,7 @@ public class PathQuery implements IQuery {
   
   // comparing floats, longs, or doubles. TODO: implement this
   boolean visit(SSAComparisonInstruction instr, CGNode node, SymbolTable tbl) {
-    PointerVariable varName = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable varName = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(varName)) {
       int use0 = instr.getUse(0), use1 = instr.getUse(1);
       if (tbl.isConstant(use0) && tbl.isConstant(use1)) { // comparison of
@@ -693,7 +649,7 @@ public class PathQuery implements IQuery {
       // constraints.remove(constraint);
       removeConstraint(constraint);
     }
-    rebuildZ3Constraints();
+    rebuildPathVars();
   }
   
   void dropConstraintsContaining(PointerVariable varName, IField fld) {
@@ -733,25 +689,25 @@ public class PathQuery implements IQuery {
   }
 
   boolean visit(SSAArrayLoadInstruction instr, CGNode node, SymbolTable tbl) {
-    PointerVariable varName = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable varName = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(varName)) {
       // can model array write as (array name).array.i, where i is the index of
       // interest
      
       if (Options.INDEX_SENSITIVITY) {
-        PointerVariable arrayVar = new ConcretePointerVariable(node, instr.getArrayRef(), this.heapModel);
-        //PointerVariable indexVar = new ConcretePointerVariable(node, instr.getIndex(), this.heapModel);
+        PointerVariable arrayVar = ConcretePointerVariable.make(node, instr.getArrayRef(), this.heapModel);
+        //PointerVariable indexVar = ConcretePointerVariable.make(node, instr.getIndex(), this.heapModel);
         //FieldReference indexRef = getFieldForIndex(instr.getIndex(), instr.getElementType());//FieldReference.findOrCreate(ClassLoaderReference.Primordial, "__fakeField", "v" + instr.getIndex(), 
             //instr.getElementType().toString());
         int index = instr.getIndex();
         SimplePathTerm indexExpr = tbl.isIntegerConstant(index) ? new SimplePathTerm(tbl.getIntValue(index)) : 
-          new SimplePathTerm(new ConcretePointerVariable(node, index, this.heapModel));
+          new SimplePathTerm(ConcretePointerVariable.make(node, index, this.heapModel));
         FieldReference indexFld = getFieldForIndex(instr.getElementType(), tbl);
         
         SimplePathTerm toSub = new SimplePathTerm(arrayVar, indexFld);      
         if (substituteExpForVar(toSub, varName)) {
           // add index fld name == index expr constraint
-          this.addConstraint(new AtomicPathConstraint(new SimplePathTerm(new ConcretePointerVariable(indexFld.getName().toString())), 
+          this.addConstraint(new AtomicPathConstraint(new SimplePathTerm(ConcretePointerVariable.make(indexFld.getName().toString())), 
               indexExpr, IConditionalBranchInstruction.Operator.EQ));
         }
         return isFeasible();
@@ -791,14 +747,14 @@ public class PathQuery implements IQuery {
   
   private static final String ARRAY_INDEX = "__arrIndex";
   
-  private static int indexCounter = 0;
+  private static final AtomicInteger indexCounter = new AtomicInteger();
   static FieldReference getFieldForIndex(TypeReference arrType, SymbolTable tbl) {
     //String indexStr = tbl.isIntegerConstant(index) ? "" + tbl.getIntValue(index) : "v" + index;
-    return FieldReference.findOrCreate(ClassLoaderReference.Primordial, ARRAY_INDEX, (indexCounter++) + ARRAY_INDEX, arrType.toString());
+    return FieldReference.findOrCreate(ClassLoaderReference.Primordial, ARRAY_INDEX, indexCounter.getAndIncrement() + ARRAY_INDEX, arrType.toString());
   }
 
   boolean visit(SSAArrayStoreInstruction instr, CGNode node, SymbolTable tbl) {
-    PointerVariable arrayVar = new ConcretePointerVariable(node, instr.getArrayRef(), this.heapModel);    
+    PointerVariable arrayVar = ConcretePointerVariable.make(node, instr.getArrayRef(), this.heapModel);    
     if (pathVars.contains(arrayVar)) {      
       if (Options.DEBUG) {
         Util.Debug("we don't handle path queries with arrays precisely; dropping constraints. this arrayStore insruction " + instr
@@ -811,10 +767,10 @@ public class PathQuery implements IQuery {
   
   // TODO: just assuming conversion goes through and is for integers at this point--should add check
   public boolean visit(SSAConversionInstruction instr, CGNode node) {
-    PointerVariable lhsVar = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable lhsVar = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(lhsVar)) {
       // for now conversions are unchecked; just sub the rhs for the lhs
-      PointerVariable rhsVar = new ConcretePointerVariable(node, instr.getUse(0), this.heapModel);
+      PointerVariable rhsVar = ConcretePointerVariable.make(node, instr.getUse(0), this.heapModel);
       substituteExpForVar(new SimplePathTerm(rhsVar), lhsVar);
     }
     return true;
@@ -822,7 +778,7 @@ public class PathQuery implements IQuery {
 
   // drop constraints
   public boolean visit(SSALoadMetadataInstruction instr, CGNode node) {
-    PointerVariable lhsVar = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable lhsVar = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(lhsVar)) {
         dropConstraintsContaining(lhsVar);
     }
@@ -831,12 +787,12 @@ public class PathQuery implements IQuery {
 
 
   public boolean visit(SSACheckCastInstruction instr, CGNode node) {
-    PointerVariable lhsVar = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable lhsVar = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(lhsVar)) {
       Util.Print("subbing path constraint check cast");
       // TODO: add constraint for checking casts?
       // for now casts are unchecked; just sub the rhs for the lhs
-      PointerVariable rhsVar = new ConcretePointerVariable(node, instr.getVal(), this.heapModel);
+      PointerVariable rhsVar = ConcretePointerVariable.make(node, instr.getVal(), this.heapModel);
       substituteExpForVar(new SimplePathTerm(rhsVar), lhsVar);
       return isFeasible();
     }
@@ -844,7 +800,7 @@ public class PathQuery implements IQuery {
   }
 
   public boolean visit(SSAInstanceofInstruction instr, CGNode node) {
-    PointerVariable lhsVar = new ConcretePointerVariable(node, instr.getDef(), this.heapModel);
+    PointerVariable lhsVar = ConcretePointerVariable.make(node, instr.getDef(), this.heapModel);
     if (pathVars.contains(lhsVar)) {
       // TODO: we don't have enough type information to check this constraint
       // right now, so just drop it
@@ -1015,7 +971,7 @@ public class PathQuery implements IQuery {
     
         
     if (constraints.add(constraint)) {
-      rebuildZ3Constraints();
+      rebuildPathVars();
       return true;
     }
     return false;
@@ -1030,7 +986,7 @@ public class PathQuery implements IQuery {
    */
   boolean removeConstraint(AtomicPathConstraint constraint) {
     if (constraints.remove(constraint)) {
-      rebuildZ3Constraints();
+      rebuildPathVars();
       return true;
     } else {
       for (AtomicPathConstraint con : constraints) {
@@ -1051,7 +1007,7 @@ public class PathQuery implements IQuery {
     // initialize all untouched fields to their default values
     // the "this" var is always v1
     final int THIS = 1;
-    PointerVariable thisVar = new ConcretePointerVariable(constructor, THIS, this.heapModel); 
+    PointerVariable thisVar = ConcretePointerVariable.make(constructor, THIS, this.heapModel); 
     List<FieldReference> toSub = new LinkedList<FieldReference>();
     for (AtomicPathConstraint constraint : constraints) {
       Set<SimplePathTerm> terms = constraint.getTerms();
@@ -1164,7 +1120,7 @@ public class PathQuery implements IQuery {
   }
   
   // TODO: hack! but z3 really slows things down once it can't decide
-  private static boolean z3Panic = false;
+  private static volatile boolean z3Panic = false;
   
   @Override
   public boolean isFeasible() {
@@ -1178,19 +1134,33 @@ public class PathQuery implements IQuery {
       return true;
     }
         
-    if (currentPathAssumption == null) return true;
-    // call Z3 to check for feasibility
-    //Z3AST[] assumptionsArr = new Z3AST[] { currentPathAssumption };
-    //Boolean result = ctx.checkAssumptionsNoModel(assumptionsArr);
-    Expr[] assumptionsArr = new Expr[] { currentPathAssumption };
-    Status status = null;
-    try {
-      status = solver.Check(assumptionsArr);
-    } catch (Z3Exception e) {
-      Util.Assert(false, "problem with z3 " + e);
+    if (constraints.isEmpty()) return true;
+    Boolean cached = FeasibilityCache.lookup(constraints);
+    if (cached != null) {
+      if (!cached) {
+        this.feasible = false;
+        if (Options.DEBUG || Options.PRINT_REFS) Util.Debug("refuted by path constraint (cached)!");
+      }
+      return cached;
+    }
+    if (Options.PRESOLVE_CONSTRAINTS) {
+      // try to decide easy constraint sets without going to Z3
+      Boolean presolved = ConstraintPreSolver.decide(constraints);
+      if (presolved != null) {
+        FeasibilityCache.record(constraints, presolved);
+        if (!presolved) {
+          this.feasible = false;
+          if (Options.DEBUG || Options.PRINT_REFS) Util.Debug("refuted by path constraint (presolver)!");
+        }
+        return presolved;
+      }
     }
+    // call Z3 to check for feasibility. the shared solver only pushes/pops the
+    // constraints that differ from the last path it checked
+    Status status = solver.check(IncrementalSolver.canonicalize(constraints));
     
     //if (result == null) {
+    if (status != Status.UNKNOWN) FeasibilityCache.record(constraints, status == Status.SATISFIABLE);
     if (status == Status.UNKNOWN) {
       if (Options.DEBUG) Util.Debug("Z3 decidability problem. giving up on z3 checking");
       // z3 can't solve our current constraints. give up
@@ -1420,10 +1390,10 @@ public class PathQuery implements IQuery {
       op = (ConditionalBranchInstruction.Operator) instruction.getOperator();
 
     if (tbl.isNullConstant(use0)) {
-      PointerVariable var1 = new ConcretePointerVariable(node, use1, this.heapModel);
+      PointerVariable var1 = ConcretePointerVariable.make(node, use1, this.heapModel);
       constraint = new AtomicPathConstraint(SimplePathTerm.NULL, new SimplePathTerm(var1), op);
     } else if (tbl.isNullConstant(use1)) {
-      PointerVariable var0 = new ConcretePointerVariable(node, use0, this.heapModel);
+      PointerVariable var0 = ConcretePointerVariable.make(node, use0, this.heapModel);
       constraint = new AtomicPathConstraint(new SimplePathTerm(var0), SimplePathTerm.NULL, op);
     } else if (tbl.isIntegerConstant(use0)) { // lhs is integer constant
       PointerVariable var1 = makeVarFromUse(node, use1);
@@ -1447,7 +1417,7 @@ public class PathQuery implements IQuery {
   }
 
   PointerVariable makeVarFromUse(CGNode node, int useNum) {
-    return new ConcretePointerVariable(node, useNum, this.heapModel);
+    return ConcretePointerVariable.make(node, useNum, this.heapModel);
   }
 
   /**
@@ -1463,7 +1433,7 @@ public class PathQuery implements IQuery {
     if (Options.DEBUG)
       Util.Debug("substituting actuals for formals in path query");
     for (int i = 0; i < instr.getNumberOfParameters(); i++) {
-      PointerVariable formal = new ConcretePointerVariable(calleeMethod, i + 1, this.heapModel);
+      PointerVariable formal = ConcretePointerVariable.make(calleeMethod, i + 1, this.heapModel);
       int use = instr.getUse(i);
       if (i == -1) continue; // insurance for WALA crash that sometimes happens here
       SimplePathTerm actual = null;
@@ -1480,7 +1450,7 @@ public class PathQuery implements IQuery {
         continue;
       } else
         actual = new SimplePathTerm(
-            new ConcretePointerVariable(callerMethod, instr.getUse(i), this.heapModel));
+            ConcretePointerVariable.make(callerMethod, instr.getUse(i), this.heapModel));
       if (Options.DEBUG)
         Util.Debug("subbing " + actual + " for " + formal);
       substituteExpForVar(actual, formal);
@@ -1500,8 +1470,8 @@ public class PathQuery implements IQuery {
     for (int i = 0; i < instr.getNumberOfParameters(); i++) {
       int useNum = instr.getUse(i);
       
-      PointerVariable actual = new ConcretePointerVariable(callerMethod, useNum, this.heapModel);
-      PointerVariable formal = new ConcretePointerVariable(calleeMethod, i + 1, this.heapModel);
+      PointerVariable actual = ConcretePointerVariable.make(callerMethod, useNum, this.heapModel);
+      PointerVariable formal = ConcretePointerVariable.make(calleeMethod, i + 1, this.heapModel);
       SimplePathTerm formalTerm = new SimplePathTerm(formal);
       substituteExpForVar(formalTerm, actual); // don't want to muck with caller state
       /*
@@ -1532,7 +1502,7 @@ public class PathQuery implements IQuery {
   public List<IQuery> visitPhi(SSAPhiInstruction instr, int phiIndex, IPathInfo currentPath) {
     CGNode currentMethod = currentPath.getCurrentNode();
     // lhsVar is the x in x = phi(y,z)
-    PointerVariable lhsVar = new ConcretePointerVariable(currentMethod, instr.getDef(), this.heapModel); 
+    PointerVariable lhsVar = ConcretePointerVariable.make(currentMethod, instr.getDef(), this.heapModel); 
 
     if (pathVars.contains(lhsVar)) {
       Util.Assert(instr.getNumberOfDefs() == 1, "expecting one def");
@@ -1550,7 +1520,7 @@ public class PathQuery implements IQuery {
         Util.Unimp("other kinds of constants"); // TODO: support other constants
       // one of the y_i's in x = phi(y_1,y_2,...)
       else
-        toSub = new SimplePathTerm(new ConcretePointerVariable(currentMethod, use, this.heapModel));
+        toSub = new SimplePathTerm(ConcretePointerVariable.make(currentMethod, use, this.heapModel));
       substituteExpForVar(toSub, lhsVar); // sub the LHS of the phi for the
                                           // appropriate term on the right
       if (!isFeasible()) {
@@ -1567,13 +1537,13 @@ public class PathQuery implements IQuery {
       Util.Assert(!instr.isStatic()); // unimplemented for now
       HeapModel hm = this.heapModel;
    
-      ConcretePointerVariable receiver = new ConcretePointerVariable(currentNode, instr.getUse(0), hm);
+      ConcretePointerVariable receiver = ConcretePointerVariable.make(currentNode, instr.getUse(0), hm);
       // special ghost variable corresponding to the call
       FieldReference ghost = FieldReference.findOrCreate(instr.getDeclaredTarget().getDeclaringClass().getClassLoader(), 
                                                          instr.getDeclaredTarget().getDeclaringClass().getName().toString(),
                                                          instr.getDeclaredTarget().getSelector().toString(),
                                                          instr.getDeclaredResultType().getName().toString());  
-      substituteExpForVar(new SimplePathTerm(receiver, ghost), new ConcretePointerVariable(currentNode, instr.getDef(), hm));
+      substituteExpForVar(new SimplePathTerm(receiver, ghost), ConcretePointerVariable.make(currentNode, instr.getDef(), hm));
     }
     return true;
   }
@@ -1663,59 +1633,13 @@ public class PathQuery implements IQuery {
     Util.Assert(other instanceof PathQuery, "intersecting with non-PathQuery " + other.getClass());
     PathQuery otherQuery = (PathQuery) other;
     this.constraints.retainAll(otherQuery.constraints);
-    rebuildZ3Constraints();
+    rebuildPathVars();
   }
 
   public boolean symbContains(PathQuery other) {
     if (other.constraints.isEmpty()) return true;
     if (this.constraints.isEmpty()) return false;
-    Status result = null;
-    try {
-      // TODO: refactor to use existing context
-      // temporary context for performing implication checking
-      //final Z3Context tmp = new Z3Context(new Z3Config());
-      Context tmp = new Context();
-      //final Z3AST[] conjuncts0 = new Z3AST[constraints.size()], conjuncts1 = new Z3AST[other.constraints.size()];
-      final BoolExpr[] conjuncts0 = new BoolExpr[constraints.size()], conjuncts1 = new BoolExpr[other.constraints.size()];
-      
-      int i = 0;
-      for (AtomicPathConstraint constraint : this.constraints) {
-        //conjuncts0[i++] = constraint.toZ3AST(tmp);
-        conjuncts0[i++] = (BoolExpr) constraint.toZ3AST(tmp);
-      }
-      i = 0;
-      for (AtomicPathConstraint constraint : other.constraints) {
-        //conjuncts1[i++] = constraint.toZ3AST(tmp);
-        conjuncts1[i++] = (BoolExpr) constraint.toZ3AST(tmp);
-      }
-   
-      //final Z3AST implLHS = tmp.mkAnd(conjuncts0);
-      //final Z3AST implRHS = tmp.mkAnd(conjuncts1);
-      final BoolExpr implLHS = tmp.MkAnd(conjuncts0), implRHS = tmp.MkAnd(conjuncts1);
-      // ask: is there some assignment for which LHS does not imply RHS?
-      Solver s = tmp.MkSolver();
-      s.Assert(tmp.MkNot(tmp.MkImplies(implLHS, implRHS)));
-      //tmp.assertCnstr(tmp.mkNot(tmp.mkImplies(implLHS, implRHS)));
-      // if not, then we know LHS => RHS for all values
-      //boolean result = !tmp.check();
-      result = s.Check();
-
-      if (result == Status.UNKNOWN) {
-        Util.Assert(false, "z3 decidability problem");
-        return false;
-      } else {
-        boolean boolResult = result == Status.UNSATISFIABLE;
-        tmp.Dispose();
-        return boolResult;
-      }
-    } catch (Z3Exception e) {
-      Util.Assert(false, " problem with z3 " + e);
-      return false;
-    }
-    
-    
-    //tmp.delete();
-    //return result;//!tmp.check();
+    return ImplicationChecker.get().implies(this.constraints, other.constraints);
   }
 
   @Override
@@ -1769,7 +1693,7 @@ public class PathQuery implements IQuery {
   @Override
   public boolean addPathConstraintFromSwitch(SSAConditionalBranchInstruction switchCase, CGNode currentNode, boolean negated) {
     IConditionalBranchInstruction.Operator op = negated ? ConditionalBranchInstruction.Operator.NE :  ConditionalBranchInstruction.Operator.EQ;
-    SimplePathTerm matchedTerm = new SimplePathTerm(new ConcretePointerVariable(currentNode, switchCase.getUse(0), this.heapModel));
+    SimplePathTerm matchedTerm = new SimplePathTerm(ConcretePointerVariable.make(currentNode, switchCase.getUse(0), this.heapModel));
     //AtomicPathConstraint switchConstraint = new AtomicPathConstraint(matchedTerm, new SimplePathTerm(switchCase.getUse(1)), op);
     SymbolTable tbl = currentNode.getIR().getSymbolTable();
     Util.Assert(tbl.isIntegerConstant(switchCase.getUse(1)));
@@ -1790,7 +1714,7 @@ public class PathQuery implements IQuery {
     // TODO: exclude string/byte/enum cases?
 
     // instr is switch(switchTarget)
-    PointerVariable switchTarget = new ConcretePointerVariable(currentNode, instr.getUse(0), this.heapModel);
+    PointerVariable switchTarget = ConcretePointerVariable.make(currentNode, instr.getUse(0), this.heapModel);
     SimplePathTerm switchTargetTerm = new SimplePathTerm(switchTarget);
            
     List<IQuery> cases = new ArrayList<IQuery>();
@@ -1841,14 +1765,14 @@ public class PathQuery implements IQuery {
    */
   @Override
   public Map<Constraint, Set<CGNode>> getModifiersForQuery() {
-    Map<PointerKey, Set<CGNode>> reversedModRef = this.depRuleGenerator.getReversedModRef();
+    ReversedModRef reversedModRef = this.depRuleGenerator.getReversedModRef();
     Map<Constraint, Set<CGNode>> constraintModMap = HashMapFactory.make(); 
     for (AtomicPathConstraint constraint : this.constraints) {
       Set<CGNode> nodes = HashSetFactory.make();
       Util.Debug("getting pointer keys for " + constraint);
       for (PointerKey key : constraint.getPointerKeys(this.depRuleGenerator)) {
         Util.Debug("POINTER KEY " + key);
-        nodes.addAll(reversedModRef.get(key));
+        nodes.addAll(reversedModRef.getModifiers(key));
       }
       constraintModMap.put(constraint, nodes);
     }
@@ -162,6 +162,7 @@ public class PathSensitiveSymbolicExecutor extends BasicSymbolicExecutor {
    */
   @Override
   public boolean executeBackwardsPathIntraprocedural(IPathInfo path) {
+    queryMetrics.inc(Metrics.QueryCounter.PATHS_EXPLORED);
     if (Options.DEBUG_ASSERTS) {
       boolean result = executeBackwardsPathIntraproceduralImpl(path);
       // true return => path feasible && (found witness || at procedure boundary
@@ -188,6 +189,7 @@ public class PathSensitiveSymbolicExecutor extends BasicSymbolicExecutor {
       Util.Pre(!path.isDummy(), "can't execute dummy path!");
       Util.Pre(!path.isLoopMergeIndicator(), "can't execute loop merge indicator!");
     }
+    recordVisit(path.getCurrentNode());
 
     final IR ir = path.getCurrentNode().getIR();
     final SSACFG cfg = ir.getControlFlowGraph();
@@ -214,6 +216,7 @@ public class PathSensitiveSymbolicExecutor extends BasicSymbolicExecutor {
       if (!splitPaths.isEmpty()) {
         // Util.Assert(preds.size() > 1, "expecting path split!");
         // have already done path split; add to paths to explore and return
+        queryMetrics.inc(Metrics.QueryCounter.SPLITS);
         for (IPathInfo choice : splitPaths) {
           if (choice.isFeasible() &&
           // loopHead => (loop escape block or not seen loop head yet)
@@ -0,0 +1,115 @@
+package edu.colorado.thresher.core;
+
+import java.util.AbstractList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * append-only list stored as a chain of immutable cells from the last element
+ * back to the first. copy() is O(1) and copies share their common prefix, so
+ * the witness lists of paths that split from each other are stored once
+ *
+ * only add() is supported as a modification; get(i) is O(size - i)
+ */
+public class PersistentList<T> extends AbstractList<T> {
+
+  private static final class Cell {
+    final Object elem;
+    final Cell prev;
+
+    Cell(Object elem, Cell prev) {
+      this.elem = elem;
+      this.prev = prev;
+    }
+  }
+
+  private Cell last;
+  private int size;
+
+  public PersistentList() {
+    this(null, 0);
+  }
+
+  public PersistentList(Collection<? extends T> elems) {
+    this();
+    addAll(elems);
+  }
+
+  private PersistentList(Cell last, int size) {
+    this.last = last;
+    this.size = size;
+  }
+
+  /**
+   * @return a list with the same elements as this one that can be appended
+   *         to independently of it. O(1)
+   */
+  public PersistentList<T> copy() {
+    return new PersistentList<T>(last, size);
+  }
+
+  /**
+   * @return an independent persistent copy of @param list; O(1) if list is
+   *         already persistent
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> PersistentList<T> copyOf(Collection<T> list) {
+    if (list == null) return null;
+    if (list instanceof PersistentList) return ((PersistentList<T>) list).copy();
+    return new PersistentList<T>(list);
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean add(T elem) {
+    last = new Cell(elem, last);
+    size++;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    if (index < 0 || index >= size) throw new IndexOutOfBoundsException("index " + index + " size " + size);
+    Cell cell = last;
+    for (int i = size - 1; i > index; i--) cell = cell.prev;
+    return (T) cell.elem;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    // cells point backward; snapshot them in order
+    final Object[] elems = new Object[size];
+    Cell cell = last;
+    for (int i = size - 1; i >= 0; i--) {
+      elems[i] = cell.elem;
+      cell = cell.prev;
+    }
+    return new Iterator<T>() {
+      private int index = 0;
+
+      @Override
+      public boolean hasNext() {
+        return index < elems.length;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public T next() {
+        if (index >= elems.length) throw new NoSuchElementException();
+        return (T) elems[index++];
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
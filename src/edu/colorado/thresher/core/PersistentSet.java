@@ -0,0 +1,324 @@
+package edu.colorado.thresher.core;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * set backed by an immutable hash array mapped trie. copy() is O(1): the copy
+ * shares the trie with the original, and a later add/remove on either one
+ * only copies the nodes on the path to the changed element. used for query
+ * constraint sets so that splitting a path doesn't copy every constraint
+ *
+ * not thread-safe, just like the HashSet's it replaces. null elements are not
+ * allowed
+ */
+public class PersistentSet<T> extends AbstractSet<T> {
+
+  private static final int BITS = 5, WIDTH = 1 << BITS, MASK = WIDTH - 1;
+  // once we have used up all of the hash bits, equal-hash elements go in a collision node
+  private static final int MAX_SHIFT = 30;
+
+  // interior trie node. entries are either elements or child nodes; a node
+  // is never stored as an element, so instanceof tells them apart
+  private static abstract class Node {
+  }
+
+  private static final class BitmapNode extends Node {
+    final int bitmap;
+    final Object[] entries;
+
+    BitmapNode(int bitmap, Object[] entries) {
+      this.bitmap = bitmap;
+      this.entries = entries;
+    }
+  }
+
+  private static final class CollisionNode extends Node {
+    final Object[] elems;
+
+    CollisionNode(Object[] elems) {
+      this.elems = elems;
+    }
+  }
+
+  private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+  private Node root;
+  private int size;
+  // sum of element hash codes, same as AbstractSet.hashCode() computes
+  private int hash;
+
+  public PersistentSet() {
+    this(EMPTY, 0, 0);
+  }
+
+  public PersistentSet(Collection<? extends T> elems) {
+    this();
+    addAll(elems);
+  }
+
+  private PersistentSet(Node root, int size, int hash) {
+    this.root = root;
+    this.size = size;
+    this.hash = hash;
+  }
+
+  /**
+   * @return a set with the same elements as this one that can be modified
+   *         independently of it. O(1)
+   */
+  public PersistentSet<T> copy() {
+    return new PersistentSet<T>(root, size, hash);
+  }
+
+  /**
+   * @return an independent persistent copy of @param set; O(1) if set is
+   *         already persistent
+   */
+  @SuppressWarnings("unchecked")
+  public static <T> PersistentSet<T> copyOf(Collection<T> set) {
+    if (set instanceof PersistentSet) return ((PersistentSet<T>) set).copy();
+    return new PersistentSet<T>(set);
+  }
+
+  private static int spread(int h) {
+    return h ^ (h >>> 16);
+  }
+
+  private static int index(int h, int shift) {
+    return (h >>> shift) & MASK;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public void clear() {
+    root = EMPTY;
+    size = 0;
+    hash = 0;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (o == null) return false;
+    final int h = spread(o.hashCode());
+    Node node = root;
+    int shift = 0;
+    for (;;) {
+      if (node instanceof CollisionNode) {
+        for (Object elem : ((CollisionNode) node).elems) {
+          if (elem.equals(o)) return true;
+        }
+        return false;
+      }
+      BitmapNode bnode = (BitmapNode) node;
+      int bit = 1 << index(h, shift);
+      if ((bnode.bitmap & bit) == 0) return false;
+      Object entry = bnode.entries[Integer.bitCount(bnode.bitmap & (bit - 1))];
+      if (entry instanceof Node) {
+        node = (Node) entry;
+        shift += BITS;
+      } else return entry.equals(o);
+    }
+  }
+
+  @Override
+  public boolean add(T elem) {
+    Util.Pre(elem != null, "null elements not allowed");
+    final int elemHash = elem.hashCode();
+    Node newRoot = add(root, spread(elemHash), elem, 0);
+    if (newRoot == root) return false;
+    root = newRoot;
+    size++;
+    hash += elemHash;
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    if (o == null) return false;
+    final int elemHash = o.hashCode();
+    Node newRoot = remove(root, spread(elemHash), o, 0);
+    if (newRoot == root) return false;
+    root = newRoot == null ? EMPTY : newRoot;
+    size--;
+    hash -= elemHash;
+    return true;
+  }
+
+  // @return node with elem added, or node itself if elem was already there
+  private static Node add(Node node, int h, Object elem, int shift) {
+    if (node instanceof CollisionNode) {
+      Object[] elems = ((CollisionNode) node).elems;
+      for (Object e : elems) {
+        if (e.equals(elem)) return node;
+      }
+      Object[] newElems = new Object[elems.length + 1];
+      System.arraycopy(elems, 0, newElems, 0, elems.length);
+      newElems[elems.length] = elem;
+      return new CollisionNode(newElems);
+    }
+    BitmapNode bnode = (BitmapNode) node;
+    int bit = 1 << index(h, shift);
+    int pos = Integer.bitCount(bnode.bitmap & (bit - 1));
+    if ((bnode.bitmap & bit) == 0) {
+      // free slot; insert elem here
+      Object[] newEntries = new Object[bnode.entries.length + 1];
+      System.arraycopy(bnode.entries, 0, newEntries, 0, pos);
+      newEntries[pos] = elem;
+      System.arraycopy(bnode.entries, pos, newEntries, pos + 1, bnode.entries.length - pos);
+      return new BitmapNode(bnode.bitmap | bit, newEntries);
+    }
+    Object entry = bnode.entries[pos];
+    Object newEntry;
+    if (entry instanceof Node) {
+      newEntry = add((Node) entry, h, elem, shift + BITS);
+      if (newEntry == entry) return node;
+    } else if (entry.equals(elem)) {
+      return node;
+    } else {
+      // two different elements in the same slot; push both down a level
+      newEntry = makeNode(spread(entry.hashCode()), entry, h, elem, shift + BITS);
+    }
+    Object[] newEntries = bnode.entries.clone();
+    newEntries[pos] = newEntry;
+    return new BitmapNode(bnode.bitmap, newEntries);
+  }
+
+  private static Node makeNode(int h0, Object e0, int h1, Object e1, int shift) {
+    if (shift > MAX_SHIFT) return new CollisionNode(new Object[] { e0, e1 });
+    int i0 = index(h0, shift), i1 = index(h1, shift);
+    if (i0 == i1) {
+      return new BitmapNode(1 << i0, new Object[] { makeNode(h0, e0, h1, e1, shift + BITS) });
+    }
+    Object[] entries = i0 < i1 ? new Object[] { e0, e1 } : new Object[] { e1, e0 };
+    return new BitmapNode((1 << i0) | (1 << i1), entries);
+  }
+
+  // @return node with o removed, null if that leaves the node empty, or node
+  // itself if o wasn't there
+  private static Node remove(Node node, int h, Object o, int shift) {
+    if (node instanceof CollisionNode) {
+      Object[] elems = ((CollisionNode) node).elems;
+      for (int i = 0; i < elems.length; i++) {
+        if (elems[i].equals(o)) {
+          if (elems.length == 1) return null;
+          Object[] newElems = new Object[elems.length - 1];
+          System.arraycopy(elems, 0, newElems, 0, i);
+          System.arraycopy(elems, i + 1, newElems, i, elems.length - i - 1);
+          return new CollisionNode(newElems);
+        }
+      }
+      return node;
+    }
+    BitmapNode bnode = (BitmapNode) node;
+    int bit = 1 << index(h, shift);
+    if ((bnode.bitmap & bit) == 0) return node;
+    int pos = Integer.bitCount(bnode.bitmap & (bit - 1));
+    Object entry = bnode.entries[pos];
+    if (entry instanceof Node) {
+      Node newChild = remove((Node) entry, h, o, shift + BITS);
+      if (newChild == entry) return node;
+      if (newChild != null) {
+        Object[] newEntries = bnode.entries.clone();
+        newEntries[pos] = newChild;
+        return new BitmapNode(bnode.bitmap, newEntries);
+      }
+      // else, child is gone; drop the slot below
+    } else if (!entry.equals(o)) return node;
+
+    if (bnode.entries.length == 1) return null;
+    Object[] newEntries = new Object[bnode.entries.length - 1];
+    System.arraycopy(bnode.entries, 0, newEntries, 0, pos);
+    System.arraycopy(bnode.entries, pos + 1, newEntries, pos, bnode.entries.length - pos - 1);
+    return new BitmapNode(bnode.bitmap & ~bit, newEntries);
+  }
+
+  /**
+   * iterates over a snapshot of the set, so the set can be modified while
+   * iterating. remove() removes the last element returned from the set
+   */
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      // stack of (entry array, next index) for the nodes we are in the middle of
+      private Object[][] arrays = new Object[8][];
+      private int[] indices = new int[8];
+      private int depth = 0;
+      private Object next = null;
+      private Object last = null;
+
+      {
+        push(entriesOf(root));
+        advance();
+      }
+
+      private Object[] entriesOf(Node node) {
+        return node instanceof CollisionNode ? ((CollisionNode) node).elems : ((BitmapNode) node).entries;
+      }
+
+      private void push(Object[] entries) {
+        if (depth == arrays.length) {
+          Object[][] newArrays = new Object[depth * 2][];
+          System.arraycopy(arrays, 0, newArrays, 0, depth);
+          arrays = newArrays;
+          int[] newIndices = new int[depth * 2];
+          System.arraycopy(indices, 0, newIndices, 0, depth);
+          indices = newIndices;
+        }
+        arrays[depth] = entries;
+        indices[depth] = 0;
+        depth++;
+      }
+
+      private void advance() {
+        next = null;
+        while (depth > 0) {
+          int top = depth - 1;
+          if (indices[top] == arrays[top].length) {
+            arrays[top] = null;
+            depth--;
+            continue;
+          }
+          Object entry = arrays[top][indices[top]++];
+          if (entry instanceof Node) push(entriesOf((Node) entry));
+          else {
+            next = entry;
+            return;
+          }
+        }
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public T next() {
+        if (next == null) throw new NoSuchElementException();
+        last = next;
+        advance();
+        return (T) last;
+      }
+
+      @Override
+      public void remove() {
+        if (last == null) throw new IllegalStateException();
+        PersistentSet.this.remove(last);
+        last = null;
+      }
+    };
+  }
+}
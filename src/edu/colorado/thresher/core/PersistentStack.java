@@ -0,0 +1,140 @@
+package edu.colorado.thresher.core;
+
+import java.util.AbstractList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * stack stored as a chain of immutable cells from the top down. copy() is O(1)
+ * and copies share the frames below the point where they diverge, so forking a
+ * path doesn't copy its call stack
+ *
+ * index 0 is the top of the stack, as with LinkedList.push()/pop(). only
+ * push(), pop(), and clear() are supported as modifications; get(i) is O(i)
+ */
+public class PersistentStack<T> extends AbstractList<T> {
+
+  private static final class Cell {
+    final Object elem;
+    final Cell next;
+    final int depth; // number of cells from here to the bottom, inclusive
+
+    Cell(Object elem, Cell next) {
+      this.elem = elem;
+      this.next = next;
+      this.depth = next == null ? 1 : next.depth + 1;
+    }
+  }
+
+  private Cell top;
+
+  public PersistentStack() {
+    this(null);
+  }
+
+  private PersistentStack(Cell top) {
+    this.top = top;
+  }
+
+  /**
+   * @return a stack with the same elements as this one that can be modified
+   *         independently of it. O(1)
+   */
+  public PersistentStack<T> copy() {
+    return new PersistentStack<T>(top);
+  }
+
+  @Override
+  public int size() {
+    return top == null ? 0 : top.depth;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return top == null;
+  }
+
+  public void push(T elem) {
+    top = new Cell(elem, top);
+    modCount++;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T pop() {
+    if (top == null) throw new NoSuchElementException();
+    Object elem = top.elem;
+    top = top.next;
+    modCount++;
+    return (T) elem;
+  }
+
+  @SuppressWarnings("unchecked")
+  public T peek() {
+    return top == null ? null : (T) top.elem;
+  }
+
+  /**
+   * @return the bottom of the stack
+   */
+  @SuppressWarnings("unchecked")
+  public T getLast() {
+    if (top == null) throw new NoSuchElementException();
+    Cell cell = top;
+    while (cell.next != null) cell = cell.next;
+    return (T) cell.elem;
+  }
+
+  @Override
+  public void clear() {
+    top = null;
+    modCount++;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public T get(int index) {
+    if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("index " + index + " size " + size());
+    Cell cell = top;
+    for (int i = 0; i < index; i++) cell = cell.next;
+    return (T) cell.elem;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    // copies that haven't diverged share their cells
+    if (other instanceof PersistentStack && ((PersistentStack<?>) other).top == this.top) return true;
+    return super.equals(other);
+  }
+
+  @Override
+  public int hashCode() {
+    return super.hashCode();
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      // cells are immutable, so this iterates over a snapshot
+      private Cell next = top;
+
+      @Override
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public T next() {
+        if (next == null) throw new NoSuchElementException();
+        Object elem = next.elem;
+        next = next.next;
+        return (T) elem;
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+}
@@ -0,0 +1,111 @@
+package edu.colorado.thresher.core;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * wall time and allocation of the phases of an analysis, accumulated across
+ * calls until reset(). allocation is what the calling thread allocated between
+ * start() and stop(), so it misses whatever a phase hands off to worker
+ * threads; it is -1 if the JVM can't measure it
+ *
+ * thread-safe
+ */
+public class PhaseTimer {
+
+  public static final String CLASS_HIERARCHY = "class_hierarchy";
+  // WALA solves the pointer analysis as it builds the call graph, so this covers most of both
+  public static final String CALL_GRAPH = "call_graph";
+  // what's left of the pointer analysis once the call graph is built: the heap graph
+  public static final String POINTER_ANALYSIS = "pointer_analysis";
+  public static final String MOD_REF = "mod_ref";
+  // rules are generated lazily during refutation, so this time is also counted there
+  public static final String RULE_GENERATION = "rule_generation";
+  public static final String REFUTATION = "refutation";
+
+  private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private static final boolean measureAlloc = isAllocMeasurable();
+
+  // phase -> { wall nanos, allocated bytes }, in the order phases were first seen
+  private static final Map<String, long[]> phases = new LinkedHashMap<String, long[]>();
+
+  /**
+   * the time and allocation counter at the start of a phase
+   */
+  public static final class Split {
+    private final long nanos, bytes;
+
+    private Split(long nanos, long bytes) {
+      this.nanos = nanos;
+      this.bytes = bytes;
+    }
+  }
+
+  private static boolean isAllocMeasurable() {
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) return false;
+    com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+    if (!sunThreads.isThreadAllocatedMemorySupported()) return false;
+    if (!sunThreads.isThreadAllocatedMemoryEnabled()) sunThreads.setThreadAllocatedMemoryEnabled(true);
+    return true;
+  }
+
+  private static long allocatedBytes() {
+    if (!measureAlloc) return -1;
+    return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  public static Split start() {
+    return new Split(System.nanoTime(), allocatedBytes());
+  }
+
+  /**
+   * charge the time and allocation since @param split to @param phase
+   *
+   * @return the time charged, in nanoseconds
+   */
+  public static long stop(String phase, Split split) {
+    long nanos = System.nanoTime() - split.nanos;
+    long bytes = split.bytes < 0 ? -1 : allocatedBytes() - split.bytes;
+    synchronized (phases) {
+      long[] totals = phases.get(phase);
+      if (totals == null) {
+        phases.put(phase, new long[] { nanos, bytes });
+        return nanos;
+      }
+      totals[0] += nanos;
+      totals[1] = totals[1] < 0 || bytes < 0 ? -1 : totals[1] + bytes;
+    }
+    return nanos;
+  }
+
+  /**
+   * @return phase -> { wall nanos, allocated bytes } for every phase timed since the last reset
+   */
+  public static Map<String, long[]> snapshot() {
+    Map<String, long[]> copy = new LinkedHashMap<String, long[]>();
+    synchronized (phases) {
+      for (Map.Entry<String, long[]> entry : phases.entrySet()) {
+        copy.put(entry.getKey(), entry.getValue().clone());
+      }
+    }
+    return copy;
+  }
+
+  public static void reset() {
+    synchronized (phases) {
+      phases.clear();
+    }
+  }
+
+  public static String dumpStats() {
+    StringBuilder sb = new StringBuilder("Phase timings:");
+    for (Map.Entry<String, long[]> entry : snapshot().entrySet()) {
+      long[] totals = entry.getValue();
+      sb.append("\n  " + entry.getKey() + ": " + (totals[0] / 1000000) + " ms");
+      if (totals[1] >= 0) sb.append(", " + (totals[1] / (1024 * 1024)) + " MB allocated");
+    }
+    return sb.toString();
+  }
+}
@@ -79,6 +79,18 @@ public class PointerStatement implements Comparable {
     return instr;
   }
 
+  PointerVariable getLhs() {
+    return lhs;
+  }
+
+  PointerVariable getRhs() {
+    return rhs;
+  }
+
+  EdgeType getType() {
+    return type;
+  }
+
   public boolean isNewInstr() {
     return instr instanceof SSANewInstruction;
   }
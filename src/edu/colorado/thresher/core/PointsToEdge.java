@@ -5,6 +5,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ibm.wala.classLoader.IClass;
 import com.ibm.wala.classLoader.IField;
@@ -26,39 +27,159 @@ public class PointsToEdge extends AbstractConstraint implements Comparable {
   private final IField fieldRef;
   private final int fieldId;
 
+  // dense id that equal edges share, for edges with two concrete ends. -1 for
+  // edges with a symbolic end, which are compared structurally; see equals()
+  private final int id;
+  // id for concrete edges. structural for the rest: symbolic ends don't
+  // contribute, since a symbolic var equals others with the same possible
+  // values but hashes by id
   private final int hash;
+  // keeps this edge's entry in the intern table alive as long as the edge is
+  private final EdgeKey key;
+  // keeps this edge's entry in the class table alive as long as the edge is
+  private final EdgeClass edgeClass;
 
   private static final int NONE = -1;
   // private final String uniqueId;
 
-  public PointsToEdge(PointerVariable source, PointerVariable sink) {
-    // this(source, sink, null);
-    this.source = source;
-    this.sink = sink;
-    this.fieldRef = null;
-    this.field = null;
-    this.fieldId = NONE;
-    this.hash = makeHash();
+  // interned edges by (source, field, sink)
+  private static final WeakInternTable<EdgeKey, PointsToEdge> internTable = new WeakInternTable<EdgeKey, PointsToEdge>();
+  // ids of concrete edges by (source id, field id, sink id). edges made from
+  // different (but equal) vars are interned separately but share an id
+  private static final WeakInternTable<ClassKey, EdgeClass> edgeClasses = new WeakInternTable<ClassKey, EdgeClass>();
+  private static final AtomicInteger idCounter = new AtomicInteger();
+
+  private static final class EdgeKey {
+    final PointerVariable source;
+    final PointerVariable sink;
+    final PointerKey field;
+    final IField fieldRef;
+    final int fieldId;
+    final int hash;
+
+    EdgeKey(PointerVariable source, PointerVariable sink, PointerKey field, IField fieldRef, int fieldId) {
+      this.source = source;
+      this.sink = sink;
+      this.field = field;
+      this.fieldRef = fieldRef;
+      this.fieldId = fieldId;
+      this.hash = (System.identityHashCode(source) * 31 + fieldId) * 31 + System.identityHashCode(sink);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof EdgeKey)) return false;
+      EdgeKey k = (EdgeKey) other;
+      // vars are interned, so comparing them by identity is cheap. an edge may
+      // still equal edges made from other (equal) vars; see equals()
+      return source == k.source && sink == k.sink && fieldId == k.fieldId && fieldRef == k.fieldRef && Util.equal(field, k.field);
+    }
+  }
+
+  private static final class ClassKey {
+    final int sourceId;
+    final int fieldId;
+    final int sinkId;
+
+    ClassKey(int sourceId, int fieldId, int sinkId) {
+      this.sourceId = sourceId;
+      this.fieldId = fieldId;
+      this.sinkId = sinkId;
+    }
+
+    @Override
+    public int hashCode() {
+      return (sourceId * 31 + fieldId) * 31 + sinkId;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof ClassKey)) return false;
+      ClassKey k = (ClassKey) other;
+      return sourceId == k.sourceId && fieldId == k.fieldId && sinkId == k.sinkId;
+    }
+  }
+
+  // id shared by equal concrete edges. holds its key, so the entry for it in
+  // edgeClasses lives as long as some edge has this id
+  private static final class EdgeClass {
+    final ClassKey key;
+    final int id;
+
+    EdgeClass(ClassKey key, int id) {
+      this.key = key;
+      this.id = id;
+    }
+  }
+
+  private PointsToEdge(EdgeKey key, EdgeClass edgeClass) {
+    this.source = key.source;
+    this.sink = key.sink;
+    this.field = key.field;
+    this.fieldRef = key.fieldRef;
+    this.fieldId = key.fieldId;
+    this.key = key;
+    this.edgeClass = edgeClass;
+    if (edgeClass != null) {
+      this.id = edgeClass.id;
+      this.hash = edgeClass.id;
+    } else {
+      this.id = -1;
+      this.hash = (varHash(source) * 31 + fieldId) * 31 + varHash(sink);
+    }
+  }
+
+  private static int varHash(PointerVariable var) {
+    return var.isSymbolic() ? 0 : var.hashCode();
   }
 
-  public PointsToEdge(PointerVariable source, PointerVariable sink, IField fieldRef) {
-    this.source = source;
-    this.sink = sink;
-    this.fieldRef = fieldRef;
+  private static PointsToEdge intern(PointerVariable source, PointerVariable sink, PointerKey field, IField fieldRef, int fieldId) {
+    EdgeKey key = new EdgeKey(source, sink, field, fieldRef, fieldId);
+    PointsToEdge edge = internTable.get(key);
+    if (edge != null) return edge;
+    EdgeClass edgeClass = null;
+    if (source instanceof ConcretePointerVariable && sink instanceof ConcretePointerVariable) {
+      ClassKey classKey = new ClassKey(((ConcretePointerVariable) source).getId(), fieldId,
+          ((ConcretePointerVariable) sink).getId());
+      edgeClass = edgeClasses.get(classKey);
+      if (edgeClass == null) edgeClass = edgeClasses.intern(classKey, new EdgeClass(classKey, idCounter.getAndIncrement()));
+    }
+    return internTable.intern(key, new PointsToEdge(key, edgeClass));
+  }
+
+  /**
+   * @return the edge source -> sink, or null if either is null
+   */
+  public static PointsToEdge make(PointerVariable source, PointerVariable sink) {
+    if (source == null || sink == null) return null;
+    return intern(source, sink, null, null, NONE);
+  }
+
+  /**
+   * @return the edge source ->_fieldRef sink, or null if source or sink is null
+   */
+  public static PointsToEdge make(PointerVariable source, PointerVariable sink, IField fieldRef) {
+    if (source == null || sink == null) return null;
+    PointsToEdge edge;
     if (fieldRef != null && source.getInstanceKey() != null) {
-      this.fieldId = fieldRef.hashCode();
+      PointerKey field;
       if (source.getInstanceKey() instanceof StaticFieldKey)
-        this.field = (StaticFieldKey) source.getInstanceKey();
+        field = (StaticFieldKey) source.getInstanceKey();
       else if (fieldRef == AbstractDependencyRuleGenerator.ARRAY_CONTENTS)
-        this.field = new ArrayContentsKey((InstanceKey) source.getInstanceKey());
+        field = new ArrayContentsKey((InstanceKey) source.getInstanceKey());
       else
-        this.field = new InstanceFieldKey((InstanceKey) source.getInstanceKey(), fieldRef);
+        field = new InstanceFieldKey((InstanceKey) source.getInstanceKey(), fieldRef);
+      edge = intern(source, sink, field, fieldRef, fieldRef.hashCode());
     } else {
-      this.field = null;
-      this.fieldId = NONE;
+      edge = intern(source, sink, null, fieldRef, NONE);
     }
-    this.hash = makeHash();
-    if (DEBUG) doSanityChecks();
+    if (DEBUG) edge.doSanityChecks();
+    return edge;
   }
   
   private void doSanityChecks() {
@@ -79,40 +200,37 @@ public class PointsToEdge extends AbstractConstraint implements Comparable {
     }
   }
   
-  public PointsToEdge(PointerVariable source, PointerVariable sink, PointerKey field) {
-    this.source = source;
-    this.sink = sink;
-    this.field = field;
+  /**
+   * @return the edge source ->_field sink, or null if source or sink is null
+   */
+  public static PointsToEdge make(PointerVariable source, PointerVariable sink, PointerKey field) {
+    if (source == null || sink == null) return null;
+    PointsToEdge edge;
     if (field != null) {
+      IField fieldRef;
       if (field instanceof InstanceFieldKey) {
-        InstanceFieldKey ifk = (InstanceFieldKey) field;
-        this.fieldRef = ifk.getField();
-        this.fieldId = fieldRef.hashCode();
+        fieldRef = ((InstanceFieldKey) field).getField();
       } else if (field instanceof StaticFieldKey) {
-        StaticFieldKey sfk = (StaticFieldKey) field;
-        this.fieldRef = sfk.getField();
-        this.fieldId = fieldRef.hashCode();
+        fieldRef = ((StaticFieldKey) field).getField();
       } else if (field instanceof ArrayContentsKey) {
-        this.fieldRef = AbstractDependencyRuleGenerator.ARRAY_CONTENTS;
-        this.fieldId = fieldRef.hashCode();
+        fieldRef = AbstractDependencyRuleGenerator.ARRAY_CONTENTS;
       } else {
         Util.Unimp("unhandled field type " + field);
-        this.fieldRef = null;
-        this.fieldId = NONE;
+        fieldRef = null;
       }
+      edge = intern(source, sink, field, fieldRef, fieldRef == null ? NONE : fieldRef.hashCode());
     } else {
-      this.fieldRef = null;
-      this.fieldId = NONE;
+      edge = intern(source, sink, null, null, NONE);
     }
-    this.hash = makeHash();
-    if (DEBUG) doSanityChecks();
+    if (DEBUG) edge.doSanityChecks();
+    return edge;
   }
 
-  public static PointsToEdge make(PointerVariable source, PointerVariable sink, PointerKey field) {
-    if (source != null && sink != null) {
-      return new PointsToEdge(source, sink, field);
-    }
-    return null;
+  /**
+   * @return number of interned edges that are still live
+   */
+  public static int getNumInterned() {
+    return internTable.size();
   }
   
   public PointsToEdge substitute(Map<PointerVariable,PointerVariable> subMap) {
@@ -126,16 +244,15 @@ public class PointsToEdge extends AbstractConstraint implements Comparable {
     }
     
     if (newSrc != this.source || newSnk != this.sink) {
-      return new PointsToEdge(newSrc, newSnk, this.fieldRef);
+      return make(newSrc, newSnk, this.fieldRef);
     }
     // otherwise, no substitution
     return this;
   }
 
   public PointsToEdge deepCopy() {
-    PointerVariable newSource = source.deepCopy();
-    PointerVariable newSink = sink.deepCopy();
-    return new PointsToEdge(newSource, newSink, field);
+    // edges are interned and immutable; no need to copy
+    return this;
   }
 
   public boolean isSymbolic() {
@@ -276,14 +393,28 @@ public class PointsToEdge extends AbstractConstraint implements Comparable {
   @Override
   public int compareTo(Object other) {
     PointsToEdge otherEdge = (PointsToEdge) other;
+    if (this == otherEdge) return 0;
+    // concrete edges order by id, before all edges with a symbolic end
+    if (this.id >= 0 || otherEdge.id >= 0) {
+      if (this.id < 0) return 1;
+      if (otherEdge.id < 0) return -1;
+      return this.id < otherEdge.id ? -1 : (this.id == otherEdge.id ? 0 : 1);
+    }
+    // symbolic vars order by id but are equal by possible values; make sure
+    // edges that are equal compare as equal
+    if (this.equals(otherEdge)) return 0;
     int comparisonResult = this.source.compareTo(otherEdge.getSource());
     if (comparisonResult != 0)
       return comparisonResult;
     // src's eq
     if (this.field != null && otherEdge.field != null) {
-      comparisonResult = this.field.toString().compareTo(otherEdge.field.toString());
-      if (comparisonResult != 0)
-        return comparisonResult;
+      if (this.fieldId != otherEdge.fieldId) return this.fieldId < otherEdge.fieldId ? -1 : 1;
+      // distinct fields whose refs hash the same; rare
+      if (!this.field.equals(otherEdge.field)) {
+        comparisonResult = this.field.toString().compareTo(otherEdge.field.toString());
+        if (comparisonResult != 0)
+          return comparisonResult;
+      }
     } else if (this.field == null && otherEdge.field != null)
       return -1;
     else if (this.field != null)
@@ -293,28 +424,22 @@ public class PointsToEdge extends AbstractConstraint implements Comparable {
     return this.sink.compareTo(otherEdge.getSink());
   }
 
-  private int makeHash() {
-    final String hashStr = source.hashCode() + "_" + fieldId + "_" + sink.hashCode();
-    return hashStr.hashCode();
-  }
-
   @Override
   public int hashCode() {
     return hash;
-    // return uniqueId.hashCode();
   }
 
   @Override
   public boolean equals(Object other) {
-    if (other == null || !(other instanceof PointsToEdge)) return false;
+    // interning makes most equal edges identical, but not all: vars made in
+    // different nodes from the same key are equal, and so are symbolic vars
+    // with the same possible values
+    if (this == other) return true;
+    if (!(other instanceof PointsToEdge)) return false;
     PointsToEdge p = (PointsToEdge) other;
-    // return source.equals(p.getSource()) && Util.equal(this.field, p.field) &&
-    // sink.equals(p.getSink());
-    //Util.Print("lhs eq? " + source.equals(p.getSource()));
-    //Util.Print("fld id's eq? " + (this.fieldId == p.fieldId));
-    //Util.Print("rhs eq? " + sink.equals(p.getSink()));
-    
-    return source.equals(p.getSource()) && this.fieldId == p.fieldId && sink.equals(p.getSink());
+    // an edge with concrete ends only equals edges with its id
+    if (this.id >= 0 || p.id >= 0) return this.id == p.id;
+    return this.hash == p.hash && source.equals(p.getSource()) && this.fieldId == p.fieldId && sink.equals(p.getSink());
   }
 
   public PointerVariable getSource() {
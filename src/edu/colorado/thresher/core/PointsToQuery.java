@@ -72,25 +72,24 @@ public class PointsToQuery implements IQuery {
     // immutable (comes from toShow set of a dep rule), so we cannot use it as
     // our constraint set
     // this.constraints = new TreeSet<PointsToEdge>();
-    this.constraints = HashSetFactory.make();//new HashSet<PointsToEdge>();
-    constraints.addAll(startRule.getToShow());
+    this.constraints = new PersistentSet<PointsToEdge>(startRule.getToShow());
     this.depRuleGenerator = depRuleGenerator;
-    this.produced = HashSetFactory.make(); //new HashSet<PointsToEdge>();
+    this.produced = new PersistentSet<PointsToEdge>();
     PointsToEdge producedEdge = startRule.getShown();
     //if (producedEdge.getSource().isLocalVar())
     this.produced.add(producedEdge);
-    this.witnessList = new LinkedList<DependencyRule>();
+    this.witnessList = new PersistentList<DependencyRule>();
     this.witnessList.add(startRule);
   }
 
   public PointsToQuery(PointsToEdge startEdge, AbstractDependencyRuleGenerator depRuleGenerator) {
     // this.constraints = new TreeSet<PointsToEdge>();
-    this.constraints = HashSetFactory.make(); //new HashSet<PointsToEdge>();
+    this.constraints = new PersistentSet<PointsToEdge>();
     addConstraint(startEdge);
     this.depRuleGenerator = depRuleGenerator;
-    this.produced = HashSetFactory.make(); //new HashSet<PointsToEdge>();
+    this.produced = new PersistentSet<PointsToEdge>();
     this.produced.add(startEdge);
-    this.witnessList = new LinkedList<DependencyRule>();
+    this.witnessList = new PersistentList<DependencyRule>();
   }
 
   // constructor for deep copies
@@ -104,7 +103,8 @@ public class PointsToQuery implements IQuery {
 
   @Override
   public PointsToQuery deepCopy() {
-    return new PointsToQuery(Util.deepCopyPointsToEdgeSet(constraints), Util.deepCopySet(produced), Util.deepCopyList(witnessList),
+    // persistent copies share structure with ours; O(1)
+    return new PointsToQuery(PersistentSet.copyOf(constraints), PersistentSet.copyOf(produced), PersistentList.copyOf(witnessList),
         depRuleGenerator);
   }
 
@@ -164,7 +164,7 @@ public class PointsToQuery implements IQuery {
     if (rules == null) {
       return IQuery.FEASIBLE;
     }
-    PointerVariable matchingPhiVar = new ConcretePointerVariable(currentPath.getCurrentNode(), instr.getUse(phiIndex),
+    PointerVariable matchingPhiVar = ConcretePointerVariable.make(currentPath.getCurrentNode(), instr.getUse(phiIndex),
         this.depRuleGenerator.getHeapModel());
     Set<DependencyRule> matchingRules = new TreeSet<DependencyRule>();
     // prune rules that don't match our phiIndex
@@ -178,7 +178,7 @@ public class PointsToQuery implements IQuery {
     }
     // won't get a match if one of the phi terms is a null; check if we can refute based on this
     if (matchingRules.isEmpty()) {
-      PointerVariable phiLHS = new ConcretePointerVariable(currentPath.getCurrentNode(), instr.getDef(),
+      PointerVariable phiLHS = ConcretePointerVariable.make(currentPath.getCurrentNode(), instr.getDef(),
                                this.depRuleGenerator.getHeapModel());
       for (PointsToEdge edge : this.constraints) {
         // TODO: need to check rhs here? it shouldn't ever be null...
@@ -431,8 +431,8 @@ public class PointsToQuery implements IQuery {
     Map<PointerVariable,PointerVariable> subMap = HashMapFactory.make();
     for (int i = 0; i < instr.getNumberOfParameters(); i++) {
       int argUse = instr.getUse(i);
-      PointerVariable arg = new ConcretePointerVariable(callerMethod, argUse, this.depRuleGenerator.getHeapModel());
-      PointerVariable formal = new ConcretePointerVariable(calleeMethod, i + 1, this.depRuleGenerator.getHeapModel());
+      PointerVariable arg = ConcretePointerVariable.make(callerMethod, argUse, this.depRuleGenerator.getHeapModel());
+      PointerVariable formal = ConcretePointerVariable.make(calleeMethod, i + 1, this.depRuleGenerator.getHeapModel());
 
       // necessary for cases when we pass the same value as two parameters i.e.
       // Object o; foo(o, o).
@@ -486,7 +486,7 @@ public class PointsToQuery implements IQuery {
           subMap.put(argVar, merged);
           subMap.put(edge.getSink(), merged);
           
-          PointsToEdge newEdge = new PointsToEdge(arg, merged);
+          PointsToEdge newEdge = PointsToEdge.make(arg, merged);
           if (Options.DEBUG) Util.Debug("here, adding " + newEdge + " and removing " + edge);
           toAdd.add(newEdge);
           toRemove.add(edge);
@@ -524,7 +524,7 @@ public class PointsToQuery implements IQuery {
             return;// formalsAssigned;
           }
           add = false;
-          toAdd2.add(new PointsToEdge(lhs, newRHS));
+          toAdd2.add(PointsToEdge.make(lhs, newRHS));
           toRemove.add(edge);
           Util.Assert(!subMap.containsKey(edge.getSink()));
           Util.Assert(!subMap.containsKey(addMe.getSink()));
@@ -588,7 +588,7 @@ public class PointsToQuery implements IQuery {
                 toRemove.add(edge2);
                 Set<InstanceKey> intersectedValues = Util.deepCopySet(edge1Sink.getPossibleValues());
                 intersectedValues.retainAll(edge2Sink.getPossibleValues());
-                toAdd.add(new PointsToEdge(edge1.getSource(), SymbolicPointerVariable.makeSymbolicVar(intersectedValues)));
+                toAdd.add(PointsToEdge.make(edge1.getSource(), SymbolicPointerVariable.makeSymbolicVar(intersectedValues)));
               } else {
                 // intersection is empty; refuted
                 if (Options.DEBUG) Util.Debug("refuted by parameter binding! " + edge1 + " " + edge2);
@@ -648,7 +648,7 @@ public class PointsToQuery implements IQuery {
     List<PointsToEdge> toAdd = new LinkedList<PointsToEdge>(), toRemove = new LinkedList<PointsToEdge>();
     if (instr.hasDef()) {
       // bind return value of method, if appropriate
-      PointerVariable callerReturnValue = new ConcretePointerVariable(callerMethod, instr.getDef(),
+      PointerVariable callerReturnValue = ConcretePointerVariable.make(callerMethod, instr.getDef(),
           this.depRuleGenerator.getHeapModel());
       PointerVariable calleeReturnValue = Util.makeReturnValuePointer(calleeMethod, this.depRuleGenerator.getHeapModel());
       Util.Assert(calleeReturnValue.isLocalVar(), "make sure we're doing this right " + calleeReturnValue);
@@ -656,7 +656,7 @@ public class PointsToQuery implements IQuery {
       for (PointsToEdge edge : constraints) {
         if (edge.getSource().equals(callerReturnValue)) {
           Util.Assert(edge.getField() == null, "expected " + edge + " to have local lhs");
-          toAdd.add(new PointsToEdge(calleeReturnValue, edge.getSink()));
+          toAdd.add(PointsToEdge.make(calleeReturnValue, edge.getSink()));
           toRemove.add(edge);
         }
       }
@@ -673,13 +673,13 @@ public class PointsToQuery implements IQuery {
     Set<PointerVariable> formalsAssigned = HashSetFactory.make();
 
     for (int i = 0; i < instr.getNumberOfParameters(); i++) {
-      PointerVariable arg = new ConcretePointerVariable(callerMethod, instr.getUse(i), this.depRuleGenerator.getHeapModel());
-      PointerVariable formal = new ConcretePointerVariable(calleeMethod, i + 1, this.depRuleGenerator.getHeapModel());
+      PointerVariable arg = ConcretePointerVariable.make(callerMethod, instr.getUse(i), this.depRuleGenerator.getHeapModel());
+      PointerVariable formal = ConcretePointerVariable.make(calleeMethod, i + 1, this.depRuleGenerator.getHeapModel());
       
       for (PointsToEdge edge : constraints) {
         if (edge.getSource().equals(arg)) {
           //Util.Debug("binding " + formal + " to " + edge.getSink());
-          PointsToEdge newEdge = new PointsToEdge(formal, edge.getSink());
+          PointsToEdge newEdge = PointsToEdge.make(formal, edge.getSink());
        
           // begin ugliness; should rework this
           for (PointsToEdge prod : produced) {
@@ -723,7 +723,7 @@ public class PointsToQuery implements IQuery {
       for (PointsToEdge edge : produced) {
         if (edge.getSource().equals(arg)) {
           // Util.Debug("binding " + formal + " to " + edge.getSink());
-          PointsToEdge newEdge = new PointsToEdge(formal, edge.getSink());
+          PointsToEdge newEdge = PointsToEdge.make(formal, edge.getSink());
           toAdd.add(newEdge);
           formalsAssigned.add(formal);
         }
@@ -843,7 +843,7 @@ public class PointsToQuery implements IQuery {
             
             for (PointsToEdge edge : this.constraints) {
               if (edge.getSource().equals(toShowSrc)) {
-                toAdd = new PointsToEdge(rule.getShown().getSource(), edge.getSink());
+                toAdd = PointsToEdge.make(rule.getShown().getSource(), edge.getSink());
                 break;
               }
             }
@@ -906,7 +906,7 @@ public class PointsToQuery implements IQuery {
     MutableIntSet bound = new BitVectorIntSet();
     for (int i = 0; i < params.length; i++) {
       PointerKey key = hm.getPointerKeyForLocal(callee, params[i]);
-      PointerVariable param = new ConcretePointerVariable(callee, params[i], this.depRuleGenerator.getHeapModel());
+      PointerVariable param = ConcretePointerVariable.make(callee, params[i], this.depRuleGenerator.getHeapModel());
       Iterator<Object> succs = hg.getSuccNodes(key);
       while (succs.hasNext()) {
         Object succ = succs.next();
@@ -914,7 +914,7 @@ public class PointsToQuery implements IQuery {
         for (PointsToEdge edge : this.constraints) {
           if (edge.getSource().symbEq(paramPointedTo)) {
             Util.Assert(!edge.getSource().isSymbolic(), "unimp: need to bind symbolic var here");
-            PointsToEdge newEdge = new PointsToEdge(param, paramPointedTo); 
+            PointsToEdge newEdge = PointsToEdge.make(param, paramPointedTo); 
             this.produced.add(newEdge);
             this.constraints.add(newEdge);
             boolean added = bound.add(params[i]);
@@ -1005,7 +1005,7 @@ public class PointsToQuery implements IQuery {
           remove = true;
         }
         if (remove) {
-          PointsToEdge newEdge = new PointsToEdge(newSrc, newSnk, edge.getFieldRef());
+          PointsToEdge newEdge = PointsToEdge.make(newSrc, newSnk, edge.getFieldRef());
           //Util.Debug("now adding " + newEdge);
           toAdd.add(newEdge);
           toRemove.add(edge);
@@ -1056,7 +1056,7 @@ public class PointsToQuery implements IQuery {
             }
             Util.Debug("merged " + edge.getSink() + " and " + queryEdge.getSink() + " with common lhs " + edge.getSource());
             Util.Assert(newSnk != null, "problem merging " + edge + " and " + queryEdge);
-            edge = new PointsToEdge(queryEdge.getSource(), newSnk, queryEdge.getField());
+            edge = PointsToEdge.make(queryEdge.getSource(), newSnk, queryEdge.getField());
             toRemove.add(queryEdge);
           }
         }
@@ -1498,7 +1498,7 @@ public class PointsToQuery implements IQuery {
           else {
             Set<InstanceKey> possibleVals = toShowEdge.getSource().getPossibleValues();//Collections.singleton((InstanceKey) toShowEdge.getSource().getInstanceKey());
             // create a new shown edge difference instance of the LHS var
-            PointsToEdge newEdge = new PointsToEdge(new SymbolicPointerVariable(possibleVals), toShowEdge.getSink(), toShowEdge.getFieldRef());
+            PointsToEdge newEdge = PointsToEdge.make(new SymbolicPointerVariable(possibleVals), toShowEdge.getSink(), toShowEdge.getFieldRef());
             newToShow.add(newEdge);
           }
         }             
@@ -1914,7 +1914,7 @@ public class PointsToQuery implements IQuery {
   
   /*
   public boolean dropRelevantOrReplaceWithPointsToSet(SSAInvokeInstruction instr, CGNode caller, CGNode callee) {
-    ConcretePointerVariable retval = new ConcretePointerVariable(caller, instr.getDef(), this.depRuleGenerator.getHeapModel());
+    ConcretePointerVariable retval = ConcretePointerVariable.make(caller, instr.getDef(), this.depRuleGenerator.getHeapModel());
     Set<PointsToEdge> relevant = getConstraintsRelevantToCall(instr, caller, callee, false);
     if (relevant.size() == 1 && relevant.contains(retval)) {
       PointsToEdge retvalConstraint = relevant.iterator().next();
@@ -1930,7 +1930,7 @@ public class PointsToQuery implements IQuery {
   public Set<PointsToEdge> getConstraintsRelevantToCall(SSAInvokeInstruction instr, CGNode caller, CGNode callee, boolean earlyRet) {
     Set<PointsToEdge> toRemove = HashSetFactory.make();
     if (instr != null && instr.hasDef()) {
-      ConcretePointerVariable retval = new ConcretePointerVariable(caller, instr.getDef(), this.depRuleGenerator.getHeapModel());
+      ConcretePointerVariable retval = ConcretePointerVariable.make(caller, instr.getDef(), this.depRuleGenerator.getHeapModel());
       for (PointsToEdge edge : this.constraints) {
         if (edge.getSource().equals(retval)) {
           // relevant due to the return value
@@ -1983,7 +1983,7 @@ public class PointsToQuery implements IQuery {
   @Override
   public void dropReturnValueConstraintsForCall(SSAInvokeInstruction instr, CGNode caller) {
     if (instr.hasDef()) {
-      ConcretePointerVariable retval = new ConcretePointerVariable(caller, instr.getDef(), this.depRuleGenerator.getHeapModel());
+      ConcretePointerVariable retval = ConcretePointerVariable.make(caller, instr.getDef(), this.depRuleGenerator.getHeapModel());
       PointsToEdge toRemove = null;
       for (PointsToEdge edge : this.constraints) {
         if (edge.getSource().equals(retval)) {
@@ -2237,24 +2237,24 @@ public class PointsToQuery implements IQuery {
           SymbolicPointerVariable snk = (SymbolicPointerVariable) edge.getSink();
           for (InstanceKey srcKey : src.getPossibleValues()) {
             for (InstanceKey snkKey : snk.getPossibleValues()) {
-              ConcretePointerVariable srcVar = new ConcretePointerVariable(srcKey, Util.getNodeForInstanceKey(srcKey));
-              ConcretePointerVariable snkVar = new ConcretePointerVariable(snkKey, Util.getNodeForInstanceKey(snkKey));
-              PointsToEdge concreteEdge = new PointsToEdge(srcVar, snkVar, edge.getFieldRef());
+              ConcretePointerVariable srcVar = ConcretePointerVariable.make(srcKey, Util.getNodeForInstanceKey(srcKey));
+              ConcretePointerVariable snkVar = ConcretePointerVariable.make(snkKey, Util.getNodeForInstanceKey(snkKey));
+              PointsToEdge concreteEdge = PointsToEdge.make(srcVar, snkVar, edge.getFieldRef());
               producingRules.addAll(Util.getProducersForEdge(concreteEdge, depRuleGenerator));
             }
           }
         } else if (edge.getSource().isSymbolic()) {
           SymbolicPointerVariable symb = (SymbolicPointerVariable) edge.getSource();
           for (InstanceKey key : symb.getPossibleValues()) {
-            ConcretePointerVariable conc = new ConcretePointerVariable(key, Util.getNodeForInstanceKey(key));
-            PointsToEdge concreteEdge = new PointsToEdge(conc, edge.getSink(), edge.getFieldRef());
+            ConcretePointerVariable conc = ConcretePointerVariable.make(key, Util.getNodeForInstanceKey(key));
+            PointsToEdge concreteEdge = PointsToEdge.make(conc, edge.getSink(), edge.getFieldRef());
             producingRules.addAll(Util.getProducersForEdge(concreteEdge, depRuleGenerator));
           }
         } else if (edge.getSink().isSymbolic()) {
           SymbolicPointerVariable symb = (SymbolicPointerVariable) edge.getSink();
           for (InstanceKey key : symb.getPossibleValues()) {
-            ConcretePointerVariable conc = new ConcretePointerVariable(key, Util.getNodeForInstanceKey(key));
-            PointsToEdge concreteEdge = new PointsToEdge(edge.getSource(), conc, edge.getFieldRef());
+            ConcretePointerVariable conc = ConcretePointerVariable.make(key, Util.getNodeForInstanceKey(key));
+            PointsToEdge concreteEdge = PointsToEdge.make(edge.getSource(), conc, edge.getFieldRef());
             producingRules.addAll(Util.getProducersForEdge(concreteEdge, depRuleGenerator));
           }
         } else {
@@ -2277,7 +2277,7 @@ public class PointsToQuery implements IQuery {
   @Override
   public boolean initializeInstanceFieldsToDefaultValues(CGNode constructor) {
     Collection<IField> needToDeclare = constructor.getMethod().getDeclaringClass().getDeclaredInstanceFields();
-    PointerVariable thisVar = new ConcretePointerVariable(constructor, 1, depRuleGenerator.hm);
+    PointerVariable thisVar = ConcretePointerVariable.make(constructor, 1, depRuleGenerator.hm);
     PointerVariable pt = getPointedTo(thisVar);
     if (pt != null) {
       for (PointsToEdge edge : this.constraints) {
@@ -2368,8 +2368,8 @@ public class PointsToQuery implements IQuery {
       InstanceKey receiverKey = (InstanceKey) receiver;
       PointerVariable site = Util.makePointerVariable(receiverKey);
       final int RECEIVER_VALUE_NUM = 1; // receiver is always v1
-      PointerVariable receiverLocal = new ConcretePointerVariable(node, RECEIVER_VALUE_NUM, this.depRuleGenerator.getHeapModel());
-      PointsToEdge receiverConstraint = new PointsToEdge(receiverLocal, site);
+      PointerVariable receiverLocal = ConcretePointerVariable.make(node, RECEIVER_VALUE_NUM, this.depRuleGenerator.getHeapModel());
+      PointsToEdge receiverConstraint = PointsToEdge.make(receiverLocal, site);
       if (Options.DEBUG) Util.Debug("adding receiver constraint " + receiverConstraint);
       // create trivial dependency rule
       DependencyRule rule = new DependencyRule(receiverConstraint, null, new TreeSet<PointsToEdge>(), node, node.getIR()
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -26,7 +25,6 @@ import com.ibm.wala.util.graph.traverse.BFSIterator;
 import com.ibm.wala.util.graph.traverse.BFSPathFinder;
 import com.ibm.wala.util.graph.traverse.DFS;
 import com.ibm.wala.util.intset.BasicNaturalRelation;
-import com.ibm.wala.util.intset.OrdinalSet;
 
 /**
  * symbolic executor that prunes the call graph to *only* the call graph
@@ -38,18 +36,24 @@ import com.ibm.wala.util.intset.OrdinalSet;
 public class PruningSymbolicExecutor extends OptimizedPathSensitiveSymbolicExecutor {
 
   // private final Map<Constraint,Set<CGNode>> reachableCache;
-  // transitive closure of the "calls" relation
-  final Map<CGNode, OrdinalSet<CGNode>> callGraphTransitiveClosure;
+  // transitive closure of the "calls" relation; shared by all executors for callGraph
+  final CallGraphClosure callGraphTransitiveClosure;
   private final Logger logger;
 
   public PruningSymbolicExecutor(CallGraph callGraph, Logger logger) {
     super(callGraph, logger);
     this.logger = logger;
-    callGraphTransitiveClosure = WALACallGraphUtil.getCallGraphTransitiveClosure(callGraph);
+    callGraphTransitiveClosure = CallGraphClosure.get(callGraph);
+  }
+
+  @Override
+  boolean useCalleeSummaries() {
+    // we jump between nodes when leaving a callee
+    return false;
   }
 
   public boolean isCalledByClassInit(CGNode node) {
-    return callGraphTransitiveClosure.get(WALACFGUtil.getFakeWorldClinitNode(callGraph)).contains(node);
+    return callGraphTransitiveClosure.reaches(WALACFGUtil.getFakeWorldClinitNode(callGraph), node);
   }
   
   /*
@@ -120,8 +124,7 @@ public class PruningSymbolicExecutor extends OptimizedPathSensitiveSymbolicExecu
    * @param src - node we are starting from
    */
   boolean isReachableFrom(CGNode snk, CGNode src) {
-    OrdinalSet<CGNode> reachable = callGraphTransitiveClosure.get(src);
-    return reachable.contains(snk);
+    return callGraphTransitiveClosure.reaches(src, snk);
   }
 
   /**
@@ -137,7 +140,7 @@ public class PruningSymbolicExecutor extends OptimizedPathSensitiveSymbolicExecu
     } else {
       Set<CGNode> reachable = HashSetFactory.make();
       for (CGNode callee : WALACFGUtil.getCallTargetsInBlocks(reachableBlks, srcNode, callGraph)) {
-        reachable.addAll(OrdinalSet.toCollection(callGraphTransitiveClosure.get(callee)));
+        reachable.addAll(callGraphTransitiveClosure.getReachable(callee));
       }
       if (reachable.contains(snkNode)) return true;
       reachable = getReachableStartingBackwardsFrom(Collections.singleton(srcNode), 
@@ -169,7 +172,7 @@ public class PruningSymbolicExecutor extends OptimizedPathSensitiveSymbolicExecu
     Set<CGNode> reachable = HashSetFactory.make();
 
     for (CGNode src : srcs) {
-      reachable.addAll(OrdinalSet.toCollection(callGraphTransitiveClosure.get(src)));
+      reachable.addAll(callGraphTransitiveClosure.getReachable(src));
     }
     if (reachable.containsAll(snks)) return reachable; // early return if we cover everything
     reachable.add(callGraph.getFakeRootNode()); // don't want to model control
@@ -201,9 +204,7 @@ public class PruningSymbolicExecutor extends OptimizedPathSensitiveSymbolicExecu
           // Manu's optimization; do FI check (using callgraph) on nodes reachable from caller first.
           // if no nodes in toPrune are reachable according to the callgraph, we
           // needn't do the expensive intraprocedural search
-          Collection<CGNode> reachableFromCaller = OrdinalSet.toCollection(callGraphTransitiveClosure.get(caller));
-
-          if (Util.intersectionNonEmpty(reachableFromCaller, snks)) {
+          if (callGraphTransitiveClosure.reachesAny(caller, snks)) {
             partiallyReachable.add(caller);
             Set<ISSABasicBlock> possibleStartBlocks = HashSetFactory.make();
             IR ir = caller.getIR();
@@ -226,13 +227,13 @@ public class PruningSymbolicExecutor extends OptimizedPathSensitiveSymbolicExecu
             Set<CGNode> callees = WALACFGUtil.getCallTargetsInBlocks(localReachable, caller, callGraph);
             for (CGNode callee : callees) {
               if (reachable.add(callee)) {
-                reachable.addAll(OrdinalSet.toCollection(callGraphTransitiveClosure.get(callee)));
+                reachable.addAll(callGraphTransitiveClosure.getReachable(callee));
               }
             }
             if (reachable.containsAll(snks)) return reachable; // early return if we cover everything
           } else {
              if (includeCallers) reachable.add(caller);
-            reachable.addAll(reachableFromCaller);
+            reachable.addAll(callGraphTransitiveClosure.getReachable(caller));
           }
         }
       } // end for (;;)
@@ -244,7 +245,37 @@ public class PruningSymbolicExecutor extends OptimizedPathSensitiveSymbolicExecu
     return reachable;
   }
   
-  static boolean alreadyJumped = false;
+  static volatile boolean alreadyJumped = false;
+
+  // set on threads that explore edges ahead of the refutation loop (see
+  // ParallelEdgeVerdicts). they must not use up the jump, since the sequential
+  // run may jump on an earlier query; a query that would jump just notes it
+  private static final ThreadLocal<boolean[]> wouldJump = new ThreadLocal<boolean[]>();
+
+  static void startSpeculating() {
+    wouldJump.set(new boolean[1]);
+  }
+
+  /**
+   * @return true if a query on this thread would have jumped since
+   *         startSpeculating()
+   */
+  static boolean stopSpeculating() {
+    boolean[] jumped = wouldJump.get();
+    wouldJump.remove();
+    return jumped[0];
+  }
+
+  // called when a query wants to jump; only the refutation loop's thread may
+  private static boolean claimJump() {
+    boolean[] jumped = wouldJump.get();
+    if (jumped != null) {
+      jumped[0] = true;
+      return false;
+    }
+    alreadyJumped = true;
+    return true;
+  }
   
   public boolean computeRelevanceGraph(IPathInfo path) { 
     // TODO: tmp hack! prepare for jump
@@ -253,13 +284,12 @@ public class PruningSymbolicExecutor extends OptimizedPathSensitiveSymbolicExecu
     if (!alreadyJumped && path.query instanceof CombinedPathAndPointsToQuery) {
       CombinedPathAndPointsToQuery qry = (CombinedPathAndPointsToQuery) path.query;
       //if (qry.constraints.size() > 1) {
-      if (qry.constraints.size() > 0) {
+      if (qry.constraints.size() > 0 && claimJump()) {
         Util.Debug("jumping on path " + path);
         // TODO: say also that the constraint does not depend on a parameter
         path.removeAllLocalConstraintsFromQuery();
         Util.Debug("after removing locals " + path);
         jumping = true;
-        alreadyJumped = true;
       }
     } 
     // end tmp hack
@@ -399,7 +429,7 @@ public class PruningSymbolicExecutor extends OptimizedPathSensitiveSymbolicExecu
             // add down set for this call
             for (CGNode targetNode : this.callGraph.getNodes(site.getDeclaredTarget())) {
               if (!set.contains(targetNode)) {
-                set.addAll(OrdinalSet.toCollection(callGraphTransitiveClosure.get(targetNode)));
+                set.addAll(callGraphTransitiveClosure.getReachable(targetNode));
               }
             }
             break;
@@ -466,20 +496,19 @@ public class PruningSymbolicExecutor extends OptimizedPathSensitiveSymbolicExecu
     return jumping;
   }
   
-  public static boolean computeRelGraph(IPathInfo opath, CallGraph callGraph, Map<CGNode, OrdinalSet<CGNode>> callGraphTransitiveClosure) { 
+  public static boolean computeRelGraph(IPathInfo opath, CallGraph callGraph, CallGraphClosure callGraphTransitiveClosure) { 
 	    // TODO: tmp hack! prepare for jump
 	    IPathInfo path = opath.deepCopy();
 	    boolean jumping = false;
 	    if (!alreadyJumped && path.query instanceof CombinedPathAndPointsToQuery) {
 	      CombinedPathAndPointsToQuery qry = (CombinedPathAndPointsToQuery) path.query;
 	      //if (qry.constraints.size() > 1) {
-	      if (qry.constraints.size() > 0) {
+	      if (qry.constraints.size() > 0 && claimJump()) {
 	        Util.Print("jumping on path " + path);
 	        // TODO: say also that the constraint does not depend on a parameter
 	        path.removeAllLocalConstraintsFromQuery();
 	        Util.Print("after removing locals " + path);
 	        jumping = true;
-	        alreadyJumped = true;
 	      }
 	    } 
 	    // end tmp hack
@@ -619,7 +648,7 @@ public class PruningSymbolicExecutor extends OptimizedPathSensitiveSymbolicExecu
 	            // add down set for this call
 	            for (CGNode targetNode : callGraph.getNodes(site.getDeclaredTarget())) {
 	              if (!set.contains(targetNode)) {
-	                set.addAll(OrdinalSet.toCollection(callGraphTransitiveClosure.get(targetNode)));
+	                set.addAll(callGraphTransitiveClosure.getReachable(targetNode));
 	              }
 	            }
 	            break;
@@ -691,7 +720,7 @@ public class PruningSymbolicExecutor extends OptimizedPathSensitiveSymbolicExecu
     
     // TMP SANITY CHECK
     CGNode startNode = path.getCurrentNode();
-    LinkedList<IStackFrame> callStack = path.getCallStack();
+    PersistentStack<IStackFrame> callStack = path.getCallStack();
     if (!callStack.isEmpty()) {
       startNode = callStack.getLast().getCGNode();
     }
@@ -712,7 +741,7 @@ public class PruningSymbolicExecutor extends OptimizedPathSensitiveSymbolicExecu
       CGNode next = iter.next();
       blockCount += next.getIR().getControlFlowGraph().getNumberOfNodes();
       upSet.add(next);
-      downSet.addAll(OrdinalSet.toCollection(callGraphTransitiveClosure.get(next)));
+      downSet.addAll(callGraphTransitiveClosure.getReachable(next));
       Util.Debug("node is " + next);
     }
     Util.Debug(upSet.size() + " nodes in UP set.");
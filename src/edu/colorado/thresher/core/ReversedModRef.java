@@ -0,0 +1,156 @@
+package edu.colorado.thresher.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.util.intset.IntIterator;
+import com.ibm.wala.util.intset.IntSet;
+import com.ibm.wala.util.intset.MutableMapping;
+import com.ibm.wala.util.intset.MutableSparseIntSet;
+import com.ibm.wala.util.intset.OrdinalSet;
+import com.ibm.wala.util.intset.OrdinalSetMapping;
+
+/**
+ * reversed mod/ref: map from pointer keys to the call graph nodes that may
+ * modify them. keys are numbered by the mapping the mod/ref sets are already
+ * over, and the modifiers of a key are an IntSet of node numbers, computed the
+ * first time someone asks about that key; precompute() fills in every key at
+ * once using several threads
+ *
+ * thread-safe
+ */
+public class ReversedModRef {
+
+  private static final IntSet EMPTY = MutableSparseIntSet.makeEmpty();
+
+  private final CallGraph cg;
+  private final OrdinalSetMapping<PointerKey> keyMapping;
+  // node number -> numbers of the keys the node may modify, or null
+  private final IntSet[] modsByNode;
+  // key number -> numbers of the nodes that may modify the key, or null if we haven't computed it yet
+  private final AtomicReferenceArray<IntSet> modifiersByKey;
+
+  public ReversedModRef(CallGraph cg, Map<CGNode, OrdinalSet<PointerKey>> modRef) {
+    this.cg = cg;
+    this.modsByNode = new IntSet[cg.getMaxNumber() + 1];
+    OrdinalSetMapping<PointerKey> shared = getSharedMapping(modRef);
+    if (shared != null) {
+      for (Map.Entry<CGNode, OrdinalSet<PointerKey>> entry : modRef.entrySet()) {
+        modsByNode[cg.getNumber(entry.getKey())] = entry.getValue().getBackingSet();
+      }
+      this.keyMapping = shared;
+    } else {
+      // the sets don't agree on a numbering; make our own
+      MutableMapping<PointerKey> mapping = MutableMapping.make();
+      for (Map.Entry<CGNode, OrdinalSet<PointerKey>> entry : modRef.entrySet()) {
+        MutableSparseIntSet mods = MutableSparseIntSet.makeEmpty();
+        for (PointerKey key : entry.getValue()) {
+          mods.add(mapping.add(key));
+        }
+        modsByNode[cg.getNumber(entry.getKey())] = mods;
+      }
+      this.keyMapping = mapping;
+    }
+    this.modifiersByKey = new AtomicReferenceArray<IntSet>(keyMapping.getMaximumIndex() + 1);
+  }
+
+  // @return the mapping all the sets in @param modRef are over, or null if there isn't one
+  private static OrdinalSetMapping<PointerKey> getSharedMapping(Map<CGNode, OrdinalSet<PointerKey>> modRef) {
+    OrdinalSetMapping<PointerKey> shared = null;
+    for (OrdinalSet<PointerKey> mods : modRef.values()) {
+      if (mods.getBackingSet() == null) continue; // empty
+      OrdinalSetMapping<PointerKey> mapping = mods.getMapping();
+      if (mapping == null || (shared != null && mapping != shared)) return null;
+      shared = mapping;
+    }
+    return shared == null ? MutableMapping.<PointerKey> make() : shared;
+  }
+
+  /**
+   * @return nodes that may modify @param key; empty if there are none
+   */
+  public Set<CGNode> getModifiers(PointerKey key) {
+    int keyNum = keyMapping.getMappedIndex(key);
+    if (keyNum < 0 || keyNum >= modifiersByKey.length()) return Collections.emptySet();
+    IntSet modifiers = modifiersByKey.get(keyNum);
+    if (modifiers == null) {
+      modifiers = computeModifiers(keyNum);
+      // someone else may have beaten us to it; either answer is the same
+      if (!modifiersByKey.compareAndSet(keyNum, null, modifiers)) modifiers = modifiersByKey.get(keyNum);
+    }
+    return modifiers.isEmpty() ? Collections.<CGNode> emptySet() : new CGNodeSet(cg, modifiers);
+  }
+
+  private IntSet computeModifiers(int keyNum) {
+    MutableSparseIntSet modifiers = null;
+    for (int nodeNum = 0; nodeNum < modsByNode.length; nodeNum++) {
+      IntSet mods = modsByNode[nodeNum];
+      if (mods == null || !mods.contains(keyNum)) continue;
+      if (modifiers == null) modifiers = MutableSparseIntSet.makeEmpty();
+      modifiers.add(nodeNum);
+    }
+    return modifiers == null ? EMPTY : modifiers;
+  }
+
+  /**
+   * compute the modifiers of every key up front, splitting the nodes between
+   * @param numThreads threads
+   */
+  public void precompute(int numThreads) {
+    final int numKeys = modifiersByKey.length(), chunk = (modsByNode.length + numThreads - 1) / numThreads;
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    List<Future<MutableSparseIntSet[]>> parts = new ArrayList<Future<MutableSparseIntSet[]>>(numThreads);
+    for (int i = 0; i < numThreads; i++) {
+      final int start = i * chunk, end = Math.min(start + chunk, modsByNode.length);
+      parts.add(pool.submit(new Callable<MutableSparseIntSet[]>() {
+        @Override
+        public MutableSparseIntSet[] call() {
+          // invert our share of the nodes
+          MutableSparseIntSet[] part = new MutableSparseIntSet[numKeys];
+          for (int nodeNum = start; nodeNum < end; nodeNum++) {
+            IntSet mods = modsByNode[nodeNum];
+            if (mods == null) continue;
+            for (IntIterator iter = mods.intIterator(); iter.hasNext();) {
+              int keyNum = iter.next();
+              if (part[keyNum] == null) part[keyNum] = MutableSparseIntSet.makeEmpty();
+              part[keyNum].add(nodeNum);
+            }
+          }
+          return part;
+        }
+      }));
+    }
+    pool.shutdown();
+
+    MutableSparseIntSet[] modifiers = new MutableSparseIntSet[numKeys];
+    try {
+      for (Future<MutableSparseIntSet[]> future : parts) {
+        MutableSparseIntSet[] part = future.get();
+        for (int keyNum = 0; keyNum < numKeys; keyNum++) {
+          if (part[keyNum] == null) continue;
+          if (modifiers[keyNum] == null) modifiers[keyNum] = part[keyNum];
+          else modifiers[keyNum].addAll(part[keyNum]);
+        }
+      }
+    } catch (InterruptedException e) {
+      Util.Assert(false, "interrupted while inverting mod/ref " + e);
+    } catch (ExecutionException e) {
+      Util.Assert(false, "worker crashed while inverting mod/ref: " + e.getCause());
+    }
+    for (int keyNum = 0; keyNum < numKeys; keyNum++) {
+      modifiersByKey.compareAndSet(keyNum, null, modifiers[keyNum] == null ? EMPTY : modifiers[keyNum]);
+    }
+  }
+}
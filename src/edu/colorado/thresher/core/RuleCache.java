@@ -0,0 +1,568 @@
+package edu.colorado.thresher.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.ibm.wala.classLoader.IField;
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ipa.callgraph.propagation.AllocationSite;
+import com.ibm.wala.ipa.callgraph.propagation.AllocationSiteInNode;
+import com.ibm.wala.ipa.callgraph.propagation.ArrayContentsKey;
+import com.ibm.wala.ipa.callgraph.propagation.ConcreteTypeKey;
+import com.ibm.wala.ipa.callgraph.propagation.ConstantKey;
+import com.ibm.wala.ipa.callgraph.propagation.ExceptionReturnValueKey;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceFieldKey;
+import com.ibm.wala.ipa.callgraph.propagation.InstanceKey;
+import com.ibm.wala.ipa.callgraph.propagation.LocalPointerKey;
+import com.ibm.wala.ipa.callgraph.propagation.PointerAnalysis;
+import com.ibm.wala.ipa.callgraph.propagation.PointerKey;
+import com.ibm.wala.ipa.callgraph.propagation.ReturnValueKey;
+import com.ibm.wala.ipa.callgraph.propagation.SmushedAllocationSiteInNode;
+import com.ibm.wala.ipa.callgraph.propagation.StaticFieldKey;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.SSACFG;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.util.collections.HashMapFactory;
+import com.ibm.wala.util.collections.HashSetFactory;
+
+/**
+ * on-disk cache of the abstract dependency rules generated for each
+ * instruction, so that a warm run on unchanged code doesn't regenerate them.
+ * cache files live in Options.CACHE_DIR and are named by the hash that names
+ * the mod/ref cache (see ModRefCache.makeKey()), which covers everything the
+ * points-to analysis depends on
+ *
+ * rules are stored per call graph node, under the node's printed form, a hash
+ * of its IR, and a fingerprint of the heap graph edges that had been refuted
+ * when the rules were generated (see HeapGraphWrapper.getIgnoredFingerprint()).
+ * the file is read on the first lookup and an instruction's rules are decoded
+ * on the first lookup of that instruction. WALA keys, fields, and nodes are
+ * stored by their printed form, as in ModRefCache. rules that mention anything
+ * we don't know how to store, or that don't resolve against this run's call
+ * graph and pointer analysis, are just generated again
+ */
+public class RuleCache {
+
+  private static final int MAGIC = 0x74687272; // "thrr"
+  private static final int VERSION = 1;
+  // kinds of pointer variables
+  private static final byte SYMBOLIC = 0, FROM_KEY = 1, EXPLICIT = 2;
+  // kinds of keys
+  private static final byte LOCAL = 0, RETURN_VALUE = 1, EXCEPTION_RETURN_VALUE = 2, STATIC_FIELD = 3,
+      INSTANCE_FIELD = 4, ARRAY_CONTENTS = 5, INSTANCE = 6, CONSTANT = 7;
+  // kinds of edge fields
+  private static final byte NO_FIELD = 0, FIELD_REF = 1, ARRAY_REF = 2, FIELD_KEY = 3;
+
+  // thrown when a rule can't be stored or a stored rule can't be resolved
+  private static final class CantCache extends Exception {
+    CantCache(String msg) {
+      super(msg);
+    }
+  }
+
+  private final File cacheFile;
+  private final CallGraph cg;
+  private final PointerAnalysis pa;
+
+  // node entry (see makeEntryKey()) -> instruction number -> encoded rules
+  // from the last run. read on the first lookup
+  private Map<String, Map<Integer, byte[]>> oldEntries = null;
+  // encoded rules looked up or generated in this run, to store for the next one
+  private final ConcurrentHashMap<String, Map<Integer, byte[]>> newEntries = new ConcurrentHashMap<String, Map<Integer, byte[]>>();
+  private final Map<CGNode, Long> nodeHashes = new ConcurrentHashMap<CGNode, Long>();
+
+  // this run's nodes, instance keys, and fields by printed form. built on the
+  // first decode
+  private Map<String, CGNode> nodes = null;
+  private Map<String, InstanceKey> instanceKeys;
+  private Map<String, IField> fields;
+  private Set<String> ambiguous;
+
+  private int hits = 0, misses = 0, unstorable = 0;
+
+  private RuleCache(File cacheFile, CallGraph cg, PointerAnalysis pa) {
+    this.cacheFile = cacheFile;
+    this.cg = cg;
+    this.pa = pa;
+  }
+
+  /**
+   * @return cache of rules for the analysis hashed as @param analysisKey, or
+   *         null if there's no cache directory or rules aren't cached per
+   *         instruction
+   */
+  public static RuleCache make(String analysisKey, CallGraph cg, PointerAnalysis pa) {
+    if (analysisKey == null || !Options.CACHE_INSTR_RULES || !Options.ABSTRACT_DEPENDENCY_RULES) return null;
+    return new RuleCache(new File(Options.CACHE_DIR, analysisKey + ".rules.gz"), cg, pa);
+  }
+
+  /**
+   * @return the rules stored for @param instr in @param node when the
+   *         refuted edges had fingerprint @param ignoredFingerprint, or null
+   *         if there are none we can use
+   */
+  public DependencyRule[] lookup(CGNode node, SSAInstruction instr, long ignoredFingerprint) {
+    String entryKey = makeEntryKey(node, ignoredFingerprint);
+    int instrNum = RuleIndex.getInstrNum(instr);
+    Map<Integer, byte[]> entry = getOldEntries().get(entryKey);
+    byte[] encoded = entry == null ? null : entry.get(instrNum);
+    if (encoded == null) {
+      countMiss();
+      return null;
+    }
+    DependencyRule[] rules;
+    try {
+      rules = decode(encoded, node, instr);
+    } catch (CantCache e) {
+      if (Options.DEBUG) Util.Debug("can't use stored rules for " + instr + ": " + e.getMessage());
+      countMiss();
+      return null;
+    } catch (IOException e) {
+      Util.Print("Corrupt rule cache entry for " + node + ": " + e);
+      countMiss();
+      return null;
+    }
+    keep(entryKey, instrNum, encoded);
+    synchronized (this) {
+      hits++;
+    }
+    return rules;
+  }
+
+  /**
+   * remember that @param instr in @param node generates @param rules when the
+   * refuted edges have fingerprint @param ignoredFingerprint
+   */
+  public void record(CGNode node, SSAInstruction instr, long ignoredFingerprint, DependencyRule[] rules) {
+    try {
+      keep(makeEntryKey(node, ignoredFingerprint), RuleIndex.getInstrNum(instr), encode(rules, node, instr));
+    } catch (CantCache e) {
+      if (Options.DEBUG) Util.Debug("not storing rules for " + instr + ": " + e.getMessage());
+      synchronized (this) {
+        unstorable++;
+      }
+    }
+  }
+
+  /**
+   * write out the rules looked up or recorded in this run
+   */
+  public void save() {
+    try {
+      store();
+      synchronized (this) {
+        Util.Print("Wrote rules for " + newEntries.size() + " node entries to " + cacheFile + "; " + hits + " hits, "
+            + misses + " misses, " + unstorable + " instructions not storable");
+      }
+    } catch (IOException e) {
+      Util.Print("Couldn't write rule cache: " + e);
+    }
+  }
+
+  private synchronized void countMiss() {
+    misses++;
+  }
+
+  private void keep(String entryKey, int instrNum, byte[] encoded) {
+    Map<Integer, byte[]> entry = newEntries.get(entryKey);
+    if (entry == null) {
+      Map<Integer, byte[]> fresh = new ConcurrentHashMap<Integer, byte[]>();
+      entry = newEntries.putIfAbsent(entryKey, fresh);
+      if (entry == null) entry = fresh;
+    }
+    entry.put(instrNum, encoded);
+  }
+
+  private String makeEntryKey(CGNode node, long ignoredFingerprint) {
+    Long hash = nodeHashes.get(node);
+    if (hash == null) {
+      hash = VerdictCache.hashNode(node);
+      nodeHashes.put(node, hash);
+    }
+    return node + " " + hash + " " + ignoredFingerprint;
+  }
+
+  private synchronized Map<String, Map<Integer, byte[]>> getOldEntries() {
+    if (oldEntries == null) {
+      oldEntries = HashMapFactory.make();
+      if (cacheFile.exists()) {
+        try {
+          load();
+          Util.Print("Loaded rules for " + oldEntries.size() + " node entries from " + cacheFile);
+        } catch (IOException e) {
+          Util.Print("Couldn't read rule cache: " + e);
+          oldEntries.clear();
+        }
+      }
+    }
+    return oldEntries;
+  }
+
+  private synchronized void indexNames() {
+    if (nodes != null) return;
+    ambiguous = HashSetFactory.make();
+    Map<String, CGNode> nodes = HashMapFactory.make();
+    for (CGNode node : cg) {
+      if (nodes.put(node.toString(), node) != null) ambiguous.add(node.toString());
+    }
+    instanceKeys = ModRefCache.indexInstanceKeys(pa, ambiguous);
+    fields = ModRefCache.indexFields(cg.getClassHierarchy(), ambiguous);
+    this.nodes = nodes;
+  }
+
+  private void load() throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(cacheFile))));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) return;
+      int numEntries = in.readInt();
+      for (int i = 0; i < numEntries; i++) {
+        String entryKey = in.readUTF();
+        int numInstrs = in.readInt();
+        Map<Integer, byte[]> entry = HashMapFactory.make();
+        for (int j = 0; j < numInstrs; j++) {
+          int instrNum = in.readInt();
+          byte[] encoded = new byte[in.readInt()];
+          in.readFully(encoded);
+          entry.put(instrNum, encoded);
+        }
+        oldEntries.put(entryKey, entry);
+      }
+    } finally {
+      in.close();
+    }
+  }
+
+  private void store() throws IOException {
+    File dir = cacheFile.getParentFile();
+    if (!dir.exists() && !dir.mkdirs()) throw new IOException("couldn't create " + dir);
+    // write to a temp file and rename so readers never see a partial cache
+    File tmp = File.createTempFile("rules", ".tmp", dir);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      // copy, since workers may still be adding entries
+      List<Map.Entry<String, Map<Integer, byte[]>>> entries = new ArrayList<Map.Entry<String, Map<Integer, byte[]>>>(
+          newEntries.entrySet());
+      out.writeInt(entries.size());
+      for (Map.Entry<String, Map<Integer, byte[]>> entry : entries) {
+        out.writeUTF(entry.getKey());
+        Map<Integer, byte[]> instrs = HashMapFactory.make(entry.getValue());
+        out.writeInt(instrs.size());
+        for (Map.Entry<Integer, byte[]> instr : instrs.entrySet()) {
+          out.writeInt(instr.getKey());
+          out.writeInt(instr.getValue().length);
+          out.write(instr.getValue());
+        }
+      }
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(cacheFile)) {
+      tmp.delete();
+      throw new IOException("couldn't rename " + tmp + " to " + cacheFile);
+    }
+  }
+
+  // encoding. every rule for an instruction is made in the instruction's node,
+  // and its statement (if any) is the instruction itself, so neither is stored
+
+  private static byte[] encode(DependencyRule[] rules, CGNode node, SSAInstruction instr) throws CantCache {
+    try {
+      // symbolic vars may be shared between rules, so they go in a table that precedes the rules
+      Map<SymbolicPointerVariable, Integer> symbNums = new IdentityHashMap<SymbolicPointerVariable, Integer>();
+      ByteArrayOutputStream ruleBytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(ruleBytes);
+      out.writeInt(rules.length);
+      for (DependencyRule rule : rules) {
+        if (rule.getNode() != node) throw new CantCache("rule made in another node");
+        writeEdge(out, rule.getShown(), symbNums);
+        PointerStatement stmt = rule.getStmt();
+        out.writeBoolean(stmt != null);
+        if (stmt != null) {
+          if (stmt.getInstr() != instr) throw new CantCache("statement for another instruction");
+          out.writeByte(stmt.getType().ordinal());
+          writeVar(out, stmt.getLhs(), symbNums);
+          writeVar(out, stmt.getRhs(), symbNums);
+          writeString(out, stmt.getFieldName());
+          out.writeInt(stmt.getLineId());
+          out.writeInt(stmt.getLineNum());
+        }
+        out.writeInt(rule.getToShow().size());
+        for (PointsToEdge edge : rule.getToShow()) {
+          writeEdge(out, edge, symbNums);
+        }
+        out.writeInt(rule.getBlock() == null ? -1 : rule.getBlock().getNumber());
+      }
+      out.flush();
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      out = new DataOutputStream(bytes);
+      SymbolicPointerVariable[] symbs = new SymbolicPointerVariable[symbNums.size()];
+      for (Map.Entry<SymbolicPointerVariable, Integer> entry : symbNums.entrySet()) {
+        symbs[entry.getValue()] = entry.getKey();
+      }
+      out.writeInt(symbs.length);
+      for (SymbolicPointerVariable symb : symbs) {
+        Set<InstanceKey> vals = symb.getPossibleValues();
+        out.writeInt(vals.size());
+        for (InstanceKey key : vals) {
+          out.writeUTF(key.toString());
+        }
+      }
+      ruleBytes.writeTo(out);
+      out.flush();
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      // can't happen when writing to memory
+      throw new CantCache(e.toString());
+    }
+  }
+
+  private static void writeEdge(DataOutputStream out, PointsToEdge edge, Map<SymbolicPointerVariable, Integer> symbNums)
+      throws IOException, CantCache {
+    if (edge == null) throw new CantCache("null edge");
+    writeVar(out, edge.getSource(), symbNums);
+    writeVar(out, edge.getSink(), symbNums);
+    PointerKey field = edge.getField();
+    IField fieldRef = edge.getFieldRef();
+    if (field != null) {
+      // decoded with PointsToEdge.make(source, sink, field), which derives the field ref from field
+      IField derived;
+      if (field instanceof InstanceFieldKey) derived = ((InstanceFieldKey) field).getField();
+      else if (field instanceof StaticFieldKey) derived = ((StaticFieldKey) field).getField();
+      else if (field instanceof ArrayContentsKey) derived = AbstractDependencyRuleGenerator.ARRAY_CONTENTS;
+      else throw new CantCache("field " + field);
+      if (derived != fieldRef) throw new CantCache("field ref " + fieldRef + " doesn't match field " + field);
+      out.writeByte(FIELD_KEY);
+      writeKey(out, field);
+    } else if (fieldRef == null) {
+      out.writeByte(NO_FIELD);
+    } else if (fieldRef == AbstractDependencyRuleGenerator.ARRAY_CONTENTS) {
+      out.writeByte(ARRAY_REF);
+    } else {
+      out.writeByte(FIELD_REF);
+      out.writeUTF(fieldRef.toString());
+    }
+  }
+
+  private static void writeVar(DataOutputStream out, PointerVariable var, Map<SymbolicPointerVariable, Integer> symbNums)
+      throws IOException, CantCache {
+    if (var instanceof SymbolicPointerVariable) {
+      SymbolicPointerVariable symb = (SymbolicPointerVariable) var;
+      Integer num = symbNums.get(symb);
+      if (num == null) {
+        num = symbNums.size();
+        symbNums.put(symb, num);
+      }
+      out.writeByte(SYMBOLIC);
+      out.writeInt(num);
+      return;
+    }
+    if (!(var instanceof ConcretePointerVariable) || var.getInstanceKey() == null) throw new CantCache("var " + var);
+    ConcretePointerVariable concrete = (ConcretePointerVariable) var;
+    Object key = concrete.getInstanceKey();
+    if (makesOwnVar(key) && Util.makePointerVariable(key) == concrete) {
+      // vars are interned, so this is the var we'd get by making one from the key
+      out.writeByte(FROM_KEY);
+      writeKey(out, key);
+    } else if (concrete.getMethod() == null) {
+      out.writeByte(EXPLICIT);
+      writeKey(out, key);
+      writeString(out, concrete.getNode() == null ? null : concrete.getNode().toString());
+      out.writeInt(concrete.getUseNum());
+      writeString(out, concrete.getName());
+    } else {
+      throw new CantCache("var " + var + " made from a method");
+    }
+  }
+
+  // keys that Util.makePointerVariable() makes a var for (rather than failing on)
+  private static boolean makesOwnVar(Object key) {
+    return key instanceof LocalPointerKey || (key instanceof ReturnValueKey && !(key instanceof ExceptionReturnValueKey))
+        || key instanceof StaticFieldKey || key instanceof AllocationSiteInNode || key instanceof AllocationSite
+        || key instanceof ConcreteTypeKey || key instanceof ConstantKey || key instanceof SmushedAllocationSiteInNode;
+  }
+
+  // pointer keys are rebuilt with their own constructors, so only store classes we know exactly
+  private static void writeKey(DataOutputStream out, Object key) throws IOException, CantCache {
+    Class<?> c = key.getClass();
+    if (c == LocalPointerKey.class) {
+      LocalPointerKey local = (LocalPointerKey) key;
+      out.writeByte(LOCAL);
+      out.writeUTF(local.getNode().toString());
+      out.writeInt(local.getValueNumber());
+    } else if (c == ReturnValueKey.class) {
+      out.writeByte(RETURN_VALUE);
+      out.writeUTF(((ReturnValueKey) key).getNode().toString());
+    } else if (c == ExceptionReturnValueKey.class) {
+      out.writeByte(EXCEPTION_RETURN_VALUE);
+      out.writeUTF(((ReturnValueKey) key).getNode().toString());
+    } else if (c == StaticFieldKey.class) {
+      out.writeByte(STATIC_FIELD);
+      out.writeUTF(((StaticFieldKey) key).getField().toString());
+    } else if (c == InstanceFieldKey.class) {
+      InstanceFieldKey fieldKey = (InstanceFieldKey) key;
+      out.writeByte(INSTANCE_FIELD);
+      out.writeUTF(fieldKey.getInstanceKey().toString());
+      out.writeUTF(fieldKey.getField().toString());
+    } else if (c == ArrayContentsKey.class) {
+      out.writeByte(ARRAY_CONTENTS);
+      out.writeUTF(((ArrayContentsKey) key).getInstanceKey().toString());
+    } else if (key instanceof InstanceKey) {
+      out.writeByte(INSTANCE);
+      out.writeUTF(key.toString());
+    } else if (key instanceof String) {
+      out.writeByte(CONSTANT);
+      out.writeUTF((String) key);
+    } else {
+      throw new CantCache("key " + key);
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String str) throws IOException {
+    out.writeBoolean(str != null);
+    if (str != null) out.writeUTF(str);
+  }
+
+  // decoding
+
+  private DependencyRule[] decode(byte[] encoded, CGNode node, SSAInstruction instr) throws IOException, CantCache {
+    indexNames();
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+    SymbolicPointerVariable[] symbs = new SymbolicPointerVariable[in.readInt()];
+    for (int i = 0; i < symbs.length; i++) {
+      int numVals = in.readInt();
+      Set<InstanceKey> vals = new InstanceKeySet(pa);
+      for (int j = 0; j < numVals; j++) {
+        vals.add(resolveInstanceKey(in.readUTF()));
+      }
+      symbs[i] = new SymbolicPointerVariable(vals);
+    }
+
+    IR ir = node.getIR();
+    PointerStatement.EdgeType[] types = PointerStatement.EdgeType.values();
+    DependencyRule[] rules = new DependencyRule[in.readInt()];
+    for (int i = 0; i < rules.length; i++) {
+      PointsToEdge shown = readEdge(in, symbs);
+      PointerStatement stmt = null;
+      if (in.readBoolean()) {
+        PointerStatement.EdgeType type = types[in.readByte()];
+        PointerVariable lhs = readVar(in, symbs), rhs = readVar(in, symbs);
+        String fieldName = readString(in);
+        int lineId = in.readInt(), lineNum = in.readInt();
+        stmt = new PointerStatement(instr, lhs, rhs, type, fieldName, lineId, lineNum);
+      }
+      int numToShow = in.readInt();
+      TreeSet<PointsToEdge> toShow = new TreeSet<PointsToEdge>();
+      for (int j = 0; j < numToShow; j++) {
+        toShow.add(readEdge(in, symbs));
+      }
+      int blockNum = in.readInt();
+      SSACFG.BasicBlock blk = null;
+      if (blockNum >= 0) {
+        if (ir == null || blockNum > ir.getControlFlowGraph().getMaxNumber()) throw new CantCache("no block " + blockNum);
+        blk = ir.getControlFlowGraph().getNode(blockNum);
+      }
+      rules[i] = new DependencyRule(shown, stmt, toShow, node, blk);
+    }
+    return rules;
+  }
+
+  private PointsToEdge readEdge(DataInputStream in, SymbolicPointerVariable[] symbs) throws IOException, CantCache {
+    PointerVariable source = readVar(in, symbs), sink = readVar(in, symbs);
+    byte kind = in.readByte();
+    if (kind == NO_FIELD) return PointsToEdge.make(source, sink);
+    if (kind == ARRAY_REF) return PointsToEdge.make(source, sink, AbstractDependencyRuleGenerator.ARRAY_CONTENTS);
+    if (kind == FIELD_REF) return PointsToEdge.make(source, sink, resolveField(in.readUTF()));
+    if (kind == FIELD_KEY) {
+      Object field = readKey(in);
+      if (!(field instanceof PointerKey)) throw new CantCache("field " + field);
+      return PointsToEdge.make(source, sink, (PointerKey) field);
+    }
+    throw new IOException("bad edge kind " + kind);
+  }
+
+  private PointerVariable readVar(DataInputStream in, SymbolicPointerVariable[] symbs) throws IOException, CantCache {
+    byte kind = in.readByte();
+    if (kind == SYMBOLIC) return symbs[in.readInt()];
+    Object key = readKey(in);
+    if (kind == FROM_KEY) {
+      PointerVariable var = Util.makePointerVariable(key);
+      if (var == null) throw new CantCache("no var for " + key);
+      return var;
+    }
+    if (kind == EXPLICIT) {
+      String nodeName = readString(in);
+      CGNode node = nodeName == null ? null : resolveNode(nodeName);
+      int useNum = in.readInt();
+      return ConcretePointerVariable.make(key, node, useNum, readString(in));
+    }
+    throw new IOException("bad var kind " + kind);
+  }
+
+  private Object readKey(DataInputStream in) throws IOException, CantCache {
+    byte kind = in.readByte();
+    switch (kind) {
+      case LOCAL:
+        CGNode node = resolveNode(in.readUTF());
+        return new LocalPointerKey(node, in.readInt());
+      case RETURN_VALUE:
+        return new ReturnValueKey(resolveNode(in.readUTF()));
+      case EXCEPTION_RETURN_VALUE:
+        return new ExceptionReturnValueKey(resolveNode(in.readUTF()));
+      case STATIC_FIELD:
+        return new StaticFieldKey(resolveField(in.readUTF()));
+      case INSTANCE_FIELD:
+        InstanceKey ik = resolveInstanceKey(in.readUTF());
+        return new InstanceFieldKey(ik, resolveField(in.readUTF()));
+      case ARRAY_CONTENTS:
+        return new ArrayContentsKey(resolveInstanceKey(in.readUTF()));
+      case INSTANCE:
+        return resolveInstanceKey(in.readUTF());
+      case CONSTANT:
+        return in.readUTF();
+      default:
+        throw new IOException("bad key kind " + kind);
+    }
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    return in.readBoolean() ? in.readUTF() : null;
+  }
+
+  private CGNode resolveNode(String name) throws CantCache {
+    return check(ModRefCache.resolve(nodes, ambiguous, name), name);
+  }
+
+  private InstanceKey resolveInstanceKey(String name) throws CantCache {
+    return check(ModRefCache.resolve(instanceKeys, ambiguous, name), name);
+  }
+
+  private IField resolveField(String name) throws CantCache {
+    return check(ModRefCache.resolve(fields, ambiguous, name), name);
+  }
+
+  private static <T> T check(T resolved, String name) throws CantCache {
+    if (resolved == null) throw new CantCache("can't resolve " + name);
+    return resolved;
+  }
+}
@@ -0,0 +1,227 @@
+package edu.colorado.thresher.core;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.util.collections.HashMapFactory;
+
+/**
+ * dependency rules indexed by call graph node and by (node, instruction).
+ * nodes are identified by their call graph number, and instructions within a
+ * node by their number in its IR. each node's rules are kept in immutable
+ * sorted arrays, so looking up the rules for an instruction doesn't allocate
+ * anything
+ *
+ * thread-safe: add() stages rules under the index's lock, and publish() turns
+ * the staged rules of each node into a new immutable NodeRules, which it
+ * stores in an AtomicReferenceArray. reads don't lock; they see every rule
+ * published before them
+ */
+class RuleIndex {
+
+  // published rules of one node
+  private static final class NodeRules {
+    // rules generated locally by the node
+    final RuleList all;
+    // sorted instruction numbers, and the rules each one generates
+    final int[] instrs;
+    final RuleList[] instrRules;
+
+    NodeRules(RuleList all, int[] instrs, RuleList[] instrRules) {
+      this.all = all;
+      this.instrs = instrs;
+      this.instrRules = instrRules;
+    }
+  }
+
+  // rules added to a node since it was last published, along with the ones published before
+  private static final class NodeBuilder {
+    final Set<DependencyRule> all = new TreeSet<DependencyRule>();
+    final Map<Integer, Set<DependencyRule>> byInstr = HashMapFactory.make();
+
+    NodeBuilder(NodeRules published) {
+      if (published == null) return;
+      all.addAll(published.all);
+      for (int i = 0; i < published.instrs.length; i++) {
+        byInstr.put(published.instrs[i], new TreeSet<DependencyRule>(published.instrRules[i]));
+      }
+    }
+
+    void add(int instrNum, DependencyRule rule) {
+      all.add(rule);
+      Set<DependencyRule> rules = byInstr.get(instrNum);
+      if (rules == null) {
+        rules = new TreeSet<DependencyRule>();
+        byInstr.put(instrNum, rules);
+      }
+      rules.add(rule);
+    }
+
+    NodeRules build() {
+      int[] instrs = new int[byInstr.size()];
+      int i = 0;
+      for (int instrNum : byInstr.keySet()) instrs[i++] = instrNum;
+      Arrays.sort(instrs);
+      RuleList[] instrRules = new RuleList[instrs.length];
+      for (i = 0; i < instrs.length; i++) instrRules[i] = new RuleList(byInstr.get(instrs[i]));
+      return new NodeRules(new RuleList(all), instrs, instrRules);
+    }
+  }
+
+  // published rules by node number. replaced, not modified, when it grows
+  private volatile AtomicReferenceArray<NodeRules> nodeRules = new AtomicReferenceArray<NodeRules>(1024);
+  // rules transitively generated by a node and its callees, by node number
+  private volatile AtomicReferenceArray<RuleList> nodeAndCalleesRules = new AtomicReferenceArray<RuleList>(1024);
+  // nodes with rules that aren't published yet. guarded by this
+  private final Map<Integer, NodeBuilder> staged = HashMapFactory.make();
+
+  /**
+   * @return number identifying @param instr within its IR. ordinary
+   *         instructions use their index in the IR's instruction array; phis,
+   *         pis, and catch instructions have no index, so we use their (unique)
+   *         def instead
+   */
+  static int getInstrNum(SSAInstruction instr) {
+    if (instr.iindex >= 0) return instr.iindex;
+    Util.Assert(instr.getDef() >= 0, "instruction " + instr + " has neither an index nor a def");
+    return -1 - instr.getDef();
+  }
+
+  static long makeKey(int nodeNum, SSAInstruction instr) {
+    return ((long) nodeNum << 32) | (getInstrNum(instr) & 0xFFFFFFFFL);
+  }
+
+  /**
+   * record that @param rule is generated by @param instr in the node numbered
+   * @param nodeNum. readers don't see it until the next publish()
+   */
+  synchronized void add(int nodeNum, SSAInstruction instr, DependencyRule rule) {
+    NodeBuilder builder = staged.get(nodeNum);
+    if (builder == null) {
+      AtomicReferenceArray<NodeRules> nodes = nodeRules;
+      builder = new NodeBuilder(nodeNum < nodes.length() ? nodes.get(nodeNum) : null);
+      staged.put(nodeNum, builder);
+    }
+    builder.add(getInstrNum(instr), rule);
+  }
+
+  /**
+   * make the rules added so far visible to readers
+   */
+  synchronized void publish() {
+    if (staged.isEmpty()) return;
+    for (Map.Entry<Integer, NodeBuilder> entry : staged.entrySet()) {
+      int nodeNum = entry.getKey();
+      nodeRules = ensureCapacity(nodeRules, nodeNum);
+      nodeRules.set(nodeNum, entry.getValue().build());
+    }
+    staged.clear();
+  }
+
+  synchronized void clear() {
+    staged.clear();
+    nodeRules = new AtomicReferenceArray<NodeRules>(1024);
+    nodeAndCalleesRules = new AtomicReferenceArray<RuleList>(1024);
+  }
+
+  // call with the lock held
+  private static <T> AtomicReferenceArray<T> ensureCapacity(AtomicReferenceArray<T> arr, int index) {
+    if (index < arr.length()) return arr;
+    AtomicReferenceArray<T> grown = new AtomicReferenceArray<T>(Math.max(index + 1, arr.length() * 2));
+    for (int i = 0; i < arr.length(); i++) grown.set(i, arr.get(i));
+    return grown;
+  }
+
+  private NodeRules getNodeRules(int nodeNum) {
+    AtomicReferenceArray<NodeRules> nodes = nodeRules;
+    return nodeNum < nodes.length() ? nodes.get(nodeNum) : null;
+  }
+
+  /**
+   * @return rules generated by @param instr in the node numbered @param
+   *         nodeNum, or null if there are none
+   */
+  RuleList getRulesForInstr(int nodeNum, SSAInstruction instr) {
+    NodeRules node = getNodeRules(nodeNum);
+    if (node == null) return null;
+    int pos = Arrays.binarySearch(node.instrs, getInstrNum(instr));
+    return pos < 0 ? null : node.instrRules[pos];
+  }
+
+  /**
+   * @return rules generated locally by the node numbered @param nodeNum, or
+   *         null if there are none
+   */
+  RuleList getRulesForNode(int nodeNum) {
+    NodeRules node = getNodeRules(nodeNum);
+    return node == null ? null : node.all;
+  }
+
+  RuleList getRulesForNodeAndCallees(int nodeNum) {
+    AtomicReferenceArray<RuleList> lists = nodeAndCalleesRules;
+    return nodeNum < lists.length() ? lists.get(nodeNum) : null;
+  }
+
+  synchronized RuleList putRulesForNodeAndCallees(int nodeNum, Collection<DependencyRule> rules) {
+    RuleList list = new RuleList(rules);
+    nodeAndCalleesRules = ensureCapacity(nodeAndCalleesRules, nodeNum);
+    nodeAndCalleesRules.set(nodeNum, list);
+    return list;
+  }
+
+  /**
+   * read-only set of rules backed by an array sorted by DependencyRule's
+   * compareTo, i.e. the same order and equality the TreeSet's used before
+   */
+  static final class RuleList extends AbstractSet<DependencyRule> {
+    private final DependencyRule[] rules;
+
+    RuleList(Collection<DependencyRule> rules) {
+      DependencyRule[] arr = rules.toArray(new DependencyRule[rules.size()]);
+      Arrays.sort(arr);
+      this.rules = arr;
+    }
+
+    @Override
+    public int size() {
+      return rules.length;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      if (!(o instanceof DependencyRule)) return false;
+      return Arrays.binarySearch(rules, o) >= 0;
+    }
+
+    @Override
+    public Iterator<DependencyRule> iterator() {
+      return new Iterator<DependencyRule>() {
+        private int index = 0;
+
+        @Override
+        public boolean hasNext() {
+          return index < rules.length;
+        }
+
+        @Override
+        public DependencyRule next() {
+          if (index >= rules.length) throw new NoSuchElementException();
+          return rules[index++];
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+  }
+}
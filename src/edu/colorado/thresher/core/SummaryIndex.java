@@ -0,0 +1,177 @@
+package edu.colorado.thresher.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.ibm.wala.util.collections.HashMapFactory;
+
+/**
+ * path summaries seen at one program point, indexed so that checking a new
+ * path against them doesn't mean calling containsQuery on every one. summaries
+ * are bucketed by a fingerprint of their call stack and by their query
+ * Signature; a query can only contain another if it constrains every field the
+ * other one does, so only buckets whose signature is a subset or superset of
+ * the new path's signature can hold a comparable summary
+ *
+ * the executors only record summaries for paths at call stack depth 0, so
+ * today all of a program point's summaries share one stack fingerprint; the
+ * map from fingerprint to buckets only starts to pay once summaries are
+ * recorded deeper in the call stack
+ *
+ * signatures are computed when a summary is added, so the summaries should not
+ * change after that (paths at a procedure boundary are only copied from). if
+ * one does change anyway, its stale signature can only make us skip a
+ * comparison, never prune a path we wouldn't have pruned before. not
+ * thread-safe
+ */
+public class SummaryIndex {
+
+  /**
+   * cheap necessary conditions for one query to contain another. fields is a
+   * 64-bit bloom filter over the fields of the points-to constraints
+   */
+  static final class Signature {
+    private static final int OTHER = 0, POINTS_TO = 1, PATH = 2, COMBINED = 3;
+
+    final int kind;
+    final long fields;
+    final int numPointsToConstraints;
+    final int numPathConstraints;
+
+    private Signature(int kind, long fields, int numPointsToConstraints, int numPathConstraints) {
+      this.kind = kind;
+      this.fields = fields;
+      this.numPointsToConstraints = numPointsToConstraints;
+      this.numPathConstraints = numPathConstraints;
+    }
+
+    static Signature make(IQuery query) {
+      if (query instanceof CombinedPathAndPointsToQuery) {
+        CombinedPathAndPointsToQuery combined = (CombinedPathAndPointsToQuery) query;
+        PointsToQuery ptQuery = combined.pointsToQuery;
+        return new Signature(COMBINED, getFieldBits(ptQuery), ptQuery.constraints.size(), combined.constraints.size());
+      } else if (query instanceof PointsToQuery) {
+        PointsToQuery ptQuery = (PointsToQuery) query;
+        return new Signature(POINTS_TO, getFieldBits(ptQuery), ptQuery.constraints.size(), 0);
+      } else if (query instanceof PathQuery) {
+        return new Signature(PATH, 0, 0, ((PathQuery) query).constraints.size());
+      }
+      return new Signature(OTHER, 0, 0, 0);
+    }
+
+    private static long getFieldBits(PointsToQuery query) {
+      long bits = 0;
+      for (PointsToEdge edge : query.constraints) {
+        bits |= getFieldBit(edge);
+      }
+      return bits;
+    }
+
+    private static long getFieldBit(PointsToEdge edge) {
+      Object fld = edge.getFieldRef();
+      if (fld == null) return 1L;
+      int h = fld.hashCode();
+      return 1L << ((h ^ (h >>> 16)) & 63);
+    }
+
+    /**
+     * @return false if a query with this signature definitely doesn't contain
+     *         one with signature @param other (in the sense of
+     *         IQuery.contains()), true if it might
+     */
+    boolean mayContain(Signature other) {
+      if (kind != other.kind || kind == OTHER) return true;
+      if (kind == PATH) return other.numPathConstraints <= numPathConstraints;
+      // PointsToQuery.contains() matches each of other's edges with one of ours on the same field
+      if (other.numPointsToConstraints > 0) {
+        if (other.numPointsToConstraints > numPointsToConstraints) return false;
+        if ((other.fields & ~fields) != 0) return false;
+      }
+      // PathQuery.symbContains() needs constraints of our own to imply other's
+      return kind != COMBINED || other.numPathConstraints == 0 || numPathConstraints > 0;
+    }
+  }
+
+  private static final class Bucket {
+    final Signature sig;
+    final List<IPathInfo> paths = new ArrayList<IPathInfo>(2);
+
+    Bucket(Signature sig) {
+      this.sig = sig;
+    }
+
+    boolean hasSignature(Signature other) {
+      return sig.kind == other.kind && sig.fields == other.fields && sig.numPointsToConstraints == other.numPointsToConstraints
+          && sig.numPathConstraints == other.numPathConstraints;
+    }
+  }
+
+  // call stack fingerprint -> buckets of summaries with that fingerprint. different call stacks are incomparable
+  private final Map<Integer, List<Bucket>> buckets = HashMapFactory.make();
+  private int size = 0;
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * same as IPathInfo.mergePathWithPathSet(): drop summaries that contain
+   * @param path and add path, unless some summary is contained in it
+   *
+   * @return false if path is redundant, true if it was added
+   */
+  public boolean add(IPathInfo path) {
+    final int stackHash = path.getCallStack().hashCode();
+    final Signature sig = Signature.make(path.query);
+    List<Bucket> stackBuckets = buckets.get(stackHash);
+    if (stackBuckets == null) {
+      stackBuckets = new ArrayList<Bucket>(2);
+      buckets.put(stackHash, stackBuckets);
+    }
+    Bucket home = null;
+    List<IPathInfo> toRemove = null;
+    for (Bucket bucket : stackBuckets) {
+      if (home == null && bucket.hasSignature(sig)) home = bucket;
+      boolean pathMayContain = sig.mayContain(bucket.sig), summaryMayContain = bucket.sig.mayContain(sig);
+      if (!pathMayContain && !summaryMayContain) continue;
+      for (IPathInfo summary : bucket.paths) {
+        if (summary == path || !path.callStacksEqual(summary)) continue;
+        if (pathMayContain && path.containsQuery(summary)) {
+          // already seen path simpler than this; don't add
+          if (Options.DEBUG) Util.Debug(path.getPathId() + " refuted by summary; " + summary.getPathId() + " is simpler");
+          return false;
+        } else if (summaryMayContain && summary.containsQuery(path)) {
+          if (toRemove == null) toRemove = new ArrayList<IPathInfo>();
+          toRemove.add(summary);
+        }
+      }
+    }
+    if (toRemove != null) {
+      remove(toRemove, stackBuckets);
+      if (home != null && home.paths.isEmpty()) home = null; // remove() dropped it
+    }
+    if (home == null) {
+      home = new Bucket(sig);
+      stackBuckets.add(home);
+    } else if (home.paths.contains(path)) return false;
+    home.paths.add(path);
+    size++;
+    return true;
+  }
+
+  private void remove(List<IPathInfo> toRemove, List<Bucket> stackBuckets) {
+    for (Iterator<Bucket> iter = stackBuckets.iterator(); iter.hasNext();) {
+      Bucket bucket = iter.next();
+      int oldSize = bucket.paths.size();
+      bucket.paths.removeAll(toRemove);
+      size -= oldSize - bucket.paths.size();
+      if (bucket.paths.isEmpty()) iter.remove();
+    }
+  }
+}
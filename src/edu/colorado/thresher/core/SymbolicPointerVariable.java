@@ -5,6 +5,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.ibm.wala.analysis.pointers.HeapGraph;
 import com.ibm.wala.classLoader.IClass;
@@ -21,18 +22,14 @@ import com.ibm.wala.util.collections.HashSetFactory;
 import com.ibm.wala.util.intset.OrdinalSet;
 
 public class SymbolicPointerVariable implements PointerVariable { 
-  private static int symbCounter = 0;
+  private static final AtomicInteger symbCounter = new AtomicInteger();
   // private final String name;
-  private final Set<InstanceKey> possibleValues;
+  private final InstanceKeySet possibleValues;
   // private int instanceNum = PointerVariable.ANY_INSTANCE_NUM;
   private final int id;
 
   public static PointerVariable makeSymbolicVar(OrdinalSet<InstanceKey> possibleValues) {
-    Set<InstanceKey> possibleVals = HashSetFactory.make();
-    for (Iterator<InstanceKey> iter = possibleValues.iterator(); iter.hasNext();) {
-      possibleVals.add(iter.next());
-    }
-    return makeSymbolicVar(possibleVals);
+    return makeSymbolicVar(InstanceKeySet.make(possibleValues));
   }
   
   public static PointerVariable makeSymbolicVar(Set<InstanceKey> possibleValues) {
@@ -46,7 +43,7 @@ public class SymbolicPointerVariable implements PointerVariable {
    * make a symbolic variable from the points-to set of @param key in @param hg
    */
   public static PointerVariable makeSymbolicVar(Object key, HeapGraph hg) {
-    Set<InstanceKey> possibleValues = HashSetFactory.make();
+    Set<InstanceKey> possibleValues = new InstanceKeySet(hg.getPointerAnalysis());
     for (Iterator<Object> succs = hg.getSuccNodes(key); succs.hasNext();) {
       possibleValues.add((InstanceKey) succs.next());
     }
@@ -58,7 +55,7 @@ public class SymbolicPointerVariable implements PointerVariable {
    * make a symbolic variable from the points-to set of @param key in @param hg, but only include allocation sites of type @param typ
    */
   public static PointerVariable makeSymbolicVar(Object key, TypeReference typ, IClassHierarchy cha, HeapGraph hg) {
-    Set<InstanceKey> possibleValues = HashSetFactory.make();
+    Set<InstanceKey> possibleValues = new InstanceKeySet(hg.getPointerAnalysis());
     IClass desiredTyp = cha.lookupClass(typ);   
     for (Iterator<Object> succs = hg.getSuccNodes(key); succs.hasNext();) {
       InstanceKey ik = (InstanceKey) succs.next();
@@ -76,17 +73,20 @@ public class SymbolicPointerVariable implements PointerVariable {
    */
   public static PointerVariable mergeVars(PointerVariable var0, PointerVariable var1) {
     // can't make symbolic var from the empty set
-    Set<InstanceKey> newVals = Util.deepCopySet(var0.getPossibleValues());
+    Set<InstanceKey> newVals = InstanceKeySet.copyOf(var0.getPossibleValues());
     newVals.retainAll(var1.getPossibleValues());
     if (newVals.size() == 0) return null;
-    if (Options.DEBUG) Util.Debug("merged " + var0 + " and " + var1 + " into " + (symbCounter + 1) + "symb");
+    if (Options.DEBUG) Util.Debug("merged " + var0 + " and " + var1 + " into " + (symbCounter.get() + 1) + "symb");
     return makeSymbolicVar(newVals);
   }
 
   public SymbolicPointerVariable(Set<InstanceKey> possibleValues) {
-    this.id = symbCounter++;
+    this.id = symbCounter.getAndIncrement();
     //Util.Assert(possibleValues.size() > 1, "possible values is size 1; should make concrete var instead");
-    this.possibleValues = possibleValues;
+    // the var takes ownership of possibleValues, as it did when this was a HashSet. callers build
+    // them over the pointer analysis's numbering of instance keys
+    Util.Pre(possibleValues instanceof InstanceKeySet, "possible values must be an InstanceKeySet");
+    this.possibleValues = (InstanceKeySet) possibleValues;
     
     //if (Options.DEBUG) {
       //Util.Print("Possible values for " + id + "symb:");
@@ -149,7 +149,7 @@ public class SymbolicPointerVariable implements PointerVariable {
   @Override
   public Set<InstanceKey> getPointsAtSet(HeapGraph hg, IField fld) {
     Util.Pre(!fld.isStatic());
-    Set<InstanceKey> pointsAtSet = HashSetFactory.make();
+    Set<InstanceKey> pointsAtSet = new InstanceKeySet(hg.getPointerAnalysis());
     boolean arrayFld = fld.equals(AbstractDependencyRuleGenerator.ARRAY_CONTENTS);
     for (InstanceKey key : possibleValues) {
       for (Iterator<Object> fldIter = hg.getPredNodes(key); fldIter.hasNext();) {
@@ -227,11 +227,11 @@ public class SymbolicPointerVariable implements PointerVariable {
   }
 
   public String makeNewSymbolicVariable() {
-    return (symbCounter++) + "symb";
+    return (symbCounter.getAndIncrement()) + "symb";
   }
 
   public int getSymbCounter() {
-    return symbCounter;
+    return symbCounter.get();
   }
 
   public int getCallId() {
@@ -274,7 +274,7 @@ public class SymbolicPointerVariable implements PointerVariable {
   public boolean symbEq(PointerVariable other) {
     if (other instanceof SymbolicPointerVariable) {
       SymbolicPointerVariable symb = (SymbolicPointerVariable) other;
-      return Util.intersectionNonEmpty(possibleValues, symb.getPossibleValues());
+      return possibleValues.intersects(symb.possibleValues);
     } else if (other instanceof ConcretePointerVariable) {
       return this.possibleValues.contains(other.getInstanceKey());
     }
@@ -293,7 +293,7 @@ public class SymbolicPointerVariable implements PointerVariable {
     
     if (other instanceof SymbolicPointerVariable) {
       SymbolicPointerVariable symb = (SymbolicPointerVariable) other;
-      return this.getPossibleValues().containsAll(symb.getPossibleValues());
+      return this.possibleValues.containsAll(symb.possibleValues);
     } else if (other instanceof ConcretePointerVariable) {
       return this.possibleValues.contains(other.getInstanceKey());
     }
@@ -311,18 +311,11 @@ public class SymbolicPointerVariable implements PointerVariable {
   public boolean equals(Object other) {
     if (!(other instanceof SymbolicPointerVariable)) return false;
     SymbolicPointerVariable p = (SymbolicPointerVariable) other;
-    Set<InstanceKey> otherPossibleValues = p.possibleValues;
     
     if (!Options.NARROW_FROM_CONSTRAINTS) {
-      return Util.intersectionNonEmpty(this.possibleValues, otherPossibleValues);
-    }
-    
-    if (this.possibleValues.size() != otherPossibleValues.size()) return false;
-    for (InstanceKey key : this.possibleValues) {
-      if (!otherPossibleValues.contains(key))
-        return false;
+      return this.possibleValues.intersects(p.possibleValues);
     }
-    return true;
+    return this.possibleValues.equals(p.possibleValues);
   }
 
   @Override
@@ -12,6 +12,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 //import z3.java.Z3AST;
 //import z3.java.Z3Context;
@@ -91,9 +92,9 @@ public class Util {
   public static Map<String, Integer> typeIds = HashMapFactory.make();
   private static int typeIdCounter = 0;
 
-  private static int tmpCounter = 0;
+  private static final AtomicInteger tmpCounter = new AtomicInteger();
 
-  private static int pathCounter = 0;
+  private static final AtomicInteger pathCounter = new AtomicInteger();
 
   public static void Log(String s) {
     if (LOG)
@@ -117,17 +118,20 @@ public class Util {
   }
   */
 
-  public static void clear() {
+  public static synchronized void clear() {
     varIds.clear();
     fieldIds.clear();
     typeIds.clear();
     varIdCounter = 0;
     fieldIdCounter = 0;
     typeIdCounter = 0;
+    // cached solver state refers to the old ids
+    FeasibilityCache.clear();
+    ImplicationChecker.invalidateAll();
   }
 
   public static String newTmpVar() {
-    return (tmpCounter++) + "_tmp";
+    return tmpCounter.getAndIncrement() + "_tmp";
   }
 
   /*
@@ -136,10 +140,10 @@ public class Util {
    */
 
   public static int newPathNum() {
-    return pathCounter++;
+    return pathCounter.getAndIncrement();
   }
 
-  public static int getIdForVar(String varName) {
+  public static synchronized int getIdForVar(String varName) {
     // MEGA HACK - but easier than refactoring whole program
     varName = varName.replace("synthetic ", "");
     varName = varName.replace("Primordial", "");
@@ -155,7 +159,7 @@ public class Util {
     return id;
   }
 
-  public static int getIdForField(String fieldName) {
+  public static synchronized int getIdForField(String fieldName) {
     Util.Assert(!fieldName.contains("synthetic"), "evil synthetic var " + fieldName);
     Integer id = fieldIds.get(fieldName);
     if (id == null) {
@@ -165,7 +169,7 @@ public class Util {
     return id;
   }
 
-  public static int getIdForType(String typeName) {
+  public static synchronized int getIdForType(String typeName) {
     if (typeName.contains("synthetic")) {
       typeName = typeName.replace("synthetic ", "");
     }
@@ -186,7 +190,7 @@ public class Util {
     PointerVariable rhsPointer = makePointerVariable(rhs);
     if (lhsPointer != null & rhsPointer != null) {
       PointerStatement stmt = makePointerStatement(instr, lhsPointer, rhsPointer, type, null, lineId, lineNum);
-      PointsToEdge edge = new PointsToEdge(lhsPointer, rhsPointer);
+      PointsToEdge edge = PointsToEdge.make(lhsPointer, rhsPointer);
       return new DependencyRule(edge, stmt, new TreeSet<PointsToEdge>(), node, (SSACFG.BasicBlock) node.getIR()
           .getBasicBlockForInstruction(instr));
     }
@@ -962,7 +966,7 @@ public class Util {
         LocalPointerKey lpk = (LocalPointerKey) key;
         node = lpk.getNode();
         int valueNum = lpk.getValueNumber();
-        return new ConcretePointerVariable(key, node, valueNum);
+        return ConcretePointerVariable.make(key, node, valueNum);
       } else if (key instanceof ReturnValueKey && !(key instanceof ExceptionReturnValueKey)) {
         ReturnValueKey rvk = (ReturnValueKey) key;
         // String methodName = rvk.getNode().getMethod().getName().toString();
@@ -972,12 +976,12 @@ public class Util {
         // typeId = getIdForType(pointerString);
         // if (symbolic) return new SymbolicPointerVariable(typeId);
         // else
-        return new ConcretePointerVariable(rvk, node, -2);
+        return ConcretePointerVariable.make(rvk, node, -2);
       } else if (key instanceof ExceptionReturnValueKey) {
         /*
         ExceptionReturnValueKey erv = (ExceptionReturnValueKey) key;
         node = erv.getNode();
-        return new ConcretePointerVariable(erv, node, -1);
+        return ConcretePointerVariable.make(erv, node, -1);
         */
         if (Options.DEBUG) Util.Debug("exceptional return value; not handling");
         return null; // purposely do not handle this case
@@ -992,10 +996,10 @@ public class Util {
         // getIdForType(sfk.getField().getFieldTypeReference().toString());
 
         // if (symbolic) return new SymbolicPointerVariable(typeId);
-        // else return new ConcretePointerVariable(key, method, -1,
+        // else return ConcretePointerVariable.make(key, method, -1,
         // pointerString, typeId);
-        return new ConcretePointerVariable(sfk, classInit, pointerString);
-        // else return new ConcretePointerVariable(pointerString, typeId);
+        return ConcretePointerVariable.make(sfk, classInit, pointerString);
+        // else return ConcretePointerVariable.make(pointerString, typeId);
         // return makeStaticFieldVar(sfk.getField().getReference());
       } else if (key instanceof ArrayContentsKey) {
         ArrayContentsKey ack = (ArrayContentsKey) key;
@@ -1009,16 +1013,16 @@ public class Util {
       if (key instanceof AllocationSiteInNode) {
         AllocationSiteInNode as = (AllocationSiteInNode) key;
         node = as.getNode();
-        return new ConcretePointerVariable((InstanceKey) key, node, -1);
+        return ConcretePointerVariable.make((InstanceKey) key, node, -1);
       } else if (key instanceof NormalAllocationInNode) {
         NormalAllocationInNode nan = (NormalAllocationInNode) key;
         node = nan.getNode();
-        return new ConcretePointerVariable((InstanceKey) key, node, -1);
+        return ConcretePointerVariable.make((InstanceKey) key, node, -1);
       } else if (key instanceof AllocationSite) {
         AllocationSite site = (AllocationSite) key;
         pointerString = site.getMethod() + "-" + site.getSite().getDeclaredType().getName().toString() + "@"
             + site.getSite().getProgramCounter();
-        return new ConcretePointerVariable(site, site.getMethod(), pointerString);
+        return ConcretePointerVariable.make(site, site.getMethod(), pointerString);
       } else if (key instanceof ConcreteTypeKey) {
         ConcreteTypeKey ctk = (ConcreteTypeKey) key;
         // purposely don't track exception literals
@@ -1027,15 +1031,15 @@ public class Util {
           return null;
         }
         pointerString = ctk.getType().toString();
-        return new ConcretePointerVariable(key, pointerString);// typeId);
+        return ConcretePointerVariable.make(key, pointerString);// typeId);
       } else if (key instanceof ConstantKey) {
         // TODO: need to implement LoadMetaDataInstruction to get this to work
         ConstantKey ck = (ConstantKey) key;
         IClass clazz = ck.getConcreteType();
-        return new ConcretePointerVariable(ck, clazz + "_CONST");
+        return ConcretePointerVariable.make(ck, clazz + "_CONST");
       } else if (key instanceof SmushedAllocationSiteInNode) {
         SmushedAllocationSiteInNode smushed = (SmushedAllocationSiteInNode) key;
-        return new ConcretePointerVariable(key, smushed.getNode(), smushed.getNode().getMethod() + "_SMUSHED ");// typeId);
+        return ConcretePointerVariable.make(key, smushed.getNode(), smushed.getNode().getMethod() + "_SMUSHED ");// typeId);
       } else {
         Util.Assert(false, "UNIMPLEMENTED INSTANCE KEY! " + key);
         pointerString = "Unimplemented Instance Key";
@@ -1278,7 +1282,10 @@ public class Util {
     return copy;
   }
 
+  @SuppressWarnings("unchecked")
   public static <T> Set<T> deepCopySet(Set<T> set) {
+    // keep bit vector sets as bit vectors so set operations on the copy stay cheap
+    if (set instanceof InstanceKeySet) return (Set<T>) ((InstanceKeySet) set).copy();
     Set<T> copy = HashSetFactory.make();
     Iterator<T> iter = set.iterator();
     while (iter.hasNext()) {
@@ -1290,9 +1297,10 @@ public class Util {
 
   public static <T> List<T> deepCopyList(List<T> list) {
     if (list == null) return null;
+    // iterate rather than get(i); list is usually a LinkedList
     List<T> copy = new LinkedList<T>();
-    for (int i = 0; i < list.size(); i++) {
-      copy.add(list.get(i));
+    for (T elem : list) {
+      copy.add(elem);
     }
     return copy;
   }
@@ -1520,7 +1528,7 @@ public class Util {
 
   public static PointerVariable makeReturnValuePointer(CGNode callee, HeapModel hm) {
     return makePointerVariableImpl(hm.getPointerKeyForReturnValue(callee));
-    // return new ConcretePointerVariable(method, makeReturnValueName(method),
+    // return ConcretePointerVariable.make(method, makeReturnValueName(method),
     // 0);
   }
 
@@ -1684,6 +1692,7 @@ public class Util {
   }
 
   public static <T> boolean intersectionNonEmpty(Collection<T> a, Set<T> b) {
+    if (a instanceof InstanceKeySet && b instanceof InstanceKeySet) return ((InstanceKeySet) a).intersects((InstanceKeySet) b);
     for (T elem : a) {
       if (b.contains(elem))
         return true;
@@ -1827,9 +1836,9 @@ public class Util {
   protected static PointsToEdge makePointsToEdge(PointerKey pk, InstanceKey ik) {
     if (pk instanceof InstanceFieldKey) {
       InstanceFieldKey ifk = (InstanceFieldKey)pk;
-      return new PointsToEdge(makePointerVariable(ifk.getInstanceKey()), makePointerVariable(ik), ifk.getField());
+      return PointsToEdge.make(makePointerVariable(ifk.getInstanceKey()), makePointerVariable(ik), ifk.getField());
     } else {
-      return new PointsToEdge(makePointerVariable(pk), makePointerVariable(ik));
+      return PointsToEdge.make(makePointerVariable(pk), makePointerVariable(ik));
     }
   }
   
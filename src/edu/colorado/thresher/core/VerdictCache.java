@@ -0,0 +1,337 @@
+package edu.colorado.thresher.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.ibm.wala.ipa.callgraph.CGNode;
+import com.ibm.wala.ipa.callgraph.CallGraph;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.util.collections.HashMapFactory;
+import com.ibm.wala.util.collections.HashSetFactory;
+
+/**
+ * edge verdicts (witnessed or refuted) from the previous run, so that
+ * re-checking a slightly changed app only re-runs symbolic execution for the
+ * edges whose exploration could have been affected by the change. stored in
+ * Options.CACHE_DIR along with a hash of the IR of every call graph node.
+ * nodes are identified by their printed form, as in ModRefCache
+ *
+ * each verdict remembers the nodes its exploration touched: the producers of
+ * the edge, the modifiers of the initial query, and every node a path was
+ * executed in (explored), plus the callees of explored nodes, whose mod/ref
+ * decided whether calls were skipped (consulted). a node is changed if its IR
+ * hash differs from last time or it is new or gone. a verdict is reused if
+ * - no explored node is changed or called by a changed node (a new caller
+ *   means a new way to reach the start of an explored method)
+ * - no consulted node is changed or transitively calls a changed node
+ * - the edge has no producers that weren't explored last time
+ *
+ * a change that only alters the points-to facts of unchanged code (say, a new
+ * store in a method the exploration never went near that widens a points-to
+ * set the query depends on) is not detected; use a fresh cache directory
+ * after such changes
+ */
+public class VerdictCache {
+
+  private static final int MAGIC = 0x74687276; // "thrv"
+  private static final int VERSION = 1;
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final class Verdict {
+    final boolean witnessed;
+    final Collection<String> explored;
+    final Collection<String> consulted;
+
+    Verdict(boolean witnessed, Collection<String> explored, Collection<String> consulted) {
+      this.witnessed = witnessed;
+      this.explored = explored;
+      this.consulted = consulted;
+    }
+  }
+
+  private final File cacheFile;
+  // node -> hash of its IR, for this run
+  private final Map<String, Long> nodeHashes;
+  // verdicts from the last run that are still valid for this one
+  private final Map<String, Verdict> oldVerdicts;
+  // verdicts to store for the next run
+  private final Map<String, Verdict> verdicts = new ConcurrentHashMap<String, Verdict>();
+  private final CallGraph cg;
+
+  private VerdictCache(File cacheFile, CallGraph cg, Map<String, Long> nodeHashes, Map<String, Verdict> oldVerdicts) {
+    this.cacheFile = cacheFile;
+    this.cg = cg;
+    this.nodeHashes = nodeHashes;
+    this.oldVerdicts = oldVerdicts;
+  }
+
+  /**
+   * @return cache of verdicts for @param cg, or null if Options.INCREMENTAL is
+   *         off
+   */
+  public static VerdictCache make(CallGraph cg) {
+    if (!Options.INCREMENTAL) return null;
+    Util.Pre(!Options.CACHE_DIR.equals(""), "incremental analysis needs a cache directory");
+    Map<String, Long> nodeHashes = HashMapFactory.make();
+    for (CGNode node : cg) {
+      nodeHashes.put(node.toString(), hashNode(node));
+    }
+    File cacheFile = new File(Options.CACHE_DIR, makeKey(cg) + ".verdicts.gz");
+    Map<String, Verdict> oldVerdicts = Collections.emptyMap();
+    if (cacheFile.exists()) {
+      try {
+        oldVerdicts = load(cacheFile, cg, nodeHashes);
+      } catch (IOException e) {
+        Util.Print("Couldn't read verdict cache: " + e);
+      }
+    }
+    return new VerdictCache(cacheFile, cg, nodeHashes, oldVerdicts);
+  }
+
+  /**
+   * @return true if @param edge was witnessed last time, false if it was
+   *         refuted, or null if we need to execute it again
+   */
+  public Boolean lookup(PointsToEdge edge, Set<DependencyRule> producers) {
+    String key = makeEdgeKey(edge);
+    Verdict verdict = oldVerdicts.get(key);
+    if (verdict == null) return null;
+    for (DependencyRule rule : producers) {
+      if (!verdict.explored.contains(rule.getNode().toString())) return null; // new producer
+    }
+    verdicts.put(key, verdict);
+    return verdict.witnessed;
+  }
+
+  /**
+   * remember that exploring @param edge gave verdict @param witnessed and
+   * touched @param explored
+   */
+  public void record(PointsToEdge edge, boolean witnessed, Set<CGNode> explored) {
+    Set<String> exploredNames = HashSetFactory.make(), consultedNames = HashSetFactory.make();
+    for (CGNode node : explored) {
+      exploredNames.add(node.toString());
+    }
+    for (CGNode node : explored) {
+      for (Iterator<CGNode> iter = cg.getSuccNodes(node); iter.hasNext();) {
+        String callee = iter.next().toString();
+        if (!exploredNames.contains(callee)) consultedNames.add(callee);
+      }
+    }
+    verdicts.put(makeEdgeKey(edge), new Verdict(witnessed, exploredNames, consultedNames));
+  }
+
+  /**
+   * write out the verdicts looked up or recorded in this run
+   */
+  public void save() {
+    try {
+      store();
+      Util.Print("Wrote " + verdicts.size() + " verdicts to " + cacheFile);
+    } catch (IOException e) {
+      Util.Print("Couldn't write verdict cache: " + e);
+    }
+  }
+
+  // edges are made from concrete instance keys and fields, which print the same from run to run
+  private static String makeEdgeKey(PointsToEdge edge) {
+    return edge.getSource().getInstanceKey() + " ->" + edge.getFieldRef() + " " + edge.getSink().getInstanceKey();
+  }
+
+  private static MessageDigest makeDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void update(MessageDigest digest, String str) {
+    digest.update(str.getBytes(UTF8));
+    digest.update((byte) 0);
+  }
+
+  static long hashNode(CGNode node) {
+    MessageDigest digest = makeDigest();
+    IR ir = node.getIR();
+    if (ir != null) {
+      // print constants, which plain toString() leaves out
+      for (SSAInstruction instr : ir.getInstructions()) {
+        if (instr != null) update(digest, instr.toString(ir.getSymbolTable()));
+      }
+    }
+    long hash = 0;
+    byte[] bytes = digest.digest();
+    for (int i = 0; i < 8; i++) {
+      hash = (hash << 8) | (bytes[i] & 0xff);
+    }
+    return hash;
+  }
+
+  // verdicts from runs on the same entrypoints with the same options are comparable
+  private static String makeKey(CallGraph cg) {
+    MessageDigest digest = makeDigest();
+    List<String> entries = new ArrayList<String>();
+    for (CGNode node : cg.getEntrypointNodes()) {
+      entries.add(node.toString());
+    }
+    Collections.sort(entries);
+    for (String e : entries) update(digest, e);
+    update(digest, Options.PIECEWISE_EXECUTION + " " + Options.CALLGRAPH_PRUNING + " " + Options.BASIC_EXECUTOR + " " + Options.PATH_EXPLORE_LIMIT + " "
+        + Options.TIMEOUT + " " + Options.GEN_DEPENDENCY_RULES_EAGERLY + " " + Options.SKIP_DYNAMIC_DISPATCH);
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(String.format("%02x", b & 0xff));
+    }
+    return hex.toString();
+  }
+
+  /**
+   * add the nodes that changed since the run whose node hashes are @param
+   * oldHashes, and the nodes they call, to @param changedOrCalled. add the
+   * changed nodes and the nodes that (transitively) call them to @param
+   * changedOrCalling
+   */
+  private static void findChangedNodes(CallGraph cg, Map<String, Long> nodeHashes, Map<String, Long> oldHashes,
+      Set<String> changedOrCalled, Set<String> changedOrCalling) {
+    LinkedList<CGNode> toVisit = new LinkedList<CGNode>();
+    for (CGNode node : cg) {
+      String name = node.toString();
+      if (nodeHashes.get(name).equals(oldHashes.get(name))) continue;
+      changedOrCalled.add(name);
+      for (Iterator<CGNode> iter = cg.getSuccNodes(node); iter.hasNext();) {
+        changedOrCalled.add(iter.next().toString());
+      }
+      if (changedOrCalling.add(name)) toVisit.add(node);
+    }
+    // removed nodes
+    for (String name : oldHashes.keySet()) {
+      if (!nodeHashes.containsKey(name)) {
+        changedOrCalled.add(name);
+        changedOrCalling.add(name);
+      }
+    }
+    while (!toVisit.isEmpty()) {
+      CGNode node = toVisit.removeFirst();
+      for (Iterator<CGNode> iter = cg.getPredNodes(node); iter.hasNext();) {
+        CGNode caller = iter.next();
+        if (changedOrCalling.add(caller.toString())) toVisit.add(caller);
+      }
+    }
+  }
+
+  private void store() throws IOException {
+    Map<String, Integer> nodeNums = HashMapFactory.make();
+    List<String> names = new ArrayList<String>(nodeHashes.keySet());
+    for (String name : names) {
+      nodeNums.put(name, nodeNums.size());
+    }
+
+    File dir = cacheFile.getParentFile();
+    if (!dir.exists() && !dir.mkdirs()) throw new IOException("couldn't create " + dir);
+    // write to a temp file and rename so readers never see a partial cache
+    File tmp = File.createTempFile("verdicts", ".tmp", dir);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tmp))));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(names.size());
+      for (String name : names) {
+        out.writeUTF(name);
+        out.writeLong(nodeHashes.get(name));
+      }
+      out.writeInt(verdicts.size());
+      for (Map.Entry<String, Verdict> entry : verdicts.entrySet()) {
+        Verdict verdict = entry.getValue();
+        out.writeUTF(entry.getKey());
+        out.writeBoolean(verdict.witnessed);
+        writeNodes(out, verdict.explored, nodeNums);
+        writeNodes(out, verdict.consulted, nodeNums);
+      }
+    } finally {
+      out.close();
+    }
+    if (!tmp.renameTo(cacheFile)) {
+      tmp.delete();
+      throw new IOException("couldn't rename " + tmp + " to " + cacheFile);
+    }
+  }
+
+  private static void writeNodes(DataOutputStream out, Collection<String> nodes, Map<String, Integer> nodeNums)
+      throws IOException {
+    out.writeInt(nodes.size());
+    for (String node : nodes) {
+      // a verdict that mentions a node that is gone now isn't reused, so every node has a number
+      out.writeInt(nodeNums.get(node));
+    }
+  }
+
+  /**
+   * @return the verdicts in @param cacheFile that are still valid for @param
+   *         cg
+   */
+  private static Map<String, Verdict> load(File cacheFile, CallGraph cg, Map<String, Long> nodeHashes) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(cacheFile))));
+    try {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) return Collections.emptyMap();
+      int numNodes = in.readInt();
+      String[] names = new String[numNodes];
+      Map<String, Long> oldHashes = HashMapFactory.make();
+      for (int i = 0; i < numNodes; i++) {
+        names[i] = in.readUTF();
+        oldHashes.put(names[i], in.readLong());
+      }
+
+      Set<String> changedOrCalled = HashSetFactory.make(), changedOrCalling = HashSetFactory.make();
+      findChangedNodes(cg, nodeHashes, oldHashes, changedOrCalled, changedOrCalling);
+      Util.Print(changedOrCalled.size() + " nodes changed or called by changed nodes since the last run");
+
+      Map<String, Verdict> verdicts = HashMapFactory.make();
+      int numVerdicts = in.readInt(), numStale = 0;
+      for (int i = 0; i < numVerdicts; i++) {
+        String edge = in.readUTF();
+        boolean witnessed = in.readBoolean();
+        List<String> explored = readNodes(in, names), consulted = readNodes(in, names);
+        if (Util.intersectionNonEmpty(explored, changedOrCalled) || Util.intersectionNonEmpty(consulted, changedOrCalling)) {
+          numStale++;
+          continue;
+        }
+        verdicts.put(edge, new Verdict(witnessed, HashSetFactory.make(explored), consulted));
+      }
+      Util.Print("Loaded " + verdicts.size() + " verdicts from " + cacheFile + "; " + numStale + " need to be recomputed");
+      return verdicts;
+    } finally {
+      in.close();
+    }
+  }
+
+  private static List<String> readNodes(DataInputStream in, String[] names) throws IOException {
+    int size = in.readInt();
+    List<String> nodes = new ArrayList<String>(size);
+    for (int i = 0; i < size; i++) {
+      nodes.add(names[in.readInt()]);
+    }
+    return nodes;
+  }
+}
@@ -31,7 +31,6 @@ import com.ibm.wala.util.graph.Acyclic;
 import com.ibm.wala.util.graph.Graph;
 import com.ibm.wala.util.graph.dominators.Dominators;
 import com.ibm.wala.util.graph.traverse.BFSIterator;
-import com.ibm.wala.util.graph.traverse.BFSPathFinder;
 import com.ibm.wala.util.intset.IBinaryNaturalRelation;
 import com.ibm.wala.util.intset.IntIterator;
 import com.ibm.wala.util.intset.IntPair;
@@ -48,26 +47,38 @@ import com.ibm.wala.util.intset.MutableSparseIntSet;
 public class WALACFGUtil {
 
   // optimization: map from IR to loop headers for that IR to save us from
-  // recomputing loop heads
-  private static final Map<IR, MutableIntSet> loopHeadersCache = HashMapFactory.make();
+  // recomputing loop heads. weighed by the number of blocks in the IR
+  private static final CFGCache<IR, MutableIntSet> loopHeadersCache = 
+      new CFGCache<IR, MutableIntSet>("loop header");
   // optimization: map from IR to dominators for that IR to save us from
-  // recomputing dominators
-  private static final Map<IR, Dominators<ISSABasicBlock>> dominatorsCache = HashMapFactory.make();
+  // recomputing dominators. weighed by the number of blocks in the IR
+  private static final CFGCache<IR, Dominators<ISSABasicBlock>> dominatorsCache = 
+      new CFGCache<IR, Dominators<ISSABasicBlock>>("dominators");
   // optimization: map from (IR, loop head) to blocks contained in that loop
-  // head
-  private static final Map<Pair<IR, SSACFG.BasicBlock>, Set<ISSABasicBlock>> loopBodyCache = HashMapFactory.make();
+  // head. weighed by the number of blocks in the loop body
+  private static final CFGCache<Pair<IR, SSACFG.BasicBlock>, Set<ISSABasicBlock>> loopBodyCache = 
+      new CFGCache<Pair<IR, SSACFG.BasicBlock>, Set<ISSABasicBlock>>("loop body");
 
   // CGNode for class initializers
-  private static CGNode fakeWorldClinit = null;
+  private static volatile CGNode fakeWorldClinit = null;
+
+  // call graph and the distance from its entrypoints to each node
+  private static volatile Pair<CallGraph, Map<CGNode, Integer>> entrypointDistances = null;
 
   /**
-   * empty the loop header and dominators cache - should do before analyzing a
-   * new program
+   * empty the loop header, dominators, and loop body caches - should do before
+   * analyzing a new program
    */
   public static void clearCaches() {
     loopHeadersCache.clear();
     dominatorsCache.clear();
+    loopBodyCache.clear();
     fakeWorldClinit = null;
+    entrypointDistances = null;
+  }
+
+  public static String dumpStats() {
+    return loopHeadersCache.dumpStats() + dominatorsCache.dumpStats() + loopBodyCache.dumpStats();
   }
 
   /**
@@ -116,7 +127,7 @@ public class WALACFGUtil {
             loopHeaders.add(p.getY());
         }
       }
-      loopHeadersCache.put(ir, loopHeaders);
+      loopHeadersCache.put(ir, loopHeaders, cfg.getNumberOfNodes());
     }
     return loopHeaders;
   }
@@ -137,7 +148,7 @@ public class WALACFGUtil {
     if (domInfo == null) {
       final SSACFG cfg = ir.getControlFlowGraph();
       domInfo = Dominators.make(cfg, cfg.entry());
-      dominatorsCache.put(ir, domInfo);
+      dominatorsCache.put(ir, domInfo, cfg.getNumberOfNodes());
     }
     return domInfo;
   }
@@ -402,7 +413,7 @@ public class WALACFGUtil {
       */
       
       //if (Options.DEBUG) Util.Debug("loop body blocks for " + loopHead + "\n: " + Util.printCollection(loopBody));
-      loopBodyCache.put(key, loopBody);
+      loopBodyCache.put(key, loopBody, loopBody.size());
     }
     
     return loopBody;
@@ -714,12 +725,43 @@ public class WALACFGUtil {
     return false;
   }
 
-  public int distanceToEntrypoint(CallGraph cg, CGNode node) {
-    BFSPathFinder<CGNode> finder = new BFSPathFinder<CGNode>(cg, cg.getEntrypointNodes().iterator(), node);
-    List<CGNode> lst = finder.find();
-    if (lst != null)
-      return lst.size();
-    return -1;
+  /**
+   * @return number of nodes on the shortest call chain from an entrypoint to
+   *         @param node (1 for entrypoints), or -1 if node is unreachable
+   */
+  public static int distanceToEntrypoint(CallGraph cg, CGNode node) {
+    Pair<CallGraph, Map<CGNode, Integer>> distances = entrypointDistances;
+    if (distances == null || distances.fst != cg) {
+      distances = Pair.make(cg, computeEntrypointDistances(cg));
+      entrypointDistances = distances;
+    }
+    Integer dist = distances.snd.get(node);
+    return dist == null ? -1 : dist.intValue();
+  }
+
+  // BFS from the entrypoints over the whole call graph; cheaper than a path
+  // search per query once there is more than a handful of them
+  private static Map<CGNode, Integer> computeEntrypointDistances(CallGraph cg) {
+    Map<CGNode, Integer> distances = HashMapFactory.make();
+    LinkedList<CGNode> toVisit = new LinkedList<CGNode>();
+    for (CGNode entry : cg.getEntrypointNodes()) {
+      if (!distances.containsKey(entry)) {
+        distances.put(entry, 1);
+        toVisit.add(entry);
+      }
+    }
+    while (!toVisit.isEmpty()) {
+      CGNode node = toVisit.removeFirst();
+      int succDist = distances.get(node) + 1;
+      for (Iterator<CGNode> succs = cg.getSuccNodes(node); succs.hasNext();) {
+        CGNode succ = succs.next();
+        if (!distances.containsKey(succ)) {
+          distances.put(succ, succDist);
+          toVisit.add(succ);
+        }
+      }
+    }
+    return distances;
   }
 
   public static SSAInvokeInstruction getCallInstructionFor(CGNode callee, CGNode caller) {
@@ -0,0 +1,71 @@
+package edu.colorado.thresher.core;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * intern table that holds its values weakly, so interned objects from a
+ * finished analysis don't stick around. a value must keep its key reachable
+ * (e.g., by holding it in a field), or its entry may go away while the value
+ * is still in use. the table is split into stripes with their own locks, so
+ * threads interning different keys rarely wait on each other
+ */
+final class WeakInternTable<K, V> {
+
+  private static final int STRIPES = 16;
+
+  private final Map<K, WeakReference<V>>[] stripes;
+
+  @SuppressWarnings("unchecked")
+  WeakInternTable() {
+    stripes = new Map[STRIPES];
+    for (int i = 0; i < STRIPES; i++) {
+      stripes[i] = new WeakHashMap<K, WeakReference<V>>();
+    }
+  }
+
+  private Map<K, WeakReference<V>> stripeFor(K key) {
+    int h = key.hashCode();
+    return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+  }
+
+  /**
+   * @return the value interned for @param key, or null if there is none
+   */
+  V get(K key) {
+    Map<K, WeakReference<V>> stripe = stripeFor(key);
+    synchronized (stripe) {
+      WeakReference<V> ref = stripe.get(key);
+      return ref == null ? null : ref.get();
+    }
+  }
+
+  /**
+   * @return the value interned for @param key, interning @param value for it
+   *         if there is none
+   */
+  V intern(K key, V value) {
+    Map<K, WeakReference<V>> stripe = stripeFor(key);
+    synchronized (stripe) {
+      WeakReference<V> ref = stripe.get(key);
+      V old = ref == null ? null : ref.get();
+      if (old != null) return old;
+      stripe.put(key, new WeakReference<V>(value));
+      return value;
+    }
+  }
+
+  /**
+   * @return number of entries, some of which may have just been collected
+   */
+  int size() {
+    int size = 0;
+    for (Map<K, WeakReference<V>> stripe : stripes) {
+      synchronized (stripe) {
+        size += stripe.size();
+      }
+    }
+    return size;
+  }
+}